@@ -0,0 +1,78 @@
+package com.collabnotes.document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebuilding document text with {@link DocumentService#applyOperationToContent}, as a cold
+ * load does when there is no snapshot, over histories of increasing length. The second
+ * benchmark is the per-operation cost of keeping a hot document's state current, which
+ * grows with the size of the text behind the edit point.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentReplayBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int operations;
+
+    private List<Operation> history;
+    private DocumentState hot;
+    private Operation insert;
+    private Operation delete;
+
+    @Setup
+    public void setUp() {
+        history = EditHistory.generate("doc", operations, 4, EditHistory.SEED);
+        String content = replay().toString();
+        hot = new DocumentState(content, operations);
+        insert = edit("INSERT", content.length() / 2, "q");
+        delete = edit("DELETE", content.length() / 2, "q");
+    }
+
+    @Benchmark
+    public StringBuilder replay() {
+        StringBuilder text = new StringBuilder();
+        for (Operation op : history) {
+            DocumentService.applyOperationToContent(text, op);
+        }
+        return text;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public DocumentState applyToHotDocument() {
+        // Insert then delete in the middle, leaving the state as it was for the next call
+        insert.setVersion(hot.getVersion() + 1);
+        hot.apply(insert);
+        delete.setVersion(hot.getVersion() + 1);
+        hot.apply(delete);
+        return hot;
+    }
+
+    private static Operation edit(String type, int position, String text) {
+        Operation op = new Operation();
+        op.setDocumentId("doc");
+        op.setUserId("writer");
+        op.setType(type);
+        op.setPosition(position);
+        op.setText(text);
+        return op;
+    }
+}
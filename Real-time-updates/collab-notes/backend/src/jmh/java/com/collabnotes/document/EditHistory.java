@@ -0,0 +1,72 @@
+package com.collabnotes.document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic editing sessions for the benchmarks: for a given seed the same operations
+ * come out on every run and machine, so results compare against a recorded baseline. Users
+ * type at their own cursor, mostly single characters with the occasional paste, and
+ * backspace about one keystroke in six.
+ */
+public final class EditHistory {
+    public static final long SEED = 0x5EEDL;
+
+    private EditHistory() {
+    }
+
+    /**
+     * {@code count} applied operations by {@code users} users, versioned from 1, that are
+     * valid one after another starting from an empty document.
+     */
+    public static List<Operation> generate(String documentId, int count, int users, long seed) {
+        Random random = new Random(seed);
+        int[] cursors = new int[users];
+        List<Operation> operations = new ArrayList<>(count);
+        int length = 0;
+        for (int version = 1; version <= count; version++) {
+            int user = random.nextInt(users);
+            int cursor = Math.min(cursors[user], length);
+            Operation op = new Operation();
+            op.setDocumentId(documentId);
+            op.setUserId("user-" + user);
+            op.setVersion(version);
+            op.setBaseVersion(version - 1);
+            op.setTimestamp(1_700_000_000_000L + version * 150L);
+            if (cursor > 0 && random.nextInt(6) == 0) {
+                int deleted = Math.min(cursor, 1 + random.nextInt(3));
+                op.setType("DELETE");
+                op.setPosition(cursor - deleted);
+                op.setText("x".repeat(deleted));
+                cursor -= deleted;
+                length -= deleted;
+            } else {
+                String text = random.nextInt(40) == 0 ? text(random, 20 + random.nextInt(200)) : text(random, 1);
+                op.setType("INSERT");
+                op.setPosition(cursor);
+                op.setText(text);
+                cursor += text.length();
+                length += text.length();
+            }
+            // Other users' cursors after the edit point move with it
+            for (int other = 0; other < users; other++) {
+                if (other != user && cursors[other] > op.getPosition()) {
+                    cursors[other] = Math.max(op.getPosition(), cursors[other]
+                            + ("INSERT".equals(op.getType()) ? op.getText().length() : -op.getText().length()));
+                }
+            }
+            cursors[user] = cursor;
+            operations.add(op);
+        }
+        return operations;
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(random.nextInt(7) == 0 ? ' ' : (char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package com.collabnotes.document;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The operation log's hot queries against a large seeded collection, with and without the
+ * compound indexes declared on {@link Operation}. Needs a MongoDB server, by default
+ * mongodb://localhost:27017 (override with -Dbenchmark.mongodb.uri); the seeded collection
+ * lives in its own database and is reused between runs of the same size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OperationLogQueryBenchmark {
+    private static final String DATABASE = "collabnotes_benchmark";
+    private static final String COLLECTION = "operations";
+
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    @Param({"1000000"})
+    public int operations;
+
+    @Param({"200"})
+    public int documents;
+
+    private MongoClient client;
+    private MongoCollection<Document> collection;
+    private int versionsPerDocument;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        client = MongoClients.create(System.getProperty("benchmark.mongodb.uri", "mongodb://localhost:27017"));
+        collection = client.getDatabase(DATABASE).getCollection(COLLECTION);
+        versionsPerDocument = operations / documents;
+        if (collection.countDocuments() != (long) versionsPerDocument * documents) {
+            seed();
+        }
+        collection.dropIndexes();
+        if (indexed) {
+            collection.createIndex(Indexes.ascending("documentId", "version"),
+                    new IndexOptions().name("document_version_unique").unique(true));
+            collection.createIndex(Indexes.ascending("documentId", "applied", "version"),
+                    new IndexOptions().name("document_applied_version"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+    }
+
+    /**
+     * Catching up from a recent base version (transforms, initialization tail).
+     */
+    @Benchmark
+    public void appliedTailAfterVersion(Blackhole blackhole) {
+        Bson filter = Filters.and(Filters.eq("documentId", document()), Filters.eq("applied", true),
+                Filters.gt("version", versionsPerDocument - 100));
+        collection.find(filter).sort(Sorts.ascending("version")).forEach(blackhole::consume);
+    }
+
+    /**
+     * Sequence recovery and initialization ranges.
+     */
+    @Benchmark
+    public Document latestVersion() {
+        return collection.find(Filters.eq("documentId", document()))
+                .sort(Sorts.descending("version"))
+                .projection(Projections.fields(Projections.include("version"), Projections.excludeId()))
+                .limit(1)
+                .first();
+    }
+
+    /**
+     * One INITIALIZATION_CHUNK page from the middle of the history.
+     */
+    @Benchmark
+    public void appliedVersionRangePage(Blackhole blackhole) {
+        int from = ThreadLocalRandom.current().nextInt(Math.max(1, versionsPerDocument - 500));
+        Bson filter = Filters.and(Filters.eq("documentId", document()), Filters.eq("applied", true),
+                Filters.gt("version", from), Filters.lte("version", from + 500));
+        collection.find(filter).sort(Sorts.ascending("version")).forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public long countApplied() {
+        return collection.countDocuments(Filters.and(Filters.eq("documentId", document()), Filters.eq("applied", true)));
+    }
+
+    private String document() {
+        return "doc-" + ThreadLocalRandom.current().nextInt(documents);
+    }
+
+    private void seed() {
+        collection.drop();
+        List<Document> batch = new ArrayList<>(10000);
+        long now = System.currentTimeMillis();
+        // Interleaved across documents, the way concurrent editing writes them
+        for (int version = 1; version <= versionsPerDocument; version++) {
+            for (int doc = 0; doc < documents; doc++) {
+                batch.add(new Document("documentId", "doc-" + doc)
+                        .append("userId", "user-" + (version % 7))
+                        .append("type", version % 5 == 0 ? "DELETE" : "INSERT")
+                        .append("position", version % 1000)
+                        .append("text", "x")
+                        .append("timestamp", now + version)
+                        .append("version", version)
+                        .append("baseVersion", version - 1)
+                        .append("applied", version % 50 != 0));
+                if (batch.size() == 10000) {
+                    collection.insertMany(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            collection.insertMany(batch);
+        }
+    }
+}
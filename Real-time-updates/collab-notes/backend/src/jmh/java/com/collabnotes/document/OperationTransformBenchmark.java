@@ -0,0 +1,67 @@
+package com.collabnotes.document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebasing one client operation over the operations other users had sequenced since the
+ * version it was written against, as {@link DocumentService#processOperation} does for a
+ * client that is {@code concurrentOps} versions behind.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OperationTransformBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int concurrentOps;
+
+    private final OperationTransformer transformer = new OperationTransformer();
+    private List<Operation> appliedSinceBase;
+    private Operation insert;
+    private Operation delete;
+
+    @Setup
+    public void setUp() {
+        appliedSinceBase = EditHistory.generate("doc", concurrentOps, 4, EditHistory.SEED);
+        insert = incoming("INSERT", "q");
+        delete = incoming("DELETE", "qq");
+    }
+
+    @Benchmark
+    public List<Operation> transformInsert() {
+        return transformer.transform(insert, appliedSinceBase);
+    }
+
+    @Benchmark
+    public List<Operation> transformDelete() {
+        return transformer.transform(delete, appliedSinceBase);
+    }
+
+    private static Operation incoming(String type, String text) {
+        // Written at the start of the document, so every earlier edit shifts it
+        Operation op = new Operation();
+        op.setDocumentId("doc");
+        op.setUserId("writer");
+        op.setType(type);
+        op.setPosition(0);
+        op.setText(text);
+        op.setBaseVersion(0);
+        return op;
+    }
+}
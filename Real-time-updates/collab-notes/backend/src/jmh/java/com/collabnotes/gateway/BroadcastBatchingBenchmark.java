@@ -0,0 +1,133 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.Operation;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bursts of operations into a room of readers whose sends cost a fixed time each, with
+ * adaptive batching on and off. Throughput mode reports bursts/s plus the frames/s and
+ * operations/s counters; sample mode gives the delivery latency percentiles of a burst
+ * (submit of the first operation to the last reader receiving the last one).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBatchingBenchmark {
+
+    @Param({"true", "false"})
+    public boolean batching;
+
+    @Param({"16"})
+    public int readers;
+
+    @Param({"64"})
+    public int burst;
+
+    @Param({"100"})
+    public long sendCostMicros;
+
+    private final AtomicLong framesDelivered = new AtomicLong();
+    private final AtomicLong operationsDelivered = new AtomicLong();
+    private RoomRegistry registry;
+    private OperationBatcher batcher;
+    private DocumentRoom room;
+    private int version;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Delivered {
+        public long frames;
+        public long operations;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = new RoomRegistry(100000, ClientConnection.SlowConsumerPolicy.DROP, 4);
+        batcher = new OperationBatcher(batching, 20, 256, 8, 2);
+        for (int i = 0; i < readers; i++) {
+            room = registry.join("doc", registry.connect(session("reader-" + i)), r -> { });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        batcher.shutdown();
+        registry.shutdown();
+    }
+
+    @Benchmark
+    public void burst(Delivered delivered) {
+        long frames = framesDelivered.get();
+        long target = operationsDelivered.get() + (long) burst * readers;
+        for (int i = 0; i < burst; i++) {
+            batcher.submit(room, operation(++version), null);
+        }
+        while (operationsDelivered.get() < target) {
+            Thread.onSpinWait();
+        }
+        delivered.frames += framesDelivered.get() - frames;
+        delivered.operations += burst;
+    }
+
+    private WebSocketSession session(String id) {
+        return (WebSocketSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{WebSocketSession.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return id;
+                        case "isOpen":
+                            return true;
+                        case "sendMessage":
+                            LockSupport.parkNanos(sendCostMicros * 1000);
+                            framesDelivered.incrementAndGet();
+                            operationsDelivered.addAndGet(operationsIn(((TextMessage) args[0]).getPayload()));
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static int operationsIn(String payload) {
+        int count = 0;
+        for (int i = payload.indexOf("\"version\":"); i >= 0; i = payload.indexOf("\"version\":", i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static Operation operation(int version) {
+        Operation op = new Operation();
+        op.setDocumentId("doc");
+        op.setUserId("writer");
+        op.setType("INSERT");
+        op.setPosition(version);
+        op.setText("x");
+        op.setVersion(version);
+        op.setBaseVersion(version - 1);
+        return op;
+    }
+}
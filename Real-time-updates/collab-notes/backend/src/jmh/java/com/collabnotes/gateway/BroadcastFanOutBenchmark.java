@@ -0,0 +1,102 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.Operation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One OPERATIONS frame broadcast to a room of {@code sessions} mock WebSocket sessions whose
+ * sends cost nothing: queueing it on every connection, serializing it (once for JSON, per
+ * connection for binary) and draining the queues, timed until the last session has it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastFanOutBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int sessions;
+
+    @Param({"JSON", "BINARY"})
+    public ClientConnection.Protocol protocol;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private RoomRegistry registry;
+    private DocumentRoom room;
+    private int version;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = new RoomRegistry(1000, ClientConnection.SlowConsumerPolicy.DROP, 4);
+        for (int i = 0; i < sessions; i++) {
+            room = registry.join("doc", registry.connect(session("reader-" + i), protocol), r -> { });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        registry.shutdown();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        long target = delivered.get() + sessions;
+        List<Operation> operations = List.of(operation(++version));
+        room.broadcast(OutboundFrame.of(new JsonProtocol.OperationsBroadcast(operations),
+                out -> BinaryProtocol.writeOperations(out, operations)), null);
+        long received;
+        while ((received = delivered.get()) < target) {
+            Thread.onSpinWait();
+        }
+        return received;
+    }
+
+    private WebSocketSession session(String id) {
+        return (WebSocketSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{WebSocketSession.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return id;
+                        case "isOpen":
+                            return true;
+                        case "sendMessage":
+                            delivered.incrementAndGet();
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static Operation operation(int version) {
+        Operation op = new Operation();
+        op.setDocumentId("doc");
+        op.setUserId("writer");
+        op.setType("INSERT");
+        op.setPosition(version);
+        op.setText("x");
+        op.setVersion(version);
+        op.setBaseVersion(version - 1);
+        return op;
+    }
+}
@@ -0,0 +1,133 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of the JSON hot path: one OPERATION frame in (session lookup, parse,
+ * building the operation) and its OPERATION_ACK out. The legacy benchmarks reproduce the
+ * handler before typed messages: query re-split per message, untyped map parse with hand
+ * casts, the payload log line, and a fresh map envelope serialized per send. Run with the
+ * GC profiler to see the garbage per message in gc.alloc.rate.norm:
+ * <pre>
+ * mvn -Pbenchmarks compile exec:exec -Djmh.args="MessageHandlingBenchmark -prof gc"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageHandlingBenchmark {
+    private static final String PAYLOAD = "{\"type\":\"OPERATION\",\"operation\":{\"type\":\"INSERT\",\"position\":1284,"
+            + "\"text\":\"e\",\"documentId\":\"6410f0c2a7b3e91d\",\"userId\":\"user-1699999999-k3j2h1\","
+            + "\"baseVersion\":48213}}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private WebSocketSession session;
+    private Operation processed;
+
+    @Setup
+    public void setUp() throws Exception {
+        URI uri = new URI("ws://localhost:8080/api/ws?documentId=6410f0c2a7b3e91d"
+                + "&userId=user-1699999999-k3j2h1&username=Ana%20Mar%C3%ADa");
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(SessionContext.ATTRIBUTE, SessionContext.fromUri(uri));
+        session = (WebSocketSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{WebSocketSession.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getUri":
+                            return uri;
+                        case "getAttributes":
+                            return attributes;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        processed = new Operation();
+        processed.setVersion(48214);
+        processed.setPosition(1284);
+    }
+
+    @Benchmark
+    public Operation typedInbound() throws Exception {
+        SessionContext context = SessionContext.of(session);
+        Object message = JsonProtocol.read(PAYLOAD);
+        Operation op = ((JsonProtocol.OperationMessage) message).operation.toOperation();
+        op.setDocumentId(context.getDocumentId());
+        op.setUserId(context.getUserId());
+        return op;
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Operation legacyInbound(Blackhole blackhole) throws Exception {
+        String documentId = extractQueryParam(session, "documentId");
+        String userId = extractQueryParam(session, "userId");
+        // The log line was built for every message; printing it is left out
+        blackhole.consume("Received WebSocket message from user " + userId +
+                " for document " + documentId + ": " + PAYLOAD);
+        Map<String, Object> messageMap = objectMapper.readValue(PAYLOAD, Map.class);
+        if (!"OPERATION".equals(messageMap.get("type"))) {
+            return null;
+        }
+        Map<String, Object> opData = (Map<String, Object>) messageMap.get("operation");
+        Operation op = new Operation();
+        op.setType((String) opData.get("type"));
+        op.setPosition(((Number) opData.get("position")).intValue());
+        op.setText((String) opData.get("text"));
+        if (opData.get("baseVersion") instanceof Number) {
+            op.setBaseVersion(((Number) opData.get("baseVersion")).intValue());
+        }
+        op.setDocumentId(documentId);
+        op.setUserId(userId);
+        return op;
+    }
+
+    @Benchmark
+    public String typedAck() throws Exception {
+        return OutboundFrame.of(new JsonProtocol.OperationAck(processed)).toText().getPayload();
+    }
+
+    @Benchmark
+    public String legacyAck() throws Exception {
+        Map<String, Object> ack = new HashMap<>();
+        ack.put("type", "OPERATION_ACK");
+        ack.put("version", processed.getVersion());
+        ack.put("position", processed.getPosition());
+        ack.put("applied", processed.isApplied());
+        return objectMapper.writeValueAsString(ack);
+    }
+
+    private static String extractQueryParam(WebSocketSession session, String paramName) {
+        String query = session.getUri().getQuery();
+        if (query != null) {
+            String[] params = query.split("&");
+            for (String param : params) {
+                if (param.startsWith(paramName + "=")) {
+                    return param.substring(paramName.length() + 1);
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,83 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.EditHistory;
+import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON encoding of a single {@link Operation} (the OPERATION broadcast, and reading one back
+ * as the bus and forwarder do) and of an INITIALIZATION_CHUNK envelope of
+ * {@code chunkSize} operations, built the way {@link InitializationStreamer} builds it.
+ * Add {@code -prof gc} for the allocation per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OperationSerializationBenchmark {
+
+    @Param({"100", "1000"})
+    public int chunkSize;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<Operation> operations;
+    private Operation operation;
+    private String operationJson;
+    private String chunkJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        operations = EditHistory.generate("6410f0c2a7b3e91d", chunkSize, 4, EditHistory.SEED);
+        for (Operation op : operations) {
+            op.setId(Integer.toHexString(op.getVersion()));
+        }
+        operation = operations.get(operations.size() - 1);
+        operationJson = objectMapper.writeValueAsString(operation);
+        chunkJson = writeInitializationChunk();
+    }
+
+    @Benchmark
+    public String writeOperation() throws Exception {
+        return JsonProtocol.write(new JsonProtocol.OperationBroadcast(operation));
+    }
+
+    @Benchmark
+    public Operation readOperation() throws Exception {
+        return objectMapper.readValue(operationJson, Operation.class);
+    }
+
+    @Benchmark
+    public String writeInitializationChunk() throws Exception {
+        Map<String, Object> chunk = new HashMap<>();
+        chunk.put("type", "INITIALIZATION_CHUNK");
+        chunk.put("documentId", operation.getDocumentId());
+        chunk.put("index", 0);
+        chunk.put("operations", operations);
+        return OutboundFrame.of(chunk).toText().getPayload();
+    }
+
+    @Benchmark
+    public JsonNode readInitializationChunk() throws Exception {
+        // What a client does with the frame, for the size of the payload it has to parse
+        return objectMapper.readTree(chunkJson);
+    }
+}
@@ -0,0 +1,69 @@
+package com.collabnotes.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent log-linear histogram of latencies in microseconds: exact below 128µs, then 64
+ * buckets per power of two (within about 1.6%), up to roughly 9.5 hours.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64;
+    private static final int MAX_SHIFT = 34;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * (MAX_SHIFT + 2));
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Upper bound of the bucket holding the given quantile, or 0 if nothing was recorded.
+     */
+    long percentile(double quantile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Math.min(63 - Long.numberOfLeadingZeros(value) - 6, MAX_SHIFT);
+        long mantissa = Math.min(value >>> shift, 2 * SUB_BUCKETS - 1);
+        return SUB_BUCKETS * shift + (int) mantissa;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index - (long) SUB_BUCKETS * shift;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
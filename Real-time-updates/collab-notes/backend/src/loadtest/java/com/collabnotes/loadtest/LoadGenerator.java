@@ -0,0 +1,224 @@
+package com.collabnotes.loadtest;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opens many simulated editors against the WebSocket endpoint and reports throughput and
+ * the latency of acks (send to OPERATION_ACK on the sender) and deliveries (send to the
+ * operation reaching another editor of the document). Editors are spread over a few hot
+ * documents shared by many of them and many cold ones; assignment and typing positions
+ * come from a seed, so runs with the same options send the same workload. Best run against
+ * a server started with the inmemory profile:
+ * <pre>
+ * mvn spring-boot:run -Dspring-boot.run.profiles=inmemory
+ * mvn -Ploadtest compile exec:exec -Dloadtest.args="--clients=2000 --op-rate=2 --duration=60"
+ * </pre>
+ * Options, with their defaults: --url=ws://localhost:8081/api/ws --clients=1000
+ * --documents=200 --hot-documents=5 --hot-fraction=0.5 --op-rate=2 (operations per second
+ * per client) --cursor-rate=1 --connect-rate=200 (connections opened per second)
+ * --warmup=10 --duration=60 (seconds, latencies are only recorded after the warmup)
+ * --report-interval=5 --seed=1 --document-prefix=load-&lt;start time&gt;.
+ */
+public final class LoadGenerator {
+
+    static final class Stats {
+        final LongAdder connected = new LongAdder();
+        final LongAdder disconnected = new LongAdder();
+        final LongAdder operationsSent = new LongAdder();
+        final LongAdder cursorsSent = new LongAdder();
+        final LongAdder acks = new LongAdder();
+        final LongAdder deliveries = new LongAdder();
+        final LongAdder framesReceived = new LongAdder();
+        final LongAdder cursorFramesReceived = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LatencyHistogram ackLatency = new LatencyHistogram();
+        final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+        private final long startNanos = System.nanoTime();
+        private volatile boolean recording;
+
+        /**
+         * Microseconds since the generator started.
+         */
+        long now() {
+            return (System.nanoTime() - startNanos) / 1000;
+        }
+
+        void recordAck(long micros) {
+            if (recording) {
+                ackLatency.record(micros);
+            }
+        }
+
+        void recordDelivery(long micros) {
+            if (recording) {
+                deliveryLatency.record(micros);
+            }
+        }
+    }
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        String url = options.getOrDefault("url", "ws://localhost:8081/api/ws");
+        int clients = Integer.parseInt(options.getOrDefault("clients", "1000"));
+        int documents = Integer.parseInt(options.getOrDefault("documents", "200"));
+        int hotDocuments = Math.min(documents, Integer.parseInt(options.getOrDefault("hot-documents", "5")));
+        double hotFraction = Double.parseDouble(options.getOrDefault("hot-fraction", "0.5"));
+        double opRate = Double.parseDouble(options.getOrDefault("op-rate", "2"));
+        double cursorRate = Double.parseDouble(options.getOrDefault("cursor-rate", "1"));
+        int connectRate = Integer.parseInt(options.getOrDefault("connect-rate", "200"));
+        int warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int reportSeconds = Integer.parseInt(options.getOrDefault("report-interval", "5"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        String prefix = options.getOrDefault("document-prefix",
+                "load-" + Long.toString(System.currentTimeMillis(), 36));
+
+        System.out.printf("%d clients on %d documents (%d hot, %.0f%% of clients), %.1f ops/s and %.1f cursors/s each%n",
+                clients, documents, hotDocuments, hotFraction * 100, opRate, cursorRate);
+
+        Stats stats = new Stats();
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+        Random random = new Random(seed);
+        List<SimulatedClient> simulated = new ArrayList<>(clients);
+
+        for (int i = 0; i < clients; i++) {
+            String documentId = hotDocuments > 0 && (random.nextDouble() < hotFraction || hotDocuments == documents)
+                    ? prefix + "-hot-" + random.nextInt(hotDocuments)
+                    : prefix + "-cold-" + random.nextInt(documents - hotDocuments);
+            SimulatedClient client = new SimulatedClient(documentId, "load-user-" + i, stats, random.nextLong());
+            simulated.add(client);
+
+            long connectAt = TimeUnit.SECONDS.toMicros(i) / connectRate;
+            scheduler.schedule(() -> client.connect(http, url).exceptionally(e -> {
+                stats.errors.increment();
+                return null;
+            }), connectAt, TimeUnit.MICROSECONDS);
+            schedule(scheduler, client::sendOperation, opRate, connectAt, random);
+            schedule(scheduler, client::sendCursor, cursorRate, connectAt, random);
+        }
+
+        long rampSeconds = (clients + connectRate - 1) / connectRate;
+        long measureFrom = rampSeconds + warmupSeconds;
+        long end = measureFrom + durationSeconds;
+        Snapshot previous = new Snapshot(stats);
+        long measuredStart = 0;
+        Snapshot atMeasureStart = null;
+        for (long elapsed = 0; elapsed < end; ) {
+            // Report intervals are cut short at the end of the warmup, where recording starts
+            long step = Math.min(reportSeconds, (atMeasureStart == null ? measureFrom : end) - elapsed);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(step));
+            elapsed += step;
+            Snapshot current = new Snapshot(stats);
+            report(elapsed, current, previous, step, stats);
+            previous = current;
+            if (atMeasureStart == null && elapsed >= measureFrom) {
+                atMeasureStart = current;
+                measuredStart = System.nanoTime();
+                stats.recording = true;
+                System.out.println("-- warmup done, recording latencies --");
+            }
+        }
+        stats.recording = false;
+        double measured = (System.nanoTime() - measuredStart) / 1e9;
+
+        scheduler.shutdownNow();
+        simulated.forEach(SimulatedClient::close);
+        summary(stats, atMeasureStart, new Snapshot(stats), measured);
+        System.exit(0);
+    }
+
+    private static void schedule(ScheduledExecutorService scheduler, Runnable task, double perSecond,
+                                 long afterMicros, Random random) {
+        if (perSecond <= 0) {
+            return;
+        }
+        long periodMicros = (long) (1_000_000 / perSecond);
+        // Random phase, so clients connected together do not type in lockstep
+        long initialDelay = afterMicros + TimeUnit.SECONDS.toMicros(1) + (long) (random.nextDouble() * periodMicros);
+        scheduler.scheduleAtFixedRate(task, initialDelay, periodMicros, TimeUnit.MICROSECONDS);
+    }
+
+    private static final class Snapshot {
+        final long operationsSent;
+        final long acks;
+        final long deliveries;
+        final long cursorsSent;
+        final long framesReceived;
+
+        Snapshot(Stats stats) {
+            operationsSent = stats.operationsSent.sum();
+            acks = stats.acks.sum();
+            deliveries = stats.deliveries.sum();
+            cursorsSent = stats.cursorsSent.sum();
+            framesReceived = stats.framesReceived.sum();
+        }
+    }
+
+    private static void report(long elapsed, Snapshot current, Snapshot previous, long seconds, Stats stats) {
+        System.out.printf("%4ds  connected %d (lost %d)  ops/s %.0f  acks/s %.0f  deliveries/s %.0f  cursors/s %.0f"
+                        + "  frames/s %.0f  skipped %d  errors %d%n",
+                elapsed, stats.connected.sum(), stats.disconnected.sum(),
+                rate(current.operationsSent - previous.operationsSent, seconds),
+                rate(current.acks - previous.acks, seconds),
+                rate(current.deliveries - previous.deliveries, seconds),
+                rate(current.cursorsSent - previous.cursorsSent, seconds),
+                rate(current.framesReceived - previous.framesReceived, seconds),
+                stats.skipped.sum(), stats.errors.sum());
+    }
+
+    private static void summary(Stats stats, Snapshot start, Snapshot end, double seconds) {
+        System.out.println();
+        System.out.printf("Measured %.1fs: %.0f ops/s sent, %.0f acks/s, %.0f deliveries/s, %.0f frames/s received%n",
+                seconds,
+                (end.operationsSent - start.operationsSent) / seconds,
+                (end.acks - start.acks) / seconds,
+                (end.deliveries - start.deliveries) / seconds,
+                (end.framesReceived - start.framesReceived) / seconds);
+        System.out.printf("Connected %d, lost %d, skipped sends %d, errors %d%n",
+                stats.connected.sum(), stats.disconnected.sum(), stats.skipped.sum(), stats.errors.sum());
+        latency("ack", stats.ackLatency);
+        latency("delivery", stats.deliveryLatency);
+    }
+
+    private static void latency(String name, LatencyHistogram histogram) {
+        System.out.printf("%-9s latency (ms) n=%d  p50 %.2f  p99 %.2f  p999 %.2f  max %.2f%n",
+                name, histogram.count(),
+                histogram.percentile(0.50) / 1000.0,
+                histogram.percentile(0.99) / 1000.0,
+                histogram.percentile(0.999) / 1000.0,
+                histogram.max() / 1000.0);
+    }
+
+    private static double rate(long count, long seconds) {
+        return count / (double) seconds;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            int equals = arg.indexOf('=');
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,275 @@
+package com.collabnotes.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One editor on one document. Once its initialization stream completes it types at a random
+ * point of the text it knows about and reports its cursor, when the generator ticks it.
+ * Every inserted text is a timestamp token, {@code ~<micros since start, base 36>~}, so a
+ * receiver can time delivery from the operation alone, also after the server has coalesced
+ * several of them into one; acks are matched to sends in order.
+ */
+final class SimulatedClient implements WebSocket.Listener {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final char TOKEN = '~';
+    private static final int MAX_OUTSTANDING_SENDS = 64;
+
+    private final String documentId;
+    private final String userId;
+    private final LoadGenerator.Stats stats;
+    private final Random random;
+    private final StringBuilder partial = new StringBuilder();
+    private final Queue<Long> awaitingAck = new ArrayDeque<>();
+    private final AtomicInteger outstandingSends = new AtomicInteger();
+
+    private volatile WebSocket socket;
+    private volatile boolean ready;
+    private volatile boolean closed;
+    private CompletableFuture<?> sending = CompletableFuture.completedFuture(null);
+    private int version;
+    private int length;
+    private int cursor;
+
+    SimulatedClient(String documentId, String userId, LoadGenerator.Stats stats, long seed) {
+        this.documentId = documentId;
+        this.userId = userId;
+        this.stats = stats;
+        this.random = new Random(seed);
+    }
+
+    CompletableFuture<WebSocket> connect(HttpClient client, String baseUrl) {
+        URI uri = URI.create(baseUrl + "?documentId=" + encode(documentId) + "&userId=" + encode(userId)
+                + "&username=" + encode(userId));
+        return client.newWebSocketBuilder().buildAsync(uri, this);
+    }
+
+    void sendOperation() {
+        if (!ready) {
+            return;
+        }
+        long sentAt = stats.now();
+        String text = TOKEN + Long.toString(sentAt, 36) + TOKEN;
+        int position;
+        int baseVersion;
+        synchronized (this) {
+            position = random.nextInt(length + 1);
+            baseVersion = version;
+            // Broadcasts skip the sender, so count our own text now
+            length += text.length();
+        }
+        String message = "{\"type\":\"OPERATION\",\"operation\":{\"type\":\"INSERT\",\"position\":" + position
+                + ",\"text\":\"" + text + "\",\"baseVersion\":" + baseVersion + "}}";
+        if (send(message, () -> {
+            synchronized (awaitingAck) {
+                awaitingAck.add(sentAt);
+            }
+        })) {
+            stats.operationsSent.increment();
+        }
+    }
+
+    void sendCursor() {
+        if (!ready) {
+            return;
+        }
+        int position;
+        synchronized (this) {
+            cursor = Math.max(0, Math.min(length, cursor + random.nextInt(21) - 10));
+            position = cursor;
+        }
+        String message = "{\"type\":\"CURSOR_POSITION\",\"documentId\":\"" + documentId + "\",\"username\":\""
+                + userId + "\",\"position\":" + position + "}";
+        if (send(message, () -> { })) {
+            stats.cursorsSent.increment();
+        }
+    }
+
+    void close() {
+        closed = true;
+        WebSocket current = socket;
+        if (current != null) {
+            current.sendClose(WebSocket.NORMAL_CLOSURE, "done").orTimeout(5, TimeUnit.SECONDS)
+                    .exceptionally(e -> {
+                        current.abort();
+                        return null;
+                    });
+        }
+    }
+
+    /**
+     * Queues a text frame behind the ones still being written, as the JDK client allows one
+     * outstanding send at a time. A client that falls too far behind skips messages rather
+     * than buffer without bound; those are counted, not timed.
+     */
+    private synchronized boolean send(String message, Runnable beforeSend) {
+        WebSocket current = socket;
+        if (current == null || closed) {
+            return false;
+        }
+        if (outstandingSends.get() >= MAX_OUTSTANDING_SENDS) {
+            stats.skipped.increment();
+            return false;
+        }
+        outstandingSends.incrementAndGet();
+        sending = sending.thenCompose(previous -> {
+            beforeSend.run();
+            return current.sendText(message, true);
+        }).handle((result, error) -> {
+            outstandingSends.decrementAndGet();
+            if (error != null) {
+                stats.errors.increment();
+            }
+            return null;
+        });
+        return true;
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        socket = webSocket;
+        webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        partial.append(data);
+        if (last) {
+            String frame = partial.toString();
+            partial.setLength(0);
+            try {
+                handle(objectMapper.readTree(frame));
+            } catch (Exception e) {
+                stats.errors.increment();
+            }
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        if (!closed) {
+            stats.disconnected.increment();
+        }
+        ready = false;
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        if (!closed) {
+            stats.disconnected.increment();
+        }
+        ready = false;
+    }
+
+    private void handle(JsonNode frame) {
+        stats.framesReceived.increment();
+        switch (frame.path("type").asText()) {
+            case "INITIALIZATION_START":
+                synchronized (this) {
+                    JsonNode snapshot = frame.path("snapshot");
+                    length = snapshot.path("content").asText("").length();
+                    version = frame.path("fromVersion").asInt();
+                }
+                break;
+            case "INITIALIZATION_CHUNK":
+                for (JsonNode operation : frame.path("operations")) {
+                    applied(operation);
+                }
+                break;
+            case "INITIALIZATION_COMPLETE":
+                synchronized (this) {
+                    version = Math.max(version, frame.path("version").asInt());
+                }
+                if (!ready) {
+                    ready = true;
+                    stats.connected.increment();
+                }
+                break;
+            case "OPERATION":
+                delivered(frame.path("operation"));
+                break;
+            case "OPERATIONS":
+                for (JsonNode operation : frame.path("operations")) {
+                    delivered(operation);
+                }
+                break;
+            case "OPERATION_ACK":
+                acknowledged(frame);
+                break;
+            case "CURSORS":
+                stats.cursorFramesReceived.increment();
+                break;
+            case "ERROR":
+                // Sent instead of the ack of a failed operation
+                synchronized (awaitingAck) {
+                    awaitingAck.poll();
+                }
+                stats.errors.increment();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void acknowledged(JsonNode ack) {
+        Long sentAt;
+        synchronized (awaitingAck) {
+            sentAt = awaitingAck.poll();
+        }
+        synchronized (this) {
+            version = Math.max(version, ack.path("version").asInt());
+        }
+        stats.acks.increment();
+        if (sentAt != null) {
+            stats.recordAck(stats.now() - sentAt);
+        }
+    }
+
+    private void delivered(JsonNode operation) {
+        long now = stats.now();
+        applied(operation);
+        stats.deliveries.increment();
+        String text = operation.path("text").asText("");
+        for (int start = text.indexOf(TOKEN); start >= 0; ) {
+            int end = text.indexOf(TOKEN, start + 1);
+            if (end < 0) {
+                break;
+            }
+            try {
+                stats.recordDelivery(now - Long.parseLong(text.substring(start + 1, end), 36));
+            } catch (NumberFormatException e) {
+                // Not one of ours
+            }
+            start = text.indexOf(TOKEN, end + 1);
+        }
+    }
+
+    private synchronized void applied(JsonNode operation) {
+        version = Math.max(version, operation.path("version").asInt());
+        if (!operation.path("applied").asBoolean(true)) {
+            return;
+        }
+        int size = operation.path("text").asText("").length();
+        length = Math.max(0, length + ("DELETE".equals(operation.path("type").asText()) ? -size : size));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,20 @@
+package com.collabnotes.bus;
+
+import com.collabnotes.zookeeper.ZookeeperService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Selects the operation bus with {@code collaboration.bus.type}: {@code zookeeper} (default)
+ * fans out across nodes, {@code loopback} keeps everything in this process.
+ */
+@Configuration
+public class BusConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "collaboration.bus.type", havingValue = "loopback")
+    public OperationBus loopbackOperationBus(ZookeeperService zookeeperService) {
+        return new LoopbackOperationBus(new LoopbackOperationBus.Hub(), zookeeperService.getNodeId());
+    }
+}
@@ -0,0 +1,51 @@
+package com.collabnotes.bus;
+
+import com.collabnotes.document.Operation;
+
+/**
+ * An operation accepted by some node, on its way to the sessions of every node.
+ */
+public class BusMessage {
+    private final String originNodeId;
+    private final String originSessionId;
+    private final Operation operation;
+    private final long publishedAt;
+
+    public BusMessage(String originNodeId, String originSessionId, Operation operation) {
+        this(originNodeId, originSessionId, operation, System.currentTimeMillis());
+    }
+
+    public BusMessage(String originNodeId, String originSessionId, Operation operation, long publishedAt) {
+        this.originNodeId = originNodeId;
+        this.originSessionId = originSessionId;
+        this.operation = operation;
+        this.publishedAt = publishedAt;
+    }
+
+    public String getDocumentId() {
+        return operation.getDocumentId();
+    }
+
+    /**
+     * Node that sequenced and published the operation.
+     */
+    public String getOriginNodeId() {
+        return originNodeId;
+    }
+
+    /**
+     * Session that sent the operation, which may be connected to a different node than the
+     * one that published it when the operation was forwarded. Session ids are unique across nodes.
+     */
+    public String getOriginSessionId() {
+        return originSessionId;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public long getPublishedAt() {
+        return publishedAt;
+    }
+}
@@ -0,0 +1,43 @@
+package com.collabnotes.bus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publish and delivery counters for an {@link OperationBus}. Delivery latency is measured
+ * from publish to hand-off to the subscriber, independent of persistence.
+ */
+public class BusStats {
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder deliveryLatencyMillis = new LongAdder();
+    private final AtomicLong maxDeliveryLatencyMillis = new AtomicLong();
+
+    public void recordPublish() {
+        published.increment();
+    }
+
+    public void recordDelivery(long publishedAt) {
+        long latency = Math.max(0, System.currentTimeMillis() - publishedAt);
+        delivered.increment();
+        deliveryLatencyMillis.add(latency);
+        maxDeliveryLatencyMillis.accumulateAndGet(latency, Math::max);
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public double getMeanDeliveryLatencyMillis() {
+        long count = delivered.sum();
+        return count == 0 ? 0 : (double) deliveryLatencyMillis.sum() / count;
+    }
+
+    public long getMaxDeliveryLatencyMillis() {
+        return maxDeliveryLatencyMillis.get();
+    }
+}
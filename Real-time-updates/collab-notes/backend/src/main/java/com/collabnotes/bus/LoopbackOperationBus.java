@@ -0,0 +1,72 @@
+package com.collabnotes.bus;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process bus. Every node attached to the same {@link Hub} sees every message, delivered
+ * synchronously on the publishing thread, so per-document order is the publish order.
+ * Used for single-node deployments and to run several nodes inside one test JVM.
+ */
+public class LoopbackOperationBus implements OperationBus {
+
+    /**
+     * The shared medium; one per simulated cluster.
+     */
+    public static class Hub {
+        private final Map<String, List<Consumer<BusMessage>>> listeners = new ConcurrentHashMap<>();
+
+        void deliver(BusMessage message) {
+            List<Consumer<BusMessage>> documentListeners = listeners.get(message.getDocumentId());
+            if (documentListeners != null) {
+                for (Consumer<BusMessage> listener : documentListeners) {
+                    listener.accept(message);
+                }
+            }
+        }
+
+        Subscription add(String documentId, Consumer<BusMessage> listener) {
+            listeners.computeIfAbsent(documentId, k -> new CopyOnWriteArrayList<>()).add(listener);
+            return () -> listeners.computeIfPresent(documentId, (id, list) -> {
+                list.remove(listener);
+                return list.isEmpty() ? null : list;
+            });
+        }
+    }
+
+    private final Hub hub;
+    private final String nodeId;
+    private final BusStats stats = new BusStats();
+
+    public LoopbackOperationBus(Hub hub, String nodeId) {
+        this.hub = hub;
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void publish(BusMessage message) {
+        stats.recordPublish();
+        hub.deliver(message);
+    }
+
+    @Override
+    public Subscription subscribe(String documentId, Consumer<BusMessage> listener) {
+        return hub.add(documentId, message -> {
+            stats.recordDelivery(message.getPublishedAt());
+            listener.accept(message);
+        });
+    }
+
+    @Override
+    public BusStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,32 @@
+package com.collabnotes.bus;
+
+import java.util.function.Consumer;
+
+/**
+ * Fans accepted operations out to every backend node. Subscribers of a document receive
+ * its messages in publish order, including messages published by their own node.
+ */
+public interface OperationBus {
+
+    interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+
+        /**
+         * Where the subscriber's copy of the document starts, e.g. the latest version of the
+         * first initialization read after subscribing. A bus that delivers other nodes'
+         * messages asynchronously holds them back until then, and from then on delivers every
+         * operation after that version; later calls have no effect.
+         */
+        default void startAfter(int version) {
+        }
+    }
+
+    String getNodeId();
+
+    void publish(BusMessage message);
+
+    Subscription subscribe(String documentId, Consumer<BusMessage> listener);
+
+    BusStats getStats();
+}
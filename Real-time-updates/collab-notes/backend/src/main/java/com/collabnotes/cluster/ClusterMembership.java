@@ -0,0 +1,168 @@
+package com.collabnotes.cluster;
+
+import com.collabnotes.zookeeper.ZookeeperService;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
+import org.apache.zookeeper.CreateMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Live backend nodes, from ephemeral znodes under {@code /collab/members}, and the
+ * consistent-hash ring that assigns every document to one of them. Each member's znode
+ * holds the base URL other nodes use to forward operations to it.
+ */
+@Component
+public class ClusterMembership {
+    private static final Logger log = LoggerFactory.getLogger(ClusterMembership.class);
+
+    static final String MEMBERS_PATH = "/collab/members";
+
+    private final CuratorFramework curatorFramework;
+    private final String nodeId;
+    private final String advertisedUrl;
+    private final int virtualNodes;
+    private final boolean enabled;
+
+    private final List<BiConsumer<ConsistentHashRing, ConsistentHashRing>> listeners = new CopyOnWriteArrayList<>();
+    private volatile ConsistentHashRing ring;
+    private volatile Map<String, String> memberUrls = Collections.emptyMap();
+    private PersistentNode registration;
+    private CuratorCache cache;
+
+    @Autowired
+    public ClusterMembership(@Nullable CuratorFramework curatorFramework,
+                             ZookeeperService zookeeperService,
+                             @Value("${collaboration.cluster.enabled:true}") boolean enabled,
+                             @Value("${collaboration.cluster.advertised-url:}") String advertisedUrl,
+                             @Value("${server.port:8081}") int port,
+                             @Value("${server.servlet.context-path:}") String contextPath,
+                             @Value("${collaboration.cluster.virtual-nodes:128}") int virtualNodes) {
+        this(curatorFramework, zookeeperService.getNodeId(),
+                advertisedUrl.isEmpty() ? "http://" + hostName() + ":" + port + contextPath : advertisedUrl,
+                virtualNodes, enabled);
+    }
+
+    public ClusterMembership(CuratorFramework curatorFramework, String nodeId, String advertisedUrl,
+                             int virtualNodes, boolean enabled) {
+        this.curatorFramework = curatorFramework;
+        this.nodeId = nodeId;
+        this.advertisedUrl = advertisedUrl;
+        this.virtualNodes = virtualNodes;
+        this.enabled = enabled;
+        // Until membership is known this node owns everything, as a single instance would
+        this.ring = new ConsistentHashRing(Collections.singleton(nodeId), virtualNodes);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("Cluster routing disabled; node {} owns every document", nodeId);
+            return;
+        }
+        // Re-created automatically if the session expires
+        registration = new PersistentNode(curatorFramework, CreateMode.EPHEMERAL, false,
+                MEMBERS_PATH + "/" + nodeId, advertisedUrl.getBytes(StandardCharsets.UTF_8));
+        registration.start();
+
+        cache = CuratorCache.build(curatorFramework, MEMBERS_PATH);
+        cache.listenable().addListener(CuratorCacheListener.builder()
+                .forAll((type, oldData, data) -> refresh())
+                .forInitialized(this::refresh)
+                .build());
+        cache.start();
+        log.info("Cluster: node {} joining at {}", nodeId, advertisedUrl);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    public String ownerOf(String documentId) {
+        return ring.ownerOf(documentId);
+    }
+
+    public boolean isLocal(String documentId) {
+        return nodeId.equals(ownerOf(documentId));
+    }
+
+    /**
+     * Base URL a member advertised, or null if it is not (or no longer) a member.
+     */
+    public String urlOf(String memberId) {
+        return memberUrls.get(memberId);
+    }
+
+    /**
+     * Called with the previous and the new ring whenever the member set changes.
+     */
+    public void addListener(BiConsumer<ConsistentHashRing, ConsistentHashRing> listener) {
+        listeners.add(listener);
+    }
+
+    private synchronized void refresh() {
+        Map<String, String> urls = new HashMap<>();
+        cache.stream()
+                .filter(data -> data.getPath().startsWith(MEMBERS_PATH + "/"))
+                .forEach(data -> urls.put(memberId(data), new String(data.getData(), StandardCharsets.UTF_8)));
+        memberUrls = urls;
+        if (urls.isEmpty() || urls.keySet().equals(ring.getMembers())) {
+            return;
+        }
+        ConsistentHashRing previous = ring;
+        ring = new ConsistentHashRing(urls.keySet(), virtualNodes);
+        log.info("Cluster: members changed from {} to {}", previous.getMembers(), ring.getMembers());
+        for (BiConsumer<ConsistentHashRing, ConsistentHashRing> listener : listeners) {
+            try {
+                listener.accept(previous, ring);
+            } catch (RuntimeException e) {
+                log.error("Cluster: membership listener failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private static String memberId(ChildData data) {
+        return data.getPath().substring(MEMBERS_PATH.length() + 1);
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "localhost";
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (cache != null) {
+            cache.close();
+        }
+        if (registration != null) {
+            registration.close();
+        }
+    }
+}
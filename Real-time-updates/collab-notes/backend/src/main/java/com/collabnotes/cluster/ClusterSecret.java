@@ -0,0 +1,48 @@
+package com.collabnotes.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Secret shared by the members of a cluster. Nodes send it with every request to another
+ * node's {@code /internal} endpoints, and those endpoints serve only requests that carry it,
+ * so a client that can reach the public port cannot inject operations or read past the
+ * gateway's checks. Without a secret configured the internal endpoints refuse everything.
+ */
+@Component
+public class ClusterSecret {
+    private static final Logger log = LoggerFactory.getLogger(ClusterSecret.class);
+
+    public static final String HEADER = "X-Cluster-Secret";
+
+    private final String secret;
+
+    public ClusterSecret(@Value("${collaboration.cluster.internal-secret:}") String secret,
+                         @Value("${collaboration.cluster.enabled:true}") boolean clusterEnabled) {
+        this.secret = secret;
+        if (secret.isEmpty() && clusterEnabled) {
+            log.warn("collaboration.cluster.internal-secret is not set; this node will refuse operations "
+                    + "and reads forwarded by other nodes");
+        }
+    }
+
+    /**
+     * The value to send in {@link #HEADER}, or null when none is configured.
+     */
+    public String value() {
+        return secret.isEmpty() ? null : secret;
+    }
+
+    public boolean admits(String presented) {
+        if (secret.isEmpty() || presented == null) {
+            return false;
+        }
+        // Constant time, so the secret cannot be guessed a character at a time
+        return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+    }
+}
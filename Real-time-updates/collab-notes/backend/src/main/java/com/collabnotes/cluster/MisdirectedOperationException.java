@@ -0,0 +1,11 @@
+package com.collabnotes.cluster;
+
+/**
+ * An operation reached a node that does not own its document, usually because membership
+ * changed while it was in flight. The operation was not processed and can be re-routed.
+ */
+public class MisdirectedOperationException extends RuntimeException {
+    public MisdirectedOperationException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,133 @@
+package com.collabnotes.cluster;
+
+import com.collabnotes.document.DocumentSnapshot;
+import com.collabnotes.document.HistoryUnavailableException;
+import com.collabnotes.document.InitializationRange;
+import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends an operation to the node that owns its document and returns the operation as that
+ * node sequenced it, and reads from the owner what only it can answer completely.
+ */
+@Component
+public class OperationForwarder {
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private ClusterSecret clusterSecret;
+
+    @Value("${collaboration.cluster.forward-timeout-ms:2000}")
+    private long forwardTimeoutMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(2))
+            .build();
+
+    public CompletableFuture<Operation> forward(String ownerNodeId, Operation operation, String originSessionId) {
+        String baseUrl = membership.urlOf(ownerNodeId);
+        if (baseUrl == null) {
+            return CompletableFuture.failedFuture(
+                    new MisdirectedOperationException("Node " + ownerNodeId + " is no longer a member"));
+        }
+        HttpRequest request;
+        try {
+            String query = originSessionId != null
+                    ? "?originSessionId=" + URLEncoder.encode(originSessionId, StandardCharsets.UTF_8) : "";
+            request = authenticated(HttpRequest.newBuilder(URI.create(baseUrl + "/internal/operations" + query)))
+                    .timeout(Duration.ofMillis(forwardTimeoutMs))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(operation)))
+                    .build();
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return send(ownerNodeId, operation.getDocumentId(), request, new TypeReference<Operation>() { });
+    }
+
+    public CompletableFuture<InitializationRange> fetchInitializationRange(String ownerNodeId, String documentId) {
+        return get(ownerNodeId, documentId, "/initialization-range", new TypeReference<InitializationRange>() { });
+    }
+
+    public CompletableFuture<List<Operation>> fetchAppliedOperations(String ownerNodeId, String documentId,
+                                                                     int afterVersion, int upToVersion) {
+        return get(ownerNodeId, documentId, "/operations?after=" + afterVersion + "&upTo=" + upToVersion,
+                new TypeReference<List<Operation>>() { });
+    }
+
+    public CompletableFuture<Integer> fetchDocumentVersion(String ownerNodeId, String documentId) {
+        return get(ownerNodeId, documentId, "/version", new TypeReference<Integer>() { });
+    }
+
+    public CompletableFuture<DocumentSnapshot> fetchDocumentContent(String ownerNodeId, String documentId, Integer version) {
+        return get(ownerNodeId, documentId, "/content" + (version != null ? "?version=" + version : ""),
+                new TypeReference<DocumentSnapshot>() { });
+    }
+
+    private <T> CompletableFuture<T> get(String ownerNodeId, String documentId, String path, TypeReference<T> type) {
+        String baseUrl = membership.urlOf(ownerNodeId);
+        if (baseUrl == null) {
+            return CompletableFuture.failedFuture(
+                    new MisdirectedOperationException("Node " + ownerNodeId + " is no longer a member"));
+        }
+        HttpRequest request = authenticated(HttpRequest.newBuilder(URI.create(baseUrl + "/internal/documents/"
+                        + URLEncoder.encode(documentId, StandardCharsets.UTF_8) + path)))
+                .timeout(Duration.ofMillis(forwardTimeoutMs))
+                .GET()
+                .build();
+        return send(ownerNodeId, documentId, request, type);
+    }
+
+    private HttpRequest.Builder authenticated(HttpRequest.Builder request) {
+        String secret = clusterSecret.value();
+        return secret != null ? request.header(ClusterSecret.HEADER, secret) : request;
+    }
+
+    private <T> CompletableFuture<T> send(String ownerNodeId, String documentId, HttpRequest request,
+                                          TypeReference<T> type) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            if (response.statusCode() == 409) {
+                throw new MisdirectedOperationException("Node " + ownerNodeId + " does not own document " + documentId);
+            }
+            // The owner's answers about versions, as DocumentService gives them
+            if (response.statusCode() == 404) {
+                throw new IllegalArgumentException("Owner " + ownerNodeId + " has no such version of document " + documentId);
+            }
+            if (response.statusCode() == 410) {
+                throw new HistoryUnavailableException("Owner " + ownerNodeId + " no longer has the history of document " + documentId);
+            }
+            if (response.statusCode() == 403) {
+                throw new IllegalStateException("Owner " + ownerNodeId + " refused this node's cluster secret");
+            }
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Owner " + ownerNodeId + " rejected request with status " + response.statusCode());
+            }
+            try {
+                return objectMapper.readValue(response.body(), type);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
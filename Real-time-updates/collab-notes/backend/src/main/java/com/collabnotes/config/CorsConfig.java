@@ -1,18 +1,43 @@
 package com.collabnotes.config;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
 
 @Configuration
 public class CorsConfig implements WebMvcConfigurer {
+    private static final String[] ALLOWED_ORIGINS = {"http://localhost:3000", "http://localhost:5173"};
+    private static final String[] ALLOWED_METHODS = {"GET", "POST", "PUT", "DELETE", "OPTIONS"};
+    private static final String[] EXPOSED_HEADERS = {"ETag", "X-Next-Cursor", "X-Document-Version", "X-Document-Length",
+            "Content-Range", "Accept-Ranges"};
 
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
-                .allowedOrigins("http://localhost:3000", "http://localhost:5173")
-                .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
+                .allowedOrigins(ALLOWED_ORIGINS)
+                .allowedMethods(ALLOWED_METHODS)
                 .allowedHeaders("*")
+                .exposedHeaders(EXPOSED_HEADERS)
                 .allowCredentials(true);
     }
+
+    /**
+     * The same mappings for the reactive gateway.
+     */
+    @Configuration
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    static class Reactive implements WebFluxConfigurer {
+
+        @Override
+        public void addCorsMappings(org.springframework.web.reactive.config.CorsRegistry registry) {
+            registry.addMapping("/**")
+                    .allowedOrigins(ALLOWED_ORIGINS)
+                    .allowedMethods(ALLOWED_METHODS)
+                    .allowedHeaders("*")
+                    .exposedHeaders(EXPOSED_HEADERS)
+                    .allowCredentials(true);
+        }
+    }
 }
@@ -0,0 +1,281 @@
+package com.collabnotes.document;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Runs all work for a document on a single thread. Every document has a lock-free mailbox
+ * and is pinned to one of a fixed set of workers by hash, so tasks for the same document
+ * execute one at a time in submission order while different documents spread across cores.
+ * Tasks that block are run on a separate pool while the document's actor waits for them, and
+ * an actor whose mailbox runs empty is dropped until the document has work again.
+ */
+@Component
+public class DocumentActorSystem {
+    private static final Logger log = LoggerFactory.getLogger(DocumentActorSystem.class);
+
+    /**
+     * A task that may block on I/O. It runs on the blocking pool while its actor waits,
+     * so the worker the actor is pinned to goes on with other documents.
+     */
+    private static final class BlockingTask implements Runnable {
+        final Runnable task;
+
+        BlockingTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+    private static final int RETIRED = 2;
+
+    private static final class DocumentActor {
+        final String documentId;
+        final Worker worker;
+        final Map<String, DocumentActor> actors;
+        final ExecutorService blockingPool;
+        final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+        // IDLE, SCHEDULED (queued on its worker, running, or waiting for a blocking task) or RETIRED
+        final AtomicInteger state = new AtomicInteger(IDLE);
+
+        DocumentActor(String documentId, Worker worker, Map<String, DocumentActor> actors, ExecutorService blockingPool) {
+            this.documentId = documentId;
+            this.worker = worker;
+            this.actors = actors;
+            this.blockingPool = blockingPool;
+        }
+
+        /**
+         * @return false if the actor retired before it could take the task; the caller
+         *         hands it to the document's next actor
+         */
+        boolean tell(Runnable task) {
+            mailbox.offer(task);
+            while (true) {
+                int current = state.get();
+                if (current == SCHEDULED) {
+                    return true;
+                }
+                if (current == RETIRED) {
+                    // It found the mailbox empty before this offer, so nothing else polls it
+                    mailbox.remove(task);
+                    return false;
+                }
+                if (state.compareAndSet(IDLE, SCHEDULED)) {
+                    worker.schedule(this);
+                    return true;
+                }
+            }
+        }
+
+        void drain(int batchSize) {
+            Runnable task;
+            int processed = 0;
+            while (processed < batchSize && (task = mailbox.poll()) != null) {
+                if (task instanceof BlockingTask) {
+                    // Stays scheduled, so nothing else of the document runs until this is done
+                    runBlocking(task);
+                    return;
+                }
+                run(task);
+                processed++;
+            }
+            state.set(IDLE);
+            // A producer may have enqueued after our last poll but before the state was cleared
+            if (!mailbox.isEmpty()) {
+                if (state.compareAndSet(IDLE, SCHEDULED)) {
+                    worker.schedule(this);
+                }
+            } else if (state.compareAndSet(IDLE, RETIRED)) {
+                // Idle documents do not keep an actor; the next task creates a new one
+                actors.remove(documentId, this);
+            }
+        }
+
+        private void runBlocking(Runnable task) {
+            try {
+                blockingPool.execute(() -> {
+                    run(task);
+                    worker.schedule(this);
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                run(task);
+                worker.schedule(this);
+            }
+        }
+
+        private void run(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                log.error("Task for document {} failed: {}", documentId, t.getMessage(), t);
+            }
+        }
+    }
+
+    private static final class Worker extends Thread {
+        private final Queue<DocumentActor> runQueue = new ConcurrentLinkedQueue<>();
+        private final int batchSize;
+        private volatile boolean running = true;
+
+        Worker(int index, int batchSize) {
+            super("document-actor-" + index);
+            this.batchSize = batchSize;
+            setDaemon(true);
+        }
+
+        void schedule(DocumentActor actor) {
+            runQueue.offer(actor);
+            LockSupport.unpark(this);
+        }
+
+        void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+
+        int backlog() {
+            return runQueue.size();
+        }
+
+        @Override
+        public void run() {
+            while (running || !runQueue.isEmpty()) {
+                DocumentActor actor = runQueue.poll();
+                if (actor == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                actor.drain(batchSize);
+            }
+        }
+    }
+
+    private final Worker[] workers;
+    private final ExecutorService blockingPool;
+    private final Map<String, DocumentActor> actors = new ConcurrentHashMap<>();
+
+    public DocumentActorSystem(@Value("${collaboration.actors.workers:0}") int workerCount,
+                               @Value("${collaboration.actors.batch-size:64}") int batchSize,
+                               @Value("${collaboration.actors.blocking-threads:16}") int blockingThreads) {
+        int count = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+        this.workers = new Worker[count];
+        for (int i = 0; i < count; i++) {
+            workers[i] = new Worker(i, batchSize);
+            workers[i].start();
+        }
+        AtomicInteger blockingIndex = new AtomicInteger();
+        this.blockingPool = Executors.newFixedThreadPool(blockingThreads, runnable -> {
+            Thread thread = new Thread(runnable, "document-blocking-" + blockingIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Started {} document actor workers", count);
+    }
+
+    /**
+     * Queues a task on the document's mailbox. Tasks for one document never run concurrently.
+     */
+    public void submit(String documentId, Runnable task) {
+        while (true) {
+            DocumentActor actor = actors.get(documentId);
+            if (actor == null) {
+                actor = actors.computeIfAbsent(documentId, id -> new DocumentActor(id, workerFor(id), actors, blockingPool));
+            }
+            if (actor.tell(task)) {
+                return;
+            }
+            actors.remove(documentId, actor);
+        }
+    }
+
+    public <T> CompletableFuture<T> ask(String documentId, Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        submit(documentId, complete(result, task));
+        return result;
+    }
+
+    /**
+     * Like {@link #submit}, for a task that waits on I/O or other nodes. It keeps its place
+     * in the document's order but runs on a separate pool, so the other documents on the
+     * same worker are not held up meanwhile.
+     */
+    public void submitBlocking(String documentId, Runnable task) {
+        submit(documentId, new BlockingTask(task));
+    }
+
+    public <T> CompletableFuture<T> askBlocking(String documentId, Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        submitBlocking(documentId, complete(result, task));
+        return result;
+    }
+
+    private static <T> Runnable complete(CompletableFuture<T> result, Supplier<T> task) {
+        return () -> {
+            try {
+                result.complete(task.get());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        };
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    public int getScheduledActorCount() {
+        int total = 0;
+        for (Worker worker : workers) {
+            total += worker.backlog();
+        }
+        return total;
+    }
+
+    /**
+     * Documents that currently have an actor, i.e. queued, running or waiting work.
+     */
+    int getActorCount() {
+        return actors.size();
+    }
+
+    private Worker workerFor(String documentId) {
+        return workers[Math.floorMod(documentId.hashCode(), workers.length)];
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // Blocking tasks resume their actors on the workers, so they finish first
+        blockingPool.shutdown();
+        blockingPool.awaitTermination(5000, TimeUnit.MILLISECONDS);
+        for (Worker worker : workers) {
+            worker.shutdown();
+        }
+        for (Worker worker : workers) {
+            worker.join(5000);
+        }
+    }
+}
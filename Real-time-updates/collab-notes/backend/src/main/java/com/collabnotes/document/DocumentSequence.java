@@ -0,0 +1,44 @@
+package com.collabnotes.document;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import javax.persistence.Id;
+
+/**
+ * Durable high-water mark of the versions handed out for a document, keyed by document id,
+ * and the node that holds the right to hand out more.
+ */
+@Document(collection = "sequences")
+public class DocumentSequence {
+    @Id
+    private String id;
+
+    private int sequence;
+
+    // Null once the last owner has handed the document over
+    private String owner;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(int sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+}
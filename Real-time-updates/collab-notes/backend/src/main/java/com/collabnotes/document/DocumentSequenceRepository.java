@@ -0,0 +1,7 @@
+package com.collabnotes.document;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface DocumentSequenceRepository extends MongoRepository<DocumentSequence, String>, DocumentSequenceRepositoryCustom {
+
+}
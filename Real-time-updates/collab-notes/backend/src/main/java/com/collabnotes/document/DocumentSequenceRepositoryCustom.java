@@ -0,0 +1,23 @@
+package com.collabnotes.document;
+
+import java.util.Collection;
+
+public interface DocumentSequenceRepositoryCustom {
+    /**
+     * Atomically raises the stored sequence of a document to at least the given value.
+     */
+    void advanceTo(String documentId, int sequence);
+
+    /**
+     * Takes the right to sequence the document for {@code nodeId}, unless a node among
+     * {@code liveNodes} other than it holds it.
+     *
+     * @return whether {@code nodeId} holds it now
+     */
+    boolean claim(String documentId, String nodeId, Collection<String> liveNodes);
+
+    /**
+     * Gives up {@code nodeId}'s right to sequence the document, if it holds it.
+     */
+    void releaseClaim(String documentId, String nodeId);
+}
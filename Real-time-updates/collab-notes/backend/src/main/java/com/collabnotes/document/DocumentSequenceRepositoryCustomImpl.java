@@ -0,0 +1,47 @@
+package com.collabnotes.document;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Collection;
+
+public class DocumentSequenceRepositoryCustomImpl implements DocumentSequenceRepositoryCustom {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public void advanceTo(String documentId, int sequence) {
+        // $max keeps the counter monotonic even if confirmations land out of order
+        mongoTemplate.upsert(
+                Query.query(Criteria.where("_id").is(documentId)),
+                new Update().max("sequence", sequence),
+                DocumentSequence.class);
+    }
+
+    @Override
+    public boolean claim(String documentId, String nodeId, Collection<String> liveNodes) {
+        Query unclaimed = Query.query(Criteria.where("_id").is(documentId).orOperator(
+                Criteria.where("owner").is(nodeId),
+                Criteria.where("owner").nin(liveNodes)));
+        try {
+            mongoTemplate.upsert(unclaimed, new Update().set("owner", nodeId), DocumentSequence.class);
+            return true;
+        } catch (DuplicateKeyException e) {
+            // The document exists and a live node other than this one holds it
+            return false;
+        }
+    }
+
+    @Override
+    public void releaseClaim(String documentId, String nodeId) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(documentId).and("owner").is(nodeId)),
+                new Update().unset("owner"),
+                DocumentSequence.class);
+    }
+}
@@ -0,0 +1,169 @@
+package com.collabnotes.document;
+
+import com.collabnotes.cluster.ClusterMembership;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hands out per-document operation versions from an in-memory counter. The counter is
+ * recovered once per document from the durable sequence (or the op log for documents
+ * written before it existed) and confirmed back to Mongo after each persisted operation.
+ *
+ * <p>In a cluster, a node first claims the document in its durable sequence. The previous
+ * owner gives the claim up only once everything it sequenced is in Mongo, so the next owner
+ * never recovers a counter that is missing versions still being flushed.
+ */
+@Component
+public class DocumentSequencer {
+    private static final Logger log = LoggerFactory.getLogger(DocumentSequencer.class);
+
+    private static final long CLAIM_RETRY_MS = 50;
+
+    private final DocumentSequenceRepository sequenceRepository;
+    private final OperationsRepository operationsRepository;
+    private final SnapshotRepository snapshotRepository;
+    // Null when this node is alone and needs no claim
+    private final String nodeId;
+    private final Supplier<Collection<String>> liveNodes;
+    private final long claimTimeoutMs;
+
+    private final Map<String, AtomicInteger> sequences = new ConcurrentHashMap<>();
+
+    public DocumentSequencer(DocumentSequenceRepository sequenceRepository,
+                             OperationsRepository operationsRepository,
+                             SnapshotRepository snapshotRepository) {
+        this(sequenceRepository, operationsRepository, snapshotRepository, null, Collections::emptyList, 0);
+    }
+
+    @Autowired
+    public DocumentSequencer(DocumentSequenceRepository sequenceRepository,
+                             OperationsRepository operationsRepository,
+                             SnapshotRepository snapshotRepository,
+                             ClusterMembership membership,
+                             @Value("${collaboration.cluster.enabled:true}") boolean clusterEnabled,
+                             @Value("${collaboration.cluster.handoff-claim-timeout-ms:10000}") long claimTimeoutMs) {
+        this(sequenceRepository, operationsRepository, snapshotRepository,
+                clusterEnabled ? membership.getNodeId() : null, () -> membership.getRing().getMembers(), claimTimeoutMs);
+    }
+
+    public DocumentSequencer(DocumentSequenceRepository sequenceRepository,
+                             OperationsRepository operationsRepository,
+                             SnapshotRepository snapshotRepository,
+                             String nodeId, Supplier<Collection<String>> liveNodes, long claimTimeoutMs) {
+        this.sequenceRepository = sequenceRepository;
+        this.operationsRepository = operationsRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.nodeId = nodeId;
+        this.liveNodes = liveNodes;
+        this.claimTimeoutMs = claimTimeoutMs;
+    }
+
+    public int next(String documentId) {
+        return sequence(documentId).incrementAndGet();
+    }
+
+    public int current(String documentId) {
+        return sequence(documentId).get();
+    }
+
+    /**
+     * Whether this node holds the document's counter, i.e. has claimed and recovered it.
+     */
+    public boolean isLoaded(String documentId) {
+        return sequences.containsKey(documentId);
+    }
+
+    /**
+     * Records a persisted version in the durable sequence so it survives a restart.
+     */
+    public void confirm(String documentId, int version) {
+        sequenceRepository.advanceTo(documentId, version);
+    }
+
+    /**
+     * Gives back a version whose operation was never persisted, keeping the sequence
+     * gap-free. Only the most recent allocation can be released.
+     */
+    public boolean release(String documentId, int version) {
+        AtomicInteger sequence = sequences.get(documentId);
+        boolean released = sequence != null && sequence.compareAndSet(version, version - 1);
+        if (!released) {
+            log.warn("Could not release version {} of document {}, leaving a gap", version, documentId);
+        }
+        return released;
+    }
+
+    /**
+     * Moves the counter past a version sequenced elsewhere, e.g. by another node.
+     */
+    public void observe(String documentId, int version) {
+        AtomicInteger sequence = sequences.get(documentId);
+        if (sequence != null) {
+            sequence.accumulateAndGet(version, Math::max);
+        }
+    }
+
+    /**
+     * Drops the in-memory counter and lets the next owner sequence the document. Only once
+     * every version this node handed out is in Mongo: until then the counter is ahead of it.
+     */
+    public void handOver(String documentId) {
+        sequences.remove(documentId);
+        if (nodeId != null) {
+            sequenceRepository.releaseClaim(documentId, nodeId);
+        }
+    }
+
+    private AtomicInteger sequence(String documentId) {
+        AtomicInteger sequence = sequences.get(documentId);
+        if (sequence == null) {
+            // Outside computeIfAbsent, which would hold up other documents while this waits
+            awaitClaim(documentId);
+            sequence = sequences.computeIfAbsent(documentId, this::recover);
+        }
+        return sequence;
+    }
+
+    private void awaitClaim(String documentId) {
+        if (nodeId == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + claimTimeoutMs;
+        while (!sequenceRepository.claim(documentId, nodeId, liveNodes.get())) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IllegalStateException("Document " + documentId
+                        + " is still being handed over by its previous owner, try again later");
+            }
+            try {
+                Thread.sleep(CLAIM_RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting to claim document " + documentId, e);
+            }
+        }
+    }
+
+    private AtomicInteger recover(String documentId) {
+        int stored = sequenceRepository.findById(documentId)
+                .map(DocumentSequence::getSequence)
+                .orElse(0);
+        int latestOp = operationsRepository.findLatestVersion(documentId);
+        int latestSnapshot = snapshotRepository.findFirstByDocumentIdOrderByVersionDesc(documentId)
+                .map(DocumentSnapshot::getVersion)
+                .orElse(0);
+
+        int recovered = Math.max(stored, Math.max(latestOp, latestSnapshot));
+        log.debug("Recovered sequence {} for document {}", recovered, documentId);
+        return new AtomicInteger(recovered);
+    }
+}
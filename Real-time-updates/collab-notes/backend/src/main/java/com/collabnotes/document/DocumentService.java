@@ -1,113 +1,395 @@
 package com.collabnotes.document;
 
-import com.collabnotes.metadata.MetadataService;
-import com.collabnotes.zookeeper.ZookeeperService;
+import com.collabnotes.metrics.CollaborationMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Service
 public class DocumentService {
+    private static final Logger log = LoggerFactory.getLogger(DocumentService.class);
 
     @Autowired
     private OperationsRepository operationsRepository;
 
     @Autowired
-    private MetadataService metadataService;
+    private OperationTransformer transformer;
 
     @Autowired
-    private OperationTransformer transformer;
+    private DocumentStateCache stateCache;
+
+    @Autowired
+    private SnapshotService snapshotService;
+
+    @Autowired
+    private DocumentSequencer sequencer;
+
+    @Autowired
+    private RecentOperationsBuffer recentOperations;
+
+    @Autowired
+    private OperationPersistencePipeline persistencePipeline;
 
     @Autowired
-    private ZookeeperService zookeeperService;
+    private CollaborationMetrics metrics;
 
-    public Operation processOperation(Operation incomingOp) {
-        System.out.println("Document Service: Processing operation for document: " +
-                incomingOp.getDocumentId());
+    /**
+     * Sequences, transforms and persists an operation. Callers must serialize calls per
+     * document, normally by running them on {@link DocumentActorSystem}.
+     *
+     * @return the operation as sequenced; a delete that concurrent inserts split comes
+     *         back as one operation per piece, each with its own version
+     */
+    public List<Operation> processOperation(Operation incomingOp) {
+        log.debug("Processing operation for document {}", incomingOp.getDocumentId());
 
         try {
             // Mark as applied and set version
             incomingOp.setApplied(true);
             
-            // Get all operations to determine version
-            List<Operation> existingOps = operationsRepository.findByDocumentIdOrderByTimestampAsc(
-                    incomingOp.getDocumentId()
-            );
-            incomingOp.setVersion(existingOps.size() + 1);
-            
-            System.out.println("Saving operation: " + incomingOp.getType() + 
-                    " at position: " + incomingOp.getPosition() + 
-                    " text: '" + incomingOp.getText() + "'");
-
-            // Save to MongoDB (no transformation - use original position)
-            Operation savedOp = operationsRepository.save(incomingOp);
-            System.out.println("Saved operation to MongoDB with ID: " + savedOp.getId());
-
-            // Update document timestamp in PostgreSQL
-            metadataService.updateDocumentTimestamp(incomingOp.getDocumentId());
+            String documentId = incomingOp.getDocumentId();
+            long start = System.nanoTime();
+            int version = sequencer.next(documentId);
+            long sequenced = System.nanoTime();
+            metrics.recordStage("sequence", sequenced - start);
 
-            // Transfer through Zookeeper
-            zookeeperService.transferOperation(savedOp);
+            // Rebase the operation over everything sequenced since the version the client saw,
+            // and over what its client still had in flight then
+            Operation submitted = OperationTransformer.copy(incomingOp);
+            List<Operation> ops = Collections.singletonList(incomingOp);
+            int baseVersion = incomingOp.getBaseVersion();
+            if (baseVersion >= 0 && baseVersion < version - 1) {
+                try {
+                    ops = transformer.transform(incomingOp, getHistory(incomingOp, version));
+                } catch (RuntimeException e) {
+                    sequencer.release(documentId, version);
+                    throw e;
+                }
+            }
+            metrics.recordStage("transform", System.nanoTime() - sequenced);
 
-            return savedOp;
+            List<Operation> savedOps = new ArrayList<>(ops.size());
+            for (Operation op : ops) {
+                if (!savedOps.isEmpty()) {
+                    version = sequencer.next(documentId);
+                }
+                op.setVersion(version);
+                op.setSubmitted(submitted);
+                if (ops.size() > 1) {
+                    op.setFirstVersion(savedOps.isEmpty() ? version : savedOps.get(0).getVersion());
+                }
+                savedOps.add(persist(op));
+            }
+            return savedOps;
 
         } catch (Exception e) {
-            System.err.println("Error processing operation: " + e.getMessage());
+            metrics.recordError("process");
+            log.warn("Error processing operation for document {}: {}", incomingOp.getDocumentId(), e.getMessage());
             throw new RuntimeException("Failed to process operation: " + e.getMessage(), e);
         }
     }
 
+    private Operation persist(Operation op) {
+        String documentId = op.getDocumentId();
+        int version = op.getVersion();
+        log.debug("Saving operation {} at position {} text '{}'", op.getType(), op.getPosition(), op.getText());
+
+        // Journal and queue for MongoDB; the flusher also updates metadata
+        long start = System.nanoTime();
+        Operation savedOp;
+        try {
+            savedOp = persistencePipeline.append(op);
+        } catch (RuntimeException e) {
+            sequencer.release(documentId, version);
+            throw e;
+        }
+        long journaled = System.nanoTime();
+        metrics.recordStage("journal", journaled - start);
+        recentOperations.add(savedOp);
+
+        // Keep the materialized state of hot documents current and checkpoint it periodically
+        stateCache.apply(savedOp);
+        DocumentState state = stateCache.getOrLoad(documentId, this::loadDocumentState);
+        if (state.getVersion() < version) {
+            // A reader cold-loaded the document before this save landed
+            stateCache.invalidate(documentId);
+            state = stateCache.getOrLoad(documentId, this::loadDocumentState);
+        }
+        snapshotService.onOperationApplied(savedOp.getDocumentId(), state);
+        metrics.recordStage("apply", System.nanoTime() - journaled);
+        metrics.recordOperation(documentId);
+        return savedOp;
+    }
+
+    /**
+     * Whether the document's sequence and state are in memory, so processing an operation
+     * for it does not wait on Mongo or on the hand-off from a previous owner.
+     */
+    public boolean isLoaded(String documentId) {
+        return sequencer.isLoaded(documentId) && stateCache.contains(documentId);
+    }
+
+    /**
+     * Claims and recovers the document's sequence and caches its state ahead of the first
+     * operation. Must run on the document's actor, as a blocking task.
+     */
+    public void load(String documentId) {
+        sequencer.current(documentId);
+        stateCache.getOrLoad(documentId, this::loadDocumentState);
+    }
+
+    /**
+     * Brings this node's view of a document up to date with an operation another node
+     * sequenced and persisted. Must run on the document's actor like processOperation.
+     */
+    public void applyReplicatedOperation(Operation op) {
+        sequencer.observe(op.getDocumentId(), op.getVersion());
+        recentOperations.add(op);
+        stateCache.apply(op);
+    }
+
+    /**
+     * Drops everything this node holds in memory for a document whose ownership moved,
+     * after its pending writes reach Mongo so the next owner recovers the full sequence.
+     * Must run on the document's actor.
+     *
+     * @return whether the writes reached Mongo and the next owner may sequence the document;
+     *         if not, call again later
+     */
+    public boolean releaseDocument(String documentId, long flushTimeoutMs) {
+        boolean flushed = false;
+        try {
+            flushed = persistencePipeline.awaitFlushed(documentId, flushTimeoutMs);
+            if (!flushed) {
+                log.warn("Pending operations of {} were not flushed before hand-off; the next owner waits", documentId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flushed) {
+            sequencer.handOver(documentId);
+        }
+        recentOperations.forget(documentId);
+        stateCache.invalidate(documentId);
+        snapshotService.forget(documentId);
+        return flushed;
+    }
+
     public List<Operation> getAllAppliedOperations(String documentId) {
-        System.out.println("Getting all applied operations for document: " + documentId);
-        List<Operation> ops = operationsRepository.findByDocumentIdAndAppliedTrueOrderByTimestampAsc(documentId);
-        System.out.println("Found " + ops.size() + " applied operations");
+        log.debug("Getting all applied operations for document {}", documentId);
+        List<Operation> pending = persistencePipeline.getPendingOperations(documentId);
+        List<Operation> ops = withPending(
+                operationsRepository.findByDocumentIdAndAppliedTrueOrderByVersionAsc(documentId), pending, true);
+        log.debug("Found {} applied operations", ops.size());
         return ops;
     }
 
     public String getDocumentContent(String documentId) {
-        List<Operation> appliedOps = getAllAppliedOperations(documentId);
-        StringBuilder content = new StringBuilder();
+        return stateCache.getOrLoad(documentId, this::loadDocumentState).getContent();
+    }
+
+    /**
+     * Latest version of the document, from the state cache. Current only on the document's
+     * owner, or on a node whose room is applying its operations; others ask the owner
+     * through OperationRouter.
+     */
+    public int getDocumentVersion(String documentId) {
+        return stateCache.getOrLoad(documentId, this::loadDocumentState).getVersion();
+    }
 
-        for (Operation op : appliedOps) {
+    /**
+     * The document's text and version, as of {@code version} or the latest when that is
+     * null. The latest comes from the state cache, so a hot document needs no replay; a
+     * past version is replayed from the last snapshot at or before it. Current only on the
+     * document's owner, like getDocumentVersion.
+     *
+     * @throws IllegalArgumentException if the document has not reached {@code version}
+     * @throws HistoryUnavailableException if operations leading up to {@code version} are gone
+     */
+    public DocumentSnapshot getDocumentContentAt(String documentId, Integer version) {
+        DocumentSnapshot latest = stateCache.getOrLoad(documentId, this::loadDocumentState).toSnapshot(documentId);
+        if (version == null || version == latest.getVersion()) {
+            return latest;
+        }
+        if (version < 0 || version > latest.getVersion()) {
+            throw new IllegalArgumentException("Document " + documentId + " has no version " + version);
+        }
+
+        DocumentSnapshot base = snapshotService.getSnapshotAtOrBefore(documentId, version).orElse(null);
+        int baseVersion = base != null ? base.getVersion() : 0;
+        // Unapplied operations change nothing but still hold their version, so the log must
+        // run without a hole from the base. Compaction removes everything up to the oldest
+        // retained snapshot, which shows as a hole at the start when no snapshot is old enough.
+        List<Operation> ops = getOperations(documentId, baseVersion, version);
+        int expected = baseVersion + 1;
+        for (Operation op : ops) {
+            if (op.getVersion() != expected) {
+                break;
+            }
+            expected++;
+        }
+        if (expected <= version) {
+            throw new HistoryUnavailableException(base == null && expected == 1
+                    ? "Version " + version + " of document " + documentId + " has been compacted"
+                    : "Version " + expected + " of document " + documentId + " is missing from its log");
+        }
+
+        StringBuilder content = new StringBuilder(base != null ? base.getContent() : "");
+        for (Operation op : ops) {
             applyOperationToContent(content, op);
         }
+        return new DocumentSnapshot(documentId, version, content.toString());
+    }
 
-        return content.toString();
+    /**
+     * Latest snapshot of the document (if any) plus the applied operations that follow it.
+     */
+    public InitializationState getInitializationState(String documentId) {
+        DocumentSnapshot snapshot = snapshotService.getLatestSnapshot(documentId).orElse(null);
+        if (snapshot == null) {
+            return new InitializationState(null, getAllAppliedOperations(documentId));
+        }
+        List<Operation> pending = persistencePipeline.getPendingOperations(documentId);
+        List<Operation> tail = withPending(
+                operationsRepository.findByDocumentIdAndAppliedTrueAndVersionGreaterThanOrderByVersionAsc(
+                        documentId, snapshot.getVersion()),
+                pending, true);
+        return new InitializationState(snapshot, tail);
     }
 
-    public List<Operation> getOperationsForInitialization(String documentId) {
-        System.out.println("Getting operations for initialization of document: " + documentId);
-        List<Operation> allOps = operationsRepository.findByDocumentIdOrderByTimestampAsc(documentId);
+    private DocumentState loadDocumentState(String documentId) {
+        InitializationState init = getInitializationState(documentId);
+        DocumentSnapshot snapshot = init.getSnapshot();
+        StringBuilder content = new StringBuilder(snapshot != null ? snapshot.getContent() : "");
+        int version = snapshot != null ? snapshot.getVersion() : 0;
 
-        // Simulate hash range querying
-        if (allOps.size() > 100) {
-            System.out.println("Querying by hash ranges (simulated)");
-            return queryByHashRanges(documentId, allOps);
+        for (Operation op : init.getOperations()) {
+            applyOperationToContent(content, op);
+            version = Math.max(version, op.getVersion());
         }
 
-        return allOps;
+        return new DocumentState(content.toString(), version);
     }
 
-    private List<Operation> getConcurrentOperations(String documentId, long timestamp) {
-        // Get operations within ±10 seconds window
-        long windowStart = timestamp - 10000;
-        List<Operation> recentOps = operationsRepository.findOperationsAfterTimestamp(documentId, windowStart);
+    /**
+     * The snapshot and version range a streamed initialization will cover. Must run on the
+     * actor of the node that owns the document, so that every version up to the one returned
+     * is either in Mongo or pending in this node's persistence pipeline, and later ones reach
+     * the client live. Other nodes ask the owner through OperationRouter.
+     */
+    public InitializationRange getInitializationRange(String documentId) {
+        DocumentSnapshot snapshot = snapshotService.getLatestSnapshot(documentId).orElse(null);
+        int afterVersion = snapshot != null ? snapshot.getVersion() : 0;
+        int latestVersion = afterVersion;
+        for (Operation op : persistencePipeline.getPendingOperations(documentId)) {
+            latestVersion = Math.max(latestVersion, op.getVersion());
+        }
+        latestVersion = Math.max(latestVersion, operationsRepository.findLatestVersion(documentId));
+        return new InitializationRange(snapshot, afterVersion, latestVersion);
+    }
 
-        // Filter to get truly concurrent operations (simplified)
-        List<Operation> concurrentOps = new ArrayList<>();
-        for (Operation op : recentOps) {
-            // Consider ops within ±5 seconds as concurrent for demo
-            if (Math.abs(op.getTimestamp() - timestamp) <= 5000) {
-                concurrentOps.add(op);
+    /**
+     * Applied operations with versions in ({@code afterVersion}, {@code upToVersion}], in
+     * version order, including ones not yet flushed to Mongo. Complete only on the document's
+     * owner, whose pipeline holds those. Safe to call concurrently.
+     */
+    public List<Operation> getAppliedOperations(String documentId, int afterVersion, int upToVersion) {
+        List<Operation> pending = new ArrayList<>();
+        for (Operation op : persistencePipeline.getPendingOperations(documentId)) {
+            if (op.getVersion() > afterVersion && op.getVersion() <= upToVersion) {
+                pending.add(op);
             }
         }
+        return withPending(
+                operationsRepository.findAppliedInVersionRange(documentId, afterVersion, upToVersion), pending, true);
+    }
 
-        return concurrentOps;
+    /**
+     * Like getAppliedOperations, but including operations that were not applied.
+     */
+    private List<Operation> getOperations(String documentId, int afterVersion, int upToVersion) {
+        List<Operation> pending = new ArrayList<>();
+        for (Operation op : persistencePipeline.getPendingOperations(documentId)) {
+            if (op.getVersion() > afterVersion && op.getVersion() <= upToVersion) {
+                pending.add(op);
+            }
+        }
+        return withPending(
+                operationsRepository.findInVersionRange(documentId, afterVersion, upToVersion), pending, false);
     }
 
-    private void applyOperationToContent(StringBuilder content, Operation op) {
+    /**
+     * Operations before {@code version} that the transformation of {@code incoming} needs:
+     * those after its base version, reaching back further when its client's operations in
+     * flight at the time were written against older versions.
+     */
+    private List<Operation> getHistory(Operation incoming, int version) {
+        String documentId = incoming.getDocumentId();
+        int from = incoming.getBaseVersion();
+        List<Operation> history = getOperationsAfter(documentId, from, version);
+        int earliest = transformer.earliestBase(incoming.getClientId(), from, history);
+        while (earliest < from) {
+            from = earliest;
+            history = getOperationsAfter(documentId, from, version);
+            earliest = transformer.earliestBase(incoming.getClientId(), from, history);
+        }
+        return history;
+    }
+
+    /**
+     * Operations after {@code baseVersion} and before {@code version}, served from the
+     * recent-operation buffer and read from Mongo only when the buffer does not reach back far enough.
+     */
+    private List<Operation> getOperationsAfter(String documentId, int baseVersion, int version) {
+        List<Operation> ops = recentOperations.getOperationsAfter(documentId, baseVersion);
+        boolean fromBuffer = ops != null;
+        if (!fromBuffer) {
+            List<Operation> pending = persistencePipeline.getPendingOperations(documentId);
+            ops = withPending(
+                    operationsRepository.findByDocumentIdAndVersionGreaterThanOrderByVersionAsc(documentId, baseVersion),
+                    pending, false);
+        }
+
+        List<Operation> concurrent = new ArrayList<>();
+        for (Operation op : ops) {
+            if (op.getVersion() > baseVersion && op.getVersion() < version) {
+                concurrent.add(op);
+            }
+        }
+        if (!fromBuffer && !concurrent.isEmpty() && concurrent.get(0).getVersion() != baseVersion + 1) {
+            throw new IllegalStateException("Base version " + baseVersion + " of document " + documentId +
+                    " has been compacted, client must reload");
+        }
+        return concurrent;
+    }
+
+    /**
+     * Appends the write-behind operations that had not reached Mongo when it was queried.
+     * The pending list must be read before querying Mongo so nothing flushed in between is missed.
+     */
+    private List<Operation> withPending(List<Operation> persisted, List<Operation> pending, boolean appliedOnly) {
+        if (pending.isEmpty()) {
+            return persisted;
+        }
+        int lastPersisted = 0;
+        for (Operation op : persisted) {
+            lastPersisted = Math.max(lastPersisted, op.getVersion());
+        }
+        List<Operation> merged = new ArrayList<>(persisted);
+        for (Operation op : pending) {
+            if (op.getVersion() > lastPersisted && (op.isApplied() || !appliedOnly)) {
+                merged.add(op);
+            }
+        }
+        return merged;
+    }
+
+    static void applyOperationToContent(StringBuilder content, Operation op) {
         if (!op.isApplied()) return;
 
         if ("INSERT".equals(op.getType())) {
@@ -126,23 +408,4 @@ public class DocumentService {
             }
         }
     }
-
-    private List<Operation> queryByHashRanges(String documentId, List<Operation> allOps) {
-        // Simulate hash-based range queries
-        List<Operation> result = new ArrayList<>();
-        int rangeSize = 50; // Operations per range
-
-        System.out.println("Simulating hash range queries for " + allOps.size() + " operations");
-
-        for (int i = 0; i < allOps.size(); i += rangeSize) {
-            int end = Math.min(i + rangeSize, allOps.size());
-            List<Operation> rangeOps = allOps.subList(i, end);
-            result.addAll(rangeOps);
-
-            System.out.println("Queried hash range " + i + "-" + (end-1) +
-                    " (" + rangeOps.size() + " operations)");
-        }
-
-        return result;
-    }
-}
\ No newline at end of file
+}
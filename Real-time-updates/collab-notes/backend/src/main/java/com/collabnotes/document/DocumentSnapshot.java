@@ -0,0 +1,72 @@
+package com.collabnotes.document;
+
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import javax.persistence.Id;
+
+/**
+ * Checkpoint of a document's full text at a given version. Readers start from the
+ * latest snapshot and replay only the operations that follow it.
+ */
+@Document(collection = "snapshots")
+@CompoundIndex(name = "document_version", def = "{'documentId': 1, 'version': -1}")
+public class DocumentSnapshot {
+    @Id
+    private String id;
+
+    private String documentId;
+    private int version;
+    private String content;
+    private long timestamp;
+
+    public DocumentSnapshot() {
+    }
+
+    public DocumentSnapshot(String documentId, int version, String content) {
+        this.documentId = documentId;
+        this.version = version;
+        this.content = content;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public void setDocumentId(String documentId) {
+        this.documentId = documentId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+}
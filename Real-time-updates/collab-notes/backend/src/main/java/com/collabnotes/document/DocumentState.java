@@ -0,0 +1,51 @@
+package com.collabnotes.document;
+
+/**
+ * Materialized text of a document at a given version. Instances are owned by
+ * {@link DocumentStateCache} and mutated in place as new operations arrive.
+ */
+public class DocumentState {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final StringBuilder content;
+    private int version;
+
+    public DocumentState(String content, int version) {
+        this.content = new StringBuilder(content);
+        this.version = version;
+    }
+
+    public synchronized String getContent() {
+        return content.toString();
+    }
+
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Applies the operation if it is the direct successor of the current version.
+     *
+     * @return false if the operation does not follow on from this state
+     */
+    synchronized boolean apply(Operation op) {
+        if (op.getVersion() != version + 1) {
+            return false;
+        }
+        DocumentService.applyOperationToContent(content, op);
+        version = op.getVersion();
+        return true;
+    }
+
+    synchronized DocumentSnapshot toSnapshot(String documentId) {
+        return new DocumentSnapshot(documentId, version, content.toString());
+    }
+
+    /**
+     * Rough heap footprint, used for the cache memory budget.
+     */
+    synchronized long estimatedBytes() {
+        return ENTRY_OVERHEAD_BYTES + 2L * content.capacity();
+    }
+}
@@ -0,0 +1,151 @@
+package com.collabnotes.document;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * LRU cache of materialized document states, bounded by an estimated memory budget.
+ * Entries are kept current by {@link #apply(Operation)}; a miss is filled through the
+ * loader passed to {@link #getOrLoad(String, Function)}.
+ */
+@Component
+public class DocumentStateCache {
+    private static final Logger log = LoggerFactory.getLogger(DocumentStateCache.class);
+
+    private static class Entry {
+        final DocumentState state;
+        long accountedBytes;
+
+        Entry(DocumentState state) {
+            this.state = state;
+            this.accountedBytes = state.estimatedBytes();
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DocumentStateCache(@Value("${collaboration.cache.max-bytes:67108864}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public DocumentState getOrLoad(String documentId, Function<String, DocumentState> loader) {
+        DocumentState cached = lookup(documentId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        // Load outside the lock so a slow cold read does not stall other documents
+        DocumentState loaded = loader.apply(documentId);
+        synchronized (this) {
+            Entry existing = entries.get(documentId);
+            if (existing != null) {
+                return existing.state;
+            }
+            Entry entry = new Entry(loaded);
+            entries.put(documentId, entry);
+            currentBytes += entry.accountedBytes;
+            evictOverBudget();
+        }
+        log.debug("Cold-loaded document {} at version {}", documentId, loaded.getVersion());
+        return loaded;
+    }
+
+    /**
+     * Rolls the cached state of the operation's document forward. Documents that are
+     * not cached are left alone; a cached state that the operation does not follow on
+     * from is dropped so the next read reloads it.
+     */
+    public void apply(Operation op) {
+        String documentId = op.getDocumentId();
+        DocumentState state = lookup(documentId);
+        if (state == null) {
+            return;
+        }
+        if (!state.apply(op)) {
+            log.debug("Version gap for document {} (cached {}, got {}), invalidating",
+                    documentId, state.getVersion(), op.getVersion());
+            invalidate(documentId);
+            return;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(documentId);
+            if (entry != null && entry.state == state) {
+                long bytes = state.estimatedBytes();
+                currentBytes += bytes - entry.accountedBytes;
+                entry.accountedBytes = bytes;
+                evictOverBudget();
+            }
+        }
+    }
+
+    /**
+     * Whether the document is cached; unlike a read, does not count as a use.
+     */
+    public synchronized boolean contains(String documentId) {
+        return entries.containsKey(documentId);
+    }
+
+    public synchronized void invalidate(String documentId) {
+        Entry removed = entries.remove(documentId);
+        if (removed != null) {
+            currentBytes -= removed.accountedBytes;
+        }
+    }
+
+    private synchronized DocumentState lookup(String documentId) {
+        Entry entry = entries.get(documentId);
+        return entry != null ? entry.state : null;
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        // Always keep the most recently used entry, even if it alone exceeds the budget
+        while (currentBytes > maxBytes && entries.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            currentBytes -= eldest.getValue().accountedBytes;
+            it.remove();
+            evictions.increment();
+            log.debug("Evicted document {} from state cache", eldest.getKey());
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,11 @@
+package com.collabnotes.document;
+
+/**
+ * A past version of a document cannot be rebuilt because operations leading up to it are
+ * no longer in the log, usually because they were compacted behind a snapshot.
+ */
+public class HistoryUnavailableException extends IllegalStateException {
+    public HistoryUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,41 @@
+package com.collabnotes.document;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Where a streamed initialization starts: the latest snapshot (if any) and the versions of
+ * the operations that follow it, which are then read in pages.
+ */
+public class InitializationRange {
+    private final DocumentSnapshot snapshot;
+    private final int afterVersion;
+    private final int latestVersion;
+
+    @JsonCreator
+    public InitializationRange(@JsonProperty("snapshot") DocumentSnapshot snapshot,
+                               @JsonProperty("afterVersion") int afterVersion,
+                               @JsonProperty("latestVersion") int latestVersion) {
+        this.snapshot = snapshot;
+        this.afterVersion = afterVersion;
+        this.latestVersion = latestVersion;
+    }
+
+    public DocumentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Version the snapshot covers, or 0 without one; streaming starts after it.
+     */
+    public int getAfterVersion() {
+        return afterVersion;
+    }
+
+    /**
+     * Highest version sequenced or persisted when the range was taken.
+     */
+    public int getLatestVersion() {
+        return latestVersion;
+    }
+}
@@ -0,0 +1,25 @@
+package com.collabnotes.document;
+
+import java.util.List;
+
+/**
+ * What a client needs to rebuild a document: an optional snapshot and the
+ * operations applied after it, in version order.
+ */
+public class InitializationState {
+    private final DocumentSnapshot snapshot;
+    private final List<Operation> operations;
+
+    public InitializationState(DocumentSnapshot snapshot, List<Operation> operations) {
+        this.snapshot = snapshot;
+        this.operations = operations;
+    }
+
+    public DocumentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+}
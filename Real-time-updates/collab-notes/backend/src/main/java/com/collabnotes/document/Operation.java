@@ -1,22 +1,39 @@
 package com.collabnotes.document;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.persistence.Id;
 
 @Document(collection = "operations")
+@CompoundIndex(name = "document_version_unique", def = "{'documentId': 1, 'version': 1}", unique = true)
+@CompoundIndex(name = "document_applied_version", def = "{'documentId': 1, 'applied': 1, 'version': 1}")
 public class Operation {
     @Id
     private String id;
 
     private String documentId;
     private String userId;
+    // Connection that sent the operation; one user may have several. Only the owner uses it
+    @JsonIgnore
+    private String clientId;
     private String type;
     private int position;
     private String text;
     private long timestamp;
     private int version;
+    private int baseVersion = -1;
     private boolean applied = true;
+    // The operation as its client sent it, shared by all its pieces; kept in memory on the owner
+    @JsonIgnore
+    @Transient
+    private Operation submitted;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Transient
+    private Integer firstVersion;
 
     public String getId() {
         return id;
@@ -42,6 +59,19 @@ public class Operation {
         this.userId = userId;
     }
 
+    /**
+     * Connection the operation was sent on, which had already applied its own earlier
+     * operations when it wrote this one. Set by the owner when sequencing; null for
+     * operations that did not come from a client connection.
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
     public String getType() {
         return type;
     }
@@ -82,6 +112,18 @@ public class Operation {
         this.version = version;
     }
 
+    /**
+     * Version of the document the client had when it produced this operation,
+     * or -1 if the client did not say.
+     */
+    public int getBaseVersion() {
+        return baseVersion;
+    }
+
+    public void setBaseVersion(int baseVersion) {
+        this.baseVersion = baseVersion;
+    }
+
     public boolean isApplied() {
         return applied;
     }
@@ -89,4 +131,30 @@ public class Operation {
     public void setApplied(boolean applied) {
         this.applied = applied;
     }
+
+    /**
+     * The client's operation this one was sequenced from, before transformation: its
+     * position is relative to the base version plus the client's own operations sent before
+     * it. Every piece of a split operation shares it. Null once the operation has been read
+     * back from storage or received from another node.
+     */
+    public Operation getSubmitted() {
+        return submitted;
+    }
+
+    public void setSubmitted(Operation submitted) {
+        this.submitted = submitted;
+    }
+
+    /**
+     * For the pieces of a client operation that took several versions, the first of them;
+     * null when it took one. Not stored.
+     */
+    public Integer getFirstVersion() {
+        return firstVersion;
+    }
+
+    public void setFirstVersion(Integer firstVersion) {
+        this.firstVersion = firstVersion;
+    }
 }
@@ -0,0 +1,314 @@
+package com.collabnotes.document;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compaction stage in front of sequencing. Clients send one operation per keystroke; within
+ * a short window, consecutive INSERTs from one session that continue each other, and
+ * consecutive DELETEs that extend one another (backspace or forward delete), are merged into
+ * a single operation that takes a single version. Every merged operation's caller completes
+ * with the combined result.
+ *
+ * <p>Only operations written against the same base version are merged, so the combined
+ * operation transforms exactly as its parts would. All state lives on the document's actor:
+ * a run is extended, flushed and sequenced there, so ordering with every other operation of
+ * the document is kept.
+ */
+@Component
+@DependsOn("operationPersistencePipeline")
+public class OperationCoalescer {
+    private static final Logger log = LoggerFactory.getLogger(OperationCoalescer.class);
+
+    /**
+     * Sequences an operation on its document's actor, for the session it came from.
+     */
+    @FunctionalInterface
+    public interface Sequencer {
+        Operation sequence(Operation operation, String sourceId);
+    }
+
+    private static final class Run {
+        final String sourceId;
+        final Operation operation;
+        final StringBuilder text;
+        final Sequencer sequencer;
+        final List<CompletableFuture<Operation>> waiters = new ArrayList<>();
+        ScheduledFuture<?> timer;
+
+        Run(String sourceId, Operation first, Sequencer sequencer) {
+            this.sourceId = sourceId;
+            this.operation = copy(first);
+            this.text = new StringBuilder(first.getText());
+            this.sequencer = sequencer;
+        }
+    }
+
+    private final DocumentActorSystem actorSystem;
+    private final boolean enabled;
+    private final long windowMs;
+    private final int maxTextLength;
+    private final ScheduledExecutorService scheduler;
+    // documentId -> sourceId -> open run; the inner maps are only touched on the document's actor
+    private final Map<String, Map<String, Run>> runs = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queuedOffers = new AtomicInteger();
+    private volatile boolean closing;
+
+    private final LongAdder operationsReceived = new LongAdder();
+    private final LongAdder operationsSequenced = new LongAdder();
+
+    public OperationCoalescer(DocumentActorSystem actorSystem,
+                              @Value("${collaboration.coalescing.enabled:true}") boolean enabled,
+                              @Value("${collaboration.coalescing.window-ms:25}") long windowMs,
+                              @Value("${collaboration.coalescing.max-text-length:256}") int maxTextLength) {
+        this.actorSystem = actorSystem;
+        this.enabled = enabled;
+        this.windowMs = windowMs;
+        this.maxTextLength = maxTextLength;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "operation-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues an operation from {@code sourceId} (the originating session). Completes with the
+     * sequenced operation it ended up in, which may have absorbed operations before and after it.
+     */
+    public CompletableFuture<Operation> submit(Operation operation, String sourceId, Sequencer sequencer) {
+        String documentId = operation.getDocumentId();
+        if (!enabled || sourceId == null) {
+            return actorSystem.ask(documentId, () -> {
+                flushSource(documentId, sourceId);
+                operationsReceived.increment();
+                operationsSequenced.increment();
+                return sequencer.sequence(operation, sourceId);
+            });
+        }
+        CompletableFuture<Operation> result = new CompletableFuture<>();
+        queuedOffers.incrementAndGet();
+        actorSystem.submit(documentId, () -> {
+            try {
+                offer(operation, sourceId, sequencer, result);
+            } finally {
+                queuedOffers.decrementAndGet();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sequences every open run of the document, ahead of anything queued on its actor after this call.
+     */
+    public void flush(String documentId) {
+        actorSystem.submit(documentId, () -> sequenceOpenRuns(documentId));
+    }
+
+    private void sequenceOpenRuns(String documentId) {
+        Map<String, Run> open = runs.remove(documentId);
+        if (open != null) {
+            open.values().forEach(this::sequence);
+        }
+    }
+
+    private void offer(Operation operation, String sourceId, Sequencer sequencer, CompletableFuture<Operation> result) {
+        operationsReceived.increment();
+        String documentId = operation.getDocumentId();
+        if (closing) {
+            // No window will expire any more
+            flushSource(documentId, sourceId);
+            sequenceAlone(operation, sourceId, sequencer, result);
+            return;
+        }
+        Map<String, Run> open = runs.computeIfAbsent(documentId, id -> new HashMap<>());
+        Run run = open.get(sourceId);
+
+        if (run != null && extend(run, operation)) {
+            run.waiters.add(result);
+            if (run.text.length() >= maxTextLength) {
+                close(documentId, open, run);
+            }
+            return;
+        }
+        if (run != null) {
+            // Not a continuation: what the session sent before must be sequenced first
+            close(documentId, open, run);
+        }
+        if (!mergeable(operation)) {
+            sequenceAlone(operation, sourceId, sequencer, result);
+            return;
+        }
+
+        Run started = new Run(sourceId, operation, sequencer);
+        started.waiters.add(result);
+        runs.computeIfAbsent(documentId, id -> new HashMap<>()).put(sourceId, started);
+        try {
+            started.timer = scheduler.schedule(
+                    () -> actorSystem.submit(documentId, () -> expire(documentId, started)), windowMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down, which sequences every open run
+        }
+    }
+
+    private void sequenceAlone(Operation operation, String sourceId, Sequencer sequencer,
+                               CompletableFuture<Operation> result) {
+        operationsSequenced.increment();
+        try {
+            result.complete(sequencer.sequence(operation, sourceId));
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Folds the operation into the run if it continues it.
+     */
+    private static boolean extend(Run run, Operation next) {
+        Operation head = run.operation;
+        if (!mergeable(next) || !head.getType().equals(next.getType()) || head.getBaseVersion() != next.getBaseVersion()) {
+            return false;
+        }
+        if ("INSERT".equals(next.getType())) {
+            if (next.getPosition() != head.getPosition() + run.text.length()) {
+                return false;
+            }
+            run.text.append(next.getText());
+            return true;
+        }
+        if (next.getPosition() + next.getText().length() == head.getPosition()) {
+            // Backspace: the deleted range grows to the left
+            run.text.insert(0, next.getText());
+            head.setPosition(next.getPosition());
+            return true;
+        }
+        if (next.getPosition() == head.getPosition()) {
+            // Forward delete: the text after the range slid into place
+            run.text.append(next.getText());
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean mergeable(Operation op) {
+        return ("INSERT".equals(op.getType()) || "DELETE".equals(op.getType()))
+                && op.getText() != null && !op.getText().isEmpty();
+    }
+
+    private void expire(String documentId, Run run) {
+        Map<String, Run> open = runs.get(documentId);
+        if (open != null && open.get(run.sourceId) == run) {
+            close(documentId, open, run);
+        }
+    }
+
+    private void flushSource(String documentId, String sourceId) {
+        Map<String, Run> open = runs.get(documentId);
+        Run run = open != null ? open.get(sourceId) : null;
+        if (run != null) {
+            close(documentId, open, run);
+        }
+    }
+
+    private void close(String documentId, Map<String, Run> open, Run run) {
+        open.remove(run.sourceId);
+        if (open.isEmpty()) {
+            runs.remove(documentId);
+        }
+        sequence(run);
+    }
+
+    private void sequence(Run run) {
+        if (run.timer != null) {
+            run.timer.cancel(false);
+        }
+        run.operation.setText(run.text.toString());
+        operationsSequenced.increment();
+        if (run.waiters.size() > 1) {
+            log.debug("Coalesced {} operations into one {} of length {} on document {}",
+                    run.waiters.size(), run.operation.getType(), run.text.length(), run.operation.getDocumentId());
+        }
+        try {
+            Operation processed = run.sequencer.sequence(run.operation, run.sourceId);
+            run.waiters.forEach(waiter -> waiter.complete(processed));
+        } catch (Throwable t) {
+            run.waiters.forEach(waiter -> waiter.completeExceptionally(t));
+        }
+    }
+
+    private static Operation copy(Operation op) {
+        Operation copy = new Operation();
+        copy.setDocumentId(op.getDocumentId());
+        copy.setUserId(op.getUserId());
+        copy.setType(op.getType());
+        copy.setPosition(op.getPosition());
+        copy.setText(op.getText());
+        copy.setTimestamp(op.getTimestamp());
+        copy.setBaseVersion(op.getBaseVersion());
+        copy.setApplied(op.isApplied());
+        return copy;
+    }
+
+    public long getOperationsReceived() {
+        return operationsReceived.sum();
+    }
+
+    public long getOperationsSequenced() {
+        return operationsSequenced.sum();
+    }
+
+    /**
+     * Client operations received per operation sequenced; 1.0 means nothing was merged.
+     */
+    public double getCompressionRatio() {
+        long sequenced = operationsSequenced.sum();
+        return sequenced == 0 ? 1.0 : (double) operationsReceived.sum() / sequenced;
+    }
+
+    /**
+     * Sequences every queued operation and open run and waits for them. Destroyed before the
+     * actor system and the persistence pipeline, so both still take what this hands them.
+     */
+    @PreDestroy
+    public void shutdown() {
+        closing = true;
+        scheduler.shutdownNow();
+        // Operations still in the mailboxes see the flag and are sequenced as they come
+        long deadline = System.currentTimeMillis() + 5000;
+        while (queuedOffers.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        List<CompletableFuture<Void>> flushed = new ArrayList<>();
+        for (String documentId : runs.keySet()) {
+            flushed.add(actorSystem.ask(documentId, () -> {
+                sequenceOpenRuns(documentId);
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(flushed.toArray(new CompletableFuture<?>[0])).join();
+    }
+}
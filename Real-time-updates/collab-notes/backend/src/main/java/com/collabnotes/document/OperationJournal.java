@@ -0,0 +1,192 @@
+package com.collabnotes.document;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Append-only local log of operations that have been acknowledged but not yet written to
+ * Mongo. Entries are numbered; segment files are rolled by size and deleted once every
+ * entry in them has been flushed.
+ *
+ * <p>Appends only write. Durability comes from {@link #sync}, which group-commits: one
+ * fsync covers every entry written before it, so concurrent appenders share it instead of
+ * taking turns on the disk.
+ */
+class OperationJournal {
+    private static final Logger log = LoggerFactory.getLogger(OperationJournal.class);
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final boolean fsync;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // first sequence of segment -> path, for segments that may still hold unflushed entries
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private FileChannel current;
+    private long currentFirstSequence;
+    // Highest sequence written; guarded by this
+    private long written = -1;
+
+    // Separate from this, so appends continue while an fsync is in progress
+    private final Object syncLock = new Object();
+    private volatile long synced = -1;
+    private long syncCount;
+
+    OperationJournal(Path directory, long segmentBytes, boolean fsync) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Reads back every entry left by a previous run, oldest first.
+     */
+    synchronized List<Operation> recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Operation> ops = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.put(firstSequenceOf(path), path);
+            }
+        }
+        for (Path path : segments.values()) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        ops.add(objectMapper.readValue(line, Operation.class));
+                    } catch (IOException e) {
+                        // A torn final write from a crash; nothing after it was acknowledged
+                        log.warn("Skipping unreadable journal entry in {}: {}", path, e.getMessage());
+                    }
+                }
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * Deletes all segments, after their entries have been persisted elsewhere.
+     */
+    synchronized void reset() throws IOException {
+        closeCurrent();
+        for (Path path : segments.values()) {
+            Files.deleteIfExists(path);
+        }
+        segments.clear();
+    }
+
+    synchronized void append(long sequence, Operation op) throws IOException {
+        if (current == null || current.size() >= segmentBytes) {
+            roll(sequence);
+        }
+        byte[] line = (objectMapper.writeValueAsString(op) + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining()) {
+            current.write(buffer);
+        }
+        written = sequence;
+    }
+
+    /**
+     * Returns once the entry with this sequence is on disk. Whoever gets the sync lock first
+     * forces everything written so far; the appenders waiting behind it usually find their
+     * entries covered and return without an fsync of their own.
+     */
+    void sync(long sequence) throws IOException {
+        if (!fsync || synced >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= sequence) {
+                return;
+            }
+            FileChannel channel;
+            long target;
+            synchronized (this) {
+                channel = current;
+                target = written;
+            }
+            try {
+                if (channel != null) {
+                    channel.force(false);
+                    syncCount++;
+                }
+            } catch (ClosedChannelException e) {
+                // Rolled or closed since, which forces the segment before closing it
+            }
+            synced = target;
+        }
+    }
+
+    long getSyncCount() {
+        synchronized (syncLock) {
+            return syncCount;
+        }
+    }
+
+    /**
+     * Deletes the segments whose entries all have a sequence below {@code lowestUnflushed}.
+     */
+    synchronized void release(long lowestUnflushed) {
+        while (!segments.isEmpty()) {
+            Long first = segments.firstKey();
+            Long next = segments.higherKey(first);
+            boolean isCurrent = current != null && first == currentFirstSequence;
+            if (isCurrent || next == null || next > lowestUnflushed) {
+                return;
+            }
+            Path path = segments.remove(first);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Failed to delete journal segment {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    synchronized void close() throws IOException {
+        closeCurrent();
+    }
+
+    private void roll(long firstSequence) throws IOException {
+        closeCurrent();
+        Path path = directory.resolve(SEGMENT_PREFIX + String.format("%020d", firstSequence) + SEGMENT_SUFFIX);
+        current = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        currentFirstSequence = firstSequence;
+        segments.put(firstSequence, path);
+    }
+
+    private void closeCurrent() throws IOException {
+        if (current != null) {
+            current.force(false);
+            current.close();
+            current = null;
+        }
+    }
+
+    private static long firstSequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -4,58 +4,261 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import com.collabnotes.metadata.MetadataService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
+/**
+ * Revision-based transformation: an incoming operation written against {@code baseVersion}
+ * is rebased over every operation sequenced after that version, in version order. A delete
+ * that text was inserted into comes out in pieces around it.
+ *
+ * <p>A client that has operations in flight writes the next one on top of them, so its
+ * context is the base version plus its own earlier operations, as it sent them. Those are
+ * carried along as a bridge: every other client's operation is first transformed past the
+ * bridge, into the sender's context, and only then applied to the incoming operation. When
+ * one of the sender's own operations comes up in the history it leaves the bridge, as the
+ * history now contains it.
+ */
 @Component
 public class OperationTransformer {
     private static final Logger log = LoggerFactory.getLogger(OperationTransformer.class);
-    public Operation transform(Operation incoming, List<Operation> concurrentOps) {
-        Operation transformed = new Operation();
-        transformed.setDocumentId(incoming.getDocumentId());
-        transformed.setUserId(incoming.getUserId());
-        transformed.setType(incoming.getType());
-        transformed.setText(incoming.getText());
-        transformed.setTimestamp(System.currentTimeMillis());
 
-        int position = incoming.getPosition();
-        for (Operation existing : concurrentOps) {
-            if (existing.getTimestamp() < incoming.getTimestamp()) {
-                position = adjustPosition(position, existing);
+    private static final class Bridged {
+        final Operation submitted;
+        List<Operation> form;
+
+        Bridged(Operation submitted, List<Operation> form) {
+            this.submitted = submitted;
+            this.form = form;
+        }
+    }
+
+    /**
+     * The lowest base version the transformation of an operation from {@code clientId} needs
+     * history after: its own, or that of one of its client's operations still in flight.
+     */
+    public int earliestBase(String clientId, int baseVersion, List<Operation> history) {
+        int earliest = baseVersion;
+        for (Operation op : history) {
+            if (op.getVersion() > baseVersion && isOwn(op, clientId) && op.getSubmitted() != null) {
+                earliest = Math.min(earliest, op.getSubmitted().getBaseVersion());
             }
         }
-        transformed.setPosition(position);
-        transformed.setVersion(getNextVersion(concurrentOps));
-        transformed.setApplied(true);
-        log.info("Transformed operation: {}, from position: {}, to position: {}", incoming.getType(), incoming.getPosition(), position);
-        return transformed;
+        return earliest;
     }
 
-    private int adjustPosition(int position, Operation existing) {
-        if ("INSERT".equals(existing.getType())) {
-            if (existing.getPosition() <= position) {
-                return  position + existing.getText().length();
+    /**
+     * @param history every operation after {@link #earliestBase}, in version order
+     * @return the rebased operation, or for a split delete its pieces, each applying to the
+     *         document as the ones before it left it
+     */
+    public List<Operation> transform(Operation incoming, List<Operation> history) {
+        int latest = history.isEmpty() ? incoming.getBaseVersion() : history.get(history.size() - 1).getVersion();
+        List<Operation> pieces = rebase(incoming, incoming.getClientId(), incoming.getBaseVersion(), latest,
+                Integer.MAX_VALUE, history, new IdentityHashMap<>());
+
+        log.debug("Transformed operation: {}, from position: {}, in {} pieces against {} operations",
+                incoming.getType(), incoming.getPosition(), pieces.size(), history.size());
+        if (pieces.isEmpty()) {
+            // Everything it would have deleted is already gone
+            Operation noop = copy(incoming);
+            noop.setText("");
+            noop.setApplied(false);
+            return Collections.singletonList(noop);
+        }
+        return pieces;
+    }
+
+    /**
+     * Brings {@code submitted}, written against version {@code from} plus its client's
+     * operations sequenced after {@code from} and before {@code before}, to version {@code to}
+     * plus those of them sequenced after {@code to}.
+     */
+    private List<Operation> rebase(Operation submitted, String clientId, int from, int to, int before,
+                                   List<Operation> history, Map<Operation, Map<Integer, List<Operation>>> forms) {
+        LinkedList<Bridged> bridge = new LinkedList<>();
+        Operation group = null;
+        for (Operation op : history) {
+            if (op.getVersion() > from && op.getVersion() < before && isOwn(op, clientId)
+                    && op.getSubmitted() != null && op.getSubmitted() != group) {
+                group = op.getSubmitted();
+                bridge.add(new Bridged(group, formAt(group, op.getVersion(), clientId, from, history, forms)));
             }
-        } else if ("DELETE".equals(existing.getType())) {
-            int deleteEnd = existing.getPosition() + existing.getText().length();
-            if (existing.getPosition() < position) {
-                if (deleteEnd <= position) {
-                    return position -  existing.getText().length();
-                } else {
-                    return existing.getPosition();
+        }
+
+        List<Operation> pieces = Collections.singletonList(copy(submitted));
+        for (Operation existing : history) {
+            if (existing.getVersion() <= from || existing.getVersion() > to) {
+                continue;
+            }
+            if (isOwn(existing, clientId)) {
+                // Already part of the context it was written in; from here on also of the history.
+                // Own operations sequenced before this node knew their submitted form are taken as seen.
+                if (!bridge.isEmpty() && bridge.getFirst().submitted == existing.getSubmitted()) {
+                    bridge.removeFirst();
                 }
+                continue;
+            }
+            if (!existing.isApplied()) {
+                continue;
+            }
+            List<Operation> other = Collections.singletonList(existing);
+            for (Bridged own : bridge) {
+                List<List<Operation>> crossed = transformSequences(other, own.form, true);
+                other = crossed.get(0);
+                own.form = crossed.get(1);
+            }
+            pieces = transformSequences(pieces, other, false).get(0);
+            if (pieces.isEmpty()) {
+                break;
             }
         }
-        return position;
+        return pieces;
     }
 
-    private int getNextVersion(List<Operation> ops) {
-        int maxVersion = 0;
-        for (Operation op: ops) {
-            if (op.getVersion() > maxVersion) {
-                maxVersion = op.getVersion();
+    /**
+     * One of the client's earlier operations as it stood against version {@code target}
+     * plus the client's operations before it; shared between the bridges that need it.
+     */
+    private List<Operation> formAt(Operation submitted, int firstVersion, String clientId, int target,
+                                   List<Operation> history, Map<Operation, Map<Integer, List<Operation>>> forms) {
+        // Not computeIfAbsent: computing a form fills in the forms it depends on
+        Map<Integer, List<Operation>> byTarget = forms.computeIfAbsent(submitted, s -> new HashMap<>());
+        List<Operation> form = byTarget.get(target);
+        if (form == null) {
+            form = rebase(submitted, clientId, Math.min(submitted.getBaseVersion(), target), target, firstVersion,
+                    history, forms);
+            forms.get(submitted).put(target, form);
+        }
+        return form;
+    }
+
+    /**
+     * Transforms two sequences of operations written against the same document past each
+     * other.
+     *
+     * @param aFirst whether {@code a} was sequenced first, which decides inserts at the same position
+     * @return {@code a} as it applies after {@code b}, and {@code b} as it applies after {@code a}
+     */
+    static List<List<Operation>> transformSequences(List<Operation> a, List<Operation> b, boolean aFirst) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return List.of(a, b);
+        }
+        if (a.size() > 1) {
+            List<List<Operation>> head = transformSequences(a.subList(0, 1), b, aFirst);
+            List<List<Operation>> tail = transformSequences(a.subList(1, a.size()), head.get(1), aFirst);
+            return List.of(concat(head.get(0), tail.get(0)), tail.get(1));
+        }
+        if (b.size() > 1) {
+            List<List<Operation>> head = transformSequences(a, b.subList(0, 1), aFirst);
+            List<List<Operation>> tail = transformSequences(head.get(0), b.subList(1, b.size()), aFirst);
+            return List.of(tail.get(0), concat(head.get(1), tail.get(1)));
+        }
+        return List.of(include(a.get(0), b.get(0), !aFirst), include(b.get(0), a.get(0), aFirst));
+    }
+
+    /**
+     * Rebases one operation so it applies after {@code existing}, which may split a delete in
+     * two (later piece first) or leave nothing to delete.
+     *
+     * @param existingFirst whether {@code existing} was sequenced first; at the same position
+     *                      its inserted text then goes before {@code op}'s
+     */
+    private static List<Operation> include(Operation op, Operation existing, boolean existingFirst) {
+        if (!op.isApplied() || !existing.isApplied()) {
+            return Collections.singletonList(op);
+        }
+        int start = op.getPosition();
+        String text = op.getText() != null ? op.getText() : "";
+        int length = textLength(existing);
+        int otherStart = existing.getPosition();
+        int otherEnd = otherStart + length;
+
+        if ("INSERT".equals(op.getType())) {
+            if ("INSERT".equals(existing.getType())) {
+                if (otherStart < start || otherStart == start && existingFirst) {
+                    return Collections.singletonList(piece(op, start + length, text));
+                }
+            } else if ("DELETE".equals(existing.getType())) {
+                if (otherEnd <= start) {
+                    return Collections.singletonList(piece(op, start - length, text));
+                } else if (otherStart < start) {
+                    return Collections.singletonList(piece(op, otherStart, text));
+                }
+            }
+            return Collections.singletonList(op);
+        }
+
+        if (!"DELETE".equals(op.getType())) {
+            return Collections.singletonList(op);
+        }
+        int end = start + text.length();
+        if ("INSERT".equals(existing.getType())) {
+            if (otherStart <= start) {
+                return Collections.singletonList(piece(op, start + length, text));
+            } else if (otherStart < end) {
+                // Text was inserted inside the range and must survive: delete around it
+                int split = otherStart - start;
+                return List.of(piece(op, otherStart + length, text.substring(split)),
+                        piece(op, start, text.substring(0, split)));
+            }
+        } else if ("DELETE".equals(existing.getType())) {
+            if (otherEnd <= start) {
+                return Collections.singletonList(piece(op, start - length, text));
+            } else if (otherStart < end) {
+                // Overlapping deletes: only remove what is still there
+                int overlapStart = Math.max(start, otherStart);
+                int overlapEnd = Math.min(end, otherEnd);
+                String remaining = text.substring(0, overlapStart - start) + text.substring(overlapEnd - start);
+                return remaining.isEmpty() ? Collections.emptyList()
+                        : Collections.singletonList(piece(op, Math.min(start, otherStart), remaining));
             }
         }
-        return maxVersion + 1;
+        return Collections.singletonList(op);
+    }
+
+    private static boolean isOwn(Operation op, String clientId) {
+        return clientId != null && Objects.equals(op.getClientId(), clientId);
+    }
+
+    private static List<Operation> concat(List<Operation> first, List<Operation> second) {
+        List<Operation> all = new ArrayList<>(first.size() + second.size());
+        all.addAll(first);
+        all.addAll(second);
+        return all;
+    }
+
+    private static Operation piece(Operation of, int position, String text) {
+        Operation piece = copy(of);
+        piece.setPosition(position);
+        piece.setText(text);
+        return piece;
+    }
+
+    /**
+     * The client-visible fields of an operation, without its version and identity.
+     */
+    static Operation copy(Operation of) {
+        Operation copy = new Operation();
+        copy.setDocumentId(of.getDocumentId());
+        copy.setUserId(of.getUserId());
+        copy.setClientId(of.getClientId());
+        copy.setType(of.getType());
+        copy.setTimestamp(of.getTimestamp());
+        copy.setBaseVersion(of.getBaseVersion());
+        copy.setApplied(of.isApplied());
+        copy.setPosition(of.getPosition());
+        copy.setText(of.getText());
+        return copy;
+    }
+
+    private static int textLength(Operation op) {
+        return op.getText() != null ? op.getText().length() : 0;
     }
 }
@@ -4,13 +4,23 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
 import java.util.List;
+import java.util.Optional;
 
-public interface OperationsRepository extends MongoRepository<Operation, String> {
-    List<Operation> findByDocumentIdOrderByTimestampAsc(String documentId);
-    List<Operation> findByDocumentIdAndAppliedTrueOrderByTimestampAsc(String documentId);
+/**
+ * Operation log queries. Everything filters on documentId and orders by version, so each
+ * one is served by the (documentId, version) or (documentId, applied, version) index
+ * declared on {@link Operation}; timestamps are neither unique nor in version order.
+ */
+public interface OperationsRepository extends MongoRepository<Operation, String>, OperationsRepositoryCustom {
+    List<Operation> findByDocumentIdOrderByVersionAsc(String documentId);
+    List<Operation> findByDocumentIdAndAppliedTrueOrderByVersionAsc(String documentId);
+    List<Operation> findByDocumentIdAndVersionGreaterThanOrderByVersionAsc(String documentId, int version);
+    List<Operation> findByDocumentIdAndAppliedTrueAndVersionGreaterThanOrderByVersionAsc(String documentId, int version);
+    Optional<Operation> findFirstByDocumentIdOrderByVersionDesc(String documentId);
     @Query("{ 'documentId': ?0, 'timestamp': { $gte: ?1 } }")
     List<Operation> findOperationsAfterTimestamp(String documentId, long timestamp);
-    @Query(value = "{ 'documentId': ?0", sort = "{ 'version': -1 }", fields = "{'version': 1 }")
-    List<Operation> findLatestVersion(String documentId);
 
+    long countByDocumentId(String documentId);
+    long countByDocumentIdAndAppliedTrue(String documentId);
+    long countByDocumentIdAndVersionGreaterThan(String documentId, int version);
 }
@@ -0,0 +1,41 @@
+package com.collabnotes.document;
+
+import java.util.List;
+
+public interface OperationsRepositoryCustom {
+    /**
+     * Writes a batch of new operations in one round trip. Operations that already exist
+     * (same id) are overwritten, so a batch can safely be retried. An operation whose version
+     * is already held by a different one cannot go in, as (documentId, version) is unique; it
+     * is kept in the conflicts collection instead.
+     *
+     * @return the operations that lost a version conflict
+     */
+    List<Operation> insertBatch(List<Operation> operations);
+
+    /**
+     * Removes a document's operations up to and including the given version,
+     * optionally copying them to the archive collection first.
+     *
+     * @return number of operations removed from the live collection
+     */
+    long compactOperations(String documentId, int upToVersion, boolean archive);
+
+    /**
+     * Applied operations with versions in ({@code afterVersion}, {@code upToVersion}], in
+     * version order; one page of a streamed initialization.
+     */
+    List<Operation> findAppliedInVersionRange(String documentId, int afterVersion, int upToVersion);
+
+    /**
+     * Every operation, applied or not, with versions in ({@code afterVersion}, {@code upToVersion}],
+     * in version order.
+     */
+    List<Operation> findInVersionRange(String documentId, int afterVersion, int upToVersion);
+
+    /**
+     * Highest version of the document's operations, or 0 if it has none. Answered from the
+     * (documentId, version) index alone, without fetching the operation.
+     */
+    int findLatestVersion(String documentId);
+}
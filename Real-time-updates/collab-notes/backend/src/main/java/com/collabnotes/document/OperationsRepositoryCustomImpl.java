@@ -0,0 +1,105 @@
+package com.collabnotes.document;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class OperationsRepositoryCustomImpl implements OperationsRepositoryCustom {
+    private static final Logger log = LoggerFactory.getLogger(OperationsRepositoryCustomImpl.class);
+
+    static final String ARCHIVE_COLLECTION = "operations_archive";
+    static final String CONFLICTS_COLLECTION = "operations_conflicts";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public List<Operation> insertBatch(List<Operation> operations) {
+        try {
+            mongoTemplate.insert(operations, Operation.class);
+            return Collections.emptyList();
+        } catch (DuplicateKeyException e) {
+            // A previous attempt got part of the batch in; fall back to per-document upserts
+            List<Operation> conflicts = new ArrayList<>();
+            for (Operation op : operations) {
+                try {
+                    mongoTemplate.save(op);
+                } catch (DuplicateKeyException conflict) {
+                    // Another operation already holds this version, written by a node that owned
+                    // the document at the same time. The log keeps the one that got there first;
+                    // this one was acknowledged too, so it is kept aside rather than lost.
+                    log.error("Operation {} conflicts with version {} of document {}; keeping it in {}",
+                            op.getId(), op.getVersion(), op.getDocumentId(), CONFLICTS_COLLECTION);
+                    mongoTemplate.save(op, CONFLICTS_COLLECTION);
+                    conflicts.add(op);
+                }
+            }
+            return conflicts;
+        }
+    }
+
+    @Override
+    public long compactOperations(String documentId, int upToVersion, boolean archive) {
+        Query query = new Query(Criteria.where("documentId").is(documentId)
+                .and("version").lte(upToVersion))
+                .with(Sort.by(Sort.Direction.ASC, "version"));
+
+        if (archive) {
+            List<Operation> ops = mongoTemplate.find(query, Operation.class);
+            if (ops.isEmpty()) {
+                return 0;
+            }
+            // Upsert by id so a compaction retried after a partial failure does not trip on duplicates
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ARCHIVE_COLLECTION);
+            for (Operation op : ops) {
+                bulk.replaceOne(Query.query(Criteria.where("_id").is(op.getId())), op,
+                        FindAndReplaceOptions.options().upsert());
+            }
+            bulk.execute();
+        }
+        return mongoTemplate.remove(query, Operation.class).getDeletedCount();
+    }
+
+    @Override
+    public List<Operation> findAppliedInVersionRange(String documentId, int afterVersion, int upToVersion) {
+        Query query = new Query(Criteria.where("documentId").is(documentId)
+                .and("applied").is(true)
+                .and("version").gt(afterVersion).lte(upToVersion))
+                .with(Sort.by(Sort.Direction.ASC, "version"));
+        // A bounded range, so the cursor never holds more than one page
+        query.cursorBatchSize(Math.max(1, Math.min(upToVersion - afterVersion, 1000)));
+        return mongoTemplate.find(query, Operation.class);
+    }
+
+    @Override
+    public List<Operation> findInVersionRange(String documentId, int afterVersion, int upToVersion) {
+        Query query = new Query(Criteria.where("documentId").is(documentId)
+                .and("version").gt(afterVersion).lte(upToVersion))
+                .with(Sort.by(Sort.Direction.ASC, "version"));
+        return mongoTemplate.find(query, Operation.class);
+    }
+
+    @Override
+    public int findLatestVersion(String documentId) {
+        Query query = new Query(Criteria.where("documentId").is(documentId))
+                .with(Sort.by(Sort.Direction.DESC, "version"))
+                .limit(1);
+        // Only indexed fields, so Mongo answers from the index without reading the document
+        query.fields().include("version").exclude("_id");
+        Document latest = mongoTemplate.findOne(query, Document.class,
+                mongoTemplate.getCollectionName(Operation.class));
+        return latest != null && latest.get("version") instanceof Number ? ((Number) latest.get("version")).intValue() : 0;
+    }
+}
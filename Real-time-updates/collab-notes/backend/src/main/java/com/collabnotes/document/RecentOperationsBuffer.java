@@ -0,0 +1,104 @@
+package com.collabnotes.document;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-document ring buffer of the most recently sequenced operations, used to find the
+ * operations a client had not seen yet without going back to Mongo.
+ */
+@Component
+public class RecentOperationsBuffer {
+
+    static class Ring {
+        private final Operation[] slots;
+        private int head;
+        private int size;
+
+        Ring(int capacity) {
+            this.slots = new Operation[capacity];
+        }
+
+        synchronized void add(Operation op) {
+            if (size > 0 && op.getVersion() != newest().getVersion() + 1) {
+                // Out-of-sequence append; start over rather than serve a history with holes
+                head = 0;
+                size = 0;
+            }
+            slots[(head + size) % slots.length] = op;
+            if (size < slots.length) {
+                size++;
+            } else {
+                head = (head + 1) % slots.length;
+            }
+        }
+
+        synchronized List<Operation> after(int version) {
+            if (size == 0 || slots[head].getVersion() > version + 1) {
+                return null;
+            }
+            List<Operation> result = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                Operation op = slots[(head + i) % slots.length];
+                if (op.getVersion() > version) {
+                    result.add(op);
+                }
+            }
+            return result;
+        }
+
+        private Operation newest() {
+            return slots[(head + size - 1) % slots.length];
+        }
+    }
+
+    private final int capacity;
+    private final int maxDocuments;
+    private final Map<String, Ring> rings;
+
+    public RecentOperationsBuffer(@Value("${collaboration.max-operation-history:1000}") int capacity,
+                                  @Value("${collaboration.recent-ops.max-documents:1000}") int maxDocuments) {
+        this.capacity = capacity;
+        this.maxDocuments = maxDocuments;
+        this.rings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+                return size() > RecentOperationsBuffer.this.maxDocuments;
+            }
+        };
+    }
+
+    public void add(Operation op) {
+        ring(op.getDocumentId()).add(op);
+    }
+
+    /**
+     * Operations with a version greater than the given one, in version order.
+     *
+     * @return null if the buffer no longer holds the whole range
+     */
+    public List<Operation> getOperationsAfter(String documentId, int version) {
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.get(documentId);
+        }
+        return ring != null ? ring.after(version) : null;
+    }
+
+    public void forget(String documentId) {
+        synchronized (rings) {
+            rings.remove(documentId);
+        }
+    }
+
+    private Ring ring(String documentId) {
+        synchronized (rings) {
+            return rings.computeIfAbsent(documentId, k -> new Ring(capacity));
+        }
+    }
+}
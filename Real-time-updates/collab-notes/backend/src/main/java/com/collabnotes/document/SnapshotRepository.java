@@ -0,0 +1,12 @@
+package com.collabnotes.document;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface SnapshotRepository extends MongoRepository<DocumentSnapshot, String> {
+    Optional<DocumentSnapshot> findFirstByDocumentIdOrderByVersionDesc(String documentId);
+    Optional<DocumentSnapshot> findFirstByDocumentIdAndVersionLessThanEqualOrderByVersionDesc(String documentId, int version);
+    List<DocumentSnapshot> findByDocumentIdOrderByVersionDesc(String documentId);
+}
@@ -0,0 +1,210 @@
+package com.collabnotes.document;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes periodic snapshots of hot documents and compacts the operation log behind
+ * the oldest retained snapshot. Snapshots are captured on the document's actor but
+ * written from a thread of their own, so a slow Mongo does not hold up the document.
+ */
+@Service
+public class SnapshotService {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotService.class);
+
+    private static class Progress {
+        final int version;
+        final long timestamp;
+        // Last time an operation was applied; entries idle for longer are dropped
+        volatile long lastApplied = System.currentTimeMillis();
+
+        Progress(int version, long timestamp) {
+            this.version = version;
+            this.timestamp = timestamp;
+        }
+    }
+
+    @Autowired
+    private SnapshotRepository snapshotRepository;
+
+    @Autowired
+    private OperationsRepository operationsRepository;
+
+    @Value("${collaboration.snapshot.interval-ops:500}")
+    private int intervalOps;
+
+    @Value("${collaboration.snapshot.interval-ms:60000}")
+    private long intervalMs;
+
+    @Value("${collaboration.snapshot.retained:2}")
+    private int retainedSnapshots;
+
+    @Value("${collaboration.snapshot.compaction.enabled:true}")
+    private boolean compactionEnabled;
+
+    @Value("${collaboration.snapshot.compaction.archive:true}")
+    private boolean archiveCompactedOps;
+
+    @Value("${collaboration.snapshot.idle-ms:600000}")
+    private long idleMs;
+
+    private final Map<String, Progress> lastSnapshots = new ConcurrentHashMap<>();
+    private final Set<String> compactionCandidates = ConcurrentHashMap.newKeySet();
+    // One thread keeps each document's snapshots in the order they were taken
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public Optional<DocumentSnapshot> getLatestSnapshot(String documentId) {
+        Optional<DocumentSnapshot> snapshot = snapshotRepository.findFirstByDocumentIdOrderByVersionDesc(documentId);
+        lastSnapshots.putIfAbsent(documentId, snapshot
+                .map(s -> new Progress(s.getVersion(), s.getTimestamp()))
+                .orElse(new Progress(0, System.currentTimeMillis())));
+        return snapshot;
+    }
+
+    /**
+     * The latest snapshot taken at or before {@code version}, to replay a past version from.
+     */
+    public Optional<DocumentSnapshot> getSnapshotAtOrBefore(String documentId, int version) {
+        return snapshotRepository.findFirstByDocumentIdAndVersionLessThanEqualOrderByVersionDesc(documentId, version);
+    }
+
+    /**
+     * Takes a snapshot of the given state if enough operations or time have passed since
+     * the document's last snapshot, and queues it to be persisted.
+     */
+    public void onOperationApplied(String documentId, DocumentState state) {
+        Progress last = lastSnapshots.get(documentId);
+        if (last == null) {
+            getLatestSnapshot(documentId);
+            last = lastSnapshots.get(documentId);
+        }
+        last.lastApplied = System.currentTimeMillis();
+
+        int version = state.getVersion();
+        boolean dueByOps = version - last.version >= intervalOps;
+        boolean dueByTime = version > last.version && System.currentTimeMillis() - last.timestamp >= intervalMs;
+        if (!dueByOps && !dueByTime) {
+            return;
+        }
+
+        // Copied here, while the actor holds the state still
+        DocumentSnapshot snapshot = state.toSnapshot(documentId);
+        Progress taken = new Progress(snapshot.getVersion(), snapshot.getTimestamp());
+        lastSnapshots.put(documentId, taken);
+        Progress previous = last;
+        try {
+            writer.execute(() -> save(snapshot, taken, previous));
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the next owner or restart takes one
+            lastSnapshots.replace(documentId, taken, previous);
+        }
+    }
+
+    private void save(DocumentSnapshot snapshot, Progress taken, Progress previous) {
+        String documentId = snapshot.getDocumentId();
+        try {
+            snapshotRepository.save(snapshot);
+            compactionCandidates.add(documentId);
+            log.info("Snapshot of document {} taken at version {}", documentId, snapshot.getVersion());
+        } catch (Exception e) {
+            // Due again with the next operation, unless a later snapshot was taken meanwhile
+            lastSnapshots.replace(documentId, taken, previous);
+            log.error("Failed to snapshot document {}: {}", documentId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stops tracking the document, e.g. when it moves to another node. Tracking resumes from
+     * its latest stored snapshot when it is next used.
+     */
+    public void forget(String documentId) {
+        lastSnapshots.remove(documentId);
+    }
+
+    /**
+     * Forgets documents no operation was applied to for a while, so the progress map holds
+     * only hot ones. A snapshot still due for one is taken when it is next edited.
+     */
+    @Scheduled(fixedDelayString = "${collaboration.snapshot.idle-check-interval-ms:60000}")
+    public void forgetIdleDocuments() {
+        long cutoff = System.currentTimeMillis() - idleMs;
+        lastSnapshots.values().removeIf(progress -> progress.lastApplied < cutoff);
+    }
+
+    int getTrackedDocumentCount() {
+        return lastSnapshots.size();
+    }
+
+    /**
+     * Returns once every snapshot taken so far is written.
+     */
+    void awaitWritten() throws InterruptedException, ExecutionException {
+        writer.submit(() -> { }).get();
+    }
+
+    /**
+     * Waits for snapshots already taken to be written.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        writer.shutdown();
+        if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("Snapshots were still being written at shutdown");
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${collaboration.snapshot.compaction.interval-ms:600000}")
+    public void compact() {
+        if (!compactionEnabled || compactionCandidates.isEmpty()) {
+            return;
+        }
+        for (String documentId : compactionCandidates) {
+            compactionCandidates.remove(documentId);
+            try {
+                compactDocument(documentId);
+            } catch (Exception e) {
+                log.error("Compaction failed for document {}: {}", documentId, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void compactDocument(String documentId) {
+        int retained = Math.max(1, retainedSnapshots);
+        List<DocumentSnapshot> snapshots = snapshotRepository.findByDocumentIdOrderByVersionDesc(documentId);
+        if (snapshots.size() < retained) {
+            return;
+        }
+
+        // Operations up to the oldest retained snapshot can no longer be needed by any reader
+        DocumentSnapshot oldestRetained = snapshots.get(retained - 1);
+        List<DocumentSnapshot> expired = snapshots.subList(retained, snapshots.size());
+
+        long removed = operationsRepository.compactOperations(
+                documentId, oldestRetained.getVersion(), archiveCompactedOps);
+        snapshotRepository.deleteAll(expired);
+
+        log.info("Compacted document {}: {} operations {} up to version {}, {} old snapshots dropped",
+                documentId, removed, archiveCompactedOps ? "archived" : "deleted",
+                oldestRetained.getVersion(), expired.size());
+    }
+}
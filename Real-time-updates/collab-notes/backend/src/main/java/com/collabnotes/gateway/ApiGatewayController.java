@@ -3,12 +3,32 @@ package com.collabnotes.gateway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import com.collabnotes.document.DocumentSnapshot;
+import com.collabnotes.document.HistoryUnavailableException;
 import com.collabnotes.metadata.DocumentMetadata;
+import com.collabnotes.metadata.DocumentPage;
+import com.collabnotes.metadata.ListingCursor;
 import com.collabnotes.metadata.MetadataService;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 @RestController
 @RequestMapping("/docs")
@@ -29,43 +49,293 @@ public class ApiGatewayController {
     }
 
     private static final Logger log = LoggerFactory.getLogger(ApiGatewayController.class);
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String DOCUMENT_VERSION_HEADER = "X-Document-Version";
+    public static final String DOCUMENT_LENGTH_HEADER = "X-Document-Length";
+
+    private static final Pattern CHAR_RANGE = Pattern.compile("chars=(\\d*)-(\\d*)");
+
+    private static final MediaType TEXT_UTF8 = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+
+    private static final Map<String, Function<DocumentMetadata, Object>> FIELDS = new LinkedHashMap<>();
+    static {
+        FIELDS.put("id", DocumentMetadata::getId);
+        FIELDS.put("title", DocumentMetadata::getTitle);
+        FIELDS.put("createdBy", DocumentMetadata::getCreatedBy);
+        FIELDS.put("createdByName", DocumentMetadata::getCreatedByName);
+        FIELDS.put("createdAt", DocumentMetadata::getCreatedAt);
+        FIELDS.put("updatedAt", DocumentMetadata::getUpdatedAt);
+    }
+
     @Autowired
     private MetadataService metadataService;
 
+    @Autowired
+    private OperationRouter router;
+
+    // Metadata lives in JPA; off the event loop when the gateway is reactive
+    @Autowired
+    private BlockingCallExecutor blockingCalls;
+
+    @Value("${collaboration.metadata.listing.default-page-size:100}")
+    private int defaultPageSize;
+
+    @Value("${collaboration.metadata.listing.max-page-size:500}")
+    private int maxPageSize;
+
     @PostMapping
-    public ResponseEntity<DocumentMetadata> createDocument(@RequestBody CreateDocumentRequest request) {
+    public CompletableFuture<ResponseEntity<DocumentMetadata>> createDocument(@RequestBody CreateDocumentRequest request) {
         log.info("API Gateway: POST /docs - Creating document: {} by {}", request.getTitle(), request.getCreatedByName());
-        DocumentMetadata metadata = metadataService.createDocument(
+        return blockingCalls.supply(() -> metadataService.createDocument(
             request.getTitle(), 
             request.getCreatedBy(),
             request.getCreatedByName()
-        );
-        return ResponseEntity.ok(metadata);
+        )).thenApply(ResponseEntity::ok);
 
     }
 
     @GetMapping
-    public ResponseEntity<List<DocumentMetadata>> getAllDocuments() {
-        log.info("API Gateway: GET /docs - Listing all document");
-        List<DocumentMetadata> documents = metadataService.getAllDocuments();
-        return ResponseEntity.ok(documents);
+    public CompletableFuture<ResponseEntity<List<?>>> getAllDocuments(
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String fields,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        log.info("API Gateway: GET /docs - Listing documents after {}", after);
+        ListingCursor cursor = parseCursor(after);
+        int pageSize = limit != null ? limit : defaultPageSize;
+        if (pageSize < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be positive");
+        }
+        pageSize = Math.min(pageSize, maxPageSize);
+        List<String> projection = parseFields(fields);
+
+        int size = pageSize;
+        return blockingCalls.supply(() -> metadataService.getDocumentsPage(cursor, size)).thenApply(page -> {
+            // Weak, as the body may be sent gzipped; a strong ETag would also stop Tomcat compressing it
+            String etag = listingTag(page, projection);
+            if (matches(ifNoneMatch, etag)) {
+                return notModified(etag);
+            }
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache());
+            if (page.getNext() != null) {
+                response.header(NEXT_CURSOR_HEADER, page.getNext().encode());
+            }
+            return response.body(projection == null ? page.getDocuments() : project(page.getDocuments(), projection));
+        });
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<DocumentMetadata> getDocument(@PathVariable String id) {
+    public CompletableFuture<ResponseEntity<DocumentMetadata>> getDocument(@PathVariable String id) {
         log.info("API Gateway: SET /docs/ {}",  id);
-        DocumentMetadata metadata = metadataService.getDocument(id);
-        return  ResponseEntity.ok(metadata);
+        return blockingCalls.supply(() -> metadataService.getDocument(id)).thenApply(ResponseEntity::ok);
 
     }
 
+    /**
+     * The document's text, at {@code version} or the latest, optionally only the
+     * {@code length} characters from {@code offset}, or the characters a single
+     * {@code Range: chars=first-last} asks for (206, or 416 past the end). X-Document-Version
+     * and X-Document-Length give the version served and the full length, for reading the rest.
+     */
     @GetMapping("/{id}/content")
-    public ResponseEntity<String> getDocumentContent(@PathVariable String id) {
-        log.info("API Gateway: GET /docs/{}/content", id);
+    public CompletableFuture<ResponseEntity<String>> getDocumentContent(
+            @PathVariable String id,
+            @RequestParam(required = false) Integer version,
+            @RequestParam(required = false) Integer offset,
+            @RequestParam(required = false) Integer length,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        log.info("API Gateway: GET /docs/{}/content at version {}", id, version != null ? version : "latest");
+        if ((offset != null && offset < 0) || (length != null && length < 0)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "offset and length must not be negative");
+        }
+        if (range != null && (offset != null || length != null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Use either offset and length or a Range header");
+        }
+
+        return blockingCalls.supply(() -> {
+            if (!metadataService.findDocument(id).isPresent()) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Document not found: " + id);
+            }
+            // The owner has the only current copy; asked for the version first, so a client
+            // already holding it is answered without the text crossing the cluster
+            int latest = await(router.documentVersion(id));
+            if (version != null && (version < 0 || version > latest)) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Document " + id + " has no version " + version);
+            }
+            String expected = versionTag(version != null ? version : latest);
+            if (matches(ifNoneMatch, expected)) {
+                return notModified(expected);
+            }
+
+            DocumentSnapshot snapshot;
+            try {
+                snapshot = await(router.documentContent(id, version));
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+            } catch (HistoryUnavailableException e) {
+                throw new ResponseStatusException(HttpStatus.GONE, e.getMessage());
+            }
+
+            // The latest may have moved on since it was compared
+            String etag = versionTag(snapshot.getVersion());
+            if (matches(ifNoneMatch, etag)) {
+                return notModified(etag);
+            }
+            String content = snapshot.getContent();
+            ResponseEntity.BodyBuilder response;
+            int from;
+            int to;
+            int[] chars = range != null ? charRange(range, content.length()) : null;
+            if (chars != null && chars.length == 0) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "chars */" + content.length())
+                        .<String>build();
+            } else if (chars != null) {
+                from = chars[0];
+                to = chars[1];
+                response = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                        .header(HttpHeaders.CONTENT_RANGE, "chars " + from + "-" + (to - 1) + "/" + content.length());
+            } else {
+                from = offset != null ? Math.min(offset, content.length()) : 0;
+                to = length != null ? (int) Math.min((long) from + length, content.length()) : content.length();
+                response = ResponseEntity.ok();
+            }
+            // Large bodies are gzipped by the server (server.compression)
+            return response
+                    .eTag(etag)
+                    .cacheControl(CacheControl.noCache())
+                    .contentType(TEXT_UTF8)
+                    .header(HttpHeaders.ACCEPT_RANGES, "chars")
+                    .header(DOCUMENT_VERSION_HEADER, String.valueOf(snapshot.getVersion()))
+                    .header(DOCUMENT_LENGTH_HEADER, String.valueOf(content.length()))
+                    .body(content.substring(from, to));
+        });
+    }
+
+    /**
+     * The [from, to) characters of a text of {@code length} that a single "chars=" range asks
+     * for, or an empty array if none of them exist. Null when the header is to be ignored and
+     * the whole text sent: another unit, several ranges, or not a valid range.
+     */
+    static int[] charRange(String range, int length) {
+        Matcher matcher = CHAR_RANGE.matcher(range.trim());
+        if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            return null;
+        }
+        try {
+            if (matcher.group(1).isEmpty()) {
+                // The last n characters
+                long suffix = Long.parseLong(matcher.group(2));
+                return suffix == 0 || length == 0 ? new int[0] : new int[] {(int) Math.max(0, length - suffix), length};
+            }
+            long first = Long.parseLong(matcher.group(1));
+            long last = matcher.group(2).isEmpty() ? Long.MAX_VALUE : Long.parseLong(matcher.group(2));
+            if (last < first) {
+                return null;
+            }
+            return first >= length ? new int[0] : new int[] {(int) first, (int) Math.min(last, length - 1) + 1};
+        } catch (NumberFormatException e) {
+            // Too many digits for a long
+            return null;
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> result) {
         try {
-            return ResponseEntity.ok("Document content placeholder");
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body("Error: "+ e.getMessage());
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
     }
+
+    /**
+     * Derived from what the page holds, so it changes exactly when the page does: how many
+     * documents, the latest updatedAt among them, and a checksum of every id and updatedAt,
+     * whether another page follows and which fields were asked for. Cached pages make it cheap.
+     */
+    private static String listingTag(DocumentPage page, List<String> projection) {
+        CRC32 checksum = new CRC32();
+        long latest = 0;
+        for (DocumentMetadata document : page.getDocuments()) {
+            long updatedAt = document.getUpdatedAt() != null ? document.getUpdatedAt().getTime() : 0;
+            latest = Math.max(latest, updatedAt);
+            checksum.update((document.getId() + ":" + updatedAt + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        checksum.update((page.getNext() != null ? "more" : "last").getBytes(StandardCharsets.UTF_8));
+        if (projection != null) {
+            checksum.update(String.join(",", projection).getBytes(StandardCharsets.UTF_8));
+        }
+        return "W/\"" + page.getDocuments().size() + "-" + Long.toString(latest, 36) + "-"
+                + Long.toHexString(checksum.getValue()) + "\"";
+    }
+
+    private static String versionTag(int version) {
+        return "W/\"" + version + "\"";
+    }
+
+    private static <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+    }
+
+    private static ListingCursor parseCursor(String after) {
+        if (after == null || after.isEmpty()) {
+            return null;
+        }
+        try {
+            return ListingCursor.decode(after);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    private static List<String> parseFields(String fields) {
+        if (fields == null || fields.isEmpty()) {
+            return null;
+        }
+        List<String> projection = new ArrayList<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!FIELDS.containsKey(name)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown field " + name);
+            }
+            projection.add(name);
+        }
+        return projection;
+    }
+
+    private static List<Map<String, Object>> project(List<DocumentMetadata> documents, List<String> fields) {
+        List<Map<String, Object>> projected = new ArrayList<>(documents.size());
+        for (DocumentMetadata document : documents) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (String field : fields) {
+                values.put(field, FIELDS.get(field).apply(document));
+            }
+            projected.add(values);
+        }
+        return projected;
+    }
+
+    // Weak comparison, as If-None-Match calls for
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = withoutWeakPrefix(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = withoutWeakPrefix(candidate.trim());
+            if (tag.equals("*") || tag.equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String withoutWeakPrefix(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
 }
@@ -0,0 +1,121 @@
+package com.collabnotes.gateway;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lossy presence channel. Cursor updates only overwrite the user's latest position; once
+ * per tick every document with changes gets a single CURSORS frame. A tick is scheduled
+ * only while something is dirty, so idle documents and idle nodes do no work.
+ */
+@Component
+public class AwarenessService {
+    private static final class Cursor {
+        final String userId;
+        final String username;
+        final Object position;
+
+        Cursor(String userId, String username, Object position) {
+            this.userId = userId;
+            this.username = username;
+            this.position = position;
+        }
+    }
+
+    private final RoomRegistry rooms;
+    private final long tickMs;
+    private final ScheduledExecutorService ticker;
+    private final AtomicBoolean tickScheduled = new AtomicBoolean();
+
+    // documentId -> userId -> latest cursor since the last tick
+    private final Map<String, Map<String, Cursor>> dirty = new ConcurrentHashMap<>();
+    private final LongAdder updatesReceived = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+
+    public AwarenessService(RoomRegistry rooms, @Value("${collaboration.broadcast-delay-ms:50}") long tickMs) {
+        this.rooms = rooms;
+        this.tickMs = tickMs;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "awareness-tick");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void updateCursor(String documentId, String userId, String username, Object position) {
+        updatesReceived.increment();
+        dirty.computeIfAbsent(documentId, k -> new ConcurrentHashMap<>())
+                .put(userId, new Cursor(userId, username, position));
+        if (tickScheduled.compareAndSet(false, true)) {
+            ticker.schedule(this::tick, tickMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Forgets a user's pending cursor, e.g. when they leave the document.
+     */
+    public void removeUser(String documentId, String userId) {
+        dirty.computeIfPresent(documentId, (id, cursors) -> {
+            cursors.remove(userId);
+            return cursors.isEmpty() ? null : cursors;
+        });
+    }
+
+    void tick() {
+        // Cleared first: an update racing with this tick schedules the next one
+        tickScheduled.set(false);
+        for (String documentId : dirty.keySet()) {
+            Map<String, Cursor> cursors = dirty.remove(documentId);
+            DocumentRoom room = rooms.get(documentId);
+            if (cursors == null || cursors.isEmpty() || room == null) {
+                continue;
+            }
+            room.broadcastLossy(frame(cursors), null);
+            framesSent.increment();
+        }
+    }
+
+    private static OutboundFrame frame(Map<String, Cursor> cursors) {
+        List<Map<String, Object>> entries = new ArrayList<>(cursors.size());
+        for (Cursor cursor : cursors.values()) {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("userId", cursor.userId);
+            entry.put("username", cursor.username);
+            entry.put("position", cursor.position);
+            entries.add(entry);
+        }
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", "CURSORS");
+        message.put("cursors", entries);
+        return OutboundFrame.of(message, out -> BinaryProtocol.writeCursors(out, entries));
+    }
+
+    public long getUpdatesReceived() {
+        return updatesReceived.sum();
+    }
+
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    public int getDirtyDocumentCount() {
+        return dirty.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+}
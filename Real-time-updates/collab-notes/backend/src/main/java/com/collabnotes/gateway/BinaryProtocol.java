@@ -0,0 +1,305 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.Operation;
+import org.springframework.web.socket.BinaryMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Compact binary encoding of the high-volume messages, for connections opened with
+ * {@code ?protocol=binary}. Such a connection also keeps exchanging JSON text frames for
+ * everything else (initialization, presence lists, errors, user info).
+ * <p>
+ * A frame is a one-byte message type followed by its fields. Integers are unsigned LEB128
+ * varints, or zigzag varints where they can be negative; strings are a varint of the UTF-8
+ * length plus one (0 for null) and the bytes. Document ids, user ids and usernames are
+ * interned per connection and direction: a reference is 0 for null, 1 for a new string that
+ * takes the next index, 2 for a string sent once without interning (table full), or the
+ * index plus 3.
+ * <pre>
+ * client to server
+ *   OPERATION        0x01  byte type, varint position, zigzag baseVersion, string text
+ *   CURSOR_POSITION  0x05  varint position
+ * server to client
+ *   OPERATION        0x01  operation
+ *   OPERATIONS       0x02  varint count, operation * count
+ *   OPERATION_ACK    0x03  varint version, varint position, byte applied, varint firstVersion
+ *   CURSORS          0x04  varint count, (ref userId, ref username, zigzag position) * count
+ * operation: ref documentId, ref userId, byte type, varint position, varint version,
+ *   zigzag baseVersion, varint timestamp, byte applied, string text
+ * </pre>
+ * Operation types are 1 for INSERT and 2 for DELETE.
+ */
+public final class BinaryProtocol {
+    public static final byte OPERATION = 0x01;
+    public static final byte OPERATIONS = 0x02;
+    public static final byte OPERATION_ACK = 0x03;
+    public static final byte CURSORS = 0x04;
+    public static final byte CURSOR_POSITION = 0x05;
+
+    static final int MAX_INTERNED = 4096;
+
+    private static final int REF_NULL = 0;
+    private static final int REF_NEW = 1;
+    private static final int REF_LITERAL = 2;
+    private static final int REF_BASE = 3;
+
+    private BinaryProtocol() {
+    }
+
+    public static byte typeCode(String type) {
+        if ("INSERT".equals(type)) {
+            return 1;
+        } else if ("DELETE".equals(type)) {
+            return 2;
+        }
+        throw new IllegalArgumentException("Unknown operation type: " + type);
+    }
+
+    public static String typeName(int code) {
+        switch (code) {
+            case 1:
+                return "INSERT";
+            case 2:
+                return "DELETE";
+            default:
+                throw new IllegalArgumentException("Unknown operation type code: " + code);
+        }
+    }
+
+    /**
+     * Writes one OPERATION frame, or an OPERATIONS frame for several operations.
+     */
+    public static void writeOperations(Encoder out, List<Operation> operations) {
+        if (operations.size() == 1) {
+            out.writeByte(OPERATION);
+        } else {
+            out.writeByte(OPERATIONS);
+            out.writeVarint(operations.size());
+        }
+        for (Operation op : operations) {
+            out.writeRef(op.getDocumentId());
+            out.writeRef(op.getUserId());
+            out.writeByte(typeCode(op.getType()));
+            out.writeVarint(op.getPosition());
+            out.writeVarint(op.getVersion());
+            out.writeZigzag(op.getBaseVersion());
+            out.writeVarint(op.getTimestamp());
+            out.writeByte(op.isApplied() ? 1 : 0);
+            out.writeString(op.getText());
+        }
+    }
+
+    public static void writeAck(Encoder out, Operation operation) {
+        out.writeByte(OPERATION_ACK);
+        out.writeVarint(operation.getVersion());
+        out.writeVarint(operation.getPosition());
+        out.writeByte(operation.isApplied() ? 1 : 0);
+        out.writeVarint(operation.getFirstVersion() != null ? operation.getFirstVersion() : operation.getVersion());
+    }
+
+    /**
+     * Writes a CURSORS frame from the entries of the JSON form (userId, username, position).
+     * Positions that are not numbers are sent as -1.
+     */
+    public static void writeCursors(Encoder out, List<Map<String, Object>> cursors) {
+        out.writeByte(CURSORS);
+        out.writeVarint(cursors.size());
+        for (Map<String, Object> cursor : cursors) {
+            out.writeRef((String) cursor.get("userId"));
+            out.writeRef((String) cursor.get("username"));
+            Object position = cursor.get("position");
+            out.writeZigzag(position instanceof Number ? ((Number) position).longValue() : -1);
+        }
+    }
+
+    public static void writeClientOperation(Encoder out, Operation operation) {
+        out.writeByte(OPERATION);
+        out.writeByte(typeCode(operation.getType()));
+        out.writeVarint(operation.getPosition());
+        out.writeZigzag(operation.getBaseVersion());
+        out.writeString(operation.getText());
+    }
+
+    /**
+     * Reads the body of a client OPERATION frame; document, user and timestamp are the
+     * server's to fill in.
+     */
+    public static Operation readClientOperation(Decoder in) {
+        Operation op = new Operation();
+        op.setType(typeName(in.readByte()));
+        op.setPosition(in.readInt());
+        op.setBaseVersion((int) in.readZigzag());
+        op.setText(in.readString());
+        return op;
+    }
+
+    /**
+     * Reads one operation of a server OPERATION or OPERATIONS frame.
+     */
+    public static Operation readOperation(Decoder in) {
+        Operation op = new Operation();
+        op.setDocumentId(in.readRef());
+        op.setUserId(in.readRef());
+        op.setType(typeName(in.readByte()));
+        op.setPosition(in.readInt());
+        op.setVersion(in.readInt());
+        op.setBaseVersion((int) in.readZigzag());
+        op.setTimestamp(in.readVarint());
+        op.setApplied(in.readByte() != 0);
+        op.setText(in.readString());
+        return op;
+    }
+
+    /**
+     * Builds frames for one connection. Not thread safe: a connection's frames are encoded
+     * by its sender in the order they are written to the socket, which is what keeps the
+     * intern table in step with the client's.
+     */
+    public static final class Encoder {
+        private final Map<String, Integer> interned = new HashMap<>();
+        private byte[] buffer = new byte[256];
+        private int length;
+
+        /**
+         * Runs the writer against an empty buffer and returns the frame it wrote.
+         */
+        public BinaryMessage encode(Consumer<Encoder> writer) {
+            length = 0;
+            writer.accept(this);
+            return new BinaryMessage(Arrays.copyOf(buffer, length));
+        }
+
+        public void writeByte(int value) {
+            ensure(1);
+            buffer[length++] = (byte) value;
+        }
+
+        public void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        public void writeZigzag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        public void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        public void writeRef(String value) {
+            if (value == null) {
+                writeVarint(REF_NULL);
+                return;
+            }
+            Integer index = interned.get(value);
+            if (index != null) {
+                writeVarint(index + REF_BASE);
+            } else if (interned.size() < MAX_INTERNED) {
+                interned.put(value, interned.size());
+                writeVarint(REF_NEW);
+                writeString(value);
+            } else {
+                writeVarint(REF_LITERAL);
+                writeString(value);
+            }
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+    }
+
+    /**
+     * Reads frames from one peer; the intern table carries over between frames.
+     */
+    public static final class Decoder {
+        private final List<String> interned = new ArrayList<>();
+        private ByteBuffer in;
+
+        /**
+         * Positions the decoder at the start of a frame and returns its message type.
+         */
+        public byte begin(ByteBuffer frame) {
+            in = frame.slice();
+            return in.get();
+        }
+
+        public byte readByte() {
+            return in.get();
+        }
+
+        public long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = in.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        public int readInt() {
+            return Math.toIntExact(readVarint());
+        }
+
+        public long readZigzag() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public String readString() {
+            int length = readInt();
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public String readRef() {
+            int ref = readInt();
+            switch (ref) {
+                case REF_NULL:
+                    return null;
+                case REF_NEW:
+                    String value = readString();
+                    interned.add(value);
+                    return value;
+                case REF_LITERAL:
+                    return readString();
+                default:
+                    return interned.get(ref - REF_BASE);
+            }
+        }
+
+        public boolean hasRemaining() {
+            return in.hasRemaining();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.collabnotes.gateway;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.reactive.context.ReactiveWebApplicationContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the gateway's blocking calls, such as the JPA reads behind {@code /docs}. The servlet
+ * gateway runs them on the request's own container thread, as it always has; the reactive
+ * gateway hands them to a bounded pool, so no event loop waits on a database, and answers
+ * 503 when that pool's queue is full.
+ */
+@Component
+public class BlockingCallExecutor {
+    private final ThreadPoolExecutor pool;
+
+    public BlockingCallExecutor(ApplicationContext context,
+                                @Value("${collaboration.gateway.blocking-threads:16}") int threads,
+                                @Value("${collaboration.gateway.blocking-queue:1000}") int queueCapacity) {
+        if (context instanceof ReactiveWebApplicationContext) {
+            AtomicInteger index = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread thread = new Thread(runnable, "gateway-blocking-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.pool.allowCoreThreadTimeOut(true);
+        } else {
+            this.pool = null;
+        }
+    }
+
+    public <T> CompletableFuture<T> supply(Supplier<T> call) {
+        if (pool == null) {
+            try {
+                return CompletableFuture.completedFuture(call.get());
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        try {
+            return CompletableFuture.supplyAsync(call, pool);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(
+                    new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Gateway is busy"));
+        }
+    }
+
+    public int getQueueDepth() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (pool != null) {
+            pool.shutdown();
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
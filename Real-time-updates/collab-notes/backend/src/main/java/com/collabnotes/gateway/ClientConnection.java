@@ -0,0 +1,271 @@
+package com.collabnotes.gateway;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A WebSocket session with a bounded outbound queue. Senders only enqueue; frames are
+ * written by a shared executor, at most one drain per session at a time, so a slow client
+ * only ever delays itself. Frames are immutable and may be shared between connections;
+ * each is encoded for this connection's protocol when it is written. Sessions that write
+ * without blocking implement {@link FlowControl}, and are only written to while they ask
+ * for more.
+ */
+public class ClientConnection {
+    private static final Logger log = LoggerFactory.getLogger(ClientConnection.class);
+    private static final int DRAIN_BATCH = 64;
+
+    public enum SlowConsumerPolicy {
+        /** Close the session; the client reconnects and re-initializes. */
+        DISCONNECT,
+        /**
+         * Make room by dropping queued frames that can be lost, such as presence; close the
+         * session only when the queue holds nothing but frames the client must see.
+         */
+        DROP
+    }
+
+    public enum Protocol {
+        /** JSON text frames only. */
+        JSON,
+        /** {@link BinaryProtocol} frames where a message has a binary form, JSON otherwise. */
+        BINARY;
+
+        /**
+         * The protocol requested by the handshake's {@code protocol} query parameter.
+         */
+        public static Protocol fromQuery(String value) {
+            return "binary".equalsIgnoreCase(value) ? BINARY : JSON;
+        }
+    }
+
+    /**
+     * A session whose sends return before the frame is written, and which says when it can
+     * take more. The drain stops while it has no demand, so unwritten frames wait, and
+     * overflow, in the bounded queue as they would behind a blocking send.
+     */
+    public interface FlowControl {
+        boolean hasDemand();
+
+        /**
+         * Runs the callback whenever demand goes from none to some.
+         */
+        void onDemand(Runnable callback);
+    }
+
+    private final WebSocketSession session;
+    private final FlowControl flow;
+    private final Executor executor;
+    private final int maxQueuedFrames;
+    private final SlowConsumerPolicy policy;
+    private final LongAdder droppedFrames;
+    private final LongAdder evictions;
+    private final LongAdder sentFrames;
+    private final LongAdder sentBytes;
+    private final Protocol protocol;
+    // Only used by the draining thread, so its intern table follows socket order
+    private final BinaryProtocol.Encoder encoder;
+
+    private static final class Outbound {
+        final OutboundFrame frame;
+        final boolean lossy;
+        final long enqueuedNanos;
+
+        Outbound(OutboundFrame frame, boolean lossy) {
+            this.frame = frame;
+            this.lossy = lossy;
+            this.enqueuedNanos = System.nanoTime();
+        }
+    }
+
+    private final Queue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean evicted = new AtomicBoolean();
+    // Enqueue-to-written latency, exponentially weighted; only written by the draining thread
+    private volatile double sendLatencyMicros;
+    private volatile DocumentRoom room;
+
+    ClientConnection(WebSocketSession session, Protocol protocol, Executor executor, int maxQueuedFrames,
+                     SlowConsumerPolicy policy, LongAdder droppedFrames, LongAdder evictions,
+                     LongAdder sentFrames, LongAdder sentBytes) {
+        this.session = session;
+        this.flow = session instanceof FlowControl ? (FlowControl) session : null;
+        this.executor = executor;
+        this.maxQueuedFrames = maxQueuedFrames;
+        this.policy = policy;
+        this.droppedFrames = droppedFrames;
+        this.evictions = evictions;
+        this.sentFrames = sentFrames;
+        this.sentBytes = sentBytes;
+        this.protocol = protocol;
+        this.encoder = protocol == Protocol.BINARY ? new BinaryProtocol.Encoder() : null;
+        if (flow != null) {
+            flow.onDemand(this::scheduleDrain);
+        }
+    }
+
+    public String getId() {
+        return session.getId();
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Queues a frame the client must see, such as an operation. If it does not fit, the DROP
+     * policy makes room by shedding a lossy frame; otherwise the session is closed, so the
+     * client re-initializes rather than silently missing it.
+     *
+     * @return false if the frame was not queued
+     */
+    public boolean send(OutboundFrame frame) {
+        return enqueue(frame, false);
+    }
+
+    /**
+     * Queues a frame that can be lost without harm, such as presence; dropped on overflow.
+     */
+    public boolean sendLossy(OutboundFrame frame) {
+        return enqueue(frame, true);
+    }
+
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Recent average time from enqueue until the frame was written to the socket.
+     */
+    public double getSendLatencyMicros() {
+        return sendLatencyMicros;
+    }
+
+    public boolean isOpen() {
+        return !evicted.get() && session.isOpen();
+    }
+
+    private boolean enqueue(OutboundFrame frame, boolean lossy) {
+        if (!isOpen()) {
+            return false;
+        }
+        if (depth.incrementAndGet() > maxQueuedFrames) {
+            depth.decrementAndGet();
+            // Under DROP a frame the client must see takes the place of one it can do without
+            boolean replaced = !lossy && policy == SlowConsumerPolicy.DROP && shedLossy();
+            if (!replaced) {
+                droppedFrames.increment();
+                if (!lossy) {
+                    // Skipping an operation would leave the client's document silently diverged
+                    evict();
+                }
+                return false;
+            }
+        }
+        outbound.offer(new Outbound(frame, lossy));
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Removes the oldest queued lossy frame, whose place the caller takes without counting
+     * it in the queue depth again.
+     */
+    private boolean shedLossy() {
+        for (Outbound queued : outbound) {
+            // The drain may have taken it meanwhile; then look further
+            if (queued.lossy && outbound.remove(queued)) {
+                droppedFrames.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleDrain() {
+        // With no demand the queue just fills; the session's onDemand callback resumes it
+        if (canSend() && draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            Outbound next;
+            int sent = 0;
+            // Bounded so one busy session cannot monopolize a sender thread
+            while (sent < DRAIN_BATCH && canSend() && (next = outbound.poll()) != null) {
+                depth.decrementAndGet();
+                sent++;
+                if (!isOpen()) {
+                    continue;
+                }
+                try {
+                    WebSocketMessage<?> message = next.frame.encodeFor(encoder);
+                    session.sendMessage(message);
+                    double latency = (System.nanoTime() - next.enqueuedNanos) / 1000.0;
+                    sendLatencyMicros += (latency - sendLatencyMicros) * 0.2;
+                    recordSent(message.getPayloadLength());
+                } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+                    log.debug("Send to session {} failed: {}", session.getId(), e.getMessage());
+                }
+            }
+        } finally {
+            draining.set(false);
+            // Demand that arrived while draining found the flag still set; it is seen here
+            if (!outbound.isEmpty() && canSend()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    private boolean canSend() {
+        return flow == null || flow.hasDemand();
+    }
+
+    private void recordSent(int bytes) {
+        sentFrames.increment();
+        sentBytes.add(bytes);
+        DocumentRoom current = room;
+        if (current != null) {
+            current.recordSent(bytes);
+        }
+    }
+
+    void setRoom(DocumentRoom room) {
+        this.room = room;
+    }
+
+    private void evict() {
+        if (!evicted.compareAndSet(false, true)) {
+            return;
+        }
+        evictions.increment();
+        log.warn("Disconnecting slow client session {} with {} queued frames", session.getId(), depth.get());
+        outbound.clear();
+        depth.set(0);
+        executor.execute(() -> {
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                log.debug("Closing session {} failed: {}", session.getId(), e.getMessage());
+            }
+        });
+    }
+}
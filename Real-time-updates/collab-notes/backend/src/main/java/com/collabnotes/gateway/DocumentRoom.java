@@ -0,0 +1,158 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.bus.OperationBus;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The connections on this node that have a document open.
+ */
+public class DocumentRoom {
+    private final String documentId;
+    private final Set<ClientConnection> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder broadcastFrames = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder sentFrames = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private volatile OperationBus.Subscription subscription;
+
+    DocumentRoom(String documentId) {
+        this.documentId = documentId;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public Collection<ClientConnection> getConnections() {
+        return Collections.unmodifiableSet(connections);
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    /**
+     * Queues one shared frame on every connection except the excluded session.
+     */
+    public void broadcast(OutboundFrame frame, String excludeSessionId) {
+        broadcast(frame, excludeSessionId, false);
+    }
+
+    public void broadcastLossy(OutboundFrame frame, String excludeSessionId) {
+        broadcast(frame, excludeSessionId, true);
+    }
+
+    /**
+     * Queues the frame on every connection whose session is not in {@code excludedSessionIds}.
+     */
+    public void broadcastExcept(OutboundFrame frame, Set<String> excludedSessionIds) {
+        for (ClientConnection connection : connections) {
+            if (!excludedSessionIds.contains(connection.getId())) {
+                count(connection.send(frame));
+            }
+        }
+    }
+
+    /**
+     * Queues the frame on one session of this room, if it is still here.
+     */
+    public void sendTo(String sessionId, OutboundFrame frame) {
+        for (ClientConnection connection : connections) {
+            if (connection.getId().equals(sessionId)) {
+                count(connection.send(frame));
+                return;
+            }
+        }
+    }
+
+    private void count(boolean queued) {
+        if (queued) {
+            broadcastFrames.increment();
+        } else {
+            droppedFrames.increment();
+        }
+    }
+
+    private void broadcast(OutboundFrame frame, String excludeSessionId, boolean lossy) {
+        for (ClientConnection connection : connections) {
+            if (connection.getId().equals(excludeSessionId)) {
+                continue;
+            }
+            count(lossy ? connection.sendLossy(frame) : connection.send(frame));
+        }
+    }
+
+    public int getQueuedFrames() {
+        int total = 0;
+        for (ClientConnection connection : connections) {
+            total += connection.getQueueDepth();
+        }
+        return total;
+    }
+
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (ClientConnection connection : connections) {
+            max = Math.max(max, connection.getQueueDepth());
+        }
+        return max;
+    }
+
+    /**
+     * Highest recent send latency among the room's connections.
+     */
+    public double getMaxSendLatencyMicros() {
+        double max = 0;
+        for (ClientConnection connection : connections) {
+            max = Math.max(max, connection.getSendLatencyMicros());
+        }
+        return max;
+    }
+
+    public long getBroadcastFrames() {
+        return broadcastFrames.sum();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /**
+     * Frames written to the sockets of this room's connections.
+     */
+    public long getSentFrames() {
+        return sentFrames.sum();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    void recordSent(int bytes) {
+        sentFrames.increment();
+        sentBytes.add(bytes);
+    }
+
+    OperationBus.Subscription getSubscription() {
+        return subscription;
+    }
+
+    void setSubscription(OperationBus.Subscription subscription) {
+        this.subscription = subscription;
+    }
+
+    void add(ClientConnection connection) {
+        connections.add(connection);
+        connection.setRoom(this);
+    }
+
+    boolean remove(ClientConnection connection) {
+        connections.remove(connection);
+        return connections.isEmpty();
+    }
+}
@@ -0,0 +1,223 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.InitializationRange;
+import com.collabnotes.document.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Sends a newly connected client the document without ever holding all of it in memory.
+ * The stream is INITIALIZATION_START (the snapshot and the version range that follows it),
+ * INITIALIZATION_CHUNK frames of up to page-size versions each, then INITIALIZATION_COMPLETE.
+ * Up to read-ahead pages are read from Mongo in parallel, but a page is only queued while
+ * the connection has fewer than max-queued-chunks frames waiting, so a stream holds at most
+ * read-ahead plus max-queued-chunks pages however long the history is. Streams run on
+ * their own bounded pool rather than the connect thread. The range and the pages come from
+ * the document's owner, through {@link OperationRouter}, as only it has every operation that
+ * was acknowledged but not yet flushed to Mongo.
+ */
+@Component
+public class InitializationStreamer {
+    private static final Logger log = LoggerFactory.getLogger(InitializationStreamer.class);
+
+    private final OperationRouter router;
+    private final int pageSize;
+    private final int readAhead;
+    private final int maxQueuedChunks;
+    private final long stallTimeoutMs;
+    private final ExecutorService streams;
+    private final ExecutorService readers;
+
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private final LongAdder streamsCompleted = new LongAdder();
+    private final LongAdder chunksSent = new LongAdder();
+    private final LongAdder operationsSent = new LongAdder();
+
+    public InitializationStreamer(OperationRouter router,
+                                  @Value("${collaboration.initialization.page-size:500}") int pageSize,
+                                  @Value("${collaboration.initialization.read-ahead:4}") int readAhead,
+                                  @Value("${collaboration.initialization.max-queued-chunks:2}") int maxQueuedChunks,
+                                  @Value("${collaboration.initialization.streams:4}") int streamThreads,
+                                  @Value("${collaboration.initialization.read-threads:4}") int readThreads,
+                                  @Value("${collaboration.initialization.stall-timeout-ms:30000}") long stallTimeoutMs) {
+        this.router = router;
+        this.pageSize = pageSize;
+        this.readAhead = Math.max(1, readAhead);
+        this.maxQueuedChunks = Math.max(1, maxQueuedChunks);
+        this.stallTimeoutMs = stallTimeoutMs;
+        this.streams = Executors.newFixedThreadPool(streamThreads, daemon("init-stream"));
+        this.readers = Executors.newFixedThreadPool(readThreads, daemon("init-reader"));
+    }
+
+    /**
+     * Starts streaming the document to the connection. The range is taken on the owner's
+     * actor after this node subscribed to the document, so operations sequenced after it
+     * reach the client as live broadcasts, which it holds back until INITIALIZATION_COMPLETE.
+     */
+    public CompletableFuture<Void> stream(ClientConnection connection, String documentId) {
+        return stream(connection, documentId, latestVersion -> { });
+    }
+
+    /**
+     * As {@link #stream(ClientConnection, String)}, telling {@code onRange} the latest version
+     * the stream covers before sending it.
+     */
+    public CompletableFuture<Void> stream(ClientConnection connection, String documentId, IntConsumer onRange) {
+        return router.initializationRange(documentId)
+                .thenApply(range -> {
+                    onRange.accept(range.getLatestVersion());
+                    return range;
+                })
+                .thenAcceptAsync(range -> send(connection, documentId, range), streams)
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        log.error("Failed to initialize session {} on document {}: {}",
+                                connection.getId(), documentId, cause.getMessage());
+                        close(connection, CloseStatus.SERVER_ERROR);
+                    }
+                });
+    }
+
+    private void send(ClientConnection connection, String documentId, InitializationRange range) {
+        activeStreams.incrementAndGet();
+        Queue<CompletableFuture<List<Operation>>> pages = new ArrayDeque<>();
+        try {
+            Map<String, Object> start = new HashMap<>();
+            start.put("type", "INITIALIZATION_START");
+            start.put("documentId", documentId);
+            start.put("snapshot", range.getSnapshot());
+            start.put("fromVersion", range.getAfterVersion());
+            start.put("toVersion", range.getLatestVersion());
+            connection.send(OutboundFrame.of(start));
+
+            int nextFrom = range.getAfterVersion();
+            int chunks = 0;
+            while (true) {
+                while (pages.size() < readAhead && nextFrom < range.getLatestVersion()) {
+                    int from = nextFrom;
+                    int to = (int) Math.min(range.getLatestVersion(), (long) from + pageSize);
+                    pages.add(CompletableFuture.supplyAsync(
+                            () -> router.appliedOperations(documentId, from, to), readers)
+                            .thenCompose(page -> page));
+                    nextFrom = to;
+                }
+                CompletableFuture<List<Operation>> page = pages.poll();
+                if (page == null) {
+                    break;
+                }
+                List<Operation> operations = page.join();
+                if (operations.isEmpty()) {
+                    continue;
+                }
+                if (!awaitWindow(connection)) {
+                    return;
+                }
+                Map<String, Object> chunk = new HashMap<>();
+                chunk.put("type", "INITIALIZATION_CHUNK");
+                chunk.put("documentId", documentId);
+                chunk.put("index", chunks++);
+                chunk.put("operations", operations);
+                connection.send(OutboundFrame.of(chunk));
+                chunksSent.increment();
+                operationsSent.add(operations.size());
+            }
+
+            Map<String, Object> complete = new HashMap<>();
+            complete.put("type", "INITIALIZATION_COMPLETE");
+            complete.put("documentId", documentId);
+            complete.put("version", range.getLatestVersion());
+            complete.put("chunks", chunks);
+            connection.send(OutboundFrame.of(complete));
+            streamsCompleted.increment();
+        } finally {
+            pages.forEach(page -> page.cancel(false));
+            activeStreams.decrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until the connection has room for another chunk.
+     *
+     * @return false if the connection closed or stopped draining
+     */
+    private boolean awaitWindow(ClientConnection connection) {
+        long deadline = System.currentTimeMillis() + stallTimeoutMs;
+        while (connection.getQueueDepth() >= maxQueuedChunks) {
+            if (!connection.isOpen()) {
+                return false;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                log.warn("Session {} stopped draining during initialization, closing it", connection.getId());
+                close(connection, CloseStatus.SESSION_NOT_RELIABLE);
+                return false;
+            }
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return connection.isOpen();
+    }
+
+    private static void close(ClientConnection connection, CloseStatus status) {
+        try {
+            connection.getSession().close(status);
+        } catch (IOException e) {
+            log.debug("Closing session {} failed: {}", connection.getId(), e.getMessage());
+        }
+    }
+
+    public int getActiveStreams() {
+        return activeStreams.get();
+    }
+
+    public long getStreamsCompleted() {
+        return streamsCompleted.sum();
+    }
+
+    public long getChunksSent() {
+        return chunksSent.sum();
+    }
+
+    public long getOperationsSent() {
+        return operationsSent.sum();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger index = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        streams.shutdownNow();
+        readers.shutdownNow();
+        streams.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,106 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.cluster.ClusterMembership;
+import com.collabnotes.cluster.ClusterSecret;
+import com.collabnotes.document.DocumentSnapshot;
+import com.collabnotes.document.HistoryUnavailableException;
+import com.collabnotes.document.InitializationRange;
+import com.collabnotes.document.Operation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Node-to-node endpoint: answers reads about a document this node owns for nodes that do
+ * not, such as the initialization of a client connected to one of them or its text. Only
+ * requests carrying the cluster secret are served.
+ */
+@RestController
+@RequestMapping("/internal/documents/{documentId}")
+public class InternalDocumentController {
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private ClusterSecret clusterSecret;
+
+    @Autowired
+    private OperationRouter router;
+
+    @Autowired
+    private BlockingCallExecutor blockingCalls;
+
+    @GetMapping("/initialization-range")
+    public CompletableFuture<ResponseEntity<InitializationRange>> getInitializationRange(@PathVariable String documentId,
+                                                                                         @RequestHeader(value = ClusterSecret.HEADER, required = false) String secret) {
+        if (!clusterSecret.admits(secret)) {
+            return refuse(HttpStatus.FORBIDDEN);
+        }
+        if (!membership.isLocal(documentId)) {
+            return refuse(HttpStatus.CONFLICT);
+        }
+        return router.initializationRangeLocally(documentId).thenApply(ResponseEntity::ok);
+    }
+
+    @GetMapping("/operations")
+    public CompletableFuture<ResponseEntity<List<Operation>>> getAppliedOperations(@PathVariable String documentId,
+                                                                                  @RequestParam int after,
+                                                                                  @RequestParam int upTo,
+                                                                                  @RequestHeader(value = ClusterSecret.HEADER, required = false) String secret) {
+        if (!clusterSecret.admits(secret)) {
+            return refuse(HttpStatus.FORBIDDEN);
+        }
+        if (!membership.isLocal(documentId)) {
+            return refuse(HttpStatus.CONFLICT);
+        }
+        return blockingCalls.supply(() -> router.appliedOperationsLocally(documentId, after, upTo))
+                .thenApply(ResponseEntity::ok);
+    }
+
+    @GetMapping("/version")
+    public CompletableFuture<ResponseEntity<Integer>> getDocumentVersion(@PathVariable String documentId,
+                                                                         @RequestHeader(value = ClusterSecret.HEADER, required = false) String secret) {
+        if (!clusterSecret.admits(secret)) {
+            return refuse(HttpStatus.FORBIDDEN);
+        }
+        if (!membership.isLocal(documentId)) {
+            return refuse(HttpStatus.CONFLICT);
+        }
+        return blockingCalls.supply(() -> router.documentVersionLocally(documentId)).thenApply(ResponseEntity::ok);
+    }
+
+    @GetMapping("/content")
+    public CompletableFuture<ResponseEntity<DocumentSnapshot>> getDocumentContent(@PathVariable String documentId,
+                                                                                 @RequestParam(required = false) Integer version,
+                                                                                 @RequestHeader(value = ClusterSecret.HEADER, required = false) String secret) {
+        if (!clusterSecret.admits(secret)) {
+            return refuse(HttpStatus.FORBIDDEN);
+        }
+        if (!membership.isLocal(documentId)) {
+            return refuse(HttpStatus.CONFLICT);
+        }
+        return blockingCalls.supply(() -> {
+            try {
+                return ResponseEntity.ok(router.documentContentLocally(documentId, version));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            } catch (HistoryUnavailableException e) {
+                return ResponseEntity.status(HttpStatus.GONE).build();
+            }
+        });
+    }
+
+    private static <T> CompletableFuture<ResponseEntity<T>> refuse(HttpStatus status) {
+        return CompletableFuture.completedFuture(ResponseEntity.status(status).build());
+    }
+}
@@ -0,0 +1,49 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.cluster.ClusterMembership;
+import com.collabnotes.cluster.ClusterSecret;
+import com.collabnotes.document.Operation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Node-to-node endpoint: accepts operations forwarded by nodes that do not own the document,
+ * when they carry the cluster secret.
+ */
+@RestController
+@RequestMapping("/internal/operations")
+public class InternalOperationController {
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private ClusterSecret clusterSecret;
+
+    @Autowired
+    private OperationRouter router;
+
+    @PostMapping
+    public CompletableFuture<ResponseEntity<Operation>> processForwardedOperation(
+            @RequestHeader(value = ClusterSecret.HEADER, required = false) String secret,
+            @RequestBody Operation operation,
+            @RequestParam(required = false) String originSessionId) {
+        if (!clusterSecret.admits(secret)) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+        }
+        if (!membership.isLocal(operation.getDocumentId())) {
+            // Ownership moved while the operation was in flight; the sender re-routes
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.CONFLICT).build());
+        }
+        return router.processLocally(operation, originSessionId).thenApply(ResponseEntity::ok);
+    }
+}
@@ -0,0 +1,202 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed JSON messages, the text counterpart of {@link BinaryProtocol}. Readers and the
+ * writer are built once and shared. An inbound frame's {@code type} is found with a
+ * streaming parser, without building a map or tree; when it is the first field, as the
+ * frontend sends it, the rest of the frame is bound from the same parser in one pass.
+ */
+public final class JsonProtocol {
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final ObjectWriter writer = objectMapper.writer();
+    private static final Map<String, ObjectReader> readers = Map.of(
+            "OPERATION", objectMapper.readerFor(OperationMessage.class),
+            "CURSOR_POSITION", objectMapper.readerFor(CursorMessage.class),
+            "USER_INFO", objectMapper.readerFor(UserInfoMessage.class),
+            "NEW_DOCUMENT", objectMapper.readerFor(NewDocumentMessage.class));
+
+    private JsonProtocol() {
+    }
+
+    // Client to server
+
+    public static class OperationMessage {
+        public ClientOperation operation;
+    }
+
+    /**
+     * The fields of an operation a client may set; everything else is assigned by the server.
+     */
+    public static class ClientOperation {
+        public String type;
+        public int position;
+        public String text;
+        public int baseVersion = -1;
+
+        public Operation toOperation() {
+            Operation op = new Operation();
+            op.setType(type);
+            op.setPosition(position);
+            op.setText(text);
+            op.setBaseVersion(baseVersion);
+            return op;
+        }
+    }
+
+    public static class CursorMessage {
+        public String username;
+        public Object position;
+    }
+
+    public static class UserInfoMessage {
+        public String username;
+    }
+
+    public static class NewDocumentMessage {
+        public JsonNode document;
+    }
+
+    // Server to client
+
+    public static class OperationBroadcast {
+        public final String type = "OPERATION";
+        public final Operation operation;
+
+        public OperationBroadcast(Operation operation) {
+            this.operation = operation;
+        }
+    }
+
+    public static class OperationsBroadcast {
+        public final String type = "OPERATIONS";
+        public final List<Operation> operations;
+
+        public OperationsBroadcast(List<Operation> operations) {
+            this.operations = operations;
+        }
+    }
+
+    public static class OperationAck {
+        public final String type = "OPERATION_ACK";
+        public final int version;
+        /** The first version the operation took; below {@code version} when it was split */
+        public final int firstVersion;
+        public final int position;
+        public final boolean applied;
+
+        public OperationAck(Operation operation) {
+            this.version = operation.getVersion();
+            this.firstVersion = operation.getFirstVersion() != null ? operation.getFirstVersion() : operation.getVersion();
+            this.position = operation.getPosition();
+            this.applied = operation.isApplied();
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class UserEvent {
+        public final String type;
+        public final String userId;
+        public final String username;
+        public final Long timestamp;
+
+        public UserEvent(String type, String userId, String username, Long timestamp) {
+            this.type = type;
+            this.userId = userId;
+            this.username = username;
+            this.timestamp = timestamp;
+        }
+    }
+
+    public static class UserList {
+        public final String type = "USER_LIST";
+        public final List<String> users;
+
+        public UserList(List<String> users) {
+            this.users = users;
+        }
+    }
+
+    public static class ExistingUsernames {
+        public final String type = "EXISTING_USERNAMES";
+        public final Map<String, String> usernames;
+
+        public ExistingUsernames(Map<String, String> usernames) {
+            this.usernames = usernames;
+        }
+    }
+
+    public static class NewDocument {
+        public final String type = "NEW_DOCUMENT";
+        public final JsonNode document;
+
+        public NewDocument(JsonNode document) {
+            this.document = document;
+        }
+    }
+
+    public static class ErrorMessage {
+        public final String type = "ERROR";
+        public final String message;
+
+        public ErrorMessage(String message) {
+            this.message = message;
+        }
+    }
+
+    /**
+     * Binds a client frame to its message class.
+     *
+     * @return null for a frame without a type or with a type the server does not handle
+     */
+    public static Object read(String payload) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object");
+            }
+            boolean first = true;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (!"type".equals(field)) {
+                    parser.skipChildren();
+                    first = false;
+                    continue;
+                }
+                String type = parser.getValueAsString();
+                ObjectReader reader = type != null ? readers.get(type) : null;
+                if (reader == null) {
+                    return null;
+                }
+                if (!first) {
+                    // Fields before the type were skipped; bind the frame from the start
+                    return reader.readValue(payload);
+                }
+                // Continue from the field after the type
+                parser.nextToken();
+                return reader.readValue(parser);
+            }
+            return null;
+        }
+    }
+
+    public static String write(Object message) throws JsonProcessingException {
+        return writer.writeValueAsString(message);
+    }
+}
@@ -0,0 +1,195 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.Operation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Broadcast stage for operations. Each document has a latency budget: operations arriving
+ * within it go out together as one OPERATIONS frame. The budget starts at zero (every
+ * operation is sent at once) and doubles while the room's outbound queues or send latency
+ * show pressure, then halves back toward zero as they drain.
+ */
+@Component
+public class OperationBatcher {
+    private static final long MIN_BUDGET_MICROS = 500;
+
+    private final class Batch {
+        final List<Operation> operations = new ArrayList<>();
+        final List<String> senders = new ArrayList<>();
+        DocumentRoom room;
+        long budgetMicros;
+        boolean flushScheduled;
+    }
+
+    private final boolean enabled;
+    private final long maxDelayMicros;
+    private final int maxBatchSize;
+    private final int queueDepthThreshold;
+    private final long targetSendLatencyMicros;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+    private final LongAdder operationsSent = new LongAdder();
+    private final LongAdder batchesSent = new LongAdder();
+
+    public OperationBatcher(@Value("${collaboration.batching.enabled:true}") boolean enabled,
+                            @Value("${collaboration.batching.max-delay-ms:20}") long maxDelayMs,
+                            @Value("${collaboration.batching.max-batch-size:256}") int maxBatchSize,
+                            @Value("${collaboration.batching.queue-depth-threshold:8}") int queueDepthThreshold,
+                            @Value("${collaboration.batching.target-send-latency-ms:2}") long targetSendLatencyMs) {
+        this.enabled = enabled;
+        this.maxDelayMicros = TimeUnit.MILLISECONDS.toMicros(maxDelayMs);
+        this.maxBatchSize = maxBatchSize;
+        this.queueDepthThreshold = queueDepthThreshold;
+        this.targetSendLatencyMicros = TimeUnit.MILLISECONDS.toMicros(targetSendLatencyMs);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "operation-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues an operation for the room. Calls for one document must come in version order,
+     * as they do from its actor.
+     */
+    public void submit(DocumentRoom room, Operation operation, String senderSessionId) {
+        if (!enabled) {
+            send(room, List.of(operation), Collections.singletonList(senderSessionId));
+            return;
+        }
+        Batch batch = batches.computeIfAbsent(room.getDocumentId(), id -> new Batch());
+        synchronized (batch) {
+            batch.room = room;
+            batch.operations.add(operation);
+            batch.senders.add(senderSessionId);
+            if (batch.budgetMicros == 0 || batch.operations.size() >= maxBatchSize) {
+                flush(batch);
+            } else if (!batch.flushScheduled) {
+                batch.flushScheduled = true;
+                scheduler.schedule(() -> {
+                    synchronized (batch) {
+                        batch.flushScheduled = false;
+                        flush(batch);
+                    }
+                }, batch.budgetMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Sends anything pending for the document and drops its batching state.
+     */
+    public void forget(String documentId) {
+        Batch batch = batches.remove(documentId);
+        if (batch != null) {
+            synchronized (batch) {
+                flush(batch);
+            }
+        }
+    }
+
+    public long getBudgetMicros(String documentId) {
+        Batch batch = batches.get(documentId);
+        if (batch == null) {
+            return 0;
+        }
+        synchronized (batch) {
+            return batch.budgetMicros;
+        }
+    }
+
+    public long getOperationsSent() {
+        return operationsSent.sum();
+    }
+
+    public long getBatchesSent() {
+        return batchesSent.sum();
+    }
+
+    public double getMeanBatchSize() {
+        long count = batchesSent.sum();
+        return count == 0 ? 0 : (double) operationsSent.sum() / count;
+    }
+
+    // Caller holds the batch lock
+    private void flush(Batch batch) {
+        if (batch.operations.isEmpty()) {
+            return;
+        }
+        send(batch.room, batch.operations, batch.senders);
+        batch.operations.clear();
+        batch.senders.clear();
+        adapt(batch);
+    }
+
+    private void adapt(Batch batch) {
+        boolean pressure = batch.room.getMaxQueueDepth() > queueDepthThreshold
+                || batch.room.getMaxSendLatencyMicros() > targetSendLatencyMicros;
+        if (pressure) {
+            batch.budgetMicros = Math.min(maxDelayMicros, Math.max(MIN_BUDGET_MICROS, batch.budgetMicros * 2));
+        } else {
+            batch.budgetMicros = batch.budgetMicros / 2 < MIN_BUDGET_MICROS ? 0 : batch.budgetMicros / 2;
+        }
+    }
+
+    private void send(DocumentRoom room, List<Operation> operations, List<String> senders) {
+        operationsSent.add(operations.size());
+        batchesSent.increment();
+        if (operations.size() == 1) {
+            room.broadcast(operationsFrame(operations), senders.get(0));
+            return;
+        }
+
+        // Everyone gets the whole batch except senders, who get it without their own operations
+        Set<String> senderIds = new LinkedHashSet<>(senders);
+        senderIds.remove(null);
+        room.broadcastExcept(operationsFrame(operations), senderIds);
+        for (String senderId : senderIds) {
+            List<Operation> others = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                if (!Objects.equals(senderId, senders.get(i))) {
+                    others.add(operations.get(i));
+                }
+            }
+            if (!others.isEmpty()) {
+                room.sendTo(senderId, operationsFrame(others));
+            }
+        }
+    }
+
+    /**
+     * OPERATION for a single operation, OPERATIONS otherwise. Encoded lazily, so it gets its
+     * own copy of the list.
+     */
+    private static OutboundFrame operationsFrame(List<Operation> operations) {
+        List<Operation> copy = List.copyOf(operations);
+        Object message = copy.size() == 1
+                ? new JsonProtocol.OperationBroadcast(copy.get(0))
+                : new JsonProtocol.OperationsBroadcast(copy);
+        return OutboundFrame.of(message, out -> BinaryProtocol.writeOperations(out, copy));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (String documentId : batches.keySet()) {
+            forget(documentId);
+        }
+        scheduler.shutdownNow();
+    }
+}
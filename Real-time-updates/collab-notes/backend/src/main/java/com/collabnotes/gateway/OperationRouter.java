@@ -0,0 +1,261 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.bus.BusMessage;
+import com.collabnotes.bus.OperationBus;
+import com.collabnotes.cluster.ClusterMembership;
+import com.collabnotes.cluster.ConsistentHashRing;
+import com.collabnotes.cluster.MisdirectedOperationException;
+import com.collabnotes.cluster.OperationForwarder;
+import com.collabnotes.document.DocumentActorSystem;
+import com.collabnotes.document.DocumentService;
+import com.collabnotes.document.DocumentSnapshot;
+import com.collabnotes.document.InitializationRange;
+import com.collabnotes.document.Operation;
+import com.collabnotes.document.OperationCoalescer;
+import com.collabnotes.metrics.CollaborationMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.net.ConnectException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Sends every operation to the node that owns its document: sequenced on this node's
+ * actor when it is the owner, forwarded otherwise. Reads that only the owner can answer
+ * completely, such as the range and pages of an initialization or the document's text, go
+ * the same way. Also moves document state out of (or back into) this node when membership
+ * changes.
+ */
+@Component
+public class OperationRouter {
+    private static final Logger log = LoggerFactory.getLogger(OperationRouter.class);
+
+    @Autowired
+    private DocumentService documentService;
+
+    @Autowired
+    private DocumentActorSystem actorSystem;
+
+    @Autowired
+    private OperationBus operationBus;
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private OperationForwarder forwarder;
+
+    @Autowired
+    private OperationCoalescer coalescer;
+
+    @Autowired
+    private CollaborationMetrics metrics;
+
+    @Value("${collaboration.cluster.forward-attempts:3}")
+    private int forwardAttempts;
+
+    @Value("${collaboration.cluster.forward-retry-delay-ms:100}")
+    private long forwardRetryDelayMs;
+
+    @Value("${collaboration.cluster.handoff-flush-timeout-ms:5000}")
+    private long handoffFlushTimeoutMs;
+
+    // Owner each document was last routed to, to spot ownership moves
+    private final Map<String, String> knownOwners = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        membership.addListener(this::onMembershipChange);
+    }
+
+    /**
+     * Completes with the operation as its owner sequenced it.
+     */
+    public CompletableFuture<Operation> route(Operation operation, String originSessionId) {
+        return route(operation, originSessionId, forwardAttempts);
+    }
+
+    private CompletableFuture<Operation> route(Operation operation, String originSessionId, int attemptsLeft) {
+        String documentId = operation.getDocumentId();
+        return onOwner(documentId, attemptsLeft,
+                () -> {
+                    knownOwners.put(documentId, membership.getNodeId());
+                    return processLocally(operation, originSessionId);
+                },
+                owner -> {
+                    knownOwners.put(documentId, owner);
+                    return forwarder.forward(owner, operation, originSessionId);
+                });
+    }
+
+    /**
+     * Where an initialization of the document starts and ends, as its owner sees it. A node
+     * that does not own the document has neither the owner's unflushed operations nor, until
+     * they are flushed, Mongo's copy of them.
+     */
+    public CompletableFuture<InitializationRange> initializationRange(String documentId) {
+        return onOwner(documentId, forwardAttempts,
+                () -> initializationRangeLocally(documentId),
+                owner -> forwarder.fetchInitializationRange(owner, documentId));
+    }
+
+    /**
+     * Applied operations with versions in ({@code afterVersion}, {@code upToVersion}], read on
+     * the document's owner. Callers should not call this on a thread that must not block, as a
+     * local read queries Mongo.
+     */
+    public CompletableFuture<List<Operation>> appliedOperations(String documentId, int afterVersion, int upToVersion) {
+        return onOwner(documentId, forwardAttempts,
+                () -> CompletableFuture.completedFuture(appliedOperationsLocally(documentId, afterVersion, upToVersion)),
+                owner -> forwarder.fetchAppliedOperations(owner, documentId, afterVersion, upToVersion));
+    }
+
+    /**
+     * The document's latest version, as its owner sees it. Callers should not call this on a
+     * thread that must not block, as a local read may load the document from Mongo.
+     */
+    public CompletableFuture<Integer> documentVersion(String documentId) {
+        return onOwner(documentId, forwardAttempts,
+                () -> CompletableFuture.completedFuture(documentVersionLocally(documentId)),
+                owner -> forwarder.fetchDocumentVersion(owner, documentId));
+    }
+
+    /**
+     * The document's text at {@code version}, or the latest when that is null, read on its
+     * owner. Another node's state cache is behind the owner unless a room there applies every
+     * operation. Callers should not call this on a thread that must not block.
+     */
+    public CompletableFuture<DocumentSnapshot> documentContent(String documentId, Integer version) {
+        return onOwner(documentId, forwardAttempts,
+                () -> CompletableFuture.completedFuture(documentContentLocally(documentId, version)),
+                owner -> forwarder.fetchDocumentContent(owner, documentId, version));
+    }
+
+    /**
+     * Only valid on the document's owner; taken on its actor, so every version up to the one
+     * returned is in Mongo or pending in this node's persistence pipeline.
+     */
+    public CompletableFuture<InitializationRange> initializationRangeLocally(String documentId) {
+        // Reads the latest snapshot from Mongo, so off the actor's worker
+        return actorSystem.askBlocking(documentId, () -> documentService.getInitializationRange(documentId));
+    }
+
+    /**
+     * Only valid on the document's owner, whose persistence pipeline holds what Mongo does not yet.
+     */
+    public List<Operation> appliedOperationsLocally(String documentId, int afterVersion, int upToVersion) {
+        return documentService.getAppliedOperations(documentId, afterVersion, upToVersion);
+    }
+
+    /**
+     * Only valid on the document's owner.
+     */
+    public int documentVersionLocally(String documentId) {
+        return documentService.getDocumentVersion(documentId);
+    }
+
+    /**
+     * Only valid on the document's owner.
+     */
+    public DocumentSnapshot documentContentLocally(String documentId, Integer version) {
+        return documentService.getDocumentContentAt(documentId, version);
+    }
+
+    /**
+     * Runs {@code local} if this node owns the document, otherwise {@code remote} against the
+     * owner, retrying while the owner is moving.
+     */
+    private <T> CompletableFuture<T> onOwner(String documentId, int attemptsLeft, Supplier<CompletableFuture<T>> local,
+                                             Function<String, CompletableFuture<T>> remote) {
+        String owner = membership.ownerOf(documentId);
+        if (membership.getNodeId().equals(owner)) {
+            return local.get();
+        }
+
+        return remote.apply(owner)
+                .handle((result, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    // Safe to retry only when the owner certainly did not process it
+                    boolean retryable = cause instanceof MisdirectedOperationException || cause instanceof ConnectException;
+                    if (retryable && attemptsLeft > 1) {
+                        log.debug("Re-routing request for document {} after: {}", documentId, cause.getMessage());
+                        return CompletableFuture.runAsync(() -> { },
+                                        CompletableFuture.delayedExecutor(forwardRetryDelayMs, TimeUnit.MILLISECONDS))
+                                .thenCompose(ignored -> onOwner(documentId, attemptsLeft - 1, local, remote));
+                    }
+                    return CompletableFuture.<T>failedFuture(cause);
+                })
+                .thenCompose(result -> result);
+    }
+
+    /**
+     * Sequences and persists the operation on its document's actor, merged with the session's
+     * adjacent keystrokes where possible, and publishes it to every node. Only valid on the
+     * document's owner.
+     */
+    public CompletableFuture<Operation> processLocally(Operation operation, String originSessionId) {
+        String documentId = operation.getDocumentId();
+        if (!documentService.isLoaded(documentId)) {
+            // Queued ahead of the operation, so the cold load does not run on the worker
+            actorSystem.submitBlocking(documentId, () -> documentService.load(documentId));
+        }
+        return coalescer.submit(operation, originSessionId, this::sequenceAndPublish);
+    }
+
+    private Operation sequenceAndPublish(Operation operation, String originSessionId) {
+        operation.setClientId(originSessionId);
+        List<Operation> processed = documentService.processOperation(operation);
+        long start = System.nanoTime();
+        for (Operation op : processed) {
+            operationBus.publish(new BusMessage(operationBus.getNodeId(), originSessionId, op));
+        }
+        metrics.recordStage("publish", System.nanoTime() - start);
+        // The sender is told the last version its operation took
+        return processed.get(processed.size() - 1);
+    }
+
+    private void onMembershipChange(ConsistentHashRing previous, ConsistentHashRing current) {
+        String self = membership.getNodeId();
+        knownOwners.forEach((documentId, oldOwner) -> {
+            String newOwner = current.ownerOf(documentId);
+            if (Objects.equals(oldOwner, newOwner)) {
+                return;
+            }
+            knownOwners.put(documentId, newOwner);
+            if (self.equals(oldOwner) || self.equals(newOwner)) {
+                // Losing: flush and forget so the new owner recovers everything from Mongo.
+                // Gaining: whatever we cached as a non-owner may be behind.
+                log.info("Document {} moves from {} to {}", documentId, oldOwner, newOwner);
+                coalescer.flush(documentId);
+                actorSystem.submitBlocking(documentId, () -> handOver(documentId));
+            }
+        });
+    }
+
+    /**
+     * Releases the document once its writes are in Mongo. The new owner waits for that
+     * before it sequences, so until then this keeps trying.
+     */
+    private void handOver(String documentId) {
+        if (documentService.releaseDocument(documentId, handoffFlushTimeoutMs) || membership.isLocal(documentId)) {
+            return;
+        }
+        CompletableFuture.delayedExecutor(handoffFlushTimeoutMs, TimeUnit.MILLISECONDS)
+                .execute(() -> actorSystem.submitBlocking(documentId, () -> handOver(documentId)));
+    }
+}
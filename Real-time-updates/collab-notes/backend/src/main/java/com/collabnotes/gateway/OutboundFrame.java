@@ -0,0 +1,69 @@
+package com.collabnotes.gateway;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.function.Consumer;
+
+/**
+ * A message queued on any number of connections. Its JSON text frame is serialized at most
+ * once, on first use, and shared by every JSON connection; a message with a binary form is
+ * encoded separately for each binary connection, by that connection's sender. Binary
+ * connections get the text frame of messages without one.
+ */
+public final class OutboundFrame {
+    private final Object message;
+    private final Consumer<BinaryProtocol.Encoder> binary;
+    private volatile TextMessage text;
+
+    private OutboundFrame(Object message, TextMessage text, Consumer<BinaryProtocol.Encoder> binary) {
+        this.message = message;
+        this.text = text;
+        this.binary = binary;
+    }
+
+    public static OutboundFrame of(TextMessage text) {
+        return new OutboundFrame(null, text, null);
+    }
+
+    /**
+     * A message that is JSON on every connection: a {@link JsonProtocol} message or a map.
+     * Its contents must not change once queued.
+     */
+    public static OutboundFrame of(Object message) {
+        return new OutboundFrame(message, null, null);
+    }
+
+    /**
+     * A message with a binary form, written by {@code binary}. Its contents must not change
+     * once queued.
+     */
+    public static OutboundFrame of(Object message, Consumer<BinaryProtocol.Encoder> binary) {
+        return new OutboundFrame(message, null, binary);
+    }
+
+    public TextMessage toText() throws JsonProcessingException {
+        TextMessage frame = text;
+        if (frame == null) {
+            synchronized (this) {
+                frame = text;
+                if (frame == null) {
+                    frame = new TextMessage(JsonProtocol.write(message));
+                    text = frame;
+                }
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * The frame to write to a connection; {@code encoder} is null for JSON connections.
+     */
+    WebSocketMessage<?> encodeFor(BinaryProtocol.Encoder encoder) throws JsonProcessingException {
+        if (encoder != null && binary != null) {
+            return encoder.encode(binary);
+        }
+        return toText();
+    }
+}
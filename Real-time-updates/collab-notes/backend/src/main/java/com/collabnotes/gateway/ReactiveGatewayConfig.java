@@ -0,0 +1,46 @@
+package com.collabnotes.gateway;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+import org.springframework.web.reactive.socket.server.WebSocketService;
+import org.springframework.web.reactive.socket.server.support.HandshakeWebSocketService;
+import org.springframework.web.reactive.socket.server.upgrade.ReactorNettyRequestUpgradeStrategy;
+
+import java.util.Map;
+
+/**
+ * The reactive gateway, active with {@code spring.main.web-application-type=reactive}:
+ * {@code /ws} and {@code /docs} on Netty event loops instead of Tomcat's thread per
+ * request. {@link WebSocketConfig} is its servlet counterpart.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveGatewayConfig implements WebFluxConfigurer {
+
+    /**
+     * Boot would otherwise serve reactive requests from Tomcat, as it is on the classpath
+     * for the servlet gateway.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Bean
+    public HandlerMapping webSocketHandlerMapping(WebSocketController webSocketController) {
+        return new SimpleUrlHandlerMapping(Map.of("/ws", new ReactiveWebSocketHandler(webSocketController)),
+                Ordered.HIGHEST_PRECEDENCE);
+    }
+
+    @Override
+    public WebSocketService getWebSocketService() {
+        // Named explicitly, as detection would pick Tomcat's upgrade for the same reason
+        return new HandshakeWebSocketService(new ReactorNettyRequestUpgradeStrategy());
+    }
+}
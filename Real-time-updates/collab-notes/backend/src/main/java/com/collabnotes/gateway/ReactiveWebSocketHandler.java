@@ -0,0 +1,252 @@
+package com.collabnotes.gateway;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code /ws} endpoint of the reactive gateway. Each Netty session is wrapped as a
+ * {@link WebSocketSession} and handed to the same {@link WebSocketController} the servlet
+ * gateway uses, so rooms, batching, awareness and initialization behave identically.
+ * Inbound frames are handled on the event loop, which only decodes them and hands
+ * operations to the document actors. Outbound frames leave the connection's queue only
+ * as Netty requests them, so a slow reader backs up into that bounded queue and the
+ * slow-consumer policy, never into unbounded socket buffers.
+ */
+public class ReactiveWebSocketHandler implements org.springframework.web.reactive.socket.WebSocketHandler {
+    private static final Logger log = LoggerFactory.getLogger(ReactiveWebSocketHandler.class);
+
+    private final WebSocketController controller;
+
+    public ReactiveWebSocketHandler(WebSocketController controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public Mono<Void> handle(org.springframework.web.reactive.socket.WebSocketSession session) {
+        ReactiveSession adapted = new ReactiveSession(session);
+        Mono<Void> inbound = session.receive()
+                .doOnNext(message -> receive(adapted, message))
+                .then();
+        Mono<Void> outbound = session.send(adapted.outbound());
+
+        // Either side ending ends the session: the client closing completes inbound, a
+        // write failure or a server-side close ends outbound
+        return Mono.fromRunnable(() -> established(adapted))
+                .then(Mono.firstWithSignal(inbound, outbound))
+                .doFinally(signal -> closed(adapted));
+    }
+
+    private void established(ReactiveSession session) {
+        try {
+            controller.afterConnectionEstablished(session);
+        } catch (Exception e) {
+            log.warn("Opening session {} failed: {}", session.getId(), e.getMessage());
+            session.closeQuietly(CloseStatus.SERVER_ERROR);
+        }
+    }
+
+    private void receive(ReactiveSession session, org.springframework.web.reactive.socket.WebSocketMessage message) {
+        WebSocketMessage<?> adapted;
+        switch (message.getType()) {
+            case TEXT:
+                adapted = new TextMessage(message.getPayloadAsText());
+                break;
+            case BINARY:
+                // The payload is released once this returns, so it is copied out
+                DataBuffer payload = message.getPayload();
+                byte[] bytes = new byte[payload.readableByteCount()];
+                payload.read(bytes);
+                adapted = new BinaryMessage(bytes);
+                break;
+            default:
+                return;
+        }
+        try {
+            controller.handleMessage(session, adapted);
+        } catch (Exception e) {
+            log.debug("Handling a message of session {} failed: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    private void closed(ReactiveSession session) {
+        session.complete();
+        try {
+            controller.afterConnectionClosed(session, CloseStatus.NORMAL);
+        } catch (Exception e) {
+            log.debug("Closing session {} failed: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * A Netty session as the servlet API sees it. Sends never block: they pass the frame to
+     * the outbound flux, and {@link ClientConnection} only sends while Netty has requested
+     * more.
+     */
+    static final class ReactiveSession implements WebSocketSession, ClientConnection.FlowControl {
+        private final org.springframework.web.reactive.socket.WebSocketSession session;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final AtomicLong demand = new AtomicLong();
+        private volatile Runnable onDemand = () -> { };
+        private volatile FluxSink<org.springframework.web.reactive.socket.WebSocketMessage> sink;
+
+        ReactiveSession(org.springframework.web.reactive.socket.WebSocketSession session) {
+            this.session = session;
+            this.attributes.put(SessionContext.ATTRIBUTE, SessionContext.fromUri(session.getHandshakeInfo().getUri()));
+        }
+
+        Flux<org.springframework.web.reactive.socket.WebSocketMessage> outbound() {
+            return Flux.create(sink -> {
+                this.sink = sink;
+                sink.onRequest(requested -> {
+                    long before = demand.getAndAccumulate(requested, (current, more) -> {
+                        long sum = current + more;
+                        return sum < 0 ? Long.MAX_VALUE : sum;
+                    });
+                    if (before == 0) {
+                        onDemand.run();
+                    }
+                });
+            });
+        }
+
+        void complete() {
+            FluxSink<?> current = sink;
+            if (current != null) {
+                current.complete();
+            }
+        }
+
+        void closeQuietly(CloseStatus status) {
+            session.close(new org.springframework.web.reactive.socket.CloseStatus(status.getCode(), status.getReason()))
+                    .subscribe(null, e -> log.debug("Closing session {} failed: {}", getId(), e.getMessage()));
+        }
+
+        @Override
+        public boolean hasDemand() {
+            return demand.get() > 0;
+        }
+
+        @Override
+        public void onDemand(Runnable callback) {
+            this.onDemand = callback;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            FluxSink<org.springframework.web.reactive.socket.WebSocketMessage> current = sink;
+            if (current == null || !session.isOpen()) {
+                throw new IllegalStateException("Session " + getId() + " is not open for sending");
+            }
+            org.springframework.web.reactive.socket.WebSocketMessage frame;
+            if (message instanceof TextMessage) {
+                frame = session.textMessage(((TextMessage) message).getPayload());
+            } else if (message instanceof BinaryMessage) {
+                ByteBuffer payload = ((BinaryMessage) message).getPayload();
+                frame = session.binaryMessage(factory -> factory.wrap(payload));
+            } else {
+                throw new IllegalArgumentException("Unsupported message type " + message.getClass().getSimpleName());
+            }
+            demand.decrementAndGet();
+            current.next(frame);
+        }
+
+        @Override
+        public String getId() {
+            return session.getId();
+        }
+
+        @Override
+        public URI getUri() {
+            return session.getHandshakeInfo().getUri();
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return session.getHandshakeInfo().getHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return session.getHandshakeInfo().getRemoteAddress();
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return session.getHandshakeInfo().getSubProtocol();
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return session.isOpen();
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(CloseStatus.NORMAL);
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            closeQuietly(status);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.collabnotes.gateway;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Document rooms of this node and the sender threads that drain every connection's
+ * outbound queue. Joining and leaving are atomic per document, so a room's open and close
+ * hooks run exactly once per lifetime of the room.
+ */
+@Component
+public class RoomRegistry {
+    private final Map<String, DocumentRoom> rooms = new ConcurrentHashMap<>();
+    private final ExecutorService senders;
+    private final int maxQueuedFrames;
+    private final ClientConnection.SlowConsumerPolicy policy;
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder sentFrames = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+
+    public RoomRegistry(@Value("${collaboration.outbound.max-queued-frames:1000}") int maxQueuedFrames,
+                        @Value("${collaboration.outbound.slow-consumer-policy:DISCONNECT}") ClientConnection.SlowConsumerPolicy policy,
+                        @Value("${collaboration.outbound.threads:0}") int threads) {
+        this.maxQueuedFrames = maxQueuedFrames;
+        this.policy = policy;
+        int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger index = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(count, runnable -> {
+            Thread thread = new Thread(runnable, "ws-sender-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ClientConnection connect(WebSocketSession session) {
+        return connect(session, ClientConnection.Protocol.JSON);
+    }
+
+    public ClientConnection connect(WebSocketSession session, ClientConnection.Protocol protocol) {
+        return new ClientConnection(session, protocol, senders, maxQueuedFrames, policy, droppedFrames, evictions,
+                sentFrames, sentBytes);
+    }
+
+    /**
+     * Adds the connection to the document's room, running {@code onOpen} if this creates it.
+     */
+    public DocumentRoom join(String documentId, ClientConnection connection, Consumer<DocumentRoom> onOpen) {
+        return rooms.compute(documentId, (id, room) -> {
+            if (room == null) {
+                room = new DocumentRoom(id);
+                onOpen.accept(room);
+            }
+            room.add(connection);
+            return room;
+        });
+    }
+
+    /**
+     * Removes the connection, running {@code onClose} if that leaves the room empty.
+     */
+    public void leave(String documentId, ClientConnection connection, Consumer<DocumentRoom> onClose) {
+        rooms.computeIfPresent(documentId, (id, room) -> {
+            if (room.remove(connection)) {
+                onClose.accept(room);
+                return null;
+            }
+            return room;
+        });
+    }
+
+    public DocumentRoom get(String documentId) {
+        return rooms.get(documentId);
+    }
+
+    public Collection<DocumentRoom> getRooms() {
+        return rooms.values();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getSentFrames() {
+        return sentFrames.sum();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        senders.shutdown();
+        senders.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
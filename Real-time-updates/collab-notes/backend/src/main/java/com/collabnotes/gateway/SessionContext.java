@@ -0,0 +1,111 @@
+package com.collabnotes.gateway;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * What a WebSocket session's query string says about it, parsed once at handshake by
+ * {@link Interceptor} and kept in the session attributes for every later message.
+ */
+public final class SessionContext {
+    static final String ATTRIBUTE = SessionContext.class.getName();
+
+    private final String documentId;
+    private final String userId;
+    private final String username;
+    private final ClientConnection.Protocol protocol;
+
+    private SessionContext(String documentId, String userId, String username, ClientConnection.Protocol protocol) {
+        this.documentId = documentId;
+        this.userId = userId;
+        this.username = username;
+        this.protocol = protocol;
+    }
+
+    /**
+     * Reads {@code documentId}, {@code userId}, {@code username} (URL-decoded) and
+     * {@code protocol} from the query; absent parameters are null.
+     */
+    public static SessionContext fromUri(URI uri) {
+        String documentId = null;
+        String userId = null;
+        String username = null;
+        String protocol = null;
+        String query = uri != null ? uri.getRawQuery() : null;
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int eq = param.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                String name = param.substring(0, eq);
+                String value = param.substring(eq + 1);
+                if ("documentId".equals(name)) {
+                    documentId = value;
+                } else if ("userId".equals(name)) {
+                    userId = value;
+                } else if ("username".equals(name)) {
+                    username = decode(value);
+                } else if ("protocol".equals(name)) {
+                    protocol = value;
+                }
+            }
+        }
+        return new SessionContext(documentId, userId, username, ClientConnection.Protocol.fromQuery(protocol));
+    }
+
+    /**
+     * The context resolved at handshake, or null for a session that did not go through {@link Interceptor}.
+     */
+    public static SessionContext of(WebSocketSession session) {
+        Object context = session.getAttributes().get(ATTRIBUTE);
+        return context instanceof SessionContext ? (SessionContext) context : null;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public ClientConnection.Protocol getProtocol() {
+        return protocol;
+    }
+
+    public static class Interceptor implements HandshakeInterceptor {
+
+        @Override
+        public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                       WebSocketHandler wsHandler, Map<String, Object> attributes) {
+            attributes.put(ATTRIBUTE, fromUri(request.getURI()));
+            return true;
+        }
+
+        @Override
+        public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Exception exception) {
+        }
+    }
+}
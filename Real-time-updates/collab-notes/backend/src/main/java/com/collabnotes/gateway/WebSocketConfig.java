@@ -1,11 +1,17 @@
 package com.collabnotes.gateway;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 
+/**
+ * The servlet gateway's {@code /ws} endpoint; {@link ReactiveGatewayConfig} serves it in
+ * the reactive gateway.
+ */
 @Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
@@ -18,6 +24,7 @@ public class WebSocketConfig implements WebSocketConfigurer {
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(webSocketController, "/ws")
+                .addInterceptors(new SessionContext.Interceptor())
                 .setAllowedOrigins("*");
     }
 }
\ No newline at end of file
@@ -1,62 +1,98 @@
 package com.collabnotes.gateway;
 
+import com.collabnotes.bus.BusMessage;
+import com.collabnotes.bus.OperationBus;
+import com.collabnotes.document.DocumentActorSystem;
 import com.collabnotes.document.DocumentService;
 import com.collabnotes.document.Operation;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.collabnotes.metrics.CollaborationMetrics;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 
-import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Serves both wire protocols on one endpoint: {@link JsonProtocol} text frames, and for
+ * sessions opened with {@code ?protocol=binary} the {@link BinaryProtocol} frames alongside
+ * JSON. Both decode into the same operation and cursor handling. A session's document, user
+ * and protocol come from the {@link SessionContext} resolved at handshake.
+ */
 @Component
-public class WebSocketController extends TextWebSocketHandler {
+public class WebSocketController extends AbstractWebSocketHandler {
+    private static final Logger log = LoggerFactory.getLogger(WebSocketController.class);
 
     @Autowired
     private DocumentService documentService;
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final Map<String, List<WebSocketSession>> documentSessions = new ConcurrentHashMap<>();
+    @Autowired
+    private DocumentActorSystem actorSystem;
+
+    @Autowired
+    private OperationBus operationBus;
+
+    @Autowired
+    private OperationRouter router;
+
+    @Autowired
+    private RoomRegistry rooms;
+
+    @Autowired
+    private AwarenessService awareness;
+
+    @Autowired
+    private OperationBatcher batcher;
+
+    @Autowired
+    private InitializationStreamer initialization;
+
+    @Autowired
+    private CollaborationMetrics metrics;
+
+    private final Map<String, ClientConnection> connections = new ConcurrentHashMap<>(); // sessionId -> connection
     private final Map<String, String> sessionUsers = new ConcurrentHashMap<>();
     private final Map<String, String> usernames = new ConcurrentHashMap<>(); // userId -> username
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        String documentId = extractQueryParam(session, "documentId");
-        String userId = extractQueryParam(session, "userId");
-        String username = extractQueryParam(session, "username");
+        SessionContext context = SessionContext.of(session);
+        String documentId = context != null ? context.getDocumentId() : null;
+        String userId = context != null ? context.getUserId() : null;
 
         if (documentId != null && userId != null) {
             sessionUsers.put(session.getId(), userId);
             
             // Store username if provided
+            String username = context.getUsername();
             if (username != null && !username.isEmpty()) {
-                try {
-                    String decodedUsername = java.net.URLDecoder.decode(username, "UTF-8");
-                    usernames.put(userId, decodedUsername);
-                    System.out.println("Stored username for " + userId + ": " + decodedUsername);
-                } catch (Exception e) {
-                    System.err.println("Error decoding username: " + e.getMessage());
-                }
+                usernames.put(userId, username);
+                log.debug("Stored username for {}: {}", userId, username);
             }
 
-            // Add session to document room
-            documentSessions.computeIfAbsent(documentId, k -> new ArrayList<>())
-                    .add(session);
+            // Add session to document room; the first one here subscribes the node to the
+            // document's operations from every node
+            ClientConnection connection = rooms.connect(session, context.getProtocol());
+            connections.put(session.getId(), connection);
+            rooms.join(documentId, connection, room -> {
+                room.setSubscription(operationBus.subscribe(documentId, this::onBusMessage));
+                metrics.bindRoom(documentId, room, DocumentRoom::getSentFrames, DocumentRoom::getSentBytes);
+            });
 
-            System.out.println("User " + userId + " connected to document " + documentId +
-                    " (Session: " + session.getId() + ")");
+            log.debug("User {} connected to document {} (session {})", userId, documentId, session.getId());
 
             // Send all applied ops on connect
-            sendAllAppliedOpsOnConnect(session, documentId);
+            sendAllAppliedOpsOnConnect(connection, documentId);
 
             // Send all existing usernames to the new user
-            sendExistingUsernames(session, documentId);
+            sendExistingUsernames(connection, documentId);
 
             // Notify other users (with username)
             broadcastUserJoined(documentId, userId);
@@ -65,145 +101,197 @@ public class WebSocketController extends TextWebSocketHandler {
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        String documentId = extractQueryParam(session, "documentId");
-        String userId = sessionUsers.get(session.getId());
-
-        if (documentId != null && userId != null) {
+        SessionContext context = SessionContext.of(session);
+        ClientConnection connection = connections.get(session.getId());
+
+        if (context != null && context.getDocumentId() != null && connection != null) {
+            String documentId = context.getDocumentId();
+            String userId = context.getUserId();
+            long start = System.nanoTime();
+            String type = "UNKNOWN";
             try {
-                String payload = message.getPayload();
-                System.out.println("Received WebSocket message from user " + userId +
-                        " for document " + documentId + ": " + payload);
-
-                Map<String, Object> messageMap = objectMapper.readValue(payload, Map.class);
-                String type = (String) messageMap.get("type");
-
-                if ("OPERATION".equals(type)) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> opData = (Map<String, Object>) messageMap.get("operation");
-
-                    Operation operation = new Operation();
-                    operation.setDocumentId(documentId);
-                    operation.setUserId(userId);
-                    operation.setType((String) opData.get("type"));
-                    operation.setPosition(((Number) opData.get("position")).intValue());
-                    operation.setText((String) opData.get("text"));
-                    operation.setTimestamp(System.currentTimeMillis());
-
-                    System.out.println("Processing operation: " + operation.getType() +
-                            " at position " + operation.getPosition() +
-                            " with text: " + operation.getText());
-
-                    // Process operation through Document Service
-                    Operation processedOp = documentService.processOperation(operation);
-
-                    // Broadcast to all other sessions in this document
-                    broadcastOperation(processedOp, documentId, session);
-                } else if ("CURSOR_POSITION".equals(type)) {
-                    // Broadcast cursor position to other users
-                    broadcastCursorPosition(documentId, userId, messageMap, session);
-                } else if ("USER_INFO".equals(type)) {
+                Object received = JsonProtocol.read(message.getPayload());
+
+                if (received instanceof JsonProtocol.OperationMessage) {
+                    type = "OPERATION";
+                    JsonProtocol.ClientOperation operation = ((JsonProtocol.OperationMessage) received).operation;
+                    if (operation == null) {
+                        sendError(connection, "Failed to process operation: missing operation");
+                        return;
+                    }
+                    submitOperation(session.getId(), connection, documentId, userId, operation.toOperation());
+                } else if (received instanceof JsonProtocol.CursorMessage) {
+                    type = "CURSOR_POSITION";
+                    // Latest position wins; sent to the room on the next awareness tick
+                    JsonProtocol.CursorMessage cursor = (JsonProtocol.CursorMessage) received;
+                    awareness.updateCursor(documentId, userId, cursor.username, cursor.position);
+                } else if (received instanceof JsonProtocol.UserInfoMessage) {
+                    type = "USER_INFO";
                     // Store username and broadcast to others
-                    String username = (String) messageMap.get("username");
+                    String username = ((JsonProtocol.UserInfoMessage) received).username;
                     if (username != null) {
                         usernames.put(userId, username);
-                        System.out.println("Stored username for " + userId + ": " + username);
-                        broadcastUserInfo(documentId, userId, username, session);
+                        log.debug("Stored username for {}: {}", userId, username);
+                        broadcastUserInfo(documentId, userId, username, session.getId());
                     }
-                } else if ("NEW_DOCUMENT".equals(type)) {
+                } else if (received instanceof JsonProtocol.NewDocumentMessage) {
+                    type = "NEW_DOCUMENT";
                     // Broadcast new document to all users
-                    System.out.println("Broadcasting new document creation");
-                    broadcastNewDocument(messageMap, session);
+                    log.debug("Broadcasting new document creation");
+                    broadcastNewDocument(((JsonProtocol.NewDocumentMessage) received).document, session.getId());
                 }
 
             } catch (Exception e) {
-                System.err.println("Error processing WebSocket message: " + e.getMessage());
-                sendError(session, "Failed to process operation: " + e.getMessage());
+                metrics.recordError("inbound");
+                log.warn("Error processing WebSocket message", e);
+                sendError(connection, "Failed to process operation: " + e.getMessage());
+            } finally {
+                metrics.recordMessage(false, type, System.nanoTime() - start);
+                metrics.recordInbound(documentId, message.getPayloadLength());
             }
         }
     }
 
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        SessionContext context = SessionContext.of(session);
+        ClientConnection connection = connections.get(session.getId());
+
+        if (context != null && context.getDocumentId() != null && connection != null) {
+            String documentId = context.getDocumentId();
+            String userId = context.getUserId();
+            long start = System.nanoTime();
+            String typeName = "UNKNOWN";
+            try {
+                // Client frames carry no interned references, so a fresh decoder will do
+                BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder();
+                byte type = decoder.begin(message.getPayload());
+
+                if (type == BinaryProtocol.OPERATION) {
+                    typeName = "OPERATION";
+                    submitOperation(session.getId(), connection, documentId, userId,
+                            BinaryProtocol.readClientOperation(decoder));
+                } else if (type == BinaryProtocol.CURSOR_POSITION) {
+                    typeName = "CURSOR_POSITION";
+                    awareness.updateCursor(documentId, userId, usernames.get(userId), decoder.readInt());
+                } else {
+                    sendError(connection, "Unsupported binary message type: " + type);
+                }
+
+            } catch (Exception e) {
+                metrics.recordError("inbound");
+                log.warn("Error processing binary WebSocket message", e);
+                sendError(connection, "Failed to process operation: " + e.getMessage());
+            } finally {
+                metrics.recordMessage(true, typeName, System.nanoTime() - start);
+                metrics.recordInbound(documentId, message.getPayloadLength());
+            }
+        }
+    }
+
+    /**
+     * Sequences a client's operation, whichever protocol it arrived in.
+     */
+    private void submitOperation(String sessionId, ClientConnection connection, String documentId, String userId,
+                                 Operation operation) {
+        operation.setDocumentId(documentId);
+        operation.setUserId(userId);
+        operation.setTimestamp(System.currentTimeMillis());
+
+        // Sequence on the document's owner (this node's actor, or forwarded), which
+        // also fans it out to everyone else on every node; then tell the sender
+        // where its operation landed
+        router.route(operation, sessionId).whenComplete((processedOp, error) -> {
+            if (error == null) {
+                sendOperationAck(connection, processedOp);
+            } else {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                metrics.recordError("operation");
+                log.warn("Error processing operation for document {}: {}", documentId, cause.getMessage());
+                sendError(connection, "Failed to process operation: " + cause.getMessage());
+            }
+        });
+    }
+
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        String documentId = extractQueryParam(session, "documentId");
+        SessionContext context = SessionContext.of(session);
+        String documentId = context != null ? context.getDocumentId() : null;
         String userId = sessionUsers.remove(session.getId());
+        ClientConnection connection = connections.remove(session.getId());
 
         if (documentId != null && userId != null) {
-            List<WebSocketSession> sessions = documentSessions.get(documentId);
-            if (sessions != null) {
-                sessions.remove(session);
-                if (sessions.isEmpty()) {
-                    documentSessions.remove(documentId);
-                }
+            if (connection != null) {
+                rooms.leave(documentId, connection, room -> {
+                    if (room.getSubscription() != null) {
+                        room.getSubscription().close();
+                    }
+                    metrics.unbindRoom(documentId);
+                    batcher.forget(documentId);
+                });
             }
 
-            System.out.println("User " + userId + " disconnected from document " + documentId);
+            awareness.removeUser(documentId, userId);
+            log.debug("User {} disconnected from document {}", userId, documentId);
             broadcastUserLeft(documentId, userId);
         }
     }
 
-    private void sendAllAppliedOpsOnConnect(WebSocketSession session, String documentId) throws IOException {
-        System.out.println("Sending all applied ops on connect for document: " + documentId);
+    private void sendAllAppliedOpsOnConnect(ClientConnection connection, String documentId) {
+        log.debug("Streaming applied ops on connect for document {}", documentId);
 
-        List<Operation> appliedOps = documentService.getAllAppliedOperations(documentId);
-        System.out.println("Found " + appliedOps.size() + " applied operations");
-
-        Map<String, Object> initMessage = new HashMap<>();
-        initMessage.put("type", "INITIALIZATION");
-        initMessage.put("documentId", documentId);
-        initMessage.put("operations", appliedOps);
-
-        String json = objectMapper.writeValueAsString(initMessage);
-        session.sendMessage(new TextMessage(json));
+        // Snapshot and operations follow in bounded INITIALIZATION_CHUNK pages, off this thread.
+        // The first range read after the room subscribed is where the bus starts delivering
+        // other nodes' operations.
+        initialization.stream(connection, documentId, latestVersion -> {
+            DocumentRoom room = rooms.get(documentId);
+            if (room != null && room.getSubscription() != null) {
+                room.getSubscription().startAfter(latestVersion);
+            }
+        });
 
         // Also send current user list
         sendUserList(documentId);
     }
 
-    private void broadcastOperation(Operation operation, String documentId, WebSocketSession sender) {
-        List<WebSocketSession> sessions = documentSessions.get(documentId);
-
-        if (sessions != null && !sessions.isEmpty()) {
-            System.out.println("Broadcasting operation to " + (sessions.size() - 1) + " other users");
-
-            Map<String, Object> message = new HashMap<>();
-            message.put("type", "OPERATION");
-            message.put("operation", operation);
-
-            try {
-                String json = objectMapper.writeValueAsString(message);
-
-                for (WebSocketSession session : sessions) {
-                    if (session != sender && session.isOpen()) {
-                        session.sendMessage(new TextMessage(json));
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to broadcast operation: " + e.getMessage());
-            }
+    private void onBusMessage(BusMessage message) {
+        Operation operation = message.getOperation();
+        if (operationBus.getNodeId().equals(message.getOriginNodeId())) {
+            // Published by this node from the document's actor; already applied here
+            broadcastOperation(operation, operation.getDocumentId(), message.getOriginSessionId());
+            return;
         }
+        actorSystem.submit(operation.getDocumentId(), () -> {
+            documentService.applyReplicatedOperation(operation);
+            broadcastOperation(operation, operation.getDocumentId(), message.getOriginSessionId());
+        });
     }
 
-    private void broadcastUserJoined(String documentId, String userId) {
-        List<WebSocketSession> sessions = documentSessions.get(documentId);
+    private void broadcastOperation(Operation operation, String documentId, String senderSessionId) {
+        DocumentRoom room = rooms.get(documentId);
 
-        if (sessions != null && !sessions.isEmpty()) {
-            Map<String, Object> message = new HashMap<>();
-            message.put("type", "USER_JOINED");
-            message.put("userId", userId);
-            message.put("username", usernames.get(userId)); // Include username if available
-            message.put("timestamp", System.currentTimeMillis());
+        if (room != null) {
+            // Sent alone or with other operations that arrive within the room's batching budget
+            long start = System.nanoTime();
+            batcher.submit(room, operation, senderSessionId);
+            metrics.recordBroadcast("operation", System.nanoTime() - start);
+        }
+    }
 
-            try {
-                String json = objectMapper.writeValueAsString(message);
+    private void sendOperationAck(ClientConnection connection, Operation operation) {
+        connection.send(OutboundFrame.of(new JsonProtocol.OperationAck(operation),
+                out -> BinaryProtocol.writeAck(out, operation)));
+    }
 
-                for (WebSocketSession session : sessions) {
-                    if (session.isOpen()) {
-                        session.sendMessage(new TextMessage(json));
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to broadcast user joined: " + e.getMessage());
-            }
+    private void broadcastUserJoined(String documentId, String userId) {
+        DocumentRoom room = rooms.get(documentId);
+
+        if (room != null) {
+            // Include username if available
+            long start = System.nanoTime();
+            room.broadcast(OutboundFrame.of(new JsonProtocol.UserEvent(
+                    "USER_JOINED", userId, usernames.get(userId), System.currentTimeMillis())), null);
+            metrics.recordBroadcast("presence", System.nanoTime() - start);
         }
     }
 
@@ -212,84 +300,36 @@ public class WebSocketController extends TextWebSocketHandler {
     }
 
     private void broadcastUserEvent(String documentId, String eventType, String userId) {
-        List<WebSocketSession> sessions = documentSessions.get(documentId);
-
-        if (sessions != null && !sessions.isEmpty()) {
-            Map<String, Object> message = new HashMap<>();
-            message.put("type", eventType);
-            message.put("userId", userId);
-            message.put("timestamp", System.currentTimeMillis());
-
-            try {
-                String json = objectMapper.writeValueAsString(message);
+        DocumentRoom room = rooms.get(documentId);
 
-                for (WebSocketSession session : sessions) {
-                    if (session.isOpen()) {
-                        session.sendMessage(new TextMessage(json));
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to broadcast user event: " + e.getMessage());
-            }
+        if (room != null) {
+            long start = System.nanoTime();
+            room.broadcast(OutboundFrame.of(new JsonProtocol.UserEvent(
+                    eventType, userId, null, System.currentTimeMillis())), null);
+            metrics.recordBroadcast("presence", System.nanoTime() - start);
         }
     }
 
-    private void broadcastCursorPosition(String documentId, String userId, Map<String, Object> messageMap, WebSocketSession sender) {
-        List<WebSocketSession> sessions = documentSessions.get(documentId);
-
-        if (sessions != null && !sessions.isEmpty()) {
-            Map<String, Object> message = new HashMap<>();
-            message.put("type", "CURSOR_POSITION");
-            message.put("userId", userId);
-            message.put("username", messageMap.get("username"));
-            message.put("position", messageMap.get("position"));
-
-            try {
-                String json = objectMapper.writeValueAsString(message);
+    private void broadcastUserInfo(String documentId, String userId, String username, String senderSessionId) {
+        DocumentRoom room = rooms.get(documentId);
 
-                for (WebSocketSession session : sessions) {
-                    if (session != sender && session.isOpen()) {
-                        session.sendMessage(new TextMessage(json));
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to broadcast cursor position: " + e.getMessage());
-            }
+        if (room != null) {
+            long start = System.nanoTime();
+            room.broadcast(OutboundFrame.of(new JsonProtocol.UserEvent("USER_JOINED", userId, username, null)),
+                    senderSessionId);
+            metrics.recordBroadcast("presence", System.nanoTime() - start);
         }
     }
 
-    private void broadcastUserInfo(String documentId, String userId, String username, WebSocketSession sender) {
-        List<WebSocketSession> sessions = documentSessions.get(documentId);
+    private void sendExistingUsernames(ClientConnection connection, String documentId) {
+        DocumentRoom room = rooms.get(documentId);
 
-        if (sessions != null && !sessions.isEmpty()) {
-            Map<String, Object> message = new HashMap<>();
-            message.put("type", "USER_JOINED");
-            message.put("userId", userId);
-            message.put("username", username);
-
-            try {
-                String json = objectMapper.writeValueAsString(message);
-
-                for (WebSocketSession session : sessions) {
-                    if (session != sender && session.isOpen()) {
-                        session.sendMessage(new TextMessage(json));
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to broadcast user info: " + e.getMessage());
-            }
-        }
-    }
-
-    private void sendExistingUsernames(WebSocketSession session, String documentId) throws IOException {
-        List<WebSocketSession> sessions = documentSessions.get(documentId);
-
-        if (sessions != null && !sessions.isEmpty()) {
+        if (room != null) {
             // Collect all usernames for users in this document
             Map<String, String> documentUsernames = new HashMap<>();
             
-            for (WebSocketSession otherSession : sessions) {
-                String otherUserId = sessionUsers.get(otherSession.getId());
+            for (ClientConnection other : room.getConnections()) {
+                String otherUserId = sessionUsers.get(other.getId());
                 if (otherUserId != null) {
                     String username = usernames.get(otherUserId);
                     if (username != null) {
@@ -299,90 +339,53 @@ public class WebSocketController extends TextWebSocketHandler {
             }
 
             if (!documentUsernames.isEmpty()) {
-                Map<String, Object> message = new HashMap<>();
-                message.put("type", "EXISTING_USERNAMES");
-                message.put("usernames", documentUsernames);
-
-                String json = objectMapper.writeValueAsString(message);
-                session.sendMessage(new TextMessage(json));
+                connection.send(OutboundFrame.of(new JsonProtocol.ExistingUsernames(documentUsernames)));
                 
-                System.out.println("Sent " + documentUsernames.size() + " existing usernames to new user");
+                log.debug("Sent {} existing usernames to new user", documentUsernames.size());
             }
         }
     }
 
-    private void broadcastNewDocument(Map<String, Object> messageMap, WebSocketSession sender) {
+    private void broadcastNewDocument(JsonNode document, String senderSessionId) {
         // Broadcast to all sessions across all documents
-        Map<String, Object> message = new HashMap<>();
-        message.put("type", "NEW_DOCUMENT");
-        message.put("document", messageMap.get("document"));
-
-        try {
-            String json = objectMapper.writeValueAsString(message);
-            int broadcastCount = 0;
-
-            // Send to all sessions in all documents
-            for (List<WebSocketSession> sessions : documentSessions.values()) {
-                for (WebSocketSession session : sessions) {
-                    if (session != sender && session.isOpen()) {
-                        session.sendMessage(new TextMessage(json));
-                        broadcastCount++;
-                    }
-                }
-            }
-
-            System.out.println("Broadcasted new document to " + broadcastCount + " users");
-        } catch (IOException e) {
-            System.err.println("Failed to broadcast new document: " + e.getMessage());
+        long start = System.nanoTime();
+        OutboundFrame frame = OutboundFrame.of(new JsonProtocol.NewDocument(document));
+        int broadcastCount = 0;
+
+        // Send to all sessions in all documents
+        for (DocumentRoom room : rooms.getRooms()) {
+            room.broadcast(frame, senderSessionId);
+            broadcastCount += room.size();
         }
+        metrics.recordBroadcast("new_document", System.nanoTime() - start);
+
+        log.debug("Broadcasted new document to {} users", broadcastCount);
     }
 
-    private void sendUserList(String documentId) throws IOException {
-        List<WebSocketSession> sessions = documentSessions.get(documentId);
+    private void sendUserList(String documentId) {
+        DocumentRoom room = rooms.get(documentId);
 
-        if (sessions != null && !sessions.isEmpty()) {
+        if (room != null) {
+            long start = System.nanoTime();
             List<String> users = new ArrayList<>();
 
-            for (WebSocketSession session : sessions) {
-                String userId = sessionUsers.get(session.getId());
+            for (ClientConnection connection : room.getConnections()) {
+                String userId = sessionUsers.get(connection.getId());
                 if (userId != null) {
                     users.add(userId);
                 }
             }
 
-            Map<String, Object> message = new HashMap<>();
-            message.put("type", "USER_LIST");
-            message.put("users", users);
-
-            String json = objectMapper.writeValueAsString(message);
-
-            for (WebSocketSession session : sessions) {
-                if (session.isOpen()) {
-                    session.sendMessage(new TextMessage(json));
-                }
-            }
+            room.broadcast(OutboundFrame.of(new JsonProtocol.UserList(users)), null);
+            metrics.recordBroadcast("user_list", System.nanoTime() - start);
         }
     }
 
-    private void sendError(WebSocketSession session, String errorMessage) throws IOException {
-        Map<String, Object> error = new HashMap<>();
-        error.put("type", "ERROR");
-        error.put("message", errorMessage);
-
-        String json = objectMapper.writeValueAsString(error);
-        session.sendMessage(new TextMessage(json));
+    public int getActiveSessions() {
+        return connections.size();
     }
 
-    private String extractQueryParam(WebSocketSession session, String paramName) {
-        String query = session.getUri().getQuery();
-        if (query != null) {
-            String[] params = query.split("&");
-            for (String param : params) {
-                if (param.startsWith(paramName + "=")) {
-                    return param.substring(paramName.length() + 1);
-                }
-            }
-        }
-        return null;
+    private void sendError(ClientConnection connection, String errorMessage) {
+        connection.send(OutboundFrame.of(new JsonProtocol.ErrorMessage(errorMessage)));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+package com.collabnotes.inmemory;
+
+import com.collabnotes.document.DocumentSequence;
+import com.collabnotes.document.DocumentSequenceRepository;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+@Profile("inmemory")
+public class InMemoryDocumentSequenceRepository extends InMemoryRepository<DocumentSequence, String>
+        implements DocumentSequenceRepository {
+
+    @Override
+    protected String idOf(DocumentSequence sequence) {
+        return sequence.getId();
+    }
+
+    @Override
+    public <S extends DocumentSequence> S insert(S sequence) {
+        return save(sequence);
+    }
+
+    @Override
+    public <S extends DocumentSequence> List<S> insert(Iterable<S> sequences) {
+        return saveAll(sequences);
+    }
+
+    @Override
+    public void advanceTo(String documentId, int sequence) {
+        entities.compute(documentId, (id, stored) -> {
+            if (stored == null) {
+                stored = new DocumentSequence();
+                stored.setId(id);
+            }
+            stored.setSequence(Math.max(stored.getSequence(), sequence));
+            return stored;
+        });
+    }
+
+    @Override
+    public boolean claim(String documentId, String nodeId, Collection<String> liveNodes) {
+        DocumentSequence claimed = entities.compute(documentId, (id, stored) -> {
+            if (stored == null) {
+                stored = new DocumentSequence();
+                stored.setId(id);
+            }
+            if (stored.getOwner() == null || !liveNodes.contains(stored.getOwner())) {
+                stored.setOwner(nodeId);
+            }
+            return stored;
+        });
+        return nodeId.equals(claimed.getOwner());
+    }
+
+    @Override
+    public void releaseClaim(String documentId, String nodeId) {
+        entities.computeIfPresent(documentId, (id, stored) -> {
+            if (nodeId.equals(stored.getOwner())) {
+                stored.setOwner(null);
+            }
+            return stored;
+        });
+    }
+}
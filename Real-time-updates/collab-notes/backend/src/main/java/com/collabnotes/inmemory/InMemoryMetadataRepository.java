@@ -0,0 +1,112 @@
+package com.collabnotes.inmemory;
+
+import com.collabnotes.metadata.DocumentMetadata;
+import com.collabnotes.metadata.MetadataRepository;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Repository
+@Profile("inmemory")
+public class InMemoryMetadataRepository extends InMemoryRepository<DocumentMetadata, String> implements MetadataRepository {
+
+    @Override
+    protected String idOf(DocumentMetadata metadata) {
+        return metadata.getId();
+    }
+
+    private static final Comparator<DocumentMetadata> LISTING_ORDER = Comparator
+            .comparing(DocumentMetadata::getUpdatedAt, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(DocumentMetadata::getId, Comparator.reverseOrder());
+
+    @Override
+    public List<DocumentMetadata> findAllByOrderByUpdatedAtDescIdDesc(Pageable page) {
+        return entities.values().stream()
+                .sorted(LISTING_ORDER)
+                .limit(page.getPageSize())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<DocumentMetadata> findPageAfter(Date updatedAt, String id, Pageable page) {
+        DocumentMetadata cursor = new DocumentMetadata();
+        cursor.setUpdatedAt(updatedAt);
+        cursor.setId(id);
+        return entities.values().stream()
+                .filter(metadata -> LISTING_ORDER.compare(metadata, cursor) > 0)
+                .sorted(LISTING_ORDER)
+                .limit(page.getPageSize())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public int touchAll(Map<String, Date> updatedAtById) {
+        int updated = 0;
+        for (Map.Entry<String, Date> entry : updatedAtById.entrySet()) {
+            DocumentMetadata metadata = entities.get(entry.getKey());
+            if (metadata == null) {
+                continue;
+            }
+            synchronized (metadata) {
+                // Only ever moved forward, as the UPDATE's WHERE clause does
+                if (metadata.getUpdatedAt() == null || metadata.getUpdatedAt().before(entry.getValue())) {
+                    metadata.setUpdatedAt(entry.getValue());
+                    updated++;
+                }
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public <S extends DocumentMetadata> S saveAndFlush(S metadata) {
+        return save(metadata);
+    }
+
+    @Override
+    public <S extends DocumentMetadata> List<S> saveAllAndFlush(Iterable<S> metadata) {
+        return saveAll(metadata);
+    }
+
+    @Override
+    public void deleteAllInBatch(Iterable<DocumentMetadata> metadata) {
+        deleteAll(metadata);
+    }
+
+    @Override
+    public void deleteAllByIdInBatch(Iterable<String> ids) {
+        deleteAllById(ids);
+    }
+
+    @Override
+    public void deleteAllInBatch() {
+        deleteAll();
+    }
+
+    @Override
+    @Deprecated
+    public DocumentMetadata getOne(String id) {
+        return getReferenceById(id);
+    }
+
+    @Override
+    @Deprecated
+    public DocumentMetadata getById(String id) {
+        return getReferenceById(id);
+    }
+
+    @Override
+    public DocumentMetadata getReferenceById(String id) {
+        return findById(id).orElseThrow(() -> new IllegalArgumentException("No document metadata with id " + id));
+    }
+}
@@ -0,0 +1,191 @@
+package com.collabnotes.inmemory;
+
+import com.collabnotes.document.Operation;
+import com.collabnotes.document.OperationsRepository;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * The operation log held per document in version order, the in-memory counterpart of the
+ * unique (documentId, version) index, so version-range queries cost what they would in
+ * Mongo rather than a scan of every document's operations, and a second operation at a
+ * taken version is refused as Mongo would refuse it.
+ */
+@Repository
+@Profile("inmemory")
+public class InMemoryOperationsRepository extends InMemoryRepository<Operation, String> implements OperationsRepository {
+    private static final Logger log = LoggerFactory.getLogger(InMemoryOperationsRepository.class);
+
+    private final Map<String, NavigableMap<Integer, Operation>> byDocument = new ConcurrentHashMap<>();
+    private final Map<String, Operation> archive = new ConcurrentHashMap<>();
+    private final List<Operation> conflicts = new CopyOnWriteArrayList<>();
+
+    @Override
+    protected String idOf(Operation operation) {
+        return operation.getId();
+    }
+
+    @Override
+    protected String assignId(Operation operation) {
+        operation.setId(new ObjectId().toHexString());
+        return operation.getId();
+    }
+
+    @Override
+    protected void indexed(Operation previous, Operation operation) {
+        if (previous != null) {
+            unindexed(previous);
+        }
+        byDocument.computeIfAbsent(operation.getDocumentId(), d -> new ConcurrentSkipListMap<>())
+                .put(operation.getVersion(), operation);
+    }
+
+    @Override
+    protected void unindexed(Operation operation) {
+        NavigableMap<Integer, Operation> versions = byDocument.get(operation.getDocumentId());
+        if (versions != null) {
+            versions.remove(operation.getVersion(), operation);
+        }
+    }
+
+    @Override
+    public synchronized <S extends Operation> S save(S operation) {
+        Operation holder = versions(operation.getDocumentId()).get(operation.getVersion());
+        if (holder != null && !holder.getId().equals(operation.getId())) {
+            throw new DuplicateKeyException("Version " + operation.getVersion() + " of document "
+                    + operation.getDocumentId() + " is already taken");
+        }
+        return super.save(operation);
+    }
+
+    @Override
+    public <S extends Operation> S insert(S operation) {
+        return save(operation);
+    }
+
+    @Override
+    public <S extends Operation> List<S> insert(Iterable<S> operations) {
+        return saveAll(operations);
+    }
+
+    @Override
+    public List<Operation> findByDocumentIdOrderByVersionAsc(String documentId) {
+        return list(versions(documentId).values(), op -> true);
+    }
+
+    @Override
+    public List<Operation> findByDocumentIdAndAppliedTrueOrderByVersionAsc(String documentId) {
+        return list(versions(documentId).values(), Operation::isApplied);
+    }
+
+    @Override
+    public List<Operation> findByDocumentIdAndVersionGreaterThanOrderByVersionAsc(String documentId, int version) {
+        return list(versions(documentId).tailMap(version, false).values(), op -> true);
+    }
+
+    @Override
+    public List<Operation> findByDocumentIdAndAppliedTrueAndVersionGreaterThanOrderByVersionAsc(String documentId, int version) {
+        return list(versions(documentId).tailMap(version, false).values(), Operation::isApplied);
+    }
+
+    @Override
+    public Optional<Operation> findFirstByDocumentIdOrderByVersionDesc(String documentId) {
+        Map.Entry<Integer, Operation> last = versions(documentId).lastEntry();
+        return Optional.ofNullable(last != null ? last.getValue() : null);
+    }
+
+    @Override
+    public List<Operation> findOperationsAfterTimestamp(String documentId, long timestamp) {
+        return list(versions(documentId).values(), op -> op.getTimestamp() >= timestamp);
+    }
+
+    @Override
+    public long countByDocumentId(String documentId) {
+        return versions(documentId).size();
+    }
+
+    @Override
+    public long countByDocumentIdAndAppliedTrue(String documentId) {
+        return versions(documentId).values().stream().filter(Operation::isApplied).count();
+    }
+
+    @Override
+    public long countByDocumentIdAndVersionGreaterThan(String documentId, int version) {
+        return versions(documentId).tailMap(version, false).size();
+    }
+
+    @Override
+    public synchronized List<Operation> insertBatch(List<Operation> operations) {
+        List<Operation> lost = new ArrayList<>();
+        for (Operation op : operations) {
+            try {
+                save(op);
+            } catch (DuplicateKeyException e) {
+                log.error("Operation {} conflicts with version {} of document {}; keeping it aside",
+                        op.getId(), op.getVersion(), op.getDocumentId());
+                conflicts.add(op);
+                lost.add(op);
+            }
+        }
+        return lost;
+    }
+
+    /**
+     * Operations that lost a version conflict, the counterpart of the conflicts collection.
+     */
+    public Collection<Operation> getConflicts() {
+        return Collections.unmodifiableList(conflicts);
+    }
+
+    @Override
+    public synchronized long compactOperations(String documentId, int upToVersion, boolean archive) {
+        List<Operation> compacted = new ArrayList<>(versions(documentId).headMap(upToVersion, true).values());
+        if (archive) {
+            compacted.forEach(op -> this.archive.put(op.getId(), op));
+        }
+        deleteAll(compacted);
+        return compacted.size();
+    }
+
+    @Override
+    public List<Operation> findAppliedInVersionRange(String documentId, int afterVersion, int upToVersion) {
+        return list(versions(documentId).subMap(afterVersion, false, upToVersion, true).values(), Operation::isApplied);
+    }
+
+    @Override
+    public List<Operation> findInVersionRange(String documentId, int afterVersion, int upToVersion) {
+        return new ArrayList<>(versions(documentId).subMap(afterVersion, false, upToVersion, true).values());
+    }
+
+    @Override
+    public int findLatestVersion(String documentId) {
+        Map.Entry<Integer, Operation> last = versions(documentId).lastEntry();
+        return last != null ? last.getKey() : 0;
+    }
+
+    private NavigableMap<Integer, Operation> versions(String documentId) {
+        NavigableMap<Integer, Operation> versions = byDocument.get(documentId);
+        return versions != null ? versions : Collections.emptyNavigableMap();
+    }
+
+    private static List<Operation> list(Collection<Operation> operations, Predicate<Operation> filter) {
+        return operations.stream().filter(filter).collect(Collectors.toList());
+    }
+}
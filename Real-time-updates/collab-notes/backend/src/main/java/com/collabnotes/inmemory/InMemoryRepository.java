@@ -0,0 +1,176 @@
+package com.collabnotes.inmemory;
+
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.FluentQuery;
+import org.springframework.data.repository.query.QueryByExampleExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * CRUD half of a Spring Data repository over a map, for the {@code inmemory} profile.
+ * Subclasses add the derived queries of the interface they stand in for, and keep any
+ * secondary index current in {@link #indexed} and {@link #unindexed}; writes are
+ * serialized so an entity and its index entries change together. Sorting, paging and
+ * query-by-example are not used by the application and are not supported.
+ */
+abstract class InMemoryRepository<T, ID> implements PagingAndSortingRepository<T, ID>, QueryByExampleExecutor<T> {
+
+    protected final Map<ID, T> entities = new ConcurrentHashMap<>();
+
+    protected abstract ID idOf(T entity);
+
+    /**
+     * Called for an entity saved without an id, as the database would assign one.
+     */
+    protected ID assignId(T entity) {
+        throw new IllegalArgumentException("Entity must have an id");
+    }
+
+    protected void indexed(T previous, T entity) {
+    }
+
+    protected void unindexed(T entity) {
+    }
+
+    @Override
+    public synchronized <S extends T> S save(S entity) {
+        ID id = idOf(entity);
+        if (id == null) {
+            id = assignId(entity);
+        }
+        T previous = entities.put(id, entity);
+        indexed(previous, entity);
+        return entity;
+    }
+
+    @Override
+    public synchronized <S extends T> List<S> saveAll(Iterable<S> entities) {
+        List<S> saved = new ArrayList<>();
+        for (S entity : entities) {
+            saved.add(save(entity));
+        }
+        return saved;
+    }
+
+    @Override
+    public Optional<T> findById(ID id) {
+        return Optional.ofNullable(entities.get(id));
+    }
+
+    @Override
+    public boolean existsById(ID id) {
+        return entities.containsKey(id);
+    }
+
+    @Override
+    public List<T> findAll() {
+        return new ArrayList<>(entities.values());
+    }
+
+    @Override
+    public List<T> findAllById(Iterable<ID> ids) {
+        List<T> found = new ArrayList<>();
+        for (ID id : ids) {
+            T entity = entities.get(id);
+            if (entity != null) {
+                found.add(entity);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public long count() {
+        return entities.size();
+    }
+
+    @Override
+    public synchronized void deleteById(ID id) {
+        T removed = entities.remove(id);
+        if (removed != null) {
+            unindexed(removed);
+        }
+    }
+
+    @Override
+    public void delete(T entity) {
+        deleteById(idOf(entity));
+    }
+
+    @Override
+    public synchronized void deleteAllById(Iterable<? extends ID> ids) {
+        for (ID id : ids) {
+            deleteById(id);
+        }
+    }
+
+    @Override
+    public synchronized void deleteAll(Iterable<? extends T> entities) {
+        for (T entity : entities) {
+            delete(entity);
+        }
+    }
+
+    @Override
+    public synchronized void deleteAll() {
+        deleteAllById(new ArrayList<>(entities.keySet()));
+    }
+
+    @Override
+    public List<T> findAll(Sort sort) {
+        throw unsupported();
+    }
+
+    @Override
+    public Page<T> findAll(Pageable pageable) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends T> Optional<S> findOne(Example<S> example) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends T> List<S> findAll(Example<S> example) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends T> List<S> findAll(Example<S> example, Sort sort) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends T> Page<S> findAll(Example<S> example, Pageable pageable) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends T> long count(Example<S> example) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends T> boolean exists(Example<S> example) {
+        throw unsupported();
+    }
+
+    @Override
+    public <S extends T, R> R findBy(Example<S> example, Function<FluentQuery.FetchableFluentQuery<S>, R> queryFunction) {
+        throw unsupported();
+    }
+
+    protected static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("Not supported by the in-memory repositories");
+    }
+}
@@ -0,0 +1,62 @@
+package com.collabnotes.inmemory;
+
+import com.collabnotes.document.DocumentSnapshot;
+import com.collabnotes.document.SnapshotRepository;
+import org.bson.types.ObjectId;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+@Repository
+@Profile("inmemory")
+public class InMemorySnapshotRepository extends InMemoryRepository<DocumentSnapshot, String> implements SnapshotRepository {
+
+    @Override
+    protected String idOf(DocumentSnapshot snapshot) {
+        return snapshot.getId();
+    }
+
+    @Override
+    protected String assignId(DocumentSnapshot snapshot) {
+        snapshot.setId(new ObjectId().toHexString());
+        return snapshot.getId();
+    }
+
+    @Override
+    public <S extends DocumentSnapshot> S insert(S snapshot) {
+        return save(snapshot);
+    }
+
+    @Override
+    public <S extends DocumentSnapshot> List<S> insert(Iterable<S> snapshots) {
+        return saveAll(snapshots);
+    }
+
+    @Override
+    public Optional<DocumentSnapshot> findFirstByDocumentIdOrderByVersionDesc(String documentId) {
+        // A document keeps only its few most recent snapshots, so a scan is cheap enough
+        return entities.values().stream()
+                .filter(snapshot -> documentId.equals(snapshot.getDocumentId()))
+                .max(Comparator.comparingInt(DocumentSnapshot::getVersion));
+    }
+
+    @Override
+    public Optional<DocumentSnapshot> findFirstByDocumentIdAndVersionLessThanEqualOrderByVersionDesc(String documentId,
+                                                                                                   int version) {
+        return entities.values().stream()
+                .filter(snapshot -> documentId.equals(snapshot.getDocumentId()) && snapshot.getVersion() <= version)
+                .max(Comparator.comparingInt(DocumentSnapshot::getVersion));
+    }
+
+    @Override
+    public List<DocumentSnapshot> findByDocumentIdOrderByVersionDesc(String documentId) {
+        return entities.values().stream()
+                .filter(snapshot -> documentId.equals(snapshot.getDocumentId()))
+                .sorted(Comparator.comparingInt(DocumentSnapshot::getVersion).reversed())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,61 @@
+package com.collabnotes.inmemory;
+
+import com.collabnotes.document.Operation;
+import com.collabnotes.zookeeper.ZookeeperService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stands in for {@link ZookeeperService} when there is no ZooKeeper. It still names the
+ * node; everything that would write znodes is a no-op, since the inmemory profile runs a
+ * single node with the loopback bus and cluster routing off.
+ */
+@Service
+@Profile("inmemory")
+public class InMemoryZookeeperService extends ZookeeperService {
+    private static final Logger log = LoggerFactory.getLogger(InMemoryZookeeperService.class);
+
+    @Override
+    public void transferOperations(List<Operation> operations, List<String> originSessionIds) {
+        log.debug("In-memory: not transferring {} operations", operations.size());
+    }
+
+    @Override
+    public void registerDocumentNode(String documentId, String nodeId) {
+    }
+
+    @Override
+    public void unregisterDocumentNode(String documentId, String nodeId) {
+    }
+
+    @Override
+    public void markConsumed(String documentId, long sequence) {
+    }
+
+    @Override
+    public void reapConsumedOperations() {
+    }
+
+    @Override
+    public void sweepConsumedOperations() {
+    }
+
+    @Override
+    public void publishMetadataInvalidation(Collection<String> documentIds) {
+    }
+
+    @Override
+    public void publishMetadataTouches(Map<String, Date> updatedAtById) {
+    }
+
+    @Override
+    public void watchMetadataInvalidations(MetadataInvalidationListener listener) {
+    }
+}
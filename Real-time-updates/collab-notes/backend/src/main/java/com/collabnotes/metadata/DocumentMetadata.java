@@ -6,7 +6,8 @@ import javax.xml.crypto.Data;
 import java.util.Date;
 
 @Entity
-@Table(name = "document_metadata")
+@Table(name = "document_metadata",
+        indexes = @Index(name = "idx_document_metadata_updated_at_id", columnList = "updatedAt, id"))
 public class DocumentMetadata {
     @Id
     private String id;
@@ -0,0 +1,24 @@
+package com.collabnotes.metadata;
+
+import java.util.List;
+
+/**
+ * One page of the document listing, and where the next one starts; null on the last page.
+ */
+public class DocumentPage {
+    private final List<DocumentMetadata> documents;
+    private final ListingCursor next;
+
+    public DocumentPage(List<DocumentMetadata> documents, ListingCursor next) {
+        this.documents = documents;
+        this.next = next;
+    }
+
+    public List<DocumentMetadata> getDocuments() {
+        return documents;
+    }
+
+    public ListingCursor getNext() {
+        return next;
+    }
+}
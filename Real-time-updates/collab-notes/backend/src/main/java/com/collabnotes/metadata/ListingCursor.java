@@ -0,0 +1,49 @@
+package com.collabnotes.metadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Position in the document listing, which is ordered by {@code updatedAt} then {@code id},
+ * both descending: the next page starts after the last document of the previous one.
+ * Clients see it as an opaque string.
+ */
+public final class ListingCursor {
+    private final Date updatedAt;
+    private final String id;
+
+    public ListingCursor(Date updatedAt, String id) {
+        this.updatedAt = updatedAt;
+        this.id = id;
+    }
+
+    public static ListingCursor after(DocumentMetadata last) {
+        return new ListingCursor(last.getUpdatedAt(), last.getId());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value was not produced by {@link #encode()}
+     */
+    public static ListingCursor decode(String value) {
+        String decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+        int colon = decoded.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        return new ListingCursor(new Date(Long.parseLong(decoded.substring(0, colon))), decoded.substring(colon + 1));
+    }
+
+    public String encode() {
+        String value = updatedAt.getTime() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+}
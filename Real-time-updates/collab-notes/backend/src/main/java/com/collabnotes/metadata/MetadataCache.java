@@ -0,0 +1,385 @@
+package com.collabnotes.metadata;
+
+import com.collabnotes.zookeeper.ZookeeperService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache of document metadata and of pages of the document listing. Entries
+ * expire after a TTL and the least recently used go once there are too many. Writes on
+ * this node update or drop entries here and are published through ZooKeeper, so other
+ * nodes drop theirs; a node that may have missed some drops everything. Edits only move
+ * {@code updatedAt} forward, which every node applies to its entries and pages in place.
+ * Cached values are never modified, only replaced.
+ */
+@Component
+public class MetadataCache implements ZookeeperService.MetadataInvalidationListener {
+    private static final Logger log = LoggerFactory.getLogger(MetadataCache.class);
+    private static final int MAX_LISTINGS = 64;
+
+    private static class Entry<T> {
+        final T value;
+        final long loadedAt;
+
+        Entry(T value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    // Rows of the listing after a cursor (from the start when null), as loaded
+    private static class Page {
+        final ListingCursor after;
+        final int rows;
+        final List<DocumentMetadata> documents;
+
+        Page(ListingCursor after, int rows, List<DocumentMetadata> documents) {
+            this.after = after;
+            this.rows = rows;
+            this.documents = documents;
+        }
+
+        // Fewer rows than asked for means nothing follows the last one
+        boolean complete() {
+            return documents.size() < rows;
+        }
+    }
+
+    // Listing order: most recently updated first, then by id, both descending
+    private static final Comparator<DocumentMetadata> LISTING_ORDER = Comparator
+            .comparing(DocumentMetadata::getUpdatedAt, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(DocumentMetadata::getId, Comparator.reverseOrder());
+
+    private final ZookeeperService zookeeperService;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlMs;
+    private final long listingTtlMs;
+
+    private final LinkedHashMap<String, Entry<DocumentMetadata>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry<Page>> listings = new LinkedHashMap<>(16, 0.75f, true);
+    // Bumped by every change; a load that overlapped one is returned but not cached
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder listingHits = new LongAdder();
+    private final LongAdder listingMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder remoteInvalidations = new LongAdder();
+
+    public MetadataCache(ZookeeperService zookeeperService,
+                         @Value("${collaboration.metadata.cache.enabled:true}") boolean enabled,
+                         @Value("${collaboration.metadata.cache.max-entries:10000}") int maxEntries,
+                         @Value("${collaboration.metadata.cache.ttl-ms:30000}") long ttlMs,
+                         @Value("${collaboration.metadata.cache.listing-ttl-ms:5000}") long listingTtlMs) {
+        this.zookeeperService = zookeeperService;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.listingTtlMs = listingTtlMs;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            zookeeperService.watchMetadataInvalidations(this);
+        }
+    }
+
+    /**
+     * The cached metadata of the document, or what {@code loader} returns for it.
+     */
+    public DocumentMetadata get(String id, Function<String, DocumentMetadata> loader) {
+        if (!enabled) {
+            return loader.apply(id);
+        }
+        long loadGeneration;
+        synchronized (this) {
+            Entry<DocumentMetadata> entry = entries.get(id);
+            if (entry != null && fresh(entry, ttlMs)) {
+                hits.increment();
+                return entry.value;
+            }
+            misses.increment();
+            loadGeneration = generation;
+        }
+
+        // Load outside the lock so a slow query does not stall every other lookup
+        DocumentMetadata loaded = loader.apply(id);
+        synchronized (this) {
+            if (loaded != null && generation == loadGeneration) {
+                entries.put(id, new Entry<>(loaded, System.currentTimeMillis()));
+                evictOverLimit();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * The cached {@code rows} of the listing after {@code after} (from the start when null),
+     * or what {@code loader} returns for them.
+     */
+    public List<DocumentMetadata> getPage(ListingCursor after, int rows, Supplier<List<DocumentMetadata>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        String key = listingKey(after, rows);
+        long loadGeneration;
+        synchronized (this) {
+            Entry<Page> listing = listings.get(key);
+            if (listing != null && fresh(listing, listingTtlMs)) {
+                listingHits.increment();
+                return listing.value.documents;
+            }
+            listingMisses.increment();
+            loadGeneration = generation;
+        }
+
+        List<DocumentMetadata> loaded = Collections.unmodifiableList(loader.get());
+        synchronized (this) {
+            if (generation == loadGeneration) {
+                listings.put(key, new Entry<>(new Page(after, rows, loaded), System.currentTimeMillis()));
+                Iterator<String> it = listings.keySet().iterator();
+                while (listings.size() > MAX_LISTINGS && it.hasNext()) {
+                    it.next();
+                    it.remove();
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Caches a document this node just created, and drops the listing here and on every node.
+     */
+    public void created(DocumentMetadata metadata) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            generation++;
+            listings.clear();
+            entries.put(metadata.getId(), new Entry<>(metadata, System.currentTimeMillis()));
+            evictOverLimit();
+        }
+        zookeeperService.publishMetadataInvalidation(Collections.singletonList(metadata.getId()));
+    }
+
+    /**
+     * Moves cached {@code updatedAt}s forward after this node wrote them, here and on every
+     * other node.
+     */
+    public void touched(Map<String, Date> updatedAtById) {
+        if (!enabled || updatedAtById.isEmpty()) {
+            return;
+        }
+        applyTouches(updatedAtById);
+        zookeeperService.publishMetadataTouches(updatedAtById);
+    }
+
+    @Override
+    public void touchedElsewhere(Map<String, Date> updatedAtById) {
+        remoteInvalidations.increment();
+        applyTouches(updatedAtById);
+        log.debug("Moved cached updatedAt of {} documents edited on another node", updatedAtById.size());
+    }
+
+    private synchronized void applyTouches(Map<String, Date> updatedAtById) {
+        // A load that overlapped this may predate it, so it is not cached
+        generation++;
+        updatedAtById.forEach((id, updatedAt) -> {
+            Entry<DocumentMetadata> entry = entries.get(id);
+            DocumentMetadata known = entry != null ? entry.value : null;
+            if (entry != null) {
+                DocumentMetadata moved = movedForward(entry.value, updatedAt);
+                if (moved != entry.value) {
+                    entries.put(id, new Entry<>(moved, entry.loadedAt));
+                }
+            } else {
+                for (Entry<Page> listing : listings.values()) {
+                    known = find(listing.value.documents, id);
+                    if (known != null) {
+                        break;
+                    }
+                }
+            }
+
+            Iterator<Map.Entry<String, Entry<Page>>> it = listings.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry<Page>> listing = it.next();
+                Page page = listing.getValue().value;
+                Page reordered = reorder(page, id, updatedAt, known);
+                if (reordered == null) {
+                    it.remove();
+                } else if (reordered != page) {
+                    listing.setValue(new Entry<>(reordered, listing.getValue().loadedAt));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void invalidate(Collection<String> documentIds) {
+        remoteInvalidations.increment();
+        synchronized (this) {
+            generation++;
+            listings.clear();
+            documentIds.forEach(entries::remove);
+        }
+        log.debug("Dropped cached metadata of {} documents changed on another node", documentIds.size());
+    }
+
+    @Override
+    public void invalidateAll() {
+        remoteInvalidations.increment();
+        synchronized (this) {
+            generation++;
+            listings.clear();
+            entries.clear();
+        }
+        log.debug("Dropped all cached metadata");
+    }
+
+    /**
+     * The page after a document's {@code updatedAt} moved to {@code updatedAt}: the same page
+     * if that changes nothing in it, or null if the page can no longer be told without a load,
+     * as when it loses a row and does not know the one that would follow.
+     */
+    private static Page reorder(Page page, String id, Date updatedAt, DocumentMetadata known) {
+        DocumentMetadata current = find(page.documents, id);
+        DocumentMetadata source = current != null ? current : known;
+        DocumentMetadata moved = source != null ? movedForward(source, updatedAt) : keyOf(id, updatedAt);
+        if (moved == current) {
+            return page;
+        }
+        boolean belongs = (page.after == null || LISTING_ORDER.compare(moved, keyOf(page.after)) > 0)
+                && (page.complete() || LISTING_ORDER.compare(moved, page.documents.get(page.documents.size() - 1)) <= 0);
+        if (current == null && !belongs) {
+            return page;
+        }
+        if (source == null || (!belongs && !page.complete())) {
+            return null;
+        }
+
+        List<DocumentMetadata> documents = new ArrayList<>(page.documents.size() + 1);
+        for (DocumentMetadata document : page.documents) {
+            if (document != current) {
+                documents.add(document);
+            }
+        }
+        if (belongs) {
+            int index = Collections.binarySearch(documents, moved, LISTING_ORDER);
+            documents.add(index < 0 ? -index - 1 : index, moved);
+            if (documents.size() > page.rows) {
+                documents.remove(documents.size() - 1);
+            }
+        }
+        return new Page(page.after, page.rows, Collections.unmodifiableList(documents));
+    }
+
+    private static DocumentMetadata find(List<DocumentMetadata> documents, String id) {
+        for (DocumentMetadata document : documents) {
+            if (document.getId().equals(id)) {
+                return document;
+            }
+        }
+        return null;
+    }
+
+    // A copy, or the same metadata if it is already at least that recent
+    private static DocumentMetadata movedForward(DocumentMetadata metadata, Date updatedAt) {
+        if (metadata.getUpdatedAt() != null && !metadata.getUpdatedAt().before(updatedAt)) {
+            return metadata;
+        }
+        DocumentMetadata copy = new DocumentMetadata();
+        copy.setId(metadata.getId());
+        copy.setTitle(metadata.getTitle());
+        copy.setCreatedBy(metadata.getCreatedBy());
+        copy.setCreatedByName(metadata.getCreatedByName());
+        copy.setCreatedAt(metadata.getCreatedAt());
+        copy.setUpdatedAt(updatedAt);
+        return copy;
+    }
+
+    private static DocumentMetadata keyOf(String id, Date updatedAt) {
+        DocumentMetadata key = new DocumentMetadata();
+        key.setId(id);
+        key.setUpdatedAt(updatedAt);
+        return key;
+    }
+
+    private static DocumentMetadata keyOf(ListingCursor cursor) {
+        return keyOf(cursor.getId(), cursor.getUpdatedAt());
+    }
+
+    private static String listingKey(ListingCursor after, int rows) {
+        return (after != null ? after.encode() : "") + "/" + rows;
+    }
+
+    private static boolean fresh(Entry<?> entry, long ttl) {
+        return System.currentTimeMillis() - entry.loadedAt < ttl;
+    }
+
+    private void evictOverLimit() {
+        Iterator<Map.Entry<String, Entry<DocumentMetadata>>> it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getListingHitCount() {
+        return listingHits.sum();
+    }
+
+    public long getListingMissCount() {
+        return listingMisses.sum();
+    }
+
+    /**
+     * Share of lookups and listings answered from the cache since startup.
+     */
+    public double getHitRatio() {
+        long hit = hits.sum() + listingHits.sum();
+        long total = hit + misses.sum() + listingMisses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getRemoteInvalidationCount() {
+        return remoteInvalidations.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
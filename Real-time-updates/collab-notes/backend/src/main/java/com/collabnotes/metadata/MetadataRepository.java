@@ -1,9 +1,26 @@
 package com.collabnotes.metadata;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Date;
+import java.util.List;
+
 @Repository
-public interface MetadataRepository extends JpaRepository<DocumentMetadata, String> {
+public interface MetadataRepository extends JpaRepository<DocumentMetadata, String>, MetadataRepositoryCustom {
+
+    /**
+     * First page of the listing, most recently updated first.
+     */
+    List<DocumentMetadata> findAllByOrderByUpdatedAtDescIdDesc(Pageable page);
 
+    /**
+     * The page after a cursor, by keyset on the (updated_at, id) index rather than an offset.
+     */
+    @Query("SELECT m FROM DocumentMetadata m WHERE m.updatedAt < :updatedAt"
+            + " OR (m.updatedAt = :updatedAt AND m.id < :id) ORDER BY m.updatedAt DESC, m.id DESC")
+    List<DocumentMetadata> findPageAfter(@Param("updatedAt") Date updatedAt, @Param("id") String id, Pageable page);
 }
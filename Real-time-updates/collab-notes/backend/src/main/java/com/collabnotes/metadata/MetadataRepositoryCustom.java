@@ -0,0 +1,14 @@
+package com.collabnotes.metadata;
+
+import java.util.Date;
+import java.util.Map;
+
+public interface MetadataRepositoryCustom {
+    /**
+     * Sets {@code updated_at} for many documents in one JDBC batch. A row is only moved
+     * forward, never back, so late flushes cannot undo a newer timestamp.
+     *
+     * @return number of rows updated
+     */
+    int touchAll(Map<String, Date> updatedAtById);
+}
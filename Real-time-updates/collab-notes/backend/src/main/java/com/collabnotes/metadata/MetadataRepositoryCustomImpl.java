@@ -0,0 +1,34 @@
+package com.collabnotes.metadata;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+public class MetadataRepositoryCustomImpl implements MetadataRepositoryCustom {
+
+    private static final String TOUCH_SQL =
+            "UPDATE document_metadata SET updated_at = ? WHERE id = ? AND (updated_at IS NULL OR updated_at < ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public int touchAll(Map<String, Date> updatedAtById) {
+        List<Object[]> args = new ArrayList<>(updatedAtById.size());
+        for (Map.Entry<String, Date> entry : updatedAtById.entrySet()) {
+            Timestamp updatedAt = new Timestamp(entry.getValue().getTime());
+            args.add(new Object[]{updatedAt, entry.getKey(), updatedAt});
+        }
+
+        int updated = 0;
+        for (int count : jdbcTemplate.batchUpdate(TOUCH_SQL, args)) {
+            updated += Math.max(count, 0);
+        }
+        return updated;
+    }
+}
@@ -1,13 +1,21 @@
 package com.collabnotes.metadata;
 
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import javax.transaction.Transactional;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,6 +25,15 @@ public class MetadataService {
     @Autowired
     private MetadataRepository metadataRepository;
 
+    @Autowired
+    private MetadataCache cache;
+
+    @Value("${collaboration.metadata.touch.max-staleness-ms:5000}")
+    private long maxStalenessMs;
+
+    private final Map<String, Long> pendingTouches = new ConcurrentHashMap<>();
+    private final AtomicLong oldestPendingTouch = new AtomicLong();
+
     @Transactional
     public DocumentMetadata createDocument(String title, String createdBy, String createdByName) {
         DocumentMetadata metadata = new DocumentMetadata();
@@ -30,34 +47,79 @@ public class MetadataService {
             metadata.getId(), metadata.getTitle(), createdByName, createdBy);
         DocumentMetadata saved = metadataRepository.save(metadata);
         log.debug("Document saved successfully: {}", saved.getId());
+        cache.created(saved);
         return saved;
     }
 
     public DocumentMetadata getDocument(String id) {
+        return findDocument(id).orElseThrow(() -> {
+            log.error("Document not found: {}", id);
+            return new RuntimeException("Document not found: "+id);
+        });
+    }
+
+    public Optional<DocumentMetadata> findDocument(String id) {
         log.debug("Fetching document metadata for ID: {}", id);
-        return metadataRepository.findById(id)
-                .orElseThrow(() -> {
-                    log.error("Document not found: {}", id);
-                    return new RuntimeException("Document not found: "+id);
-                });
+        return Optional.ofNullable(cache.get(id, key -> metadataRepository.findById(key).orElse(null)));
     }
 
-    public List<DocumentMetadata> getAllDocuments() {
-        log.debug("Fetching all documents");
-        List<DocumentMetadata> documents = metadataRepository.findAll();
-        log.info("Found {} documents", documents.size());
-        return  documents;
+    /**
+     * Up to {@code limit} documents after the cursor, most recently updated first; the
+     * first page when {@code after} is null.
+     */
+    public DocumentPage getDocumentsPage(ListingCursor after, int limit) {
+        log.debug("Fetching {} documents after {}", limit, after != null ? after.encode() : "the start");
+        // One extra row tells whether there is a next page
+        PageRequest rows = PageRequest.of(0, limit + 1);
+        List<DocumentMetadata> documents = cache.getPage(after, limit + 1, () -> after == null
+                ? metadataRepository.findAllByOrderByUpdatedAtDescIdDesc(rows)
+                : metadataRepository.findPageAfter(after.getUpdatedAt(), after.getId(), rows));
+        if (documents.size() <= limit) {
+            return new DocumentPage(documents, null);
+        }
+        List<DocumentMetadata> page = documents.subList(0, limit);
+        return new DocumentPage(page, ListingCursor.after(page.get(limit - 1)));
     }
 
-    @Transactional
+    /**
+     * Records that the document was edited. Touches are coalesced in memory and written
+     * by {@link #flushDocumentTimestamps()}, at most {@code max-staleness-ms} late.
+     */
     public void updateDocumentTimestamp(String id) {
+        long now = System.currentTimeMillis();
+        pendingTouches.merge(id, now, Math::max);
+        oldestPendingTouch.compareAndSet(0, now);
+
+        if (now - oldestPendingTouch.get() > maxStalenessMs) {
+            flushDocumentTimestamps();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${collaboration.metadata.touch.flush-interval-ms:1000}")
+    @PreDestroy
+    public synchronized void flushDocumentTimestamps() {
+        if (pendingTouches.isEmpty()) {
+            return;
+        }
+        oldestPendingTouch.set(0);
+
+        Map<String, Date> batch = new HashMap<>();
+        for (String id : pendingTouches.keySet()) {
+            Long touchedAt = pendingTouches.remove(id);
+            if (touchedAt != null) {
+                batch.put(id, new Date(touchedAt));
+            }
+        }
+
         try {
-            DocumentMetadata metadata = getDocument(id);
-            metadata.setUpdatedAt(new Date());
-            metadataRepository.save(metadata);
-            log.debug("Updated timestamp for document: {}", id);
+            int updated = metadataRepository.touchAll(batch);
+            log.debug("Flushed timestamps for {} documents ({} rows updated)", batch.size(), updated);
+            cache.touched(batch);
         } catch (Exception e) {
-            log.error("Failed to update timestamp for document {}: {}", id, e.getMessage(), e);
+            // Put the touches back so the next flush retries them
+            batch.forEach((id, date) -> pendingTouches.merge(id, date.getTime(), Math::max));
+            oldestPendingTouch.compareAndSet(0, System.currentTimeMillis());
+            log.error("Failed to flush timestamps for {} documents: {}", batch.size(), e.getMessage(), e);
         }
     }
 }
@@ -0,0 +1,152 @@
+package com.collabnotes.metrics;
+
+import com.collabnotes.bus.OperationBus;
+import com.collabnotes.document.DocumentActorSystem;
+import com.collabnotes.document.DocumentStateCache;
+import com.collabnotes.document.OperationCoalescer;
+import com.collabnotes.document.OperationPersistencePipeline;
+import com.collabnotes.gateway.AwarenessService;
+import com.collabnotes.gateway.BlockingCallExecutor;
+import com.collabnotes.gateway.InitializationStreamer;
+import com.collabnotes.gateway.OperationBatcher;
+import com.collabnotes.gateway.RoomRegistry;
+import com.collabnotes.gateway.WebSocketController;
+import com.collabnotes.metadata.MetadataCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes the counters and gauges the pipeline components already keep. Values are read
+ * when the registry is scraped, so nothing is added to the components' hot paths. Registered
+ * once the components exist rather than as a MeterBinder, which the registry would need
+ * while the components themselves are still waiting for it.
+ */
+@Component
+public class CollaborationGauges {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private WebSocketController webSocketController;
+
+    @Autowired
+    private RoomRegistry rooms;
+
+    @Autowired
+    private DocumentActorSystem actorSystem;
+
+    @Autowired
+    private OperationCoalescer coalescer;
+
+    @Autowired
+    private OperationPersistencePipeline persistencePipeline;
+
+    @Autowired
+    private DocumentStateCache stateCache;
+
+    @Autowired
+    private OperationBus operationBus;
+
+    @Autowired
+    private OperationBatcher batcher;
+
+    @Autowired
+    private AwarenessService awareness;
+
+    @Autowired
+    private InitializationStreamer initialization;
+
+    @Autowired
+    private BlockingCallExecutor blockingCalls;
+
+    @Autowired
+    private MetadataCache metadataCache;
+
+    @PostConstruct
+    public void register() {
+        gauge(registry, "collab.ws.sessions", "Open WebSocket sessions", webSocketController,
+                WebSocketController::getActiveSessions);
+        gauge(registry, "collab.rooms", "Documents with a session on this node", rooms, r -> r.getRooms().size());
+        counter(registry, "collab.ws.sent.frames", "WebSocket frames written on this node", rooms, RoomRegistry::getSentFrames);
+        counter(registry, "collab.ws.sent.bytes", "WebSocket payload bytes written on this node", rooms, RoomRegistry::getSentBytes);
+        counter(registry, "collab.ws.outbound.dropped", "Frames dropped on full outbound queues", rooms,
+                RoomRegistry::getDroppedFrames);
+        counter(registry, "collab.ws.evictions", "Slow clients disconnected", rooms, RoomRegistry::getEvictions);
+        gauge(registry, "collab.gateway.blocking.queue", "Blocking gateway calls waiting for a thread (reactive gateway)",
+                blockingCalls, BlockingCallExecutor::getQueueDepth);
+
+        gauge(registry, "collab.actors.scheduled", "Document actors waiting for a worker", actorSystem,
+                DocumentActorSystem::getScheduledActorCount);
+
+        counter(registry, "collab.coalescing.received", "Client operations before coalescing", coalescer,
+                OperationCoalescer::getOperationsReceived);
+        counter(registry, "collab.coalescing.sequenced", "Operations sequenced after coalescing", coalescer,
+                OperationCoalescer::getOperationsSequenced);
+        gauge(registry, "collab.coalescing.ratio", "Client operations per sequenced operation", coalescer,
+                OperationCoalescer::getCompressionRatio);
+
+        gauge(registry, "collab.persistence.queue.depth", "Operations waiting to be flushed to Mongo",
+                persistencePipeline, OperationPersistencePipeline::getQueueDepth);
+
+        counter(registry, "collab.cache.hits", "Document state cache hits", stateCache, DocumentStateCache::getHitCount);
+        counter(registry, "collab.cache.misses", "Document state cache misses", stateCache, DocumentStateCache::getMissCount);
+        counter(registry, "collab.cache.evictions", "Document state cache evictions", stateCache,
+                DocumentStateCache::getEvictionCount);
+        gauge(registry, "collab.cache.bytes", "Estimated size of cached document states", stateCache,
+                DocumentStateCache::getEstimatedBytes);
+
+        counter(registry, "collab.metadata.cache.hits", "Metadata lookups served from the cache", metadataCache,
+                MetadataCache::getHitCount);
+        counter(registry, "collab.metadata.cache.misses", "Metadata lookups loaded from the database", metadataCache,
+                MetadataCache::getMissCount);
+        counter(registry, "collab.metadata.cache.listing.hits", "Document listings served from the cache", metadataCache,
+                MetadataCache::getListingHitCount);
+        counter(registry, "collab.metadata.cache.listing.misses", "Document listings loaded from the database",
+                metadataCache, MetadataCache::getListingMissCount);
+        gauge(registry, "collab.metadata.cache.hit.ratio", "Share of metadata reads served from the cache",
+                metadataCache, MetadataCache::getHitRatio);
+        gauge(registry, "collab.metadata.cache.size", "Documents with cached metadata", metadataCache, MetadataCache::size);
+        counter(registry, "collab.metadata.cache.evictions", "Metadata cache entries evicted for size", metadataCache,
+                MetadataCache::getEvictionCount);
+        counter(registry, "collab.metadata.cache.remote.invalidations", "Invalidations received from other nodes",
+                metadataCache, MetadataCache::getRemoteInvalidationCount);
+
+        counter(registry, "collab.bus.published", "Operations published to the bus", operationBus,
+                bus -> bus.getStats().getPublished());
+        counter(registry, "collab.bus.delivered", "Operations delivered from the bus", operationBus,
+                bus -> bus.getStats().getDelivered());
+        gauge(registry, "collab.bus.delivery.latency.mean", "Mean publish-to-delivery latency (ms)", operationBus,
+                bus -> bus.getStats().getMeanDeliveryLatencyMillis());
+
+        counter(registry, "collab.batching.operations", "Operations broadcast", batcher, OperationBatcher::getOperationsSent);
+        counter(registry, "collab.batching.batches", "Operation broadcast frames", batcher, OperationBatcher::getBatchesSent);
+
+        counter(registry, "collab.awareness.updates", "Cursor updates received", awareness,
+                AwarenessService::getUpdatesReceived);
+        counter(registry, "collab.awareness.frames", "CURSORS frames broadcast", awareness, AwarenessService::getFramesSent);
+
+        gauge(registry, "collab.initialization.active", "Initialization streams in progress", initialization,
+                InitializationStreamer::getActiveStreams);
+        counter(registry, "collab.initialization.completed", "Initialization streams completed", initialization,
+                InitializationStreamer::getStreamsCompleted);
+        counter(registry, "collab.initialization.operations", "Operations sent in initialization chunks",
+                initialization, InitializationStreamer::getOperationsSent);
+    }
+
+    private static <T> void gauge(MeterRegistry registry, String name, String description, T source,
+                                  ToDoubleFunction<T> value) {
+        Gauge.builder(name, source, value).description(description).register(registry);
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, String description, T source,
+                                    ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, source, value).description(description).register(registry);
+    }
+}
@@ -0,0 +1,160 @@
+package com.collabnotes.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Recording side of the operation pipeline's metrics. Meters are created once and cached, so
+ * recording is a map lookup on a constant key plus an adder update, cheap enough to leave on
+ * under load. Timers publish fixed histogram buckets rather than computing percentiles here.
+ * Per-document meters are tagged with the document id for the first max-document-tags
+ * documents and with {@value #OTHER} after that, bounding the number of series.
+ */
+@Component
+public class CollaborationMetrics {
+    public static final String OTHER = "other";
+
+    private static final Duration MAX_EXPECTED = Duration.ofSeconds(5);
+
+    private static final class DocumentMeters {
+        final Counter operations;
+        final Counter inboundFrames;
+        final Counter inboundBytes;
+
+        DocumentMeters(MeterRegistry registry, String document) {
+            operations = Counter.builder("collab.operations").tag("document", document)
+                    .description("Operations sequenced").register(registry);
+            inboundFrames = Counter.builder("collab.ws.inbound.frames").tag("document", document)
+                    .description("WebSocket frames received").register(registry);
+            inboundBytes = Counter.builder("collab.ws.inbound.bytes").tag("document", document)
+                    .baseUnit("bytes").description("WebSocket payload bytes received").register(registry);
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final int maxDocumentTags;
+    private final Map<String, DocumentMeters> documents = new ConcurrentHashMap<>();
+    private final Map<String, Timer> jsonMessages = new ConcurrentHashMap<>();
+    private final Map<String, Timer> binaryMessages = new ConcurrentHashMap<>();
+    private final Map<String, Timer> stages = new ConcurrentHashMap<>();
+    private final Map<String, Timer> broadcasts = new ConcurrentHashMap<>();
+    private final Map<String, Counter> errors = new ConcurrentHashMap<>();
+    private final Map<String, List<Meter>> roomMeters = new ConcurrentHashMap<>();
+
+    public CollaborationMetrics(MeterRegistry registry,
+                                @Value("${collaboration.metrics.max-document-tags:100}") int maxDocumentTags) {
+        this.registry = registry;
+        this.maxDocumentTags = maxDocumentTags;
+    }
+
+    /**
+     * Time to handle one inbound WebSocket message, by protocol and message type.
+     */
+    public void recordMessage(boolean binary, String type, long nanos) {
+        Map<String, Timer> timers = binary ? binaryMessages : jsonMessages;
+        timer(timers, type, t -> Timer.builder("collab.ws.message")
+                .tag("protocol", binary ? "binary" : "json").tag("type", t)
+                .description("Inbound WebSocket message handling time")).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordInbound(String documentId, int bytes) {
+        DocumentMeters meters = document(documentId);
+        meters.inboundFrames.increment();
+        meters.inboundBytes.increment(bytes);
+    }
+
+    public void recordOperation(String documentId) {
+        document(documentId).operations.increment();
+    }
+
+    /**
+     * Time spent in one stage of processing an operation (sequence, transform, journal,
+     * apply, publish, mongo_flush, metadata).
+     */
+    public void recordStage(String stage, long nanos) {
+        timer(stages, stage, s -> Timer.builder("collab.operation.stage").tag("stage", s)
+                .description("Operation pipeline stage time")).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time to queue one broadcast on every connection of a room, by kind of message.
+     */
+    public void recordBroadcast(String kind, long nanos) {
+        timer(broadcasts, kind, k -> Timer.builder("collab.broadcast").tag("kind", k)
+                .description("Broadcast fan-out time")).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordError(String where) {
+        errors.computeIfAbsent(where, w -> Counter.builder("collab.errors").tag("where", w)
+                .description("Failures by pipeline stage").register(registry)).increment();
+    }
+
+    /**
+     * Exposes the outbound frame and byte counts of a document's room while it is open.
+     */
+    public <T> void bindRoom(String documentId, T room, ToDoubleFunction<T> framesSent, ToDoubleFunction<T> bytesSent) {
+        String document = tagFor(documentId);
+        if (OTHER.equals(document)) {
+            // Still counted in the node-wide totals
+            return;
+        }
+        roomMeters.put(documentId, List.of(
+                FunctionCounter.builder("collab.ws.outbound.frames", room, framesSent).tag("document", document)
+                        .description("WebSocket frames written").register(registry),
+                FunctionCounter.builder("collab.ws.outbound.bytes", room, bytesSent).tag("document", document)
+                        .baseUnit("bytes").description("WebSocket payload bytes written").register(registry)));
+    }
+
+    public void unbindRoom(String documentId) {
+        List<Meter> meters = roomMeters.remove(documentId);
+        if (meters != null) {
+            meters.forEach(registry::remove);
+        }
+    }
+
+    private Timer timer(Map<String, Timer> timers, String key, Function<String, Timer.Builder> builder) {
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, k -> builder.apply(k)
+                    .publishPercentileHistogram()
+                    .maximumExpectedValue(MAX_EXPECTED)
+                    .register(registry));
+        }
+        return timer;
+    }
+
+    private DocumentMeters document(String documentId) {
+        DocumentMeters meters = documents.get(documentId);
+        if (meters == null) {
+            String document = tagFor(documentId);
+            meters = OTHER.equals(document)
+                    ? documents.computeIfAbsent(OTHER, d -> new DocumentMeters(registry, OTHER))
+                    : documents.computeIfAbsent(documentId, d -> new DocumentMeters(registry, d));
+        }
+        return meters;
+    }
+
+    private String tagFor(String documentId) {
+        if (documentId == null) {
+            return OTHER;
+        }
+        if (documents.containsKey(documentId) || roomMeters.containsKey(documentId)) {
+            return documentId;
+        }
+        // Racy by a few entries at most, which only loosens the bound slightly
+        return documents.size() < maxDocumentTags ? documentId : OTHER;
+    }
+}
@@ -0,0 +1,72 @@
+package com.collabnotes.zookeeper;
+
+import com.collabnotes.document.Operation;
+
+import java.util.List;
+
+/**
+ * Batch of operations for one document written to ZooKeeper as a single znode.
+ */
+public class OperationEnvelope {
+    private String nodeId;
+    private String documentId;
+    private List<Operation> operations;
+    // Session each operation came from, parallel to operations; null when not known
+    private List<String> originSessionIds;
+    private long publishedAt;
+
+    public OperationEnvelope() {
+    }
+
+    public OperationEnvelope(String nodeId, String documentId, List<Operation> operations) {
+        this(nodeId, documentId, operations, null);
+    }
+
+    public OperationEnvelope(String nodeId, String documentId, List<Operation> operations, List<String> originSessionIds) {
+        this.nodeId = nodeId;
+        this.documentId = documentId;
+        this.operations = operations;
+        this.originSessionIds = originSessionIds;
+        this.publishedAt = System.currentTimeMillis();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public void setDocumentId(String documentId) {
+        this.documentId = documentId;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public void setOperations(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    public List<String> getOriginSessionIds() {
+        return originSessionIds;
+    }
+
+    public void setOriginSessionIds(List<String> originSessionIds) {
+        this.originSessionIds = originSessionIds;
+    }
+
+    public long getPublishedAt() {
+        return publishedAt;
+    }
+
+    public void setPublishedAt(long publishedAt) {
+        this.publishedAt = publishedAt;
+    }
+}
@@ -6,9 +6,11 @@ import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.util.backoff.ExponentialBackOff;
 
 @Configuration
+@Profile("!inmemory")
 public class ZookeeperConfig {
 
     @Value("${zookeeper.connection-string}")
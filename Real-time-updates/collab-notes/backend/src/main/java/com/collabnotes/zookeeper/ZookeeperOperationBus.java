@@ -0,0 +1,272 @@
+package com.collabnotes.zookeeper;
+
+import com.collabnotes.bus.BusMessage;
+import com.collabnotes.bus.BusStats;
+import com.collabnotes.bus.OperationBus;
+import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Operation bus over the ZooKeeper envelopes. Published operations are delivered to local
+ * subscribers immediately and written to ZooKeeper in short batching windows; every node
+ * with local subscribers for a document watches its envelope children and delivers the
+ * envelopes other nodes wrote, in znode sequence order. A new watch registers at once, so
+ * the reaper keeps its envelopes, but only starts delivering from the version its first
+ * initialization read ended at, so nothing sequenced in between is missed.
+ */
+@Component
+@ConditionalOnProperty(name = "collaboration.bus.type", havingValue = "zookeeper", matchIfMissing = true)
+public class ZookeeperOperationBus implements OperationBus {
+    private static final Logger log = LoggerFactory.getLogger(ZookeeperOperationBus.class);
+
+    private static class DocumentWatch {
+        final String documentId;
+        final List<Consumer<BusMessage>> listeners = new CopyOnWriteArrayList<>();
+        volatile boolean active = true;
+        // Only touched on the watch executor
+        boolean positioned;
+        int startAfterVersion;
+        long lastSeen = -1;
+
+        DocumentWatch(String documentId) {
+            this.documentId = documentId;
+        }
+    }
+
+    @Autowired
+    private CuratorFramework curatorFramework;
+
+    @Autowired
+    private ZookeeperService zookeeperService;
+
+    @Value("${collaboration.bus.batch-window-ms:5}")
+    private long batchWindowMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BusStats stats = new BusStats();
+    private final Map<String, DocumentWatch> watches = new ConcurrentHashMap<>();
+    private final Queue<BusMessage> outbound = new ConcurrentLinkedQueue<>();
+    private ScheduledExecutorService outboundExecutor;
+    private ExecutorService watchExecutor;
+
+    @PostConstruct
+    public void start() {
+        outboundExecutor = Executors.newSingleThreadScheduledExecutor(daemon("operation-bus-out"));
+        outboundExecutor.scheduleWithFixedDelay(this::flushOutbound, batchWindowMs, batchWindowMs, TimeUnit.MILLISECONDS);
+        watchExecutor = Executors.newSingleThreadExecutor(daemon("operation-bus-in"));
+        curatorFramework.getConnectionStateListenable().addListener((client, state) -> {
+            if (state == ConnectionState.RECONNECTED) {
+                // Watches and ephemeral registrations may not have survived
+                watches.values().forEach(watch -> watchExecutor.execute(() -> register(watch)));
+            }
+        });
+    }
+
+    @Override
+    public String getNodeId() {
+        return zookeeperService.getNodeId();
+    }
+
+    @Override
+    public void publish(BusMessage message) {
+        stats.recordPublish();
+        DocumentWatch watch = watches.get(message.getDocumentId());
+        if (watch != null) {
+            deliver(watch, message);
+        }
+        outbound.add(message);
+    }
+
+    @Override
+    public synchronized Subscription subscribe(String documentId, Consumer<BusMessage> listener) {
+        DocumentWatch watch = watches.computeIfAbsent(documentId, DocumentWatch::new);
+        boolean first = watch.listeners.isEmpty();
+        watch.listeners.add(listener);
+        if (first) {
+            watchExecutor.execute(() -> register(watch));
+        }
+        return new Subscription() {
+            @Override
+            public void close() {
+                unsubscribe(watch, listener);
+            }
+
+            @Override
+            public void startAfter(int version) {
+                watchExecutor.execute(() -> position(watch, version));
+            }
+        };
+    }
+
+    private synchronized void unsubscribe(DocumentWatch watch, Consumer<BusMessage> listener) {
+        watch.listeners.remove(listener);
+        if (watch.listeners.isEmpty() && watches.remove(watch.documentId, watch)) {
+            watch.active = false;
+            zookeeperService.unregisterDocumentNode(watch.documentId, getNodeId());
+        }
+    }
+
+    @Override
+    public BusStats getStats() {
+        return stats;
+    }
+
+    private void flushOutbound() {
+        List<Operation> batch = new ArrayList<>();
+        List<String> originSessionIds = new ArrayList<>();
+        BusMessage message;
+        while ((message = outbound.poll()) != null) {
+            batch.add(message.getOperation());
+            originSessionIds.add(message.getOriginSessionId());
+        }
+        if (!batch.isEmpty()) {
+            zookeeperService.transferOperations(batch, originSessionIds);
+        }
+    }
+
+    private void register(DocumentWatch watch) {
+        if (!watch.active) {
+            return;
+        }
+        // Until this node records an offset the reaper leaves every envelope alone
+        zookeeperService.registerDocumentNode(watch.documentId, getNodeId());
+        if (watch.positioned) {
+            zookeeperService.markConsumed(watch.documentId, watch.lastSeen);
+            poll(watch);
+        }
+    }
+
+    /**
+     * Starts delivering with the first operation after {@code version}; envelopes written
+     * before this node subscribed may still hold some of them.
+     */
+    private void position(DocumentWatch watch, int version) {
+        if (!watch.active || watch.positioned) {
+            return;
+        }
+        watch.startAfterVersion = version;
+        watch.positioned = true;
+        poll(watch);
+    }
+
+    private void poll(DocumentWatch watch) {
+        if (!watch.active || !watch.positioned) {
+            return;
+        }
+        List<String> envelopes = children(watch, true);
+        envelopes.sort((a, b) -> Long.compare(ZookeeperService.sequenceOf(a), ZookeeperService.sequenceOf(b)));
+
+        long consumed = watch.lastSeen;
+        String documentPath = ZookeeperService.OPERATIONS_PATH + "/" + watch.documentId;
+        for (String name : envelopes) {
+            long sequence = ZookeeperService.sequenceOf(name);
+            if (sequence <= watch.lastSeen) {
+                continue;
+            }
+            try {
+                OperationEnvelope envelope = objectMapper.readValue(
+                        curatorFramework.getData().forPath(documentPath + "/" + name), OperationEnvelope.class);
+                if (!getNodeId().equals(envelope.getNodeId())) {
+                    List<Operation> ops = envelope.getOperations();
+                    List<String> sessions = envelope.getOriginSessionIds();
+                    for (int i = 0; i < ops.size(); i++) {
+                        if (ops.get(i).getVersion() <= watch.startAfterVersion) {
+                            // Already part of the subscriber's initialization
+                            continue;
+                        }
+                        String originSessionId = sessions != null ? sessions.get(i) : null;
+                        deliver(watch, new BusMessage(envelope.getNodeId(), originSessionId, ops.get(i), envelope.getPublishedAt()));
+                    }
+                }
+            } catch (KeeperException.NoNodeException e) {
+                // Reaped before we read it; every registered node had consumed it
+            } catch (Exception e) {
+                log.error("Operation bus: Failed to read envelope {} of document {}: {}", name, watch.documentId, e.getMessage());
+                break;
+            }
+            watch.lastSeen = sequence;
+        }
+        if (watch.lastSeen > consumed) {
+            zookeeperService.markConsumed(watch.documentId, watch.lastSeen);
+        }
+    }
+
+    private List<String> children(DocumentWatch watch, boolean rearm) {
+        String documentPath = ZookeeperService.OPERATIONS_PATH + "/" + watch.documentId;
+        CuratorWatcher watcher = event -> {
+            if (!watchExecutor.isShutdown()) {
+                watchExecutor.execute(() -> poll(watch));
+            }
+        };
+        try {
+            return rearm
+                    ? curatorFramework.getChildren().usingWatcher(watcher).forPath(documentPath)
+                    : curatorFramework.getChildren().forPath(documentPath);
+        } catch (KeeperException.NoNodeException e) {
+            // No envelopes yet (or all reaped and the container removed); wait for it to appear
+            try {
+                if (rearm && curatorFramework.checkExists().usingWatcher(watcher).forPath(documentPath) != null) {
+                    watchExecutor.execute(() -> poll(watch));
+                }
+            } catch (Exception ex) {
+                log.warn("Operation bus: Failed to watch {}: {}", documentPath, ex.getMessage());
+            }
+        } catch (Exception e) {
+            log.warn("Operation bus: Failed to list {}: {}", documentPath, e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+
+    private void deliver(DocumentWatch watch, BusMessage message) {
+        for (Consumer<BusMessage> listener : watch.listeners) {
+            stats.recordDelivery(message.getPublishedAt());
+            try {
+                listener.accept(message);
+            } catch (RuntimeException e) {
+                log.error("Operation bus: Subscriber for document {} failed: {}", watch.documentId, e.getMessage(), e);
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        outboundExecutor.shutdown();
+        outboundExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        flushOutbound();
+        watchExecutor.shutdownNow();
+    }
+}
@@ -1,51 +1,266 @@
 package com.collabnotes.zookeeper;
 
 import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.state.ConnectionState;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 @Service
+@Profile("!inmemory")
 public class ZookeeperService {
+    private static final Logger log = LoggerFactory.getLogger(ZookeeperService.class);
+
+    static final String OPERATIONS_PATH = "/collab/operations";
+    static final String NODES_PATH = "/collab/nodes";
+    static final String METADATA_INVALIDATIONS_PATH = "/collab/metadata-invalidations";
+    static final String ENVELOPE_PREFIX = "batch-";
+    private static final int MAX_ENVELOPE_BYTES = 512 * 1024;
 
-    @Autowired
+    // Absent in the inmemory profile, whose InMemoryZookeeperService never touches it
+    @Autowired(required = false)
     private CuratorFramework curatorFramework;
 
+    @Value("${collaboration.node-id:}")
+    private String configuredNodeId;
+
+    @Value("${zookeeper.reaper.min-age-ms:10000}")
+    private long reapMinAgeMs;
+
+    @Value("${zookeeper.metadata-invalidations.retention-ms:60000}")
+    private long metadataRetentionMs;
+
+    @Value("${zookeeper.envelope.retry-timeout-ms:60000}")
+    private long envelopeRetryTimeoutMs;
+
+    private static final class WrittenEnvelope {
+        final String path;
+        final long sequence;
+        final long createdAt;
+
+        WrittenEnvelope(String path, long sequence, long createdAt) {
+            this.path = path;
+            this.sequence = sequence;
+            this.createdAt = createdAt;
+        }
+    }
+
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private static final String OPERATIONS_PATH = "/collab/operations";
+    // Envelopes this node wrote and has not reaped yet, per document, in creation order
+    private final Map<String, Queue<WrittenEnvelope>> writtenEnvelopes = new ConcurrentHashMap<>();
+    private final Set<String> knownPaths = ConcurrentHashMap.newKeySet();
+    private String nodeId;
 
-    public void transferOperation(Operation operation) {
-        try {
-            System.out.println("Zookeeper: Transferring operation for document: " +
-                    operation.getDocumentId());
+    /**
+     * Told about metadata changes made on other nodes.
+     */
+    public interface MetadataInvalidationListener {
+        void invalidate(Collection<String> documentIds);
+
+        /**
+         * Documents were edited; nothing but their {@code updatedAt} changed.
+         */
+        void touchedElsewhere(Map<String, Date> updatedAtById);
 
-            // Create base paths if they don't exist
-            createPathIfNotExists(OPERATIONS_PATH);
+        /**
+         * Changes may have been missed, e.g. across a reconnect; any document may be stale.
+         */
+        void invalidateAll();
+    }
 
-            // Create document-specific path
-            String documentPath = OPERATIONS_PATH + "/" + operation.getDocumentId();
-            createPathIfNotExists(documentPath);
+    private volatile MetadataInvalidationListener metadataListener;
+    // Sequence of the last invalidation batch znode read; MIN_VALUE until the first read
+    private long lastInvalidationSequence = Long.MIN_VALUE;
+    // Per publishing node, the counter of its last batch read; only touched while reading
+    private final Map<String, Long> lastMetadataBatchByNode = new HashMap<>();
+    private final AtomicLong metadataBatchesPublished = new AtomicLong();
+    private final Queue<WrittenEnvelope> publishedMetadataBatches = new ConcurrentLinkedQueue<>();
 
-            // Store operation as sequential node
-            String operationData = objectMapper.writeValueAsString(operation);
-            String operationPath = documentPath + "/op-";
+    private final LongAdder envelopesWritten = new LongAdder();
+    private final LongAdder operationsWritten = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    private final LongAdder writeLatencyNanos = new LongAdder();
+    private final AtomicLong maxWriteLatencyNanos = new AtomicLong();
+    private final LongAdder znodesReaped = new LongAdder();
+    private final AtomicLong znodeCount = new AtomicLong();
+    private final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "zookeeper-envelope-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-            String createdPath = curatorFramework.create()
-                    .withMode(CreateMode.PERSISTENT_SEQUENTIAL)
-                    .forPath(operationPath, operationData.getBytes());
+    @PostConstruct
+    public void init() {
+        nodeId = configuredNodeId != null && !configuredNodeId.isEmpty() ? configuredNodeId : defaultNodeId();
+        log.info("Zookeeper: this backend is node {}", nodeId);
+    }
 
-            System.out.println("Zookeeper: Created operation node at: " + createdPath);
+    @PreDestroy
+    public void shutdown() {
+        retryExecutor.shutdown();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void transferOperation(Operation operation) {
+        transferOperations(Collections.singletonList(operation));
+    }
+
+    /**
+     * Writes the operations to ZooKeeper asynchronously, one envelope znode per document.
+     */
+    public void transferOperations(List<Operation> operations) {
+        transferOperations(operations, null);
+    }
+
+    /**
+     * As {@link #transferOperations(List)}, recording the session each operation came from
+     * ({@code originSessionIds} is parallel to {@code operations}, or null).
+     */
+    public void transferOperations(List<Operation> operations, List<String> originSessionIds) {
+        Map<String, List<Operation>> byDocument = new LinkedHashMap<>();
+        Map<String, List<String>> sessionsByDocument = new LinkedHashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            Operation op = operations.get(i);
+            byDocument.computeIfAbsent(op.getDocumentId(), k -> new ArrayList<>()).add(op);
+            if (originSessionIds != null) {
+                sessionsByDocument.computeIfAbsent(op.getDocumentId(), k -> new ArrayList<>()).add(originSessionIds.get(i));
+            }
+        }
+        byDocument.forEach((documentId, ops) -> writeEnvelope(documentId, ops, sessionsByDocument.get(documentId)));
+    }
+
+    private void writeEnvelope(String documentId, List<Operation> ops, List<String> originSessionIds) {
+        byte[] data;
+        try {
+            data = objectMapper.writeValueAsBytes(new OperationEnvelope(nodeId, documentId, ops, originSessionIds));
+        } catch (JsonProcessingException e) {
+            log.error("Zookeeper: Failed to serialize operations for document {}: {}", documentId, e.getMessage());
+            return;
+        }
+        if (data.length > MAX_ENVELOPE_BYTES && ops.size() > 1) {
+            // Keep well under the default 1 MB znode limit
+            int half = ops.size() / 2;
+            writeEnvelope(documentId, ops.subList(0, half),
+                    originSessionIds != null ? originSessionIds.subList(0, half) : null);
+            writeEnvelope(documentId, ops.subList(half, ops.size()),
+                    originSessionIds != null ? originSessionIds.subList(half, ops.size()) : null);
+            return;
+        }
+
+        createEnvelope(documentId, data, ops.size(), System.currentTimeMillis(), 100);
+    }
 
+    private void createEnvelope(String documentId, byte[] data, int operationCount, long firstAttemptAt, long backoffMs) {
+        long start = System.nanoTime();
+        String documentPath = OPERATIONS_PATH + "/" + documentId;
+        try {
+            // Before the background writes: if each of them created it, a burst for a new
+            // document would land in whatever order their retries finished
+            if (knownPaths.add(documentPath)) {
+                curatorFramework.createContainers(documentPath);
+            }
+            curatorFramework.create()
+                    .creatingParentContainersIfNeeded()
+                    .withMode(CreateMode.PERSISTENT_SEQUENTIAL)
+                    .inBackground((client, event) -> {
+                        if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                            recordWrite(documentId, event, start, operationCount);
+                        } else {
+                            if (event.getResultCode() == KeeperException.Code.NONODE.intValue()) {
+                                // The container was removed once it was empty
+                                knownPaths.remove(documentPath);
+                            }
+                            retryEnvelope(documentId, data, operationCount, firstAttemptAt, backoffMs,
+                                    KeeperException.Code.get(event.getResultCode()).toString());
+                        }
+                    })
+                    .forPath(documentPath + "/" + ENVELOPE_PREFIX, data);
         } catch (Exception e) {
-            System.err.println("Zookeeper: Failed to transfer operation: " + e.getMessage());
+            knownPaths.remove(documentPath);
+            retryEnvelope(documentId, data, operationCount, firstAttemptAt, backoffMs, e.getMessage());
         }
     }
 
+    /**
+     * Other nodes only learn about these operations from the envelope, so a failed write is
+     * tried again with backoff until the retry timeout. It may then land after envelopes
+     * written later; clients apply operations in version order regardless.
+     */
+    private void retryEnvelope(String documentId, byte[] data, int operationCount, long firstAttemptAt,
+                               long backoffMs, String reason) {
+        writeFailures.increment();
+        if (System.currentTimeMillis() - firstAttemptAt >= envelopeRetryTimeoutMs) {
+            log.error("Zookeeper: Gave up writing {} operations of document {}: {}", operationCount, documentId, reason);
+            return;
+        }
+        log.warn("Zookeeper: Envelope write for document {} failed, retrying in {} ms: {}", documentId, backoffMs, reason);
+        try {
+            retryExecutor.schedule(() -> createEnvelope(documentId, data, operationCount, firstAttemptAt,
+                    Math.min(backoffMs * 2, 5000)), backoffMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.error("Zookeeper: Dropped {} operations of document {} during shutdown", operationCount, documentId);
+        }
+    }
+
+    private void recordWrite(String documentId, CuratorEvent event, long startNanos, int operationCount) {
+        long elapsed = System.nanoTime() - startNanos;
+        envelopesWritten.increment();
+        operationsWritten.add(operationCount);
+        writeLatencyNanos.add(elapsed);
+        maxWriteLatencyNanos.accumulateAndGet(elapsed, Math::max);
+        znodeCount.incrementAndGet();
+        WrittenEnvelope envelope = new WrittenEnvelope(event.getName(), sequenceOf(event.getName()), System.currentTimeMillis());
+        // Not computeIfAbsent: the reaper drops empty queues with computeIfPresent
+        writtenEnvelopes.compute(documentId, (id, written) -> {
+            Queue<WrittenEnvelope> queue = written != null ? written : new ConcurrentLinkedQueue<>();
+            queue.add(envelope);
+            return queue;
+        });
+        log.debug("Zookeeper: Created operation envelope at: {}", event.getName());
+    }
+
     public void registerDocumentNode(String documentId, String nodeId) {
         try {
-            String nodesPath = "/collab/nodes/" + documentId;
+            String nodesPath = NODES_PATH + "/" + documentId;
             createPathIfNotExists(nodesPath);
 
             String nodePath = nodesPath + "/" + nodeId;
@@ -53,16 +268,373 @@ public class ZookeeperService {
                     .withMode(CreateMode.EPHEMERAL)
                     .forPath(nodePath, "connected".getBytes());
 
-            System.out.println("Zookeeper: Registered node " + nodeId + " for document " + documentId);
+            log.info("Zookeeper: Registered node {} for document {}", nodeId, documentId);
+
+        } catch (KeeperException.NodeExistsException e) {
+            log.debug("Zookeeper: Node {} already registered for document {}", nodeId, documentId);
+        } catch (Exception e) {
+            log.error("Zookeeper: Failed to register node: {}", e.getMessage());
+        }
+    }
+
+    public void unregisterDocumentNode(String documentId, String nodeId) {
+        try {
+            curatorFramework.delete().inBackground().forPath(NODES_PATH + "/" + documentId + "/" + nodeId);
+        } catch (Exception e) {
+            log.warn("Zookeeper: Failed to unregister node {} for document {}: {}", nodeId, documentId, e.getMessage());
+        }
+    }
+
+    /**
+     * Records that this node has consumed the document's envelopes up to the given znode
+     * sequence, which lets the reaper delete them.
+     */
+    public void markConsumed(String documentId, long sequence) {
+        try {
+            curatorFramework.setData().inBackground()
+                    .forPath(NODES_PATH + "/" + documentId + "/" + nodeId,
+                            Long.toString(sequence).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            log.warn("Zookeeper: Failed to record consumed offset for document {}: {}", documentId, e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the envelopes this node wrote once every node registered for the document has
+     * consumed them. Each node reaps only its own envelopes, which it knows without listing
+     * ZooKeeper. Documents with no registered nodes have no readers, so all their settled
+     * envelopes go.
+     */
+    @Scheduled(fixedDelayString = "${zookeeper.reaper.interval-ms:30000}")
+    public void reapConsumedOperations() {
+        if (!curatorFramework.getZookeeperClient().isConnected()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (String documentId : writtenEnvelopes.keySet()) {
+            Queue<WrittenEnvelope> written = writtenEnvelopes.get(documentId);
+            if (written == null) {
+                continue;
+            }
+            long watermark = consumedWatermark(documentId);
+            WrittenEnvelope head;
+            while ((head = written.peek()) != null && head.sequence <= watermark && now - head.createdAt >= reapMinAgeMs) {
+                if (!reap(head.path)) {
+                    break;
+                }
+                written.poll();
+                znodeCount.decrementAndGet();
+            }
+            writtenEnvelopes.computeIfPresent(documentId, (id, queue) -> queue.isEmpty() ? null : queue);
+        }
+    }
+
+    /**
+     * Deletes the consumed envelopes of every document, including those of nodes that went
+     * away before reaping their own. Walks every znode, so it runs far less often than the
+     * reaper.
+     */
+    @Scheduled(fixedDelayString = "${zookeeper.reaper.sweep-interval-ms:3600000}",
+            initialDelayString = "${zookeeper.reaper.sweep-interval-ms:3600000}")
+    public void sweepConsumedOperations() {
+        if (!curatorFramework.getZookeeperClient().isConnected()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (String documentId : children(OPERATIONS_PATH)) {
+            String documentPath = OPERATIONS_PATH + "/" + documentId;
+            long watermark = consumedWatermark(documentId);
+            for (String envelope : children(documentPath)) {
+                String path = documentPath + "/" + envelope;
+                if (sequenceOf(envelope) <= watermark && oldEnough(path, now)) {
+                    reap(path);
+                }
+            }
+        }
+    }
+
+    private boolean reap(String path) {
+        try {
+            curatorFramework.delete().forPath(path);
+            znodesReaped.increment();
+            return true;
+        } catch (KeeperException.NoNodeException e) {
+            // Already gone
+            return true;
+        } catch (Exception e) {
+            log.warn("Zookeeper: Failed to reap {}: {}", path, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Tells every other node that the metadata of these documents changed. Each batch is a
+     * sequential child znode, so readers go through every batch published since they last
+     * looked and only drop everything when one is missing.
+     */
+    public void publishMetadataInvalidation(Collection<String> documentIds) {
+        Map<String, Object> batch = new LinkedHashMap<>();
+        batch.put("nodeId", nodeId);
+        batch.put("documentIds", documentIds);
+        publishMetadataBatch(batch, documentIds.size());
+    }
+
+    /**
+     * Tells every other node that these documents were edited, and when, so they can move
+     * their cached copies forward rather than drop them. Delivered like invalidations.
+     */
+    public void publishMetadataTouches(Map<String, Date> updatedAtById) {
+        Map<String, Long> touched = new LinkedHashMap<>();
+        updatedAtById.forEach((id, updatedAt) -> touched.put(id, updatedAt.getTime()));
+        Map<String, Object> batch = new LinkedHashMap<>();
+        batch.put("nodeId", nodeId);
+        batch.put("touched", touched);
+        publishMetadataBatch(batch, touched.size());
+    }
+
+    private void publishMetadataBatch(Map<String, Object> batch, int documents) {
+        // Counted even if the write fails, so readers see the gap and drop everything
+        batch.put("sequence", metadataBatchesPublished.incrementAndGet());
+        byte[] data;
+        try {
+            data = objectMapper.writeValueAsBytes(batch);
+            if (data.length > MAX_ENVELOPE_BYTES) {
+                // Too many to list; an empty list tells every node to drop everything
+                batch.remove("touched");
+                batch.put("documentIds", Collections.emptyList());
+                data = objectMapper.writeValueAsBytes(batch);
+            }
+        } catch (JsonProcessingException e) {
+            log.error("Zookeeper: Failed to serialize metadata invalidation: {}", e.getMessage());
+            return;
+        }
+        try {
+            String path = curatorFramework.create()
+                    .creatingParentContainersIfNeeded()
+                    .withMode(CreateMode.PERSISTENT_SEQUENTIAL)
+                    .forPath(METADATA_INVALIDATIONS_PATH + "/" + ENVELOPE_PREFIX, data);
+            publishedMetadataBatches.add(new WrittenEnvelope(path, sequenceOf(path), System.currentTimeMillis()));
+        } catch (Exception e) {
+            // Other nodes fall back on their cache TTL
+            log.warn("Zookeeper: Failed to publish metadata invalidation for {} documents: {}",
+                    documents, e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes this node's metadata batches once every reader has had time to see them.
+     */
+    @Scheduled(fixedDelayString = "${zookeeper.metadata-invalidations.retention-ms:60000}")
+    public void reapMetadataBatches() {
+        long now = System.currentTimeMillis();
+        WrittenEnvelope head;
+        while ((head = publishedMetadataBatches.peek()) != null && now - head.createdAt >= metadataRetentionMs) {
+            if (!reap(head.path)) {
+                return;
+            }
+            publishedMetadataBatches.poll();
+        }
+    }
+
+    /**
+     * Delivers the invalidations other nodes publish from now on.
+     */
+    public void watchMetadataInvalidations(MetadataInvalidationListener listener) {
+        metadataListener = listener;
+        curatorFramework.getConnectionStateListenable().addListener((client, state) -> {
+            if (state == ConnectionState.RECONNECTED) {
+                // The watch may have fired while we were away
+                listener.invalidateAll();
+                readMetadataInvalidations();
+            } else if (state == ConnectionState.CONNECTED) {
+                readMetadataInvalidations();
+            }
+        });
+        if (curatorFramework.getZookeeperClient().isConnected()) {
+            readMetadataInvalidations();
+        }
+    }
+
+    private synchronized void readMetadataInvalidations() {
+        MetadataInvalidationListener listener = metadataListener;
+        CuratorWatcher watcher = event -> readMetadataInvalidations();
+        List<String> batches;
+        try {
+            batches = curatorFramework.getChildren().usingWatcher(watcher).forPath(METADATA_INVALIDATIONS_PATH);
+        } catch (KeeperException.NoNodeException e) {
+            // Nothing published yet; every batch that appears is new
+            if (lastInvalidationSequence == Long.MIN_VALUE) {
+                lastInvalidationSequence = -1;
+            }
+            try {
+                if (curatorFramework.checkExists().usingWatcher(watcher).forPath(METADATA_INVALIDATIONS_PATH) != null) {
+                    readMetadataInvalidations();
+                }
+            } catch (Exception ex) {
+                log.warn("Zookeeper: Failed to watch {}: {}", METADATA_INVALIDATIONS_PATH, ex.getMessage());
+            }
+            return;
+        } catch (Exception e) {
+            listener.invalidateAll();
+            log.warn("Zookeeper: Failed to read metadata invalidations: {}", e.getMessage());
+            return;
+        }
+        batches.sort((a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+        if (lastInvalidationSequence == Long.MIN_VALUE) {
+            // First read: only what is published from now on
+            lastInvalidationSequence = batches.isEmpty() ? -1 : sequenceOf(batches.get(batches.size() - 1));
+            return;
+        }
+        for (String name : batches) {
+            long sequence = sequenceOf(name);
+            if (sequence <= lastInvalidationSequence) {
+                continue;
+            }
+            lastInvalidationSequence = sequence;
+            try {
+                byte[] data = curatorFramework.getData().forPath(METADATA_INVALIDATIONS_PATH + "/" + name);
+                deliverMetadataBatch(listener, objectMapper.readValue(data, Map.class));
+            } catch (KeeperException.NoNodeException e) {
+                // Reaped before we read it
+                listener.invalidateAll();
+            } catch (Exception e) {
+                listener.invalidateAll();
+                log.warn("Zookeeper: Failed to read metadata invalidation {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    private void deliverMetadataBatch(MetadataInvalidationListener listener, Map<?, ?> batch) {
+        String publisher = String.valueOf(batch.get("nodeId"));
+        if (nodeId.equals(publisher)) {
+            return;
+        }
+        Object counter = batch.get("sequence");
+        if (counter instanceof Number) {
+            long current = ((Number) counter).longValue();
+            Long previous = lastMetadataBatchByNode.put(publisher, current);
+            if (previous != null && current > previous + 1) {
+                // A batch of that node failed to publish or was reaped before we read it
+                listener.invalidateAll();
+                return;
+            }
+        }
+        Object touched = batch.get("touched");
+        if (touched instanceof Map && !((Map<?, ?>) touched).isEmpty()) {
+            Map<String, Date> updatedAtById = new LinkedHashMap<>();
+            ((Map<?, ?>) touched).forEach((id, updatedAt) ->
+                    updatedAtById.put(String.valueOf(id), new Date(((Number) updatedAt).longValue())));
+            listener.touchedElsewhere(updatedAtById);
+            return;
+        }
+        Object documentIds = batch.get("documentIds");
+        if (documentIds instanceof Collection && !((Collection<?>) documentIds).isEmpty()) {
+            List<String> ids = new ArrayList<>();
+            for (Object id : (Collection<?>) documentIds) {
+                ids.add(String.valueOf(id));
+            }
+            listener.invalidate(ids);
+        } else {
+            listener.invalidateAll();
+        }
+    }
 
+    static long sequenceOf(String envelopeName) {
+        return Long.parseLong(envelopeName.substring(envelopeName.lastIndexOf('-') + 1));
+    }
+
+    private long consumedWatermark(String documentId) {
+        String nodesPath = NODES_PATH + "/" + documentId;
+        long watermark = Long.MAX_VALUE;
+        for (String node : children(nodesPath)) {
+            try {
+                String offset = new String(curatorFramework.getData().forPath(nodesPath + "/" + node), StandardCharsets.UTF_8);
+                watermark = Math.min(watermark, Long.parseLong(offset));
+            } catch (NumberFormatException e) {
+                // Registered but has not consumed anything yet
+                return -1;
+            } catch (KeeperException.NoNodeException e) {
+                // Node left while we were looking
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+        return watermark;
+    }
+
+    private boolean oldEnough(String path, long now) {
+        try {
+            Stat stat = curatorFramework.checkExists().forPath(path);
+            return stat != null && now - stat.getCtime() >= reapMinAgeMs;
         } catch (Exception e) {
-            System.err.println("Zookeeper: Failed to register node: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private List<String> children(String path) {
+        try {
+            return curatorFramework.getChildren().forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            return Collections.emptyList();
+        } catch (Exception e) {
+            log.warn("Zookeeper: Failed to list {}: {}", path, e.getMessage());
+            return Collections.emptyList();
         }
     }
 
     private void createPathIfNotExists(String path) throws Exception {
+        if (knownPaths.contains(path)) {
+            return;
+        }
         if (curatorFramework.checkExists().forPath(path) == null) {
-            curatorFramework.create().creatingParentsIfNeeded().forPath(path);
+            try {
+                curatorFramework.create().creatingParentsIfNeeded().forPath(path);
+            } catch (KeeperException.NodeExistsException e) {
+                // Created concurrently
+            }
         }
+        knownPaths.add(path);
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    public long getEnvelopesWritten() {
+        return envelopesWritten.sum();
+    }
+
+    public long getOperationsWritten() {
+        return operationsWritten.sum();
+    }
+
+    public long getWriteFailures() {
+        return writeFailures.sum();
+    }
+
+    public double getMeanWriteLatencyMillis() {
+        long count = envelopesWritten.sum();
+        return count == 0 ? 0 : writeLatencyNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public double getMaxWriteLatencyMillis() {
+        return maxWriteLatencyNanos.get() / 1_000_000.0;
+    }
+
+    public long getZnodesReaped() {
+        return znodesReaped.sum();
+    }
+
+    /**
+     * Operation envelopes this node wrote that are still in ZooKeeper.
+     */
+    public long getZnodeCount() {
+        return znodeCount.get();
     }
-}
\ No newline at end of file
+}
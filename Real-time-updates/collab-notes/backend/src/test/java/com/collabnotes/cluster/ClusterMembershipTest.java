@@ -0,0 +1,108 @@
+package com.collabnotes.cluster;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterMembershipTest {
+
+    private TestingServer server;
+    private final List<CuratorFramework> clients = new ArrayList<>();
+    private final List<ClusterMembership> members = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new TestingServer();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (ClusterMembership member : members) {
+            member.stop();
+        }
+        for (CuratorFramework client : clients) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    void membersAgreeOnOwnersAndHandOffWhenOneLeaves() throws Exception {
+        ClusterMembership a = join("node-a");
+        ClusterMembership b = join("node-b");
+        await(() -> a.getRing().getMembers().size() == 2 && b.getRing().getMembers().size() == 2);
+        assertEquals("http://node-b.test/api", a.urlOf("node-b"));
+
+        List<Set<String>> changesSeenByA = new CopyOnWriteArrayList<>();
+        a.addListener((previous, current) -> changesSeenByA.add(current.getMembers()));
+
+        int ownedByA = 0;
+        for (int i = 0; i < 1000; i++) {
+            String documentId = "doc-" + i;
+            assertEquals(a.ownerOf(documentId), b.ownerOf(documentId));
+            assertTrue(a.isLocal(documentId) != b.isLocal(documentId));
+            if (a.isLocal(documentId)) {
+                ownedByA++;
+            }
+        }
+        assertTrue(ownedByA > 350 && ownedByA < 650, "uneven split: " + ownedByA);
+
+        // Closing b's session removes its ephemeral member node
+        b.stop();
+        clients.get(1).close();
+        await(() -> a.getRing().getMembers().equals(Set.of("node-a")));
+        assertEquals(List.of(Set.of("node-a")), changesSeenByA);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(a.isLocal("doc-" + i));
+        }
+    }
+
+    @Test
+    void joiningMemberOnlyTakesKeysFromOthers() {
+        ConsistentHashRing two = new ConsistentHashRing(List.of("node-a", "node-b"), 128);
+        ConsistentHashRing three = new ConsistentHashRing(List.of("node-a", "node-b", "node-c"), 128);
+
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String key = "doc-" + i;
+            if (!two.ownerOf(key).equals(three.ownerOf(key))) {
+                assertEquals("node-c", three.ownerOf(key));
+                moved++;
+            }
+        }
+        assertTrue(moved > 2500 && moved < 4200, "moved " + moved);
+    }
+
+    private ClusterMembership join(String nodeId) {
+        CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        clients.add(client);
+        ClusterMembership membership = new ClusterMembership(client, nodeId, "http://" + nodeId + ".test/api", 128, true);
+        membership.start();
+        members.add(membership);
+        return membership;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out waiting for membership");
+            }
+            Thread.sleep(20);
+        }
+    }
+}
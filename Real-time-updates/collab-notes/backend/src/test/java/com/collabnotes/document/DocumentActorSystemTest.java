@@ -0,0 +1,119 @@
+package com.collabnotes.document;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DocumentActorSystemTest {
+
+    // One worker and a small batch, so every document shares it and actors get rescheduled
+    private final DocumentActorSystem actorSystem = new DocumentActorSystem(1, 4, 2);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        actorSystem.shutdown();
+    }
+
+    @Test
+    void tasksOfADocumentRunOneAtATimeInSubmissionOrder() throws Exception {
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        for (int i = 0; i < 200; i++) {
+            int task = i;
+            Runnable body = () -> {
+                if (running.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                ran.add(task);
+                running.decrementAndGet();
+            };
+            // Blocking tasks run elsewhere but still keep their place
+            if (i % 10 == 0) {
+                actorSystem.submitBlocking("doc-1", body);
+            } else {
+                actorSystem.submit("doc-1", body);
+            }
+        }
+        actorSystem.ask("doc-1", () -> null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(IntStream.range(0, 200).boxed().collect(Collectors.toList()), ran);
+        assertEquals(0, overlaps.get());
+    }
+
+    @Test
+    void askCompletesExceptionallyWithWhatTheTaskThrew() {
+        IllegalStateException thrown = new IllegalStateException("no such document");
+
+        ExecutionException plain = assertThrows(ExecutionException.class,
+                () -> actorSystem.ask("doc-1", () -> { throw thrown; }).get(5, TimeUnit.SECONDS));
+        ExecutionException blocking = assertThrows(ExecutionException.class,
+                () -> actorSystem.askBlocking("doc-1", () -> { throw thrown; }).get(5, TimeUnit.SECONDS));
+
+        assertSame(thrown, plain.getCause());
+        assertSame(thrown, blocking.getCause());
+    }
+
+    @Test
+    void failedSubmitDoesNotStopTheTasksAfterIt() throws Exception {
+        actorSystem.submit("doc-1", () -> { throw new IllegalStateException("boom"); });
+        actorSystem.submitBlocking("doc-1", () -> { throw new IllegalStateException("boom"); });
+
+        assertEquals("after", actorSystem.ask("doc-1", () -> "after").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void blockingTaskDoesNotHoldUpOtherDocumentsOnTheWorker() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> slow = actorSystem.askBlocking("doc-1", () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "slow";
+        });
+        CompletableFuture<String> queuedBehind = actorSystem.ask("doc-1", () -> "behind");
+
+        assertEquals("other", actorSystem.ask("doc-2", () -> "other").get(1, TimeUnit.SECONDS));
+        assertFalse(queuedBehind.isDone());
+
+        release.countDown();
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+        assertEquals("behind", queuedBehind.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void idleActorsAreDroppedAndComeBackOnTheNextTask() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            actorSystem.ask("doc-" + i, () -> null).get(5, TimeUnit.SECONDS);
+        }
+        awaitActorCount(0);
+
+        assertEquals("again", actorSystem.ask("doc-7", () -> "again").get(5, TimeUnit.SECONDS));
+        awaitActorCount(0);
+    }
+
+    private void awaitActorCount(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (actorSystem.getActorCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, actorSystem.getActorCount());
+    }
+}
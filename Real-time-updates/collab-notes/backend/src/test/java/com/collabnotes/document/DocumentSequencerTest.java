@@ -0,0 +1,128 @@
+package com.collabnotes.document;
+
+import com.collabnotes.inmemory.InMemoryDocumentSequenceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DocumentSequencerTest {
+
+    private DocumentSequenceRepository sequenceRepository;
+    private OperationsRepository operationsRepository;
+    private SnapshotRepository snapshotRepository;
+    private DocumentSequencer sequencer;
+
+    @BeforeEach
+    void setUp() {
+        sequenceRepository = mock(DocumentSequenceRepository.class);
+        operationsRepository = mock(OperationsRepository.class);
+        snapshotRepository = mock(SnapshotRepository.class);
+        sequencer = new DocumentSequencer(sequenceRepository, operationsRepository, snapshotRepository);
+    }
+
+    @Test
+    void concurrentWritersOnOneDocumentGetUniqueGapFreeVersions() throws Exception {
+        int threads = 16;
+        int perThread = 2000;
+        Set<Integer> versions = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    versions.add(sequencer.next("doc-1"));
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        int total = threads * perThread;
+        assertEquals(total, versions.size());
+        for (int v = 1; v <= total; v++) {
+            assertTrue(versions.contains(v), "missing version " + v);
+        }
+        assertEquals(total, sequencer.current("doc-1"));
+        // Recovery from Mongo happens once, not per allocation
+        verify(sequenceRepository, times(1)).findById(anyString());
+    }
+
+    @Test
+    void recoversFromHighestDurableMark() {
+        DocumentSequence stored = new DocumentSequence();
+        stored.setId("doc-2");
+        stored.setSequence(40);
+        when(sequenceRepository.findById("doc-2")).thenReturn(Optional.of(stored));
+        when(operationsRepository.findLatestVersion("doc-2")).thenReturn(42);
+
+        assertEquals(43, sequencer.next("doc-2"));
+    }
+
+    @Test
+    void releaseOnlyGivesBackTheLatestAllocation() {
+        int first = sequencer.next("doc-3");
+        int second = sequencer.next("doc-3");
+
+        assertFalse(sequencer.release("doc-3", first));
+        assertTrue(sequencer.release("doc-3", second));
+        assertEquals(second, sequencer.next("doc-3"));
+    }
+
+    @Test
+    void newOwnerWaitsUntilThePreviousOneHandsOver() throws Exception {
+        InMemoryDocumentSequenceRepository shared = new InMemoryDocumentSequenceRepository();
+        List<String> live = List.of("node-a", "node-b");
+        DocumentSequencer previous = new DocumentSequencer(shared, operationsRepository, snapshotRepository,
+                "node-a", () -> live, 5000);
+        DocumentSequencer next = new DocumentSequencer(shared, operationsRepository, snapshotRepository,
+                "node-b", () -> live, 5000);
+        assertEquals(1, previous.next("doc-4"));
+
+        CompletableFuture<Integer> taken = CompletableFuture.supplyAsync(() -> next.next("doc-4"));
+        Thread.sleep(200);
+        assertFalse(taken.isDone());
+
+        // The flusher confirms what it wrote; only then does the previous owner let go
+        previous.confirm("doc-4", 1);
+        previous.handOver("doc-4");
+        assertEquals(2, taken.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void claimOfADeadOwnerIsTakenOverAndALiveOneTimesOut() {
+        InMemoryDocumentSequenceRepository shared = new InMemoryDocumentSequenceRepository();
+        new DocumentSequencer(shared, operationsRepository, snapshotRepository, "node-a", () -> List.of("node-a"), 0)
+                .next("doc-5");
+
+        DocumentSequencer blocked = new DocumentSequencer(shared, operationsRepository, snapshotRepository,
+                "node-b", () -> List.of("node-a", "node-b"), 100);
+        assertThrows(IllegalStateException.class, () -> blocked.next("doc-5"));
+
+        DocumentSequencer survivor = new DocumentSequencer(shared, operationsRepository, snapshotRepository,
+                "node-b", () -> List.of("node-b"), 100);
+        assertEquals(1, survivor.next("doc-5"));
+    }
+}
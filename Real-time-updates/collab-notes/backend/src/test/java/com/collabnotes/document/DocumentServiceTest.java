@@ -0,0 +1,95 @@
+package com.collabnotes.document;
+
+import com.collabnotes.inmemory.InMemoryOperationsRepository;
+import com.collabnotes.inmemory.InMemorySnapshotRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+class DocumentServiceTest {
+
+    @Test
+    void contentAtPastVersionsIsReplayedFromTheNearestSnapshot() {
+        InMemoryOperationsRepository operations = new InMemoryOperationsRepository();
+        InMemorySnapshotRepository snapshots = new InMemorySnapshotRepository();
+        DocumentStateCache stateCache = new DocumentStateCache(1 << 20);
+        DocumentService service = documentService(operations, snapshots, stateCache);
+
+        operations.insertBatch(List.of(
+                op(1, "INSERT", 0, "hello"),
+                op(2, "INSERT", 5, " world"),
+                op(3, "DELETE", 5, " world"),
+                op(4, "INSERT", 5, "!")));
+        snapshots.save(new DocumentSnapshot("doc-1", 2, "hello world"));
+
+        DocumentSnapshot latest = service.getDocumentContentAt("doc-1", null);
+        assertEquals("hello!", latest.getContent());
+        assertEquals(4, latest.getVersion());
+        // A hot document is served from the state cache
+        assertEquals(4, service.getDocumentContentAt("doc-1", 4).getVersion());
+        assertEquals(1, stateCache.getHitCount());
+
+        assertEquals("hello", service.getDocumentContentAt("doc-1", 3).getContent());
+        assertEquals("hello world", service.getDocumentContentAt("doc-1", 2).getContent());
+        assertEquals("hello", service.getDocumentContentAt("doc-1", 1).getContent());
+        assertEquals("", service.getDocumentContentAt("doc-1", 0).getContent());
+        assertThrows(IllegalArgumentException.class, () -> service.getDocumentContentAt("doc-1", 5));
+
+        // Behind the snapshot the log is gone, so version 1 can no longer be rebuilt
+        operations.compactOperations("doc-1", 2, false);
+        assertThrows(HistoryUnavailableException.class, () -> service.getDocumentContentAt("doc-1", 1));
+        assertEquals("hello", service.getDocumentContentAt("doc-1", 3).getContent());
+    }
+
+    @Test
+    void contentAtPastVersionsNeedsAnUnbrokenLog() {
+        InMemoryOperationsRepository operations = new InMemoryOperationsRepository();
+        DocumentService service = documentService(operations, new InMemorySnapshotRepository(), new DocumentStateCache(1 << 20));
+
+        Operation rejected = op(2, "INSERT", 0, "ignored");
+        rejected.setApplied(false);
+        operations.insertBatch(List.of(
+                op(1, "INSERT", 0, "a"),
+                rejected,
+                op(4, "INSERT", 1, "c"),
+                op(5, "INSERT", 2, "d")));
+
+        // Version 2 changed nothing but is there, so it is not mistaken for compaction
+        assertEquals("a", service.getDocumentContentAt("doc-1", 2).getContent());
+        // Replaying past the hole at 3 would silently drop whatever it held
+        HistoryUnavailableException missing = assertThrows(HistoryUnavailableException.class,
+                () -> service.getDocumentContentAt("doc-1", 4));
+        assertEquals("Version 3 of document doc-1 is missing from its log", missing.getMessage());
+    }
+
+    private static DocumentService documentService(InMemoryOperationsRepository operations,
+                                                   InMemorySnapshotRepository snapshots,
+                                                   DocumentStateCache stateCache) {
+        SnapshotService snapshotService = new SnapshotService();
+        ReflectionTestUtils.setField(snapshotService, "snapshotRepository", snapshots);
+        ReflectionTestUtils.setField(snapshotService, "operationsRepository", operations);
+
+        DocumentService service = new DocumentService();
+        ReflectionTestUtils.setField(service, "operationsRepository", operations);
+        ReflectionTestUtils.setField(service, "stateCache", stateCache);
+        ReflectionTestUtils.setField(service, "snapshotService", snapshotService);
+        ReflectionTestUtils.setField(service, "persistencePipeline", mock(OperationPersistencePipeline.class));
+        return service;
+    }
+
+    private static Operation op(int version, String type, int position, String text) {
+        Operation op = new Operation();
+        op.setDocumentId("doc-1");
+        op.setType(type);
+        op.setPosition(position);
+        op.setText(text);
+        op.setVersion(version);
+        op.setApplied(true);
+        return op;
+    }
+}
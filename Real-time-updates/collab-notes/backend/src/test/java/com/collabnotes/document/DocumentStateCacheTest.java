@@ -0,0 +1,103 @@
+package com.collabnotes.document;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentStateCacheTest {
+
+    // 52 characters: 64 bytes of overhead plus two per char of capacity (length + 16) = 200
+    private static final String TEXT = "x".repeat(52);
+    private static final long ENTRY_BYTES = 200;
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Function<String, DocumentState> loader = id -> {
+        loads.incrementAndGet();
+        return new DocumentState(TEXT, 1);
+    };
+
+    @Test
+    void leastRecentlyUsedDocumentIsEvictedFirst() {
+        DocumentStateCache cache = new DocumentStateCache(2 * ENTRY_BYTES);
+
+        DocumentState a = cache.getOrLoad("doc-a", loader);
+        cache.getOrLoad("doc-b", loader);
+        assertSame(a, cache.getOrLoad("doc-a", loader));
+        cache.getOrLoad("doc-c", loader);
+
+        assertTrue(cache.contains("doc-a"));
+        assertFalse(cache.contains("doc-b"));
+        assertTrue(cache.contains("doc-c"));
+        assertEquals(3, loads.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2 * ENTRY_BYTES, cache.getEstimatedBytes());
+    }
+
+    @Test
+    void documentsGrowingThroughOperationsCountAgainstTheBudget() {
+        DocumentStateCache cache = new DocumentStateCache(2 * ENTRY_BYTES);
+        cache.getOrLoad("doc-a", loader);
+        cache.getOrLoad("doc-b", loader);
+
+        cache.apply(insert("doc-a", 2, "y".repeat(100)));
+
+        // doc-a was just written, so doc-b goes to make room for it
+        assertTrue(cache.contains("doc-a"));
+        assertFalse(cache.contains("doc-b"));
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.getEstimatedBytes() > ENTRY_BYTES);
+        assertTrue(cache.getEstimatedBytes() <= cache.getMaxBytes());
+        assertEquals(TEXT + "y".repeat(100), cache.getOrLoad("doc-a", loader).getContent());
+    }
+
+    @Test
+    void documentLargerThanTheBudgetStaysUntilAnotherIsUsed() {
+        DocumentStateCache cache = new DocumentStateCache(ENTRY_BYTES / 2);
+
+        cache.getOrLoad("doc-a", loader);
+        assertEquals(1, cache.size());
+        assertEquals(ENTRY_BYTES, cache.getEstimatedBytes());
+        assertEquals(0, cache.getEvictionCount());
+
+        cache.getOrLoad("doc-b", loader);
+        assertFalse(cache.contains("doc-a"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(ENTRY_BYTES, cache.getEstimatedBytes());
+    }
+
+    @Test
+    void operationThatDoesNotFollowOnDropsTheDocument() {
+        DocumentStateCache cache = new DocumentStateCache(2 * ENTRY_BYTES);
+        cache.getOrLoad("doc-a", loader);
+
+        cache.apply(insert("doc-a", 2, "y"));
+        assertEquals(2, cache.getOrLoad("doc-a", loader).getVersion());
+        cache.apply(insert("doc-a", 4, "z"));
+
+        assertFalse(cache.contains("doc-a"));
+        assertEquals(0, cache.getEstimatedBytes());
+        // Not cached documents are left alone
+        cache.apply(insert("doc-b", 2, "y"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    private static Operation insert(String documentId, int version, String text) {
+        Operation op = new Operation();
+        op.setDocumentId(documentId);
+        op.setType("INSERT");
+        op.setPosition(TEXT.length());
+        op.setText(text);
+        op.setVersion(version);
+        op.setApplied(true);
+        return op;
+    }
+}
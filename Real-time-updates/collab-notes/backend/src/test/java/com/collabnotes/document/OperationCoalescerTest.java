@@ -0,0 +1,127 @@
+package com.collabnotes.document;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OperationCoalescerTest {
+
+    private final DocumentActorSystem actorSystem = new DocumentActorSystem(1, 64, 2);
+    private final OperationCoalescer coalescer = new OperationCoalescer(actorSystem, true, 50, 8);
+    private final List<Operation> sequenced = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        coalescer.shutdown();
+        actorSystem.shutdown();
+    }
+
+    @Test
+    void typedCharactersBecomeOneOperationWithOneVersion() throws Exception {
+        List<CompletableFuture<Operation>> results = new ArrayList<>();
+        String typed = "hello";
+        for (int i = 0; i < typed.length(); i++) {
+            results.add(submit(op("INSERT", 3 + i, typed.substring(i, i + 1), 7), "session-a"));
+        }
+
+        for (CompletableFuture<Operation> result : results) {
+            assertEquals(1, result.get(2, TimeUnit.SECONDS).getVersion());
+        }
+        assertEquals(1, sequenced.size());
+        assertEquals("hello", sequenced.get(0).getText());
+        assertEquals(3, sequenced.get(0).getPosition());
+        assertEquals(7, sequenced.get(0).getBaseVersion());
+        assertEquals(5.0, coalescer.getCompressionRatio());
+    }
+
+    @Test
+    void backspacesAndForwardDeletesGrowOneRange() throws Exception {
+        // "abcdef", cursor after 'd': backspace twice, then delete forward twice
+        submit(op("DELETE", 3, "d", 0), "session-a");
+        submit(op("DELETE", 2, "c", 0), "session-a");
+        submit(op("DELETE", 2, "e", 0), "session-a");
+        submit(op("DELETE", 2, "f", 0), "session-a").get(2, TimeUnit.SECONDS);
+
+        assertEquals(1, sequenced.size());
+        assertEquals(2, sequenced.get(0).getPosition());
+        assertEquals("cdef", sequenced.get(0).getText());
+    }
+
+    @Test
+    void runsBreakWithoutReorderingTheSessionsOperations() throws Exception {
+        submit(op("INSERT", 0, "a", 0), "session-a");
+        submit(op("INSERT", 1, "b", 0), "session-a");
+        // Another session's keystrokes never join this run
+        CompletableFuture<Operation> other = submit(op("INSERT", 2, "x", 0), "session-b");
+        // Not contiguous, a newer base version, then a delete: each starts a new run
+        submit(op("INSERT", 5, "c", 0), "session-a");
+        submit(op("INSERT", 6, "d", 3), "session-a");
+        CompletableFuture<Operation> last = submit(op("DELETE", 6, "d", 3), "session-a");
+        // Past the maximum length the run is sequenced at once
+        for (int i = 0; i < 8; i++) {
+            submit(op("INSERT", 20 + i, "z", 3), "session-c");
+        }
+
+        last.get(2, TimeUnit.SECONDS);
+        other.get(2, TimeUnit.SECONDS);
+        List<String> sessionA = new ArrayList<>();
+        synchronized (sequenced) {
+            for (Operation op : sequenced) {
+                if ("a".equals(op.getUserId())) {
+                    sessionA.add(op.getType() + "@" + op.getPosition() + ":" + op.getText());
+                }
+            }
+        }
+        assertEquals(List.of("INSERT@0:ab", "INSERT@5:c", "INSERT@6:d", "DELETE@6:d"), sessionA);
+        assertEquals("zzzzzzzz", sequenced.stream().filter(op -> "c".equals(op.getUserId()))
+                .findFirst().orElseThrow().getText());
+        assertEquals(14, coalescer.getOperationsReceived());
+        assertEquals(6, coalescer.getOperationsSequenced());
+    }
+
+    @Test
+    void shutdownSequencesEverythingQueuedBeforeReturning() {
+        List<CompletableFuture<Operation>> results = List.of(
+                submit(op("INSERT", 0, "a", 0), "session-a"),
+                submit(op("INSERT", 1, "b", 0), "session-a"),
+                submit(op("INSERT", 0, "x", 0), "session-b"));
+
+        coalescer.shutdown();
+
+        // Whether in an open run or still in the mailbox, nothing is left waiting for its window
+        results.forEach(result -> assertTrue(result.isDone()));
+        StringBuilder sessionA = new StringBuilder();
+        synchronized (sequenced) {
+            sequenced.stream().filter(op -> "a".equals(op.getUserId())).forEach(op -> sessionA.append(op.getText()));
+        }
+        assertEquals("ab", sessionA.toString());
+        assertEquals(3, coalescer.getOperationsReceived());
+    }
+
+    private CompletableFuture<Operation> submit(Operation op, String sessionId) {
+        op.setUserId(sessionId.substring("session-".length()));
+        return coalescer.submit(op, sessionId, (operation, sourceId) -> {
+            operation.setVersion(sequenced.size() + 1);
+            sequenced.add(operation);
+            return operation;
+        });
+    }
+
+    private static Operation op(String type, int position, String text, int baseVersion) {
+        Operation op = new Operation();
+        op.setDocumentId("doc");
+        op.setType(type);
+        op.setPosition(position);
+        op.setText(text);
+        op.setBaseVersion(baseVersion);
+        return op;
+    }
+}
@@ -0,0 +1,111 @@
+package com.collabnotes.document;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OperationJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void entriesAreRecoveredInOrderAcrossSegments() throws Exception {
+        OperationJournal journal = new OperationJournal(directory, 100, true);
+        journal.recover();
+        for (int version = 1; version <= 5; version++) {
+            journal.append(version, op(version));
+        }
+        journal.close();
+        assertTrue(segments().size() > 1);
+
+        OperationJournal reopened = new OperationJournal(directory, 100, true);
+        assertEquals(List.of(1, 2, 3, 4, 5), versions(reopened.recover()));
+
+        reopened.reset();
+        assertTrue(segments().isEmpty());
+    }
+
+    @Test
+    void aTornFinalEntryIsSkipped() throws Exception {
+        OperationJournal journal = new OperationJournal(directory, 1 << 20, true);
+        journal.recover();
+        journal.append(1, op(1));
+        journal.close();
+        Files.write(segments().get(0), "{\"documentId\":\"doc".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(List.of(1), versions(new OperationJournal(directory, 1 << 20, true).recover()));
+    }
+
+    @Test
+    void onlyFullyFlushedSegmentsAreReleased() throws Exception {
+        OperationJournal journal = new OperationJournal(directory, 100, true);
+        journal.recover();
+        for (int sequence = 0; sequence < 6; sequence++) {
+            journal.append(sequence, op(sequence + 1));
+        }
+        int before = segments().size();
+
+        // Entries from sequence 3 on are still waiting for Mongo
+        journal.release(3);
+        List<Integer> left = versions(new OperationJournal(directory, 100, true).recover());
+        assertTrue(segments().size() < before);
+        assertTrue(left.contains(4) && left.contains(5) && left.contains(6), "released unflushed entries: " + left);
+
+        // The segment being written stays, however old its entries
+        journal.release(Long.MAX_VALUE);
+        assertEquals(1, segments().size());
+        journal.close();
+    }
+
+    @Test
+    void oneSyncCoversEverythingWrittenBeforeIt() throws Exception {
+        OperationJournal journal = new OperationJournal(directory, 1 << 20, true);
+        journal.recover();
+        journal.append(0, op(1));
+        journal.append(1, op(2));
+        journal.append(2, op(3));
+
+        journal.sync(2);
+        journal.sync(0);
+        journal.sync(1);
+        assertEquals(1, journal.getSyncCount());
+
+        journal.append(3, op(4));
+        journal.sync(3);
+        assertEquals(2, journal.getSyncCount());
+        journal.close();
+    }
+
+    private List<Path> segments() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<Integer> versions(List<Operation> operations) {
+        return operations.stream().map(Operation::getVersion).collect(Collectors.toList());
+    }
+
+    static Operation op(int version) {
+        Operation op = new Operation();
+        op.setId("op-" + version);
+        op.setDocumentId("doc-1");
+        op.setType("INSERT");
+        op.setPosition(0);
+        op.setText("x");
+        op.setVersion(version);
+        op.setApplied(true);
+        return op;
+    }
+}
@@ -0,0 +1,154 @@
+package com.collabnotes.document;
+
+import com.collabnotes.metadata.MetadataService;
+import com.collabnotes.metrics.CollaborationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.collabnotes.document.OperationJournalTest.op;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OperationPersistencePipelineTest {
+
+    @TempDir
+    Path directory;
+
+    private final OperationsRepository operationsRepository = mock(OperationsRepository.class);
+    private final DocumentSequencer sequencer = mock(DocumentSequencer.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private OperationPersistencePipeline pipeline;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void operationsLeftInTheJournalAreReplayedIntoMongoOnStart() throws Exception {
+        OperationJournal previousRun = new OperationJournal(directory, 1 << 20, true);
+        previousRun.recover();
+        previousRun.append(0, op(1));
+        previousRun.append(1, op(2));
+        previousRun.close();
+
+        pipeline = start();
+
+        ArgumentCaptor<List<Operation>> replayed = ArgumentCaptor.forClass(List.class);
+        verify(operationsRepository).insertBatch(replayed.capture());
+        assertEquals(List.of("op-1", "op-2"),
+                replayed.getValue().stream().map(Operation::getId).collect(Collectors.toList()));
+        verify(sequencer).confirm("doc-1", 2);
+        assertEquals(0, journalFiles());
+    }
+
+    @Test
+    void aFailedFlushIsRetriedUntilItLands() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        when(operationsRepository.insertBatch(anyList())).thenAnswer(invocation -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("mongo is down");
+            }
+            return Collections.emptyList();
+        });
+        pipeline = start();
+
+        pipeline.append(op(1));
+
+        assertTrue(pipeline.awaitFlushed("doc-1", 5000));
+        assertEquals(3, attempts.get());
+        assertEquals(2, registry.get("collab.errors").tag("where", "flush").counter().count());
+        verify(sequencer, timeout(1000)).confirm("doc-1", 1);
+    }
+
+    @Test
+    void awaitFlushedWaitsForTheDocumentsPendingWrites() throws Exception {
+        CountDownLatch mongo = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            mongo.await(5, TimeUnit.SECONDS);
+            return Collections.emptyList();
+        }).when(operationsRepository).insertBatch(anyList());
+        pipeline = start();
+
+        pipeline.append(op(1));
+        assertEquals(1, pipeline.getPendingOperations("doc-1").size());
+        assertFalse(pipeline.awaitFlushed("doc-1", 100));
+        assertTrue(pipeline.awaitFlushed("doc-2", 100));
+
+        mongo.countDown();
+        assertTrue(pipeline.awaitFlushed("doc-1", 5000));
+        assertTrue(pipeline.getPendingOperations("doc-1").isEmpty());
+    }
+
+    @Test
+    void flushedSegmentsAreReleased() throws Exception {
+        when(operationsRepository.insertBatch(anyList())).thenReturn(Collections.emptyList());
+        ReflectionTestUtils.setField(newPipeline(), "journalSegmentBytes", 100L);
+        pipeline.start();
+
+        for (int version = 1; version <= 10; version++) {
+            pipeline.append(op(version));
+        }
+        assertTrue(pipeline.awaitFlushed("doc-1", 5000));
+
+        // Everything is in Mongo; only the segment still being written is left
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journalFiles() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, journalFiles());
+        verify(sequencer, timeout(1000)).confirm("doc-1", 10);
+    }
+
+    private OperationPersistencePipeline start() throws Exception {
+        newPipeline().start();
+        return pipeline;
+    }
+
+    private OperationPersistencePipeline newPipeline() {
+        pipeline = new OperationPersistencePipeline();
+        ReflectionTestUtils.setField(pipeline, "operationsRepository", operationsRepository);
+        ReflectionTestUtils.setField(pipeline, "sequencer", sequencer);
+        ReflectionTestUtils.setField(pipeline, "metadataService", mock(MetadataService.class));
+        ReflectionTestUtils.setField(pipeline, "metrics", new CollaborationMetrics(registry, 100));
+        ReflectionTestUtils.setField(pipeline, "queueCapacity", 100);
+        ReflectionTestUtils.setField(pipeline, "batchSize", 4);
+        ReflectionTestUtils.setField(pipeline, "flushIntervalMs", 5L);
+        ReflectionTestUtils.setField(pipeline, "offerTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(pipeline, "journalEnabled", true);
+        ReflectionTestUtils.setField(pipeline, "journalDir", directory.toString());
+        ReflectionTestUtils.setField(pipeline, "journalFsync", true);
+        ReflectionTestUtils.setField(pipeline, "journalSegmentBytes", 1L << 20);
+        return pipeline;
+    }
+
+    private long journalFiles() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
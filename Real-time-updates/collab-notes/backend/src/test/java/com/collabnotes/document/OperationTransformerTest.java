@@ -0,0 +1,168 @@
+package com.collabnotes.document;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class OperationTransformerTest {
+
+    private final OperationTransformer transformer = new OperationTransformer();
+
+    @Test
+    void deleteIsSplitAroundTextInsertedInsideIt() {
+        // Both wrote against "abcdef": one inserted "XY" after "abc", the other deleted "bcde"
+        Operation insert = op("INSERT", 3, "XY", "alice", "session-a");
+        Operation delete = op("DELETE", 1, "bcde", "bob", "session-b");
+
+        List<Operation> pieces = transformer.transform(delete, sequenced(insert));
+
+        assertEquals(2, pieces.size());
+        assertEquals(5, pieces.get(0).getPosition());
+        assertEquals("de", pieces.get(0).getText());
+        assertEquals(1, pieces.get(1).getPosition());
+        assertEquals("bc", pieces.get(1).getText());
+        assertEquals("aXYf", apply("abcdef", insert, pieces));
+    }
+
+    @Test
+    void piecesAreRebasedOverLaterOperationsToo() {
+        Operation insert = op("INSERT", 3, "XY", "alice", "session-a");
+        // Sequenced after the insert, against "abcXYdef": removes "cXYd"
+        Operation otherDelete = op("DELETE", 2, "cXYd", "carol", "session-c");
+        Operation delete = op("DELETE", 1, "bcde", "bob", "session-b");
+
+        List<Operation> pieces = transformer.transform(delete, sequenced(insert, otherDelete));
+
+        assertEquals("af", apply("abcdef", insert, otherDelete, pieces));
+    }
+
+    @Test
+    void deleteOfTextThatIsAlreadyGoneIsNotApplied() {
+        Operation otherDelete = op("DELETE", 0, "abcdef", "alice", "session-a");
+        Operation delete = op("DELETE", 1, "bc", "bob", "session-b");
+
+        List<Operation> pieces = transformer.transform(delete, sequenced(otherDelete));
+
+        assertEquals(1, pieces.size());
+        assertFalse(pieces.get(0).isApplied());
+    }
+
+    @Test
+    void onlyTheSendingConnectionsOwnOperationsCountAsSeen() {
+        Operation sameConnection = op("INSERT", 0, "12", "alice", "session-a");
+        Operation otherTab = op("INSERT", 0, "345", "alice", "session-a2");
+        Operation insert = op("INSERT", 2, "!", "alice", "session-a");
+
+        // The sender wrote at 2 after its own "12"; only the other tab's insert moves it
+        List<Operation> pieces = transformer.transform(insert, sequenced(sameConnection, otherTab));
+
+        assertEquals(1, pieces.size());
+        assertEquals(5, pieces.get(0).getPosition());
+    }
+
+    @Test
+    void laterOperationsInFlightAreWrittenOnTopOfEarlierOnes() {
+        // On "q" the client sends "a" at 0, then "b" at 1, both on version 0; "x" at the end
+        // from someone else is sequenced between them
+        Operation first = own(op("INSERT", 0, "a", "alice", "session-a"));
+        Operation other = op("INSERT", 2, "x", "bob", "session-b");
+        Operation second = op("INSERT", 1, "b", "alice", "session-a");
+
+        List<Operation> pieces = transformer.transform(second, sequenced(first, other));
+
+        assertEquals("abqx", apply("q", first, other, pieces));
+    }
+
+    @Test
+    void otherOperationsAreBroughtIntoTheSendersContextFirst() {
+        // Someone inserts "x" inside "qq"; then the client's "aa" at 0 and its "b" at 2, written
+        // on top of "aa" before it had seen "x", are sequenced
+        Operation other = op("INSERT", 1, "x", "bob", "session-b");
+        Operation first = own(op("INSERT", 0, "aa", "alice", "session-a"));
+        Operation second = op("INSERT", 2, "b", "alice", "session-a");
+
+        List<Operation> pieces = transformer.transform(second, sequenced(other, first));
+
+        assertEquals("aabqxq", apply("qq", other, first, pieces));
+    }
+
+    @Test
+    void operationInFlightOnAnOlderVersionWidensTheHistory() {
+        // The client sent "aa" at the end of "qq" on version 0, received "x" (version 1) and then
+        // wrote "b" at the end of "qxqaa"; "y" from someone else is sequenced before its "aa"
+        Operation x = op("INSERT", 1, "x", "bob", "session-b");
+        Operation y = op("INSERT", 3, "y", "bob", "session-b");
+        y.setBaseVersion(1);
+        Operation first = op("INSERT", 2, "aa", "alice", "session-a");
+        Operation stored = op("INSERT", 4, "aa", "alice", "session-a");
+        stored.setSubmitted(first);
+        Operation second = op("INSERT", 5, "b", "alice", "session-a");
+        second.setBaseVersion(1);
+        List<Operation> history = sequenced(x, y, stored);
+
+        assertEquals(0, transformer.earliestBase("session-a", 1, history.subList(1, 3)));
+        List<Operation> pieces = transformer.transform(second, history);
+
+        assertEquals("qxqyaab", apply("qq", x, y, stored, pieces));
+    }
+
+    @Test
+    void deletesInFlightStayInOrder() {
+        // On "abcd" the client deletes "a", then "c" on top of that; someone inserted "x"
+        // before "c" in between
+        Operation first = own(op("DELETE", 0, "a", "alice", "session-a"));
+        Operation other = op("INSERT", 1, "x", "bob", "session-b");
+        Operation second = op("DELETE", 1, "c", "alice", "session-a");
+
+        List<Operation> pieces = transformer.transform(second, sequenced(first, other));
+
+        assertEquals("bxd", apply("abcd", first, other, pieces));
+    }
+
+    private static String apply(String content, Object... operations) {
+        StringBuilder text = new StringBuilder(content);
+        for (Object operation : operations) {
+            if (operation instanceof Operation) {
+                DocumentService.applyOperationToContent(text, (Operation) operation);
+            } else {
+                for (Object piece : (List<?>) operation) {
+                    DocumentService.applyOperationToContent(text, (Operation) piece);
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Numbers the operations from version 1 on, as the history after version 0.
+     */
+    private static List<Operation> sequenced(Operation... operations) {
+        for (int i = 0; i < operations.length; i++) {
+            operations[i].setVersion(i + 1);
+        }
+        return List.of(operations);
+    }
+
+    /**
+     * Marks an operation of the sending client as sequenced from itself, unchanged.
+     */
+    private static Operation own(Operation op) {
+        op.setSubmitted(OperationTransformer.copy(op));
+        return op;
+    }
+
+    private static Operation op(String type, int position, String text, String userId, String clientId) {
+        Operation op = new Operation();
+        op.setDocumentId("doc-1");
+        op.setType(type);
+        op.setPosition(position);
+        op.setText(text);
+        op.setUserId(userId);
+        op.setClientId(clientId);
+        op.setBaseVersion(0);
+        return op;
+    }
+}
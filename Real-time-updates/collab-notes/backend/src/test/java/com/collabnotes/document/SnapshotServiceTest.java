@@ -0,0 +1,154 @@
+package com.collabnotes.document;
+
+import com.collabnotes.inmemory.InMemoryOperationsRepository;
+import com.collabnotes.inmemory.InMemorySnapshotRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class SnapshotServiceTest {
+
+    private final Set<String> writerThreads = ConcurrentHashMap.newKeySet();
+    private final InMemoryOperationsRepository operations = new InMemoryOperationsRepository();
+    private final InMemorySnapshotRepository snapshots = new InMemorySnapshotRepository() {
+        @Override
+        public synchronized <S extends DocumentSnapshot> S save(S snapshot) {
+            writerThreads.add(Thread.currentThread().getName());
+            return super.save(snapshot);
+        }
+    };
+    private SnapshotService snapshotService;
+
+    @BeforeEach
+    void setUp() {
+        snapshotService = new SnapshotService();
+        ReflectionTestUtils.setField(snapshotService, "snapshotRepository", snapshots);
+        ReflectionTestUtils.setField(snapshotService, "operationsRepository", operations);
+        ReflectionTestUtils.setField(snapshotService, "intervalOps", 3);
+        ReflectionTestUtils.setField(snapshotService, "intervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(snapshotService, "retainedSnapshots", 2);
+        ReflectionTestUtils.setField(snapshotService, "compactionEnabled", true);
+        ReflectionTestUtils.setField(snapshotService, "archiveCompactedOps", true);
+        ReflectionTestUtils.setField(snapshotService, "idleMs", 3_600_000L);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        snapshotService.shutdown();
+    }
+
+    @Test
+    void compactionKeepsTheLogAfterTheOldestRetainedSnapshot() throws Exception {
+        edit(10);
+
+        assertEquals(List.of(9, 6, 3), snapshotVersions());
+        assertEquals(Set.of("snapshot-writer"), writerThreads);
+
+        snapshotService.compact();
+
+        // The snapshot at 6 is the oldest of the two retained: 6 itself goes, 7 stays
+        assertEquals(List.of(7, 8, 9, 10), logVersions());
+        assertEquals(List.of(9, 6), snapshotVersions());
+
+        // Nothing new to compact
+        snapshotService.compact();
+        assertEquals(List.of(7, 8, 9, 10), logVersions());
+    }
+
+    @Test
+    void documentWithFewerSnapshotsThanRetainedKeepsItsWholeLog() throws Exception {
+        edit(5);
+        assertEquals(List.of(3), snapshotVersions());
+
+        snapshotService.compact();
+
+        assertEquals(List.of(1, 2, 3, 4, 5), logVersions());
+        assertEquals(List.of(3), snapshotVersions());
+    }
+
+    @Test
+    void compactedDocumentIsRebuiltFromItsSnapshotPlusTheTail() throws Exception {
+        String content = edit(10);
+        snapshotService.compact();
+
+        DocumentService service = new DocumentService();
+        ReflectionTestUtils.setField(service, "operationsRepository", operations);
+        ReflectionTestUtils.setField(service, "stateCache", new DocumentStateCache(1 << 20));
+        ReflectionTestUtils.setField(service, "snapshotService", snapshotService);
+        ReflectionTestUtils.setField(service, "persistencePipeline", mock(OperationPersistencePipeline.class));
+
+        assertEquals(content, service.getDocumentContent("doc-1"));
+        assertEquals(10, service.getDocumentVersion("doc-1"));
+        assertEquals("1234567", service.getDocumentContentAt("doc-1", 7).getContent());
+        assertEquals("123456", service.getDocumentContentAt("doc-1", 6).getContent());
+    }
+
+    @Test
+    void idleDocumentsAreForgotten() throws Exception {
+        edit(1);
+        snapshotService.forgetIdleDocuments();
+        assertEquals(1, snapshotService.getTrackedDocumentCount());
+
+        ReflectionTestUtils.setField(snapshotService, "idleMs", 0L);
+        Thread.sleep(5);
+        snapshotService.forgetIdleDocuments();
+        assertEquals(0, snapshotService.getTrackedDocumentCount());
+
+        // Tracking picks up from the stored snapshots again
+        edit(2, 3);
+        assertEquals(List.of(3), snapshotVersions());
+    }
+
+    /**
+     * Appends digits at the end, one operation per version, as the owner would.
+     */
+    private String edit(int upToVersion) throws Exception {
+        return edit(1, upToVersion);
+    }
+
+    private String edit(int fromVersion, int upToVersion) throws Exception {
+        DocumentState state = new DocumentState(digits(fromVersion - 1), fromVersion - 1);
+        for (int version = fromVersion; version <= upToVersion; version++) {
+            Operation op = new Operation();
+            op.setDocumentId("doc-1");
+            op.setType("INSERT");
+            op.setPosition(version - 1);
+            op.setText(Integer.toString(version % 10));
+            op.setVersion(version);
+            op.setApplied(true);
+            operations.insertBatch(List.of(op));
+            state.apply(op);
+            snapshotService.onOperationApplied("doc-1", state);
+        }
+        snapshotService.awaitWritten();
+        return state.getContent();
+    }
+
+    private static String digits(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int version = 1; version <= count; version++) {
+            text.append(version % 10);
+        }
+        return text.toString();
+    }
+
+    private List<Integer> logVersions() {
+        return operations.findByDocumentIdOrderByVersionAsc("doc-1").stream()
+                .map(Operation::getVersion).collect(Collectors.toList());
+    }
+
+    private List<Integer> snapshotVersions() {
+        return snapshots.findByDocumentIdOrderByVersionDesc("doc-1").stream()
+                .map(DocumentSnapshot::getVersion).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,192 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.Operation;
+import com.collabnotes.metadata.DocumentMetadata;
+import com.collabnotes.metadata.MetadataService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Runs the servlet gateway on the in-memory profile, so headers, status codes and
+ * compression are those a client sees.
+ */
+// Timestamps are flushed only when a test says so, so listings change only when it expects
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "collaboration.metadata.touch.flush-interval-ms=3600000",
+        "collaboration.metadata.touch.max-staleness-ms=3600000"})
+@ActiveProfiles("inmemory")
+class ApiGatewayControllerTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private MetadataService metadataService;
+
+    @Autowired
+    private OperationRouter router;
+
+    @Test
+    void listingIsNotResentUntilItsPageChanges() throws InterruptedException {
+        DocumentMetadata metadata = metadataService.createDocument("Listed", "user-1", "User One");
+
+        String etag = client.get().uri("/docs?limit=500").exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseHeaders().getETag();
+        client.get().uri("/docs?limit=500").header(HttpHeaders.IF_NONE_MATCH, etag).exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, etag);
+        client.get().uri("/docs?limit=500&fields=id,title").header(HttpHeaders.IF_NONE_MATCH, etag).exchange()
+                .expectStatus().isOk();
+
+        Thread.sleep(5);
+        metadataService.updateDocumentTimestamp(metadata.getId());
+        metadataService.flushDocumentTimestamps();
+        String changed = client.get().uri("/docs?limit=500").header(HttpHeaders.IF_NONE_MATCH, etag).exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseHeaders().getETag();
+        assertNotEquals(etag, changed);
+    }
+
+    @Test
+    void contentCarriesItsVersionAndIsNotResentWhileUnchanged() {
+        String id = document("hello", " world");
+
+        client.get().uri("/docs/{id}/content", id).exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "W/\"2\"")
+                .expectHeader().valueEquals(HttpHeaders.ACCEPT_RANGES, "chars")
+                .expectHeader().valueEquals(ApiGatewayController.DOCUMENT_VERSION_HEADER, "2")
+                .expectHeader().valueEquals(ApiGatewayController.DOCUMENT_LENGTH_HEADER, "11")
+                .expectBody(String.class).isEqualTo("hello world");
+
+        client.get().uri("/docs/{id}/content", id).header(HttpHeaders.IF_NONE_MATCH, "W/\"2\"").exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "W/\"2\"");
+        client.get().uri("/docs/{id}/content", id).header(HttpHeaders.IF_NONE_MATCH, "W/\"1\"").exchange()
+                .expectStatus().isOk();
+        client.get().uri("/docs/{id}/content?version=1", id).header(HttpHeaders.IF_NONE_MATCH, "\"1\"").exchange()
+                .expectStatus().isNotModified();
+        client.get().uri("/docs/{id}/content?version=1", id).exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "W/\"1\"")
+                .expectBody(String.class).isEqualTo("hello");
+    }
+
+    @Test
+    void versionsThatDoNotExistAreNotFoundEvenWhenTheClientClaimsToHoldThem() {
+        String id = document("hello");
+
+        client.get().uri("/docs/{id}/content?version=1", "no-such-document").header(HttpHeaders.IF_NONE_MATCH, "W/\"1\"")
+                .exchange()
+                .expectStatus().isNotFound();
+        client.get().uri("/docs/{id}/content?version=7", id).header(HttpHeaders.IF_NONE_MATCH, "W/\"7\"").exchange()
+                .expectStatus().isNotFound();
+        client.get().uri("/docs/{id}/content?version=-1", id).exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void charRangesAreServedAsPartialContent() {
+        String id = document("hello", " world");
+
+        client.get().uri("/docs/{id}/content", id).header(HttpHeaders.RANGE, "chars=0-4").exchange()
+                .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "chars 0-4/11")
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "W/\"2\"")
+                .expectBody(String.class).isEqualTo("hello");
+        client.get().uri("/docs/{id}/content", id).header(HttpHeaders.RANGE, "chars=6-").exchange()
+                .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "chars 6-10/11")
+                .expectBody(String.class).isEqualTo("world");
+        client.get().uri("/docs/{id}/content", id).header(HttpHeaders.RANGE, "chars=-3").exchange()
+                .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "chars 8-10/11")
+                .expectBody(String.class).isEqualTo("rld");
+        client.get().uri("/docs/{id}/content", id).header(HttpHeaders.RANGE, "chars=4-100").exchange()
+                .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "chars 4-10/11")
+                .expectBody(String.class).isEqualTo("o world");
+
+        client.get().uri("/docs/{id}/content", id).header(HttpHeaders.RANGE, "chars=11-").exchange()
+                .expectStatus().isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "chars */11");
+
+        // Other units and malformed ranges are ignored, as HTTP allows
+        client.get().uri("/docs/{id}/content", id).header(HttpHeaders.RANGE, "bytes=0-1").exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("hello world");
+        client.get().uri("/docs/{id}/content", id).header(HttpHeaders.RANGE, "chars=5-2").exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("hello world");
+
+        client.get().uri("/docs/{id}/content?offset=6&length=3", id).exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("wor");
+        client.get().uri("/docs/{id}/content?offset=6", id).header(HttpHeaders.RANGE, "chars=0-4").exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void largeContentIsGzippedOnlyForClientsThatAcceptIt() throws IOException, InterruptedException {
+        String text = "all work and no play makes jack a dull boy\n".repeat(200);
+        String id = document(text);
+
+        // The JDK client leaves the body as sent, where the reactive one would decode it
+        HttpResponse<byte[]> gzipped = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/docs/" + id + "/content"))
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, gzipped.statusCode());
+        assertEquals("gzip", gzipped.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse(null));
+        assertEquals("W/\"1\"", gzipped.headers().firstValue(HttpHeaders.ETAG).orElse(null));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.body()))) {
+            assertEquals(text, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        client.get().uri("/docs/{id}/content", id).exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(HttpHeaders.CONTENT_ENCODING)
+                .expectBody(String.class).isEqualTo(text);
+    }
+
+    // A document whose versions 1..n insert each text in turn at the end
+    private String document(String... texts) {
+        DocumentMetadata metadata = metadataService.createDocument("Content", "user-1", "User One");
+        int length = 0;
+        for (int i = 0; i < texts.length; i++) {
+            Operation op = new Operation();
+            op.setDocumentId(metadata.getId());
+            op.setUserId("user-1");
+            op.setType("INSERT");
+            op.setPosition(length);
+            op.setText(texts[i]);
+            op.setBaseVersion(i);
+            router.route(op, null).join();
+            length += texts[i].length();
+        }
+        return metadata.getId();
+    }
+}
@@ -0,0 +1,77 @@
+package com.collabnotes.gateway;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AwarenessServiceTest {
+
+    private ClusterHarness cluster;
+
+    @BeforeEach
+    void setUp() {
+        cluster = new ClusterHarness();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        cluster.close();
+    }
+
+    @Test
+    void cursorBurstsCollapseToLatestPositionPerUserPerTick() throws Exception {
+        ClusterHarness.Node node = cluster.addNode("node-a");
+        List<ClusterHarness.Client> typists = List.of(
+                cluster.connect(node, "doc-1", "alice"),
+                cluster.connect(node, "doc-1", "bob"),
+                cluster.connect(node, "doc-1", "carol"));
+        ClusterHarness.Client watcher = cluster.connect(node, "doc-1", "dave");
+
+        int updates = 200;
+        for (int i = 1; i <= updates; i++) {
+            for (ClusterHarness.Client typist : typists) {
+                cluster.sendCursor(typist, i);
+            }
+        }
+
+        Map<String, Integer> latest = new HashMap<>();
+        ClusterHarness.await("final cursors", 2000, () -> {
+            latest.clear();
+            for (Map<String, Object> frame : watcher.framesOfType("CURSORS")) {
+                @SuppressWarnings("unchecked")
+                List<Map<String, Object>> cursors = (List<Map<String, Object>>) frame.get("cursors");
+                for (Map<String, Object> cursor : cursors) {
+                    latest.put((String) cursor.get("userId"), ((Number) cursor.get("position")).intValue());
+                }
+            }
+            return latest.size() == 3 && latest.values().stream().allMatch(p -> p == updates);
+        });
+
+        int frames = watcher.framesOfType("CURSORS").size();
+        assertTrue(frames < 20, "expected a few combined frames, got " + frames);
+        assertTrue(watcher.framesOfType("CURSOR_POSITION").isEmpty());
+        assertEquals(updates * typists.size(), node.awareness.getUpdatesReceived());
+    }
+
+    @Test
+    void idleDocumentsSendNothing() throws Exception {
+        ClusterHarness.Node node = cluster.addNode("node-a");
+        ClusterHarness.Client busy = cluster.connect(node, "busy", "alice");
+        ClusterHarness.Client idle = cluster.connect(node, "idle", "bob");
+
+        cluster.sendCursor(busy, 3);
+        ClusterHarness.await("tick", 2000, () -> node.awareness.getFramesSent() == 1);
+        Thread.sleep(100);
+
+        assertEquals(1, node.awareness.getFramesSent());
+        assertEquals(0, node.awareness.getDirtyDocumentCount());
+        assertTrue(idle.framesOfType("CURSORS").isEmpty());
+    }
+}
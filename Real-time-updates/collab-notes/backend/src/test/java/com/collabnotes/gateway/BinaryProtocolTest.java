@@ -0,0 +1,122 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryProtocolTest {
+
+    @Test
+    void operationsRoundTripAndRepeatedIdsShrinkToReferences() throws Exception {
+        BinaryProtocol.Encoder encoder = new BinaryProtocol.Encoder();
+        BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder();
+        Operation first = operation("6410f0c2a7b3", "user-42", "INSERT", 300, "héllo", 1000);
+        first.setBaseVersion(-1);
+        Operation second = operation("6410f0c2a7b3", "user-42", "DELETE", 2, null, 1001);
+
+        BinaryMessage one = encoder.encode(out -> BinaryProtocol.writeOperations(out, List.of(first)));
+        BinaryMessage two = encoder.encode(out -> BinaryProtocol.writeOperations(out, List.of(second)));
+
+        assertEquals(BinaryProtocol.OPERATION, decoder.begin(one.getPayload()));
+        assertSame(first, BinaryProtocol.readOperation(decoder));
+        assertEquals(BinaryProtocol.OPERATION, decoder.begin(two.getPayload()));
+        Operation decoded = BinaryProtocol.readOperation(decoder);
+        assertSame(second, decoded);
+        assertNull(decoded.getText());
+        assertFalse(decoder.hasRemaining());
+
+        // The second frame refers to both ids by index, and is far smaller than its JSON
+        assertTrue(two.getPayloadLength() < one.getPayloadLength() - "6410f0c2a7b3user-42".length());
+        assertTrue(two.getPayloadLength() * 5 < new ObjectMapper().writeValueAsBytes(
+                Map.of("type", "OPERATION", "operation", second)).length);
+    }
+
+    @Test
+    void idsBeyondTheInternTableAreSentAsLiterals() {
+        BinaryProtocol.Encoder encoder = new BinaryProtocol.Encoder();
+        BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder();
+        List<Operation> ops = new ArrayList<>();
+        for (int i = 0; i < BinaryProtocol.MAX_INTERNED + 10; i++) {
+            ops.add(operation("doc", "user-" + i, "INSERT", i, "x", i + 1));
+        }
+        ops.add(operation("doc", "user-3", "INSERT", 0, "x", ops.size() + 1));
+        ops.add(operation("doc", "user-" + (BinaryProtocol.MAX_INTERNED + 5), "INSERT", 0, "x", ops.size() + 2));
+
+        BinaryMessage frame = encoder.encode(out -> BinaryProtocol.writeOperations(out, ops));
+
+        assertEquals(BinaryProtocol.OPERATIONS, decoder.begin(frame.getPayload()));
+        assertEquals(ops.size(), decoder.readInt());
+        for (Operation op : ops) {
+            assertSame(op, BinaryProtocol.readOperation(decoder));
+        }
+        assertFalse(decoder.hasRemaining());
+    }
+
+    @Test
+    void binaryAndJsonClientsShareOneProcessingCore() throws Exception {
+        try (ClusterHarness cluster = new ClusterHarness()) {
+            ClusterHarness.Node node = cluster.addNode("node-a");
+            ClusterHarness.Client jsonReader = cluster.connect(node, "doc-1", "alice");
+            ClusterHarness.Client binaryReader = cluster.connect(node, "doc-1", "bob", true);
+            ClusterHarness.Client binaryWriter = cluster.connect(node, "doc-1", "carol", true);
+
+            cluster.sendBinaryInsert(binaryWriter, 0, "hi");
+            cluster.sendInsert(jsonReader, 2, "!");
+
+            ClusterHarness.await("binary ack", 2000, () -> !binaryWriter.framesOfType("OPERATION_ACK").isEmpty());
+            ClusterHarness.await("json reader", 2000, () -> jsonReader.receivedVersions().size() == 1);
+            ClusterHarness.await("binary reader", 2000, () -> binaryReader.receivedVersions().size() == 2);
+            ClusterHarness.await("binary writer", 2000, () -> binaryWriter.receivedVersions().size() == 1);
+
+            assertEquals(List.of(1), jsonReader.receivedVersions());
+            assertEquals(List.of(1, 2), binaryReader.receivedVersions());
+            assertEquals(List.of(2), binaryWriter.receivedVersions());
+            assertEquals(1, binaryWriter.framesOfType("OPERATION_ACK").get(0).get("version"));
+            assertTrue(binaryReader.binaryBytes.get() > 0);
+            assertEquals(0, jsonReader.binaryBytes.get());
+
+            Map<String, Object> received = binaryReader.framesOfType("OPERATION").get(0);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> op = (Map<String, Object>) received.get("operation");
+            assertEquals("doc-1", op.get("documentId"));
+            assertEquals("carol", op.get("userId"));
+            assertEquals("hi", op.get("text"));
+        }
+    }
+
+    private static void assertSame(Operation expected, Operation actual) {
+        assertEquals(expected.getDocumentId(), actual.getDocumentId());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getPosition(), actual.getPosition());
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getBaseVersion(), actual.getBaseVersion());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.isApplied(), actual.isApplied());
+        assertEquals(expected.getText(), actual.getText());
+    }
+
+    private static Operation operation(String documentId, String userId, String type, int position, String text,
+                                       int version) {
+        Operation op = new Operation();
+        op.setDocumentId(documentId);
+        op.setUserId(userId);
+        op.setType(type);
+        op.setPosition(position);
+        op.setText(text);
+        op.setVersion(version);
+        op.setBaseVersion(version - 1);
+        op.setTimestamp(1_700_000_000_000L + version);
+        return op;
+    }
+}
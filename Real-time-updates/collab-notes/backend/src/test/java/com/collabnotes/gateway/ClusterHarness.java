@@ -0,0 +1,323 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.bus.LoopbackOperationBus;
+import com.collabnotes.cluster.ClusterMembership;
+import com.collabnotes.cluster.ConsistentHashRing;
+import com.collabnotes.cluster.MisdirectedOperationException;
+import com.collabnotes.cluster.OperationForwarder;
+import com.collabnotes.document.DocumentActorSystem;
+import com.collabnotes.document.DocumentService;
+import com.collabnotes.document.InitializationRange;
+import com.collabnotes.document.Operation;
+import com.collabnotes.document.OperationCoalescer;
+import com.collabnotes.metrics.CollaborationMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs several backend nodes in one JVM: each node has its own WebSocket controller and
+ * document actors, and all of them share a loopback bus. Ownership comes from a consistent-hash
+ * ring over the nodes and forwarding calls the owner's router directly, for operations and
+ * for the reads only the owner can answer. Document services are mocks that sequence from
+ * one counter per document, standing in for Mongo.
+ */
+class ClusterHarness implements AutoCloseable {
+
+    static class Node {
+        final String nodeId;
+        final WebSocketController controller = new WebSocketController();
+        final DocumentService documentService = mock(DocumentService.class);
+        final DocumentActorSystem actorSystem = new DocumentActorSystem(2, 64, 2);
+        final ClusterMembership membership = mock(ClusterMembership.class);
+        final OperationForwarder forwarder = mock(OperationForwarder.class);
+        final OperationRouter router = new OperationRouter();
+        // Pass-through, so every client operation keeps its own version here
+        final OperationCoalescer coalescer = new OperationCoalescer(actorSystem, false, 25, 256);
+        final CollaborationMetrics metrics = new CollaborationMetrics(new SimpleMeterRegistry(), 100);
+        final RoomRegistry rooms = new RoomRegistry(10000, ClientConnection.SlowConsumerPolicy.DISCONNECT, 2);
+        final AwarenessService awareness = new AwarenessService(rooms, 20);
+        final OperationBatcher batcher = new OperationBatcher(true, 20, 256, 8, 2);
+        final InitializationStreamer initialization = new InitializationStreamer(router, 500, 4, 2, 2, 2, 5000);
+        final LoopbackOperationBus bus;
+
+        Node(String nodeId, LoopbackOperationBus.Hub hub) {
+            this.nodeId = nodeId;
+            this.bus = new LoopbackOperationBus(hub, nodeId);
+        }
+    }
+
+    static class Client {
+        final Node node;
+        final WebSocketSession session;
+        final List<Map<String, Object>> frames = Collections.synchronizedList(new ArrayList<>());
+        final AtomicLong binaryBytes = new AtomicLong();
+
+        Client(Node node, WebSocketSession session) {
+            this.node = node;
+            this.session = session;
+        }
+
+        List<Map<String, Object>> framesOfType(String type) {
+            synchronized (frames) {
+                return frames.stream().filter(f -> type.equals(f.get("type"))).collect(Collectors.toList());
+            }
+        }
+
+        /**
+         * Versions of every operation received, whether sent alone or in OPERATIONS batches.
+         */
+        @SuppressWarnings("unchecked")
+        List<Integer> receivedVersions() {
+            List<Integer> versions = new ArrayList<>();
+            synchronized (frames) {
+                for (Map<String, Object> frame : frames) {
+                    if ("OPERATION".equals(frame.get("type"))) {
+                        versions.add(versionOf((Map<String, Object>) frame.get("operation")));
+                    } else if ("OPERATIONS".equals(frame.get("type"))) {
+                        for (Map<String, Object> op : (List<Map<String, Object>>) frame.get("operations")) {
+                            versions.add(versionOf(op));
+                        }
+                    }
+                }
+            }
+            return versions;
+        }
+
+        private static int versionOf(Map<String, Object> operation) {
+            return ((Number) operation.get("version")).intValue();
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LoopbackOperationBus.Hub hub = new LoopbackOperationBus.Hub();
+    private final Map<String, AtomicInteger> versions = new ConcurrentHashMap<>();
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(Collections.emptyList(), 64);
+    private final AtomicInteger sessionIds = new AtomicInteger();
+
+    Node addNode(String nodeId) {
+        Node node = new Node(nodeId, hub);
+        when(node.documentService.processOperation(any(Operation.class))).thenAnswer(invocation -> {
+            Operation op = invocation.getArgument(0);
+            op.setApplied(true);
+            op.setVersion(versions.computeIfAbsent(op.getDocumentId(), k -> new AtomicInteger()).incrementAndGet());
+            return List.of(op);
+        });
+        when(node.documentService.getInitializationRange(anyString()))
+                .thenReturn(new InitializationRange(null, 0, 0));
+        when(node.documentService.releaseDocument(anyString(), anyLong())).thenReturn(true);
+
+        when(node.membership.getNodeId()).thenReturn(nodeId);
+        when(node.membership.ownerOf(anyString())).thenAnswer(invocation -> ring.ownerOf(invocation.getArgument(0)));
+        when(node.membership.isLocal(anyString()))
+                .thenAnswer(invocation -> nodeId.equals(ring.ownerOf(invocation.getArgument(0))));
+        when(node.forwarder.forward(anyString(), any(Operation.class), any())).thenAnswer(invocation -> {
+            Node owner = nodes.get(invocation.<String>getArgument(0));
+            Operation op = invocation.getArgument(1);
+            if (owner == null || !owner.membership.isLocal(op.getDocumentId())) {
+                return CompletableFuture.failedFuture(new MisdirectedOperationException("not the owner"));
+            }
+            return owner.router.processLocally(op, invocation.getArgument(2));
+        });
+        when(node.forwarder.fetchInitializationRange(anyString(), anyString())).thenAnswer(invocation -> {
+            Node owner = nodes.get(invocation.<String>getArgument(0));
+            String documentId = invocation.getArgument(1);
+            if (owner == null || !owner.membership.isLocal(documentId)) {
+                return CompletableFuture.failedFuture(new MisdirectedOperationException("not the owner"));
+            }
+            return owner.router.initializationRangeLocally(documentId);
+        });
+        when(node.forwarder.fetchAppliedOperations(anyString(), anyString(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            Node owner = nodes.get(invocation.<String>getArgument(0));
+            String documentId = invocation.getArgument(1);
+            if (owner == null || !owner.membership.isLocal(documentId)) {
+                return CompletableFuture.failedFuture(new MisdirectedOperationException("not the owner"));
+            }
+            return CompletableFuture.completedFuture(owner.router.appliedOperationsLocally(
+                    documentId, invocation.getArgument(2), invocation.getArgument(3)));
+        });
+
+        ReflectionTestUtils.setField(node.router, "documentService", node.documentService);
+        ReflectionTestUtils.setField(node.router, "actorSystem", node.actorSystem);
+        ReflectionTestUtils.setField(node.router, "operationBus", node.bus);
+        ReflectionTestUtils.setField(node.router, "membership", node.membership);
+        ReflectionTestUtils.setField(node.router, "forwarder", node.forwarder);
+        ReflectionTestUtils.setField(node.router, "coalescer", node.coalescer);
+        ReflectionTestUtils.setField(node.router, "metrics", node.metrics);
+        ReflectionTestUtils.setField(node.router, "forwardAttempts", 3);
+        ReflectionTestUtils.setField(node.controller, "documentService", node.documentService);
+        ReflectionTestUtils.setField(node.controller, "actorSystem", node.actorSystem);
+        ReflectionTestUtils.setField(node.controller, "operationBus", node.bus);
+        ReflectionTestUtils.setField(node.controller, "router", node.router);
+        ReflectionTestUtils.setField(node.controller, "rooms", node.rooms);
+        ReflectionTestUtils.setField(node.controller, "awareness", node.awareness);
+        ReflectionTestUtils.setField(node.controller, "batcher", node.batcher);
+        ReflectionTestUtils.setField(node.controller, "initialization", node.initialization);
+        ReflectionTestUtils.setField(node.controller, "metrics", node.metrics);
+        nodes.put(nodeId, node);
+        ring = new ConsistentHashRing(nodes.keySet(), 64);
+        return node;
+    }
+
+    Node ownerOf(String documentId) {
+        return nodes.get(ring.ownerOf(documentId));
+    }
+
+    Client connect(Node node, String documentId, String userId) throws Exception {
+        return connect(node, documentId, userId, false);
+    }
+
+    /**
+     * Connects a client; binary clients' binary frames are decoded into the same map shape
+     * as the JSON ones (bytes counted separately), so tests can read both the same way.
+     */
+    Client connect(Node node, String documentId, String userId, boolean binary) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        String sessionId = "s" + sessionIds.incrementAndGet();
+        Client client = new Client(node, session);
+        BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder();
+        when(session.getId()).thenReturn(sessionId);
+        URI uri = new URI("ws://localhost/api/ws?documentId=" + documentId + "&userId=" + userId
+                + (binary ? "&protocol=binary" : ""));
+        when(session.getUri()).thenReturn(uri);
+        // What the handshake interceptor would have stored
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(SessionContext.ATTRIBUTE, SessionContext.fromUri(uri));
+        when(session.getAttributes()).thenReturn(attributes);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            Object message = invocation.getArgument(0);
+            if (message instanceof BinaryMessage) {
+                client.binaryBytes.addAndGet(((BinaryMessage) message).getPayloadLength());
+                client.frames.add(decode(decoder, ((BinaryMessage) message).getPayload()));
+                return null;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> frame = objectMapper.readValue(((TextMessage) message).getPayload(), Map.class);
+            client.frames.add(frame);
+            return null;
+        }).when(session).sendMessage(any());
+        node.controller.afterConnectionEstablished(session);
+        return client;
+    }
+
+    void disconnect(Client client) throws Exception {
+        client.node.controller.afterConnectionClosed(client.session, CloseStatus.NORMAL);
+    }
+
+    void sendInsert(Client client, int position, String text) throws Exception {
+        String payload = objectMapper.writeValueAsString(Map.of(
+                "type", "OPERATION",
+                "operation", Map.of("type", "INSERT", "position", position, "text", text)));
+        client.node.controller.handleTextMessage(client.session, new TextMessage(payload));
+    }
+
+    void sendBinaryInsert(Client client, int position, String text) throws Exception {
+        Operation op = new Operation();
+        op.setType("INSERT");
+        op.setPosition(position);
+        op.setText(text);
+        BinaryMessage frame = new BinaryProtocol.Encoder().encode(out -> BinaryProtocol.writeClientOperation(out, op));
+        client.node.controller.handleBinaryMessage(client.session, frame);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> decode(BinaryProtocol.Decoder decoder, ByteBuffer payload) {
+        byte type = decoder.begin(payload);
+        Map<String, Object> frame = new HashMap<>();
+        switch (type) {
+            case BinaryProtocol.OPERATION:
+                frame.put("type", "OPERATION");
+                frame.put("operation", objectMapper.convertValue(BinaryProtocol.readOperation(decoder), Map.class));
+                break;
+            case BinaryProtocol.OPERATIONS:
+                List<Map<String, Object>> ops = new ArrayList<>();
+                for (int i = decoder.readInt(); i > 0; i--) {
+                    ops.add(objectMapper.convertValue(BinaryProtocol.readOperation(decoder), Map.class));
+                }
+                frame.put("type", "OPERATIONS");
+                frame.put("operations", ops);
+                break;
+            case BinaryProtocol.OPERATION_ACK:
+                frame.put("type", "OPERATION_ACK");
+                frame.put("version", decoder.readInt());
+                frame.put("position", decoder.readInt());
+                frame.put("applied", decoder.readByte() != 0);
+                frame.put("firstVersion", decoder.readInt());
+                break;
+            case BinaryProtocol.CURSORS:
+                List<Map<String, Object>> cursors = new ArrayList<>();
+                for (int i = decoder.readInt(); i > 0; i--) {
+                    Map<String, Object> cursor = new HashMap<>();
+                    cursor.put("userId", decoder.readRef());
+                    cursor.put("username", decoder.readRef());
+                    cursor.put("position", decoder.readZigzag());
+                    cursors.add(cursor);
+                }
+                frame.put("type", "CURSORS");
+                frame.put("cursors", cursors);
+                break;
+            default:
+                throw new AssertionError("Unknown binary frame type " + type);
+        }
+        return frame;
+    }
+
+    void sendCursor(Client client, int position) throws Exception {
+        String payload = objectMapper.writeValueAsString(Map.of(
+                "type", "CURSOR_POSITION", "username", "user", "position", position));
+        client.node.controller.handleTextMessage(client.session, new TextMessage(payload));
+    }
+
+    /**
+     * Polls until the condition holds, failing after the timeout.
+     */
+    static void await(String description, long timeoutMs, java.util.function.BooleanSupplier condition)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out waiting for " + description);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (Node node : nodes.values()) {
+            node.coalescer.shutdown();
+            node.actorSystem.shutdown();
+            node.awareness.shutdown();
+            node.batcher.shutdown();
+            node.initialization.shutdown();
+            node.rooms.shutdown();
+        }
+    }
+}
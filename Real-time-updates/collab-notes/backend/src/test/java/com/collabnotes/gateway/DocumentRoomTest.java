@@ -0,0 +1,198 @@
+package com.collabnotes.gateway;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+class DocumentRoomTest {
+
+    private RoomRegistry registry;
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        unblock.countDown();
+        registry.shutdown();
+    }
+
+    @Test
+    void slowClientIsDisconnectedWithoutHoldingUpTheRoom() throws Exception {
+        registry = new RoomRegistry(10, ClientConnection.SlowConsumerPolicy.DISCONNECT, 2);
+        AtomicInteger fastReceived = new AtomicInteger();
+        WebSocketSession slow = session("slow", null);
+        WebSocketSession fast = session("fast", fastReceived);
+        DocumentRoom room = join("doc", slow, fast);
+
+        // Paced on the fast client, which keeps up while the slow one never drains
+        OutboundFrame frame = OutboundFrame.of(new TextMessage("{\"type\":\"OPERATION\"}"));
+        for (int i = 0; i < 100; i++) {
+            room.broadcast(frame, null);
+            awaitCount(fastReceived, i + 1);
+        }
+
+        verify(slow, timeout(2000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(1, registry.getEvictions());
+        assertTrue(room.getDroppedFrames() > 0);
+        assertEquals(0, room.getConnections().stream()
+                .filter(c -> c.getId().equals("fast")).findFirst().get().getQueueDepth());
+    }
+
+    @Test
+    void dropPolicyShedsCursorsToKeepOperations() throws Exception {
+        registry = new RoomRegistry(10, ClientConnection.SlowConsumerPolicy.DROP, 2);
+        WebSocketSession slow = session("slow", null);
+        DocumentRoom room = join("doc", slow);
+
+        for (int i = 0; i < 100; i++) {
+            room.broadcastLossy(OutboundFrame.of(new TextMessage("{\"type\":\"CURSOR_POSITION\"}")), null);
+        }
+        // One frame is stuck in sendMessage, at most ten more are queued
+        assertTrue(room.getMaxQueueDepth() <= 10);
+        assertTrue(room.getDroppedFrames() >= 89);
+
+        // Each operation takes a queued cursor frame's place until only operations are left
+        OutboundFrame frame = OutboundFrame.of(new TextMessage("{\"type\":\"OPERATION\"}"));
+        for (int i = 0; i < 10; i++) {
+            room.broadcast(frame, null);
+        }
+        assertTrue(room.getMaxQueueDepth() <= 10);
+        verify(slow, never()).close(any(CloseStatus.class));
+        assertEquals(0, registry.getEvictions());
+
+        // An operation that cannot be queued is not skipped; the client is made to resync
+        room.broadcast(frame, null);
+        verify(slow, timeout(2000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(1, registry.getEvictions());
+    }
+
+    @Test
+    void lossyFramesNeverDisconnect() throws Exception {
+        registry = new RoomRegistry(10, ClientConnection.SlowConsumerPolicy.DISCONNECT, 2);
+        WebSocketSession slow = session("slow", null);
+        DocumentRoom room = join("doc", slow);
+
+        for (int i = 0; i < 100; i++) {
+            room.broadcastLossy(OutboundFrame.of(new TextMessage("{\"type\":\"CURSOR_POSITION\"}")), null);
+        }
+
+        assertEquals(0, registry.getEvictions());
+        assertTrue(room.getConnections().iterator().next().isOpen());
+    }
+
+    @Test
+    void flowControlledSessionOnlyReceivesWhatItAsksFor() throws Exception {
+        registry = new RoomRegistry(10, ClientConnection.SlowConsumerPolicy.DISCONNECT, 2);
+        AtomicInteger demand = new AtomicInteger();
+        AtomicInteger received = new AtomicInteger();
+        AtomicReference<Runnable> resume = new AtomicReference<>();
+        WebSocketSession session = mock(WebSocketSession.class,
+                withSettings().extraInterfaces(ClientConnection.FlowControl.class));
+        ClientConnection.FlowControl flow = (ClientConnection.FlowControl) session;
+        when(session.getId()).thenReturn("reactive");
+        when(session.isOpen()).thenReturn(true);
+        when(flow.hasDemand()).thenAnswer(invocation -> demand.get() > 0);
+        doAnswer(invocation -> {
+            resume.set(invocation.getArgument(0));
+            return null;
+        }).when(flow).onDemand(any());
+        doAnswer(invocation -> {
+            demand.decrementAndGet();
+            received.incrementAndGet();
+            return null;
+        }).when(session).sendMessage(any());
+        DocumentRoom room = join("doc", session);
+
+        OutboundFrame frame = OutboundFrame.of(new TextMessage("{\"type\":\"OPERATION\"}"));
+        for (int i = 0; i < 5; i++) {
+            room.broadcast(frame, null);
+        }
+        Thread.sleep(50);
+        assertEquals(0, received.get());
+        assertEquals(5, room.getMaxQueueDepth());
+
+        demand.set(3);
+        resume.get().run();
+        awaitCount(received, 3);
+        Thread.sleep(50);
+        assertEquals(3, received.get());
+        assertEquals(2, room.getMaxQueueDepth());
+
+        // Without demand the queue fills as behind a blocked send, and the policy applies
+        for (int i = 0; i < 10; i++) {
+            room.broadcast(frame, null);
+        }
+        verify(session, timeout(2000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    @Test
+    void roomHooksRunOncePerRoomLifetime() {
+        registry = new RoomRegistry(10, ClientConnection.SlowConsumerPolicy.DISCONNECT, 1);
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        ClientConnection first = registry.connect(mock(WebSocketSession.class));
+        ClientConnection second = registry.connect(mock(WebSocketSession.class));
+
+        registry.join("doc", first, room -> opened.incrementAndGet());
+        registry.join("doc", second, room -> opened.incrementAndGet());
+        registry.leave("doc", first, room -> closed.incrementAndGet());
+        assertEquals(0, closed.get());
+        registry.leave("doc", second, room -> closed.incrementAndGet());
+
+        assertEquals(1, opened.get());
+        assertEquals(1, closed.get());
+        assertFalse(registry.getRooms().iterator().hasNext());
+    }
+
+    private DocumentRoom join(String documentId, WebSocketSession... sessions) {
+        DocumentRoom room = null;
+        for (WebSocketSession session : sessions) {
+            room = registry.join(documentId, registry.connect(session), r -> { });
+        }
+        return room;
+    }
+
+    /**
+     * A session that counts frames, or blocks in sendMessage until the test ends when
+     * {@code received} is null.
+     */
+    private WebSocketSession session(String id, AtomicInteger received) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            if (received != null) {
+                received.incrementAndGet();
+            } else {
+                unblock.await();
+            }
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    private static void awaitCount(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, counter.get());
+    }
+}
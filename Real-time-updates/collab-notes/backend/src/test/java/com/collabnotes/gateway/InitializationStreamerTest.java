@@ -0,0 +1,157 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.cluster.ClusterMembership;
+import com.collabnotes.document.DocumentActorSystem;
+import com.collabnotes.document.DocumentService;
+import com.collabnotes.document.DocumentSnapshot;
+import com.collabnotes.document.InitializationRange;
+import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class InitializationStreamerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DocumentService documentService = mock(DocumentService.class);
+    private final DocumentActorSystem actorSystem = new DocumentActorSystem(1, 64, 2);
+    private final RoomRegistry registry = new RoomRegistry(1000, ClientConnection.SlowConsumerPolicy.DISCONNECT, 1);
+    private final InitializationStreamer streamer = new InitializationStreamer(localRouter(), 100, 3, 2, 1, 3, 5000);
+
+    private final AtomicInteger activeReads = new AtomicInteger();
+    private final AtomicInteger maxActiveReads = new AtomicInteger();
+    private final AtomicInteger pagesRead = new AtomicInteger();
+    private final AtomicInteger chunksReceived = new AtomicInteger();
+    private final AtomicInteger maxPagesAhead = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        streamer.shutdown();
+        registry.shutdown();
+        actorSystem.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamsTheTailAfterTheSnapshotInOrderedBoundedChunks() throws Exception {
+        DocumentSnapshot snapshot = new DocumentSnapshot("doc", 200, "snapshot content");
+        when(documentService.getInitializationRange("doc")).thenReturn(new InitializationRange(snapshot, 200, 1250));
+        when(documentService.getAppliedOperations(eq("doc"), anyInt(), anyInt())).thenAnswer(invocation -> {
+            int from = invocation.getArgument(1);
+            int to = invocation.getArgument(2);
+            pagesRead.incrementAndGet();
+            maxActiveReads.accumulateAndGet(activeReads.incrementAndGet(), Math::max);
+            maxPagesAhead.accumulateAndGet(pagesRead.get() - chunksReceived.get(), Math::max);
+            Thread.sleep(10);
+            activeReads.decrementAndGet();
+            List<Operation> ops = new ArrayList<>();
+            for (int version = from + 1; version <= to; version++) {
+                ops.add(operation(version));
+            }
+            return ops;
+        });
+
+        List<Map<String, Object>> frames = Collections.synchronizedList(new ArrayList<>());
+        ClientConnection connection = registry.connect(session(frames));
+        streamer.stream(connection, "doc").get();
+        ClusterHarness.await("complete", 5000,
+                () -> !frames.isEmpty() && "INITIALIZATION_COMPLETE".equals(frames.get(frames.size() - 1).get("type")));
+
+        assertEquals("INITIALIZATION_START", frames.get(0).get("type"));
+        assertEquals(200, ((Map<String, Object>) frames.get(0).get("snapshot")).get("version"));
+        assertEquals(1250, frames.get(0).get("toVersion"));
+
+        List<Integer> versions = new ArrayList<>();
+        for (Map<String, Object> frame : frames.subList(1, frames.size() - 1)) {
+            assertEquals("INITIALIZATION_CHUNK", frame.get("type"));
+            List<Map<String, Object>> ops = (List<Map<String, Object>>) frame.get("operations");
+            assertTrue(ops.size() <= 100);
+            ops.forEach(op -> versions.add((Integer) op.get("version")));
+        }
+        assertEquals(11, frames.size() - 2);
+        assertEquals(1050, versions.size());
+        for (int i = 0; i < versions.size(); i++) {
+            assertEquals(201 + i, versions.get(i));
+        }
+        assertEquals(1250, frames.get(frames.size() - 1).get("version"));
+
+        // Pages were read in parallel, but never further ahead than read-ahead plus the window
+        assertTrue(maxActiveReads.get() > 1, "parallel reads: " + maxActiveReads.get());
+        assertTrue(maxPagesAhead.get() <= 3 + 2 + 1, "pages ahead: " + maxPagesAhead.get());
+        assertEquals(1050, streamer.getOperationsSent());
+    }
+
+    @Test
+    void emptyDocumentGetsStartAndCompleteOnly() throws Exception {
+        when(documentService.getInitializationRange("doc")).thenReturn(new InitializationRange(null, 0, 0));
+
+        List<Map<String, Object>> frames = Collections.synchronizedList(new ArrayList<>());
+        streamer.stream(registry.connect(session(frames)), "doc").get();
+        ClusterHarness.await("complete", 2000, () -> frames.size() == 2);
+
+        assertEquals("INITIALIZATION_START", frames.get(0).get("type"));
+        assertEquals("INITIALIZATION_COMPLETE", frames.get(1).get("type"));
+        assertEquals(0, frames.get(1).get("chunks"));
+    }
+
+    // A single node, owning every document
+    private OperationRouter localRouter() {
+        ClusterMembership membership = mock(ClusterMembership.class);
+        when(membership.getNodeId()).thenReturn("node");
+        when(membership.ownerOf(anyString())).thenReturn("node");
+        OperationRouter router = new OperationRouter();
+        ReflectionTestUtils.setField(router, "documentService", documentService);
+        ReflectionTestUtils.setField(router, "actorSystem", actorSystem);
+        ReflectionTestUtils.setField(router, "membership", membership);
+        return router;
+    }
+
+    @SuppressWarnings("unchecked")
+    private WebSocketSession session(List<Map<String, Object>> frames) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("reader");
+        when(session.getUri()).thenReturn(new URI("ws://localhost/api/ws?documentId=doc&userId=u"));
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            Map<String, Object> frame = objectMapper.readValue(((TextMessage) invocation.getArgument(0)).getPayload(), Map.class);
+            if ("INITIALIZATION_CHUNK".equals(frame.get("type"))) {
+                chunksReceived.incrementAndGet();
+                Thread.sleep(5);
+            }
+            frames.add(frame);
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    private static Operation operation(int version) {
+        Operation op = new Operation();
+        op.setDocumentId("doc");
+        op.setUserId("writer");
+        op.setType("INSERT");
+        op.setPosition(0);
+        op.setText("x");
+        op.setVersion(version);
+        return op;
+    }
+}
@@ -0,0 +1,58 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.cluster.ClusterSecret;
+import com.collabnotes.document.Operation;
+import com.collabnotes.metadata.MetadataService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The node-to-node endpoints on the public port, as a client that is not a node would
+ * reach them.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties =
+        "collaboration.cluster.internal-secret=s3cret")
+@ActiveProfiles("inmemory")
+class InternalEndpointsTest {
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private MetadataService metadataService;
+
+    @Test
+    void operationsAreAcceptedOnlyWithTheClusterSecret() {
+        String id = metadataService.createDocument("Internal", "user-1", "User One").getId();
+
+        client.post().uri("/internal/operations").bodyValue(insert(id)).exchange()
+                .expectStatus().isForbidden();
+        client.post().uri("/internal/operations").header(ClusterSecret.HEADER, "guess").bodyValue(insert(id)).exchange()
+                .expectStatus().isForbidden();
+        client.get().uri("/internal/documents/{id}/version", id).exchange()
+                .expectStatus().isForbidden();
+
+        client.post().uri("/internal/operations").header(ClusterSecret.HEADER, "s3cret").bodyValue(insert(id)).exchange()
+                .expectStatus().isOk()
+                .expectBody(Operation.class).value(op -> assertEquals(1, op.getVersion()));
+        client.get().uri("/internal/documents/{id}/version", id).header(ClusterSecret.HEADER, "s3cret").exchange()
+                .expectStatus().isOk()
+                .expectBody(Integer.class).isEqualTo(1);
+    }
+
+    private static Operation insert(String documentId) {
+        Operation op = new Operation();
+        op.setDocumentId(documentId);
+        op.setUserId("user-1");
+        op.setType("INSERT");
+        op.setPosition(0);
+        op.setText("injected");
+        op.setBaseVersion(0);
+        return op;
+    }
+}
@@ -0,0 +1,90 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonProtocolTest {
+
+    @Test
+    void operationBindsWhereverTheTypeFieldIs() throws Exception {
+        // As the frontend sends it: type first, bound in one pass
+        Object first = JsonProtocol.read("{\"type\":\"OPERATION\",\"operation\":{\"type\":\"INSERT\",\"position\":4,"
+                + "\"text\":\"hi\",\"documentId\":\"d\",\"userId\":\"u\",\"baseVersion\":12}}");
+        // Type last, with a nested object before it that must be skipped
+        Object last = JsonProtocol.read("{\"operation\":{\"type\":\"DELETE\",\"position\":1,\"text\":\"x\","
+                + "\"version\":99,\"id\":\"forged\"},\"extra\":[1,{\"a\":2}],\"type\":\"OPERATION\"}");
+
+        Operation insert = ((JsonProtocol.OperationMessage) first).operation.toOperation();
+        assertEquals("INSERT", insert.getType());
+        assertEquals(4, insert.getPosition());
+        assertEquals("hi", insert.getText());
+        assertEquals(12, insert.getBaseVersion());
+
+        Operation delete = ((JsonProtocol.OperationMessage) last).operation.toOperation();
+        assertEquals("DELETE", delete.getType());
+        assertEquals(-1, delete.getBaseVersion());
+        // Server-assigned fields are not taken from the client
+        assertEquals(0, delete.getVersion());
+        assertNull(delete.getId());
+    }
+
+    @Test
+    void otherClientMessagesAndUnknownTypes() throws Exception {
+        JsonProtocol.CursorMessage cursor = (JsonProtocol.CursorMessage) JsonProtocol.read(
+                "{\"type\":\"CURSOR_POSITION\",\"documentId\":\"d\",\"username\":\"Ann\",\"position\":17}");
+        assertEquals("Ann", cursor.username);
+        assertEquals(17, cursor.position);
+
+        JsonProtocol.NewDocumentMessage created = (JsonProtocol.NewDocumentMessage) JsonProtocol.read(
+                "{\"type\":\"NEW_DOCUMENT\",\"document\":{\"id\":\"d2\",\"title\":\"Notes\"}}");
+        assertEquals("Notes", created.document.get("title").asText());
+
+        assertNull(JsonProtocol.read("{\"type\":\"PING\",\"payload\":{}}"));
+        assertNull(JsonProtocol.read("{\"type\":null}"));
+        assertNull(JsonProtocol.read("{}"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void serverMessagesKeepTheirWireShape() throws Exception {
+        Operation op = new Operation();
+        op.setVersion(7);
+        op.setPosition(3);
+        ObjectMapper mapper = new ObjectMapper();
+
+        Map<String, Object> ack = mapper.readValue(JsonProtocol.write(new JsonProtocol.OperationAck(op)), Map.class);
+        assertEquals(Map.of("type", "OPERATION_ACK", "version", 7, "firstVersion", 7, "position", 3, "applied", true), ack);
+
+        Map<String, Object> left = mapper.readValue(
+                JsonProtocol.write(new JsonProtocol.UserEvent("USER_LEFT", "u1", null, 5L)), Map.class);
+        assertEquals(Map.of("type", "USER_LEFT", "userId", "u1", "timestamp", 5), left);
+
+        Map<String, Object> broadcast = mapper.readValue(
+                JsonProtocol.write(new JsonProtocol.OperationBroadcast(op)), Map.class);
+        assertEquals("OPERATION", broadcast.get("type"));
+        assertEquals(7, ((Map<String, Object>) broadcast.get("operation")).get("version"));
+    }
+
+    @Test
+    void sessionContextIsParsedFromTheHandshakeQuery() throws Exception {
+        SessionContext context = SessionContext.fromUri(
+                new URI("ws://localhost/api/ws?documentId=doc-1&userId=u-2&username=Ana%20Mar%C3%ADa&protocol=binary"));
+
+        assertEquals("doc-1", context.getDocumentId());
+        assertEquals("u-2", context.getUserId());
+        assertEquals("Ana María", context.getUsername());
+        assertEquals(ClientConnection.Protocol.BINARY, context.getProtocol());
+
+        SessionContext bare = SessionContext.fromUri(new URI("ws://localhost/api/ws"));
+        assertNull(bare.getDocumentId());
+        assertTrue(bare.getProtocol() == ClientConnection.Protocol.JSON);
+    }
+}
@@ -0,0 +1,187 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.InitializationRange;
+import com.collabnotes.document.Operation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MultiNodeBroadcastTest {
+
+    private ClusterHarness cluster;
+
+    @BeforeEach
+    void setUp() {
+        cluster = new ClusterHarness();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        cluster.close();
+    }
+
+    @Test
+    void operationsReachSessionsOnEveryNodeInVersionOrder() throws Exception {
+        ClusterHarness.Node a = cluster.addNode("node-a");
+        ClusterHarness.Node b = cluster.addNode("node-b");
+        ClusterHarness.Node c = cluster.addNode("node-c");
+
+        ClusterHarness.Client writer = cluster.connect(a, "doc-1", "alice");
+        List<ClusterHarness.Client> readers = new ArrayList<>();
+        readers.add(cluster.connect(a, "doc-1", "bob"));
+        readers.add(cluster.connect(b, "doc-1", "carol"));
+        readers.add(cluster.connect(b, "doc-1", "dave"));
+        readers.add(cluster.connect(c, "doc-1", "erin"));
+
+        int count = 200;
+        for (int i = 0; i < count; i++) {
+            cluster.sendInsert(writer, i, "x");
+        }
+
+        List<Integer> expected = IntStream.rangeClosed(1, count).boxed().collect(Collectors.toList());
+        for (ClusterHarness.Client reader : readers) {
+            ClusterHarness.await("operations on " + reader.node.nodeId, 5000,
+                    () -> reader.receivedVersions().size() >= count);
+            assertEquals(expected, reader.receivedVersions());
+        }
+        ClusterHarness.await("acks", 5000, () -> writer.framesOfType("OPERATION_ACK").size() == count);
+        assertTrue(writer.receivedVersions().isEmpty(), "sender must not get its own operations back");
+
+        // Only the owner sequences and publishes; the others fold its operations into their state
+        ClusterHarness.Node owner = cluster.ownerOf("doc-1");
+        for (ClusterHarness.Node node : List.of(a, b, c)) {
+            if (node == owner) {
+                verify(node.documentService, times(count)).processOperation(any());
+                verify(node.documentService, never()).applyReplicatedOperation(any());
+                assertEquals(count, node.bus.getStats().getPublished());
+            } else {
+                verify(node.documentService, never()).processOperation(any());
+                verify(node.documentService, timeout(5000).times(count)).applyReplicatedOperation(any());
+                assertEquals(0, node.bus.getStats().getPublished());
+            }
+        }
+    }
+
+    @Test
+    void writersOnEveryNodeAreSerializedByTheOwner() throws Exception {
+        ClusterHarness.Node a = cluster.addNode("node-a");
+        ClusterHarness.Node b = cluster.addNode("node-b");
+        ClusterHarness.Node c = cluster.addNode("node-c");
+
+        List<ClusterHarness.Client> writers = List.of(
+                cluster.connect(a, "doc-3", "alice"),
+                cluster.connect(b, "doc-3", "bob"),
+                cluster.connect(c, "doc-3", "carol"));
+        ClusterHarness.Client observer = cluster.connect(b, "doc-3", "dave");
+
+        int perWriter = 100;
+        List<Thread> threads = new ArrayList<>();
+        for (ClusterHarness.Client writer : writers) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < perWriter; i++) {
+                        cluster.sendInsert(writer, 0, "x");
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int total = perWriter * writers.size();
+        ClusterHarness.await("all operations at the observer", 5000, () -> observer.receivedVersions().size() >= total);
+        assertEquals(IntStream.rangeClosed(1, total).boxed().collect(Collectors.toList()), observer.receivedVersions());
+        for (ClusterHarness.Client writer : writers) {
+            ClusterHarness.await("acks", 5000, () -> writer.framesOfType("OPERATION_ACK").size() == perWriter);
+            // Acks are not batched, so the last broadcasts can still be on their way
+            ClusterHarness.await("broadcasts", 5000, () -> writer.receivedVersions().size() >= total - perWriter);
+            // Everyone else's operations, in order, and none of its own
+            List<Integer> seen = writer.receivedVersions();
+            assertEquals(total - perWriter, seen.size());
+            for (int i = 1; i < seen.size(); i++) {
+                assertTrue(seen.get(i - 1) < seen.get(i));
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void clientOnAnotherNodeIsInitializedFromTheOwner() throws Exception {
+        ClusterHarness.Node a = cluster.addNode("node-a");
+        ClusterHarness.Node b = cluster.addNode("node-b");
+        ClusterHarness.Node owner = cluster.ownerOf("doc-4");
+        ClusterHarness.Node other = owner == a ? b : a;
+
+        // Acknowledged operations still pending in the owner's pipeline: only the owner has them
+        List<Operation> pending = List.of(operation(1), operation(2), operation(3));
+        when(owner.documentService.getInitializationRange("doc-4")).thenReturn(new InitializationRange(null, 0, 3));
+        when(owner.documentService.getAppliedOperations("doc-4", 0, 3)).thenReturn(pending);
+
+        ClusterHarness.Client reader = cluster.connect(other, "doc-4", "bob");
+        ClusterHarness.await("initialization", 5000,
+                () -> !reader.framesOfType("INITIALIZATION_COMPLETE").isEmpty());
+
+        assertEquals(3, reader.framesOfType("INITIALIZATION_START").get(0).get("toVersion"));
+        List<Integer> versions = new ArrayList<>();
+        for (Map<String, Object> chunk : reader.framesOfType("INITIALIZATION_CHUNK")) {
+            for (Map<String, Object> op : (List<Map<String, Object>>) chunk.get("operations")) {
+                versions.add((Integer) op.get("version"));
+            }
+        }
+        assertEquals(List.of(1, 2, 3), versions);
+        assertEquals(3, reader.framesOfType("INITIALIZATION_COMPLETE").get(0).get("version"));
+        verify(other.documentService, never()).getInitializationRange(any());
+        verify(other.documentService, never()).getAppliedOperations(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    void nodeStopsReceivingOnceItsLastSessionLeaves() throws Exception {
+        ClusterHarness.Node a = cluster.addNode("node-a");
+        ClusterHarness.Node b = cluster.addNode("node-b");
+
+        ClusterHarness.Client writer = cluster.connect(a, "doc-2", "alice");
+        ClusterHarness.Client reader = cluster.connect(b, "doc-2", "bob");
+
+        cluster.sendInsert(writer, 0, "a");
+        ClusterHarness.await("first operation", 5000, () -> reader.receivedVersions().size() == 1);
+
+        cluster.disconnect(reader);
+        cluster.sendInsert(writer, 1, "b");
+        ClusterHarness.await("second ack", 5000, () -> writer.framesOfType("OPERATION_ACK").size() == 2);
+
+        assertEquals(1, reader.receivedVersions().size());
+        assertEquals(1, b.bus.getStats().getDelivered());
+    }
+
+    private static Operation operation(int version) {
+        Operation op = new Operation();
+        op.setDocumentId("doc-4");
+        op.setUserId("alice");
+        op.setType("INSERT");
+        op.setText("x");
+        op.setVersion(version);
+        op.setApplied(true);
+        return op;
+    }
+}
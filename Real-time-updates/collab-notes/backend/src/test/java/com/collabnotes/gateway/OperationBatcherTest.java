@@ -0,0 +1,168 @@
+package com.collabnotes.gateway;
+
+import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OperationBatcherTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RoomRegistry registry = new RoomRegistry(100000, ClientConnection.SlowConsumerPolicy.DROP, 1);
+    private final OperationBatcher batcher = new OperationBatcher(true, 20, 256, 8, 2);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        batcher.shutdown();
+        registry.shutdown();
+    }
+
+    @Test
+    void quietRoomGetsEveryOperationImmediately() throws Exception {
+        List<String> frames = Collections.synchronizedList(new ArrayList<>());
+        DocumentRoom room = registry.join("doc", registry.connect(session("reader", frames, 0)), r -> { });
+
+        for (int i = 1; i <= 5; i++) {
+            batcher.submit(room, operation(i), null);
+            ClusterHarness.await("frame " + i, 2000, () -> room.getQueuedFrames() == 0);
+            Thread.sleep(5);
+        }
+
+        ClusterHarness.await("frames", 2000, () -> frames.size() == 5);
+        assertTrue(frames.stream().allMatch(f -> f.contains("\"type\":\"OPERATION\"")));
+        assertEquals(0, batcher.getBudgetMicros("doc"));
+    }
+
+    @Test
+    void burstsToASlowRoomAreBatchedInOrderAndBudgetRelaxesAfterwards() throws Exception {
+        List<String> frames = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong sendDelayMs = new AtomicLong(2);
+        DocumentRoom room = registry.join("doc", registry.connect(session("reader", frames, sendDelayMs)), r -> { });
+
+        int count = 500;
+        for (int i = 1; i <= count; i++) {
+            batcher.submit(room, operation(i), null);
+        }
+
+        ClusterHarness.await("all operations", 10000, () -> versions(frames).size() == count);
+        List<Integer> received = versions(frames);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1, received.get(i));
+        }
+        assertTrue(frames.size() < count / 2, "expected batching, got " + frames.size() + " frames");
+        assertTrue(batcher.getMeanBatchSize() > 2);
+
+        // Once the client keeps up again, single operations flow straight through
+        sendDelayMs.set(0);
+        for (int i = count + 1; batcher.getBudgetMicros("doc") > 0 && i < count + 50; i++) {
+            Thread.sleep(25);
+            batcher.submit(room, operation(i), null);
+        }
+        assertEquals(0, batcher.getBudgetMicros("doc"));
+    }
+
+    @Test
+    void sendersGetTheBatchWithoutTheirOwnOperations() throws Exception {
+        // A negative depth threshold means constant pressure, so everything after the first
+        // operation is held until the batch is full
+        OperationBatcher eager = new OperationBatcher(true, 1000, 4, -1, 2);
+        List<String> aliceFrames = Collections.synchronizedList(new ArrayList<>());
+        List<String> bobFrames = Collections.synchronizedList(new ArrayList<>());
+        List<String> carolFrames = Collections.synchronizedList(new ArrayList<>());
+        registry.join("doc", registry.connect(session("alice", aliceFrames, 0)), r -> { });
+        registry.join("doc", registry.connect(session("bob", bobFrames, 0)), r -> { });
+        DocumentRoom room = registry.join("doc", registry.connect(session("carol", carolFrames, 0)), r -> { });
+
+        try {
+            eager.submit(room, operation(1), "carol");
+            eager.submit(room, operation(2), "alice");
+            eager.submit(room, operation(3), "bob");
+            eager.submit(room, operation(4), "alice");
+            eager.submit(room, operation(5), null);
+
+            ClusterHarness.await("frames", 2000, () -> carolFrames.size() == 1 && aliceFrames.size() == 2 && bobFrames.size() == 2);
+            assertEquals(List.of(2, 3, 4, 5), versions(carolFrames));
+            assertEquals(List.of(1, 3, 5), versions(aliceFrames));
+            assertEquals(List.of(1, 2, 4, 5), versions(bobFrames));
+        } finally {
+            eager.shutdown();
+        }
+    }
+
+    private List<Integer> versions(List<String> frames) {
+        List<Integer> versions = new ArrayList<>();
+        synchronized (frames) {
+            for (String payload : frames) {
+                Map<String, Object> frame = parse(payload);
+                if ("OPERATION".equals(frame.get("type"))) {
+                    versions.add(version(frame.get("operation")));
+                } else {
+                    for (Object op : (List<?>) frame.get("operations")) {
+                        versions.add(version(op));
+                    }
+                }
+            }
+        }
+        return versions;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> parse(String payload) {
+        try {
+            return objectMapper.readValue(payload, Map.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int version(Object operation) {
+        return ((Number) ((Map<String, Object>) operation).get("version")).intValue();
+    }
+
+    private static Operation operation(int version) {
+        Operation op = new Operation();
+        op.setDocumentId("doc");
+        op.setType("INSERT");
+        op.setText("x");
+        op.setPosition(0);
+        op.setVersion(version);
+        op.setApplied(true);
+        return op;
+    }
+
+    private static WebSocketSession session(String id, List<String> frames, long sendDelayMs) throws Exception {
+        return session(id, frames, new AtomicLong(sendDelayMs));
+    }
+
+    private static WebSocketSession session(String id, List<String> frames, AtomicLong sendDelayMs) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            if (sendDelayMs.get() > 0) {
+                Thread.sleep(sendDelayMs.get());
+            }
+            frames.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+}
@@ -0,0 +1,48 @@
+package com.collabnotes.inmemory;
+
+import com.collabnotes.metadata.DocumentMetadata;
+import com.collabnotes.metadata.ListingCursor;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InMemoryMetadataRepositoryTest {
+
+    @Test
+    void keysetPagesWalkNewestFirstWithoutGapsOrRepeats() {
+        InMemoryMetadataRepository repository = new InMemoryMetadataRepository();
+        repository.save(metadata("doc-a", 1000));
+        repository.save(metadata("doc-b", 3000));
+        repository.save(metadata("doc-c", 2000));
+        repository.save(metadata("doc-d", 2000));
+        repository.save(metadata("doc-e", 500));
+
+        List<DocumentMetadata> first = repository.findAllByOrderByUpdatedAtDescIdDesc(PageRequest.of(0, 2));
+        assertEquals(List.of("doc-b", "doc-d"), ids(first));
+
+        // Ties on updatedAt are broken by id, so the cursor lands between doc-d and doc-c
+        ListingCursor cursor = ListingCursor.decode(ListingCursor.after(first.get(1)).encode());
+        List<DocumentMetadata> second = repository.findPageAfter(cursor.getUpdatedAt(), cursor.getId(), PageRequest.of(0, 2));
+        assertEquals(List.of("doc-c", "doc-a"), ids(second));
+
+        cursor = ListingCursor.after(second.get(1));
+        assertEquals(List.of("doc-e"),
+                ids(repository.findPageAfter(cursor.getUpdatedAt(), cursor.getId(), PageRequest.of(0, 2))));
+    }
+
+    private static List<String> ids(List<DocumentMetadata> documents) {
+        return documents.stream().map(DocumentMetadata::getId).collect(Collectors.toList());
+    }
+
+    private static DocumentMetadata metadata(String id, long updatedAt) {
+        DocumentMetadata metadata = new DocumentMetadata();
+        metadata.setId(id);
+        metadata.setUpdatedAt(new Date(updatedAt));
+        return metadata;
+    }
+}
@@ -0,0 +1,69 @@
+package com.collabnotes.inmemory;
+
+import com.collabnotes.document.Operation;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InMemoryOperationsRepositoryTest {
+
+    @Test
+    void versionQueriesFollowTheIndexAcrossSavesAndCompaction() {
+        InMemoryOperationsRepository repository = new InMemoryOperationsRepository();
+        repository.insertBatch(List.of(op("a", 3, true), op("a", 1, true), op("a", 2, false), op("b", 1, true)));
+        Operation retried = op("a", 3, true);
+
+        assertEquals(List.of(1, 2, 3), versions(repository.findByDocumentIdOrderByVersionAsc("a")));
+        assertEquals(List.of(3), versions(repository.findAppliedInVersionRange("a", 1, 3)));
+        assertEquals(3, repository.findLatestVersion("a"));
+        assertEquals(0, repository.findLatestVersion("missing"));
+
+        // A retried write of the same id replaces the entry instead of adding one
+        Operation first = repository.findFirstByDocumentIdOrderByVersionDesc("a").orElseThrow();
+        assertNotNull(first.getId());
+        retried.setId(first.getId());
+        repository.save(retried);
+        assertEquals(3, repository.countByDocumentId("a"));
+
+        assertEquals(2, repository.compactOperations("a", 2, true));
+        assertEquals(List.of(3), versions(repository.findByDocumentIdAndAppliedTrueOrderByVersionAsc("a")));
+        assertEquals(1, repository.countByDocumentId("b"));
+    }
+
+    @Test
+    void aVersionIsHeldByOneOperationOnly() {
+        InMemoryOperationsRepository repository = new InMemoryOperationsRepository();
+        Operation first = op("a", 1, true);
+        repository.insertBatch(List.of(first));
+
+        assertThrows(DuplicateKeyException.class, () -> repository.save(op("a", 1, false)));
+
+        // A batch keeps what it can and sets aside the operation whose version is taken
+        Operation conflicting = op("a", 1, false);
+        assertEquals(List.of(conflicting), repository.insertBatch(List.of(conflicting, op("a", 2, true))));
+        assertEquals(List.of(conflicting), List.copyOf(repository.getConflicts()));
+        assertEquals(List.of(1, 2), versions(repository.findByDocumentIdOrderByVersionAsc("a")));
+        assertEquals(first.getId(), repository.findByDocumentIdOrderByVersionAsc("a").get(0).getId());
+        assertEquals(2, repository.countByDocumentId("a"));
+    }
+
+    private static List<Integer> versions(List<Operation> operations) {
+        return operations.stream().map(Operation::getVersion).collect(Collectors.toList());
+    }
+
+    private static Operation op(String documentId, int version, boolean applied) {
+        Operation op = new Operation();
+        op.setDocumentId(documentId);
+        op.setType("INSERT");
+        op.setText("x");
+        op.setVersion(version);
+        op.setApplied(applied);
+        return op;
+    }
+}
@@ -0,0 +1,219 @@
+package com.collabnotes.metadata;
+
+import com.collabnotes.zookeeper.ZookeeperService;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetadataCacheTest {
+
+    private TestingServer server;
+    private final List<CuratorFramework> clients = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new TestingServer();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (CuratorFramework client : clients) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    void servesRepeatedLookupsUntilExpiredOrEvicted() throws Exception {
+        MetadataCache cache = cache("node-a", 2, 200);
+        AtomicInteger loads = new AtomicInteger();
+        Function<String, DocumentMetadata> loader = id -> {
+            loads.incrementAndGet();
+            return metadata(id);
+        };
+
+        DocumentMetadata first = cache.get("doc-1", loader);
+        assertSame(first, cache.get("doc-1", loader));
+        assertEquals(1, loads.get());
+        assertEquals(0.5, cache.getHitRatio());
+
+        // Least recently used goes first
+        cache.get("doc-2", loader);
+        cache.get("doc-1", loader);
+        cache.get("doc-3", loader);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        cache.get("doc-1", loader);
+        assertEquals(3, loads.get());
+        cache.get("doc-2", loader);
+        assertEquals(4, loads.get());
+
+        Thread.sleep(250);
+        cache.get("doc-1", loader);
+        assertEquals(5, loads.get());
+    }
+
+    @Test
+    void writesOnOneNodeReachTheOthers() throws Exception {
+        MetadataCache a = cache("node-a", 100, 60_000);
+        MetadataCache b = cache("node-b", 100, 60_000);
+        AtomicInteger loadsOnB = new AtomicInteger();
+        Function<String, DocumentMetadata> loader = id -> {
+            loadsOnB.incrementAndGet();
+            return metadata(id);
+        };
+        a.get("doc-1", MetadataCacheTest::metadata);
+        DocumentMetadata cachedOnB = b.get("doc-1", loader);
+        Date loadedAt = cachedOnB.getUpdatedAt();
+        b.getPage(null, 10, () -> Collections.singletonList(metadata("doc-1")));
+
+        // An edit moves updatedAt forward everywhere without a reload
+        Date touchedAt = new Date(System.currentTimeMillis() + 1000);
+        a.touched(Map.of("doc-1", touchedAt));
+        await(() -> b.getRemoteInvalidationCount() == 1);
+        assertEquals(touchedAt, b.get("doc-1", loader).getUpdatedAt());
+        assertEquals(touchedAt, b.getPage(null, 10, MetadataCacheTest::notLoaded).get(0).getUpdatedAt());
+        assertEquals(1, loadsOnB.get());
+        // Copied, not changed under whoever already holds it
+        assertEquals(loadedAt, cachedOnB.getUpdatedAt());
+
+        a.created(metadata("doc-2"));
+        await(() -> b.getRemoteInvalidationCount() == 2);
+        assertEquals(2, b.getPage(null, 10, () -> List.of(metadata("doc-1"), metadata("doc-2"))).size());
+        assertEquals(2, b.getListingMissCount());
+        b.get("doc-2", loader);
+        assertEquals(2, loadsOnB.get());
+
+        // The writer keeps its own entries, moved forward
+        assertEquals(touchedAt, a.get("doc-1", MetadataCacheTest::metadata).getUpdatedAt());
+        assertEquals(0, a.getRemoteInvalidationCount());
+    }
+
+    @Test
+    void burstOfTouchesIsCaughtUpOnWithoutDroppingTheCache() throws Exception {
+        MetadataCache a = cache("node-a", 100, 60_000);
+        MetadataCache b = cache("node-b", 100, 60_000);
+        AtomicInteger loadsOnB = new AtomicInteger();
+        Function<String, DocumentMetadata> loader = id -> {
+            loadsOnB.incrementAndGet();
+            return metadata(id);
+        };
+        for (int i = 0; i < 20; i++) {
+            b.get("doc-" + i, loader);
+        }
+
+        // Faster than b reads them, so it sees several new batches per watch
+        Date touchedAt = new Date(System.currentTimeMillis() + 1000);
+        for (int i = 0; i < 20; i++) {
+            a.touched(Map.of("doc-" + i, touchedAt));
+        }
+        await(() -> b.getRemoteInvalidationCount() == 20);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(touchedAt, b.get("doc-" + i, loader).getUpdatedAt());
+        }
+        assertEquals(20, loadsOnB.get());
+    }
+
+    @Test
+    void touchesMoveDocumentsBetweenCachedPages() throws Exception {
+        MetadataCache cache = cache("node-a", 100, 60_000);
+        long base = System.currentTimeMillis();
+        List<DocumentMetadata> all = new ArrayList<>();
+        for (int i = 5; i >= 1; i--) {
+            DocumentMetadata metadata = metadata("doc-" + i);
+            metadata.setUpdatedAt(new Date(base + i * 1000L));
+            all.add(metadata);
+        }
+        // Two to a page plus the row that tells whether another follows
+        ListingCursor afterSecond = ListingCursor.after(all.get(1));
+        ListingCursor afterFourth = ListingCursor.after(all.get(3));
+        cache.getPage(null, 3, () -> all.subList(0, 3));
+        List<DocumentMetadata> second = cache.getPage(afterSecond, 3, () -> all.subList(2, 5));
+        cache.getPage(afterFourth, 3, () -> all.subList(4, 5));
+
+        Date touchedAt = new Date(base + 10_000);
+        cache.touched(Map.of("doc-1", touchedAt));
+
+        List<DocumentMetadata> first = cache.getPage(null, 3, MetadataCacheTest::notLoaded);
+        assertEquals(List.of("doc-1", "doc-5", "doc-4"), ids(first));
+        assertEquals(touchedAt, first.get(0).getUpdatedAt());
+        assertTrue(cache.getPage(afterFourth, 3, MetadataCacheTest::notLoaded).isEmpty());
+        // The second page lost a row and cannot know the one after it
+        AtomicInteger loads = new AtomicInteger();
+        cache.getPage(afterSecond, 3, () -> {
+            loads.incrementAndGet();
+            return all.subList(2, 4);
+        });
+        assertEquals(1, loads.get());
+        assertEquals(List.of("doc-3", "doc-2", "doc-1"), ids(second));
+
+        // A document this node never saw would land on the first page, which has to be read again
+        cache.touched(Map.of("doc-9", new Date(base + 20_000)));
+        cache.getPage(null, 3, () -> {
+            loads.incrementAndGet();
+            return all.subList(0, 3);
+        });
+        assertEquals(2, loads.get());
+    }
+
+    private static List<String> ids(List<DocumentMetadata> documents) {
+        List<String> ids = new ArrayList<>();
+        documents.forEach(document -> ids.add(document.getId()));
+        return ids;
+    }
+
+    private static List<DocumentMetadata> notLoaded() {
+        throw new AssertionError("Should have been served from the cache");
+    }
+
+    private MetadataCache cache(String nodeId, int maxEntries, long ttlMs) throws Exception {
+        CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        client.blockUntilConnected();
+        clients.add(client);
+
+        ZookeeperService zookeeperService = new ZookeeperService();
+        ReflectionTestUtils.setField(zookeeperService, "curatorFramework", client);
+        ReflectionTestUtils.setField(zookeeperService, "configuredNodeId", nodeId);
+        zookeeperService.init();
+
+        MetadataCache cache = new MetadataCache(zookeeperService, true, maxEntries, ttlMs, ttlMs);
+        cache.init();
+        return cache;
+    }
+
+    private static DocumentMetadata metadata(String id) {
+        DocumentMetadata metadata = new DocumentMetadata();
+        metadata.setId(id);
+        metadata.setTitle("Title of " + id);
+        metadata.setUpdatedAt(new Date());
+        return metadata;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
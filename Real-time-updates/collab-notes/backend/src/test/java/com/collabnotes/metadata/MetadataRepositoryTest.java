@@ -0,0 +1,60 @@
+package com.collabnotes.metadata;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Boots Hibernate against H2, so a broken mapping such as an index on an unknown column
+ * fails here rather than at application startup.
+ */
+@DataJpaTest
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+class MetadataRepositoryTest {
+
+    @Autowired
+    private MetadataRepository repository;
+
+    @Test
+    void keysetPagesFollowUpdatedAtThenId() {
+        repository.saveAll(List.of(
+                metadata("doc-a", 1000), metadata("doc-b", 3000), metadata("doc-c", 2000), metadata("doc-d", 2000)));
+
+        List<DocumentMetadata> first = repository.findAllByOrderByUpdatedAtDescIdDesc(PageRequest.of(0, 2));
+        assertEquals(List.of("doc-b", "doc-d"), ids(first));
+
+        DocumentMetadata last = first.get(1);
+        assertEquals(List.of("doc-c", "doc-a"),
+                ids(repository.findPageAfter(last.getUpdatedAt(), last.getId(), PageRequest.of(0, 2))));
+    }
+
+    @Test
+    void touchAllOnlyMovesTimestampsForward() {
+        repository.saveAndFlush(metadata("doc-a", 2000));
+
+        assertEquals(0, repository.touchAll(Map.of("doc-a", new Date(1000))));
+        assertEquals(1, repository.touchAll(Map.of("doc-a", new Date(5000), "doc-missing", new Date(5000))));
+    }
+
+    private static List<String> ids(List<DocumentMetadata> documents) {
+        return documents.stream().map(DocumentMetadata::getId).collect(Collectors.toList());
+    }
+
+    private static DocumentMetadata metadata(String id, long updatedAt) {
+        DocumentMetadata metadata = new DocumentMetadata();
+        metadata.setId(id);
+        metadata.setTitle("Title of " + id);
+        metadata.setCreatedAt(new Date(updatedAt));
+        metadata.setUpdatedAt(new Date(updatedAt));
+        return metadata;
+    }
+}
@@ -0,0 +1,63 @@
+package com.collabnotes.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CollaborationMetricsTest {
+
+    @Test
+    void documentTagsAreCappedAndTheRestReportAsOther() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CollaborationMetrics metrics = new CollaborationMetrics(registry, 2);
+
+        metrics.recordOperation("a");
+        metrics.recordOperation("b");
+        metrics.recordOperation("c");
+        metrics.recordOperation("d");
+        metrics.recordOperation("a");
+        metrics.recordInbound("c", 40);
+
+        assertEquals(2.0, registry.get("collab.operations").tag("document", "a").counter().count());
+        assertEquals(1.0, registry.get("collab.operations").tag("document", "b").counter().count());
+        assertEquals(2.0, registry.get("collab.operations").tag("document", CollaborationMetrics.OTHER).counter().count());
+        assertNull(registry.find("collab.operations").tag("document", "c").counter());
+        assertEquals(40.0, registry.get("collab.ws.inbound.bytes").tag("document", CollaborationMetrics.OTHER)
+                .counter().count());
+    }
+
+    @Test
+    void timersAndRoomCountersRecord() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CollaborationMetrics metrics = new CollaborationMetrics(registry, 10);
+
+        metrics.recordMessage(false, "OPERATION", TimeUnit.MICROSECONDS.toNanos(30));
+        metrics.recordMessage(false, "OPERATION", TimeUnit.MICROSECONDS.toNanos(50));
+        metrics.recordStage("sequence", 1000);
+        metrics.recordError("flush");
+
+        Timer json = registry.get("collab.ws.message").tags("protocol", "json", "type", "OPERATION").timer();
+        assertEquals(2, json.count());
+        assertEquals(80.0, json.totalTime(TimeUnit.MICROSECONDS), 0.001);
+        assertEquals(1, registry.get("collab.operation.stage").tag("stage", "sequence").timer().count());
+        assertEquals(1.0, registry.get("collab.errors").tag("where", "flush").counter().count());
+
+        AtomicLong frames = new AtomicLong();
+        metrics.bindRoom("doc", frames, AtomicLong::get, f -> 0);
+        frames.addAndGet(3);
+        FunctionCounter sent = registry.get("collab.ws.outbound.frames").tag("document", "doc").functionCounter();
+        assertEquals(3.0, sent.count());
+
+        metrics.unbindRoom("doc");
+        assertNull(registry.find("collab.ws.outbound.frames").tag("document", "doc").functionCounter());
+        assertNotNull(registry.find("collab.errors").counter());
+    }
+}
@@ -0,0 +1,143 @@
+package com.collabnotes.zookeeper;
+
+import com.collabnotes.bus.BusMessage;
+import com.collabnotes.bus.OperationBus;
+import com.collabnotes.document.Operation;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZookeeperOperationBusTest {
+
+    private TestingServer server;
+    private final List<CuratorFramework> clients = new ArrayList<>();
+    private final List<ZookeeperOperationBus> buses = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new TestingServer();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (ZookeeperOperationBus bus : buses) {
+            bus.shutdown();
+        }
+        for (CuratorFramework client : clients) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    void newWatchDeliversEverythingAfterTheInitializationVersion() throws Exception {
+        ZookeeperOperationBus owner = bus("node-a");
+        ZookeeperOperationBus reader = bus("node-b");
+        List<BusMessage> received = Collections.synchronizedList(new ArrayList<>());
+
+        OperationBus.Subscription subscription = reader.subscribe("doc-1", received::add);
+        for (int version = 1; version <= 3; version++) {
+            owner.publish(message(version));
+        }
+        await(() -> service(owner).getOperationsWritten() == 3);
+        Thread.sleep(100);
+        assertTrue(received.isEmpty(), "delivered before the initialization read");
+
+        // Versions 2 and 3 were sequenced between the read and the watch
+        subscription.startAfter(1);
+        await(() -> received.size() == 2);
+        owner.publish(message(4));
+        await(() -> received.size() == 3);
+
+        assertEquals(List.of(2, 3, 4), versions(received));
+    }
+
+    @Test
+    void failedEnvelopeWriteIsRetried() throws Exception {
+        ZookeeperOperationBus owner = bus("node-a");
+        ZookeeperOperationBus reader = bus("node-b");
+        List<BusMessage> received = Collections.synchronizedList(new ArrayList<>());
+        reader.subscribe("doc-1", received::add).startAfter(0);
+
+        // An ephemeral znode cannot have children, so envelope writes fail while it exists
+        CuratorFramework blocker = client();
+        blocker.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                .forPath(ZookeeperService.OPERATIONS_PATH + "/doc-1");
+        owner.publish(message(1));
+        await(() -> service(owner).getWriteFailures() > 0);
+        blocker.close();
+
+        await(() -> received.size() == 1);
+        assertEquals(List.of(1), versions(received));
+        assertEquals(1, service(owner).getOperationsWritten());
+    }
+
+    private ZookeeperOperationBus bus(String nodeId) throws Exception {
+        ZookeeperService zookeeperService = new ZookeeperService();
+        CuratorFramework client = client();
+        ReflectionTestUtils.setField(zookeeperService, "curatorFramework", client);
+        ReflectionTestUtils.setField(zookeeperService, "configuredNodeId", nodeId);
+        ReflectionTestUtils.setField(zookeeperService, "envelopeRetryTimeoutMs", 10000L);
+        zookeeperService.init();
+
+        ZookeeperOperationBus bus = new ZookeeperOperationBus();
+        ReflectionTestUtils.setField(bus, "curatorFramework", client);
+        ReflectionTestUtils.setField(bus, "zookeeperService", zookeeperService);
+        ReflectionTestUtils.setField(bus, "batchWindowMs", 5L);
+        bus.start();
+        buses.add(bus);
+        return bus;
+    }
+
+    private CuratorFramework client() throws InterruptedException {
+        CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        client.blockUntilConnected();
+        clients.add(client);
+        return client;
+    }
+
+    private static ZookeeperService service(ZookeeperOperationBus bus) {
+        return (ZookeeperService) ReflectionTestUtils.getField(bus, "zookeeperService");
+    }
+
+    private static BusMessage message(int version) {
+        Operation op = new Operation();
+        op.setDocumentId("doc-1");
+        op.setType("INSERT");
+        op.setPosition(0);
+        op.setText("v" + version);
+        op.setVersion(version);
+        op.setApplied(true);
+        return new BusMessage("node-a", "session-1", op);
+    }
+
+    private static List<Integer> versions(List<BusMessage> messages) {
+        synchronized (messages) {
+            return messages.stream().map(message -> message.getOperation().getVersion()).collect(Collectors.toList());
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
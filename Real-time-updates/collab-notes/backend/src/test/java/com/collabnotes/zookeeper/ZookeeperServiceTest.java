@@ -0,0 +1,201 @@
+package com.collabnotes.zookeeper;
+
+import com.collabnotes.document.Operation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZookeeperServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private TestingServer server;
+    private final List<CuratorFramework> clients = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new TestingServer();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (CuratorFramework client : clients) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    void operationsAreBatchedIntoOneEnvelopePerDocument() throws Exception {
+        ZookeeperService service = service("node-a");
+
+        service.transferOperations(List.of(op("doc-1", 1, "a"), op("doc-2", 1, "b"), op("doc-1", 2, "c")),
+                List.of("session-1", "session-2", "session-1"));
+        await(() -> service.getEnvelopesWritten() == 2);
+
+        List<OperationEnvelope> first = envelopes("doc-1");
+        assertEquals(1, first.size());
+        assertEquals(List.of(1, 2), versions(first));
+        assertEquals(List.of("session-1", "session-1"), first.get(0).getOriginSessionIds());
+        assertEquals(List.of(1), versions(envelopes("doc-2")));
+        assertEquals(3, service.getOperationsWritten());
+    }
+
+    @Test
+    void envelopesOverTheLimitAreSplitInOrder() throws Exception {
+        ZookeeperService service = service("node-a");
+        List<Operation> ops = new ArrayList<>();
+        for (int version = 1; version <= 12; version++) {
+            // 12 x 100K chars: a single envelope would be well over 512KB
+            ops.add(op("doc-1", version, "x".repeat(100 * 1024)));
+        }
+
+        service.transferOperations(ops);
+        await(() -> service.getOperationsWritten() == 12);
+
+        List<OperationEnvelope> envelopes = envelopes("doc-1");
+        assertTrue(envelopes.size() > 1);
+        for (String name : children("doc-1")) {
+            byte[] data = client().getData().forPath(ZookeeperService.OPERATIONS_PATH + "/doc-1/" + name);
+            assertTrue(data.length <= 512 * 1024, name + " is " + data.length + " bytes");
+        }
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12), versions(envelopes));
+    }
+
+    @Test
+    void eachNodeReapsItsOwnConsumedEnvelopes() throws Exception {
+        ZookeeperService writer = service("node-a");
+        ZookeeperService other = service("node-b");
+        writer.transferOperations(List.of(op("doc-1", 1, "a")));
+        await(() -> writer.getEnvelopesWritten() == 1);
+        writer.transferOperations(List.of(op("doc-1", 2, "b")));
+        await(() -> writer.getEnvelopesWritten() == 2);
+        List<String> written = children("doc-1");
+        Collections.sort(written);
+
+        // A reader that has consumed only the first envelope
+        other.registerDocumentNode("doc-1", "node-b");
+        other.markConsumed("doc-1", ZookeeperService.sequenceOf(written.get(0)));
+        await(() -> consumedOffsetRecorded("doc-1", "node-b"));
+
+        other.reapConsumedOperations();
+        assertEquals(2, children("doc-1").size());
+
+        writer.reapConsumedOperations();
+        assertEquals(List.of(written.get(1)), children("doc-1"));
+        assertEquals(1, writer.getZnodesReaped());
+        assertEquals(1, writer.getZnodeCount());
+    }
+
+    @Test
+    void sweepReapsEnvelopesOfNodesThatWentAway() throws Exception {
+        ZookeeperService writer = service("node-a");
+        writer.transferOperations(List.of(op("doc-1", 1, "a")));
+        await(() -> writer.getEnvelopesWritten() == 1);
+
+        // Without readers every settled envelope goes, but only the writer knows about it
+        ZookeeperService survivor = service("node-b");
+        survivor.reapConsumedOperations();
+        assertEquals(1, children("doc-1").size());
+
+        survivor.sweepConsumedOperations();
+        assertTrue(children("doc-1").isEmpty());
+    }
+
+    @Test
+    void metadataBatchesAreReapedAfterTheRetention() throws Exception {
+        ZookeeperService service = service("node-a");
+        ReflectionTestUtils.setField(service, "metadataRetentionMs", 0L);
+
+        service.publishMetadataInvalidation(List.of("doc-1"));
+        service.publishMetadataInvalidation(List.of("doc-2"));
+        assertEquals(2, client().getChildren().forPath(ZookeeperService.METADATA_INVALIDATIONS_PATH).size());
+
+        service.reapMetadataBatches();
+        assertTrue(client().getChildren().forPath(ZookeeperService.METADATA_INVALIDATIONS_PATH).isEmpty());
+    }
+
+    private ZookeeperService service(String nodeId) throws Exception {
+        ZookeeperService service = new ZookeeperService();
+        ReflectionTestUtils.setField(service, "curatorFramework", client());
+        ReflectionTestUtils.setField(service, "configuredNodeId", nodeId);
+        ReflectionTestUtils.setField(service, "reapMinAgeMs", 0L);
+        service.init();
+        return service;
+    }
+
+    private CuratorFramework client() throws InterruptedException {
+        if (!clients.isEmpty()) {
+            return clients.get(0);
+        }
+        CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        client.blockUntilConnected();
+        clients.add(client);
+        return client;
+    }
+
+    private boolean consumedOffsetRecorded(String documentId, String nodeId) {
+        try {
+            byte[] data = client().getData().forPath(ZookeeperService.NODES_PATH + "/" + documentId + "/" + nodeId);
+            return new String(data).matches("\\d+");
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private List<String> children(String documentId) throws Exception {
+        return client().getChildren().forPath(ZookeeperService.OPERATIONS_PATH + "/" + documentId);
+    }
+
+    private List<OperationEnvelope> envelopes(String documentId) throws Exception {
+        List<String> names = children(documentId);
+        names.sort((a, b) -> Long.compare(ZookeeperService.sequenceOf(a), ZookeeperService.sequenceOf(b)));
+        List<OperationEnvelope> envelopes = new ArrayList<>();
+        for (String name : names) {
+            byte[] data = client().getData().forPath(ZookeeperService.OPERATIONS_PATH + "/" + documentId + "/" + name);
+            envelopes.add(objectMapper.readValue(data, OperationEnvelope.class));
+        }
+        return envelopes;
+    }
+
+    private static List<Integer> versions(List<OperationEnvelope> envelopes) {
+        return envelopes.stream()
+                .flatMap(envelope -> envelope.getOperations().stream())
+                .map(Operation::getVersion)
+                .collect(Collectors.toList());
+    }
+
+    private static Operation op(String documentId, int version, String text) {
+        Operation op = new Operation();
+        op.setDocumentId(documentId);
+        op.setType("INSERT");
+        op.setPosition(0);
+        op.setText(text);
+        op.setVersion(version);
+        op.setApplied(true);
+        return op;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
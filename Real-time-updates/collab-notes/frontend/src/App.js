@@ -1,5 +1,6 @@
 import React, { useState, useEffect, useRef } from "react";
 import "./App.css";
+import { transformSequences } from "./utils/ot";
 
 function App() {
   const [username, setUsername] = useState("");
@@ -19,11 +20,17 @@ function App() {
   const globalWsRef = useRef(null); // Global WebSocket for document list updates
   const textEditorRef = useRef(null);
   const lastContentRef = useRef("");
-  const pendingOperations = useRef(new Set());
+  // Operations this connection sent that lastVersionRef does not cover yet, in send order:
+  // { operations: as they apply after the remote operations received since, ack: the versions
+  // they took, { firstVersion, version }, once acknowledged }
+  const pendingOperations = useRef([]);
+  const aheadOperations = useRef(new Map()); // Remote operations received before a missing version, by version
   const reconnectTimeoutRef = useRef(null);
   const cursorUpdateTimeoutRef = useRef(null);
   const currentDocumentRef = useRef(null);
   const pendingCursorPositionRef = useRef(null);
+  const lastVersionRef = useRef(0); // Every version up to this one received, sent as the base of our operations
+  const initializationRef = useRef(null); // Streamed initialization in progress: { snapshot, operations, buffered }
 
   useEffect(() => {
     const savedUser = localStorage.getItem("collabnotes_user");
@@ -155,13 +162,24 @@ function App() {
   const fetchDocuments = async () => {
     setLoading(true);
     try {
-      const response = await fetch("/api/docs");
-      if (response.ok) {
-        const data = await response.json();
+      // The listing comes in pages; X-Next-Cursor points at the next one
+      const data = [];
+      let cursor = null;
+      let complete = true;
+      do {
+        const url = cursor ? `/api/docs?after=${encodeURIComponent(cursor)}` : "/api/docs";
+        const response = await fetch(url);
+        if (!response.ok) {
+          console.error("Failed to fetch documents:", response.status);
+          complete = false;
+          break;
+        }
+        data.push(...(await response.json()));
+        cursor = response.headers.get("X-Next-Cursor");
+      } while (cursor);
+      if (complete) {
         console.log("Fetched documents:", data);
         setDocuments(data);
-      } else {
-        console.error("Failed to fetch documents:", response.status);
       }
     } catch (error) {
       console.error("Error fetching documents:", error);
@@ -232,6 +250,7 @@ function App() {
     setCursorPositions({});
     setConnectionStatus("connecting");
     lastContentRef.current = "";
+    lastVersionRef.current = 0;
 
     // Connect via WebSocket
     connectToDocument(documentId);
@@ -247,13 +266,17 @@ function App() {
     const wsUrl = `ws://localhost:8081/api/ws?documentId=${encodeURIComponent(documentId)}&userId=${encodeURIComponent(userId)}&username=${username}`;
     console.log("Connecting to WebSocket:", wsUrl);
 
+    // Live operations are held back until the streamed initialization completes
+    initializationRef.current = { snapshot: null, operations: [], buffered: [] };
+
     const ws = new WebSocket(wsUrl);
     wsRef.current = ws;
 
     ws.onopen = () => {
       console.log("✅ WebSocket connected to document:", documentId);
       setConnectionStatus("connected");
-      pendingOperations.current.clear();
+      pendingOperations.current = [];
+      aheadOperations.current.clear();
       
       // Send user info to other clients
       const userInfoMessage = {
@@ -312,15 +335,65 @@ function App() {
         if (message.operations && Array.isArray(message.operations)) {
           const validOps = message.operations.filter((op) => op.applied);
           setOperations(validOps);
-          rebuildDocumentContent(validOps);
+          // Older history may be compacted into a snapshot; replay only the tail on top of it
+          rebuildDocumentContent(validOps, message.snapshot?.content || "");
+          lastVersionRef.current = message.operations.reduce(
+            (max, op) => Math.max(max, op.version || 0),
+            message.snapshot?.version || 0,
+          );
         }
         if (message.users) {
           setConnectedUsers(message.users);
         }
         break;
 
+      case "INITIALIZATION_START":
+        // The snapshot first, then the operations after it in INITIALIZATION_CHUNK pages
+        console.log("📋 Initialization started, versions", message.fromVersion, "to", message.toVersion);
+        initializationRef.current = {
+          snapshot: message.snapshot,
+          operations: [],
+          buffered: initializationRef.current?.buffered || [],
+        };
+        break;
+
+      case "INITIALIZATION_CHUNK":
+        if (initializationRef.current) {
+          initializationRef.current.operations.push(...(message.operations || []));
+        }
+        break;
+
+      case "INITIALIZATION_COMPLETE": {
+        const init = initializationRef.current;
+        initializationRef.current = null;
+        if (init) {
+          handleWebSocketMessage({
+            type: "INITIALIZATION",
+            snapshot: init.snapshot,
+            operations: init.operations,
+          });
+          // Live operations that arrived during the stream and are newer than it
+          init.buffered
+            .filter((operation) => (operation.version || 0) > message.version)
+            .forEach((operation) => handleWebSocketMessage({ type: "OPERATION", operation }));
+        }
+        break;
+      }
+
+      case "OPERATIONS":
+        // A batch of broadcasts, in version order; handled exactly like single operations
+        console.log("🔄 Received OPERATIONS batch of", message.operations?.length);
+        (message.operations || []).forEach((operation) =>
+          handleWebSocketMessage({ type: "OPERATION", operation }),
+        );
+        break;
+
       case "OPERATION":
         console.log("🔄 Received OPERATION message");
+        if (initializationRef.current) {
+          initializationRef.current.buffered.push(message.operation);
+          break;
+        }
         const operation = message.operation;
         console.log("Operation details:", {
           type: operation.type,
@@ -335,91 +408,53 @@ function App() {
         // Use ref instead of state to avoid stale closure
         if (operation.documentId === currentDocumentRef.current?.id) {
           console.log("✅ Document ID matches!");
-          
-          // Only apply operations from OTHER users
-          if (operation.userId !== userDataRef.current?.userId) {
-            console.log("✅ Operation from OTHER user - applying:", operation.userId);
-            
-            // Save cursor position BEFORE applying operation
-            const cursorPosition = textEditorRef.current?.selectionStart || 0;
-            const cursorEnd = textEditorRef.current?.selectionEnd || 0;
-            
-            console.log("Current cursor position:", cursorPosition, "Operation at:", operation.position);
-            
-            // Calculate new cursor position
-            let newCursorPos = cursorPosition;
-            let newCursorEnd = cursorEnd;
-            
-            if (operation.type === "INSERT") {
-              // If insertion happened before or at cursor, shift cursor right
-              if (operation.position <= cursorPosition) {
-                newCursorPos = cursorPosition + operation.text.length;
-                newCursorEnd = cursorEnd + operation.text.length;
-                console.log("INSERT before cursor: shifting from", cursorPosition, "to", newCursorPos);
-              }
-            } else if (operation.type === "DELETE") {
-              const deleteEnd = operation.position + operation.text.length;
-              
-              if (deleteEnd <= cursorPosition) {
-                // Deletion entirely before cursor
-                newCursorPos = cursorPosition - operation.text.length;
-                newCursorEnd = cursorEnd - operation.text.length;
-                console.log("DELETE before cursor: shifting from", cursorPosition, "to", newCursorPos);
-              } else if (operation.position < cursorPosition) {
-                // Deletion overlaps cursor
-                newCursorPos = operation.position;
-                newCursorEnd = operation.position;
-                console.log("DELETE overlaps cursor: moving to", newCursorPos);
-              }
-            }
-            
-            // Store the new cursor position to be applied after render
-            pendingCursorPositionRef.current = { start: newCursorPos, end: newCursorEnd };
-            
-            // Apply to content immediately
-            if (operation.applied !== false) {
-              console.log("Applying operation NOW!");
-              
-              setDocumentContent((prev) => {
-                console.log("Before operation - content length:", prev.length);
-                const newContent = applyOperationToContent(prev, operation);
-                console.log("After operation - content length:", newContent.length);
-                lastContentRef.current = newContent;
-                return newContent;
-              });
-            } else {
-              console.log("⚠️ Operation marked as not applied, skipping");
-            }
-          } else {
-            console.log("⏭️ Skipping my own operation");
-          }
-          
-          // Add to operations list for history
-          setOperations((prev) => [...prev, operation]);
+          // The server never echoes a connection's own operations back, so everything here
+          // is someone else's, or this same user's from another tab
+          aheadOperations.current.set(operation.version, operation);
+          catchUp();
         } else {
           console.log("❌ Document ID mismatch! Operation doc:", operation.documentId, "Current doc:", currentDocumentRef.current?.id);
         }
         break;
 
-      case "CURSOR_POSITION":
-        console.log("👆 Cursor position update:", message);
-        if (message.userId !== userDataRef.current?.userId) {
-          setCursorPositions((prev) => ({
-            ...prev,
-            [message.userId]: {
-              position: message.position,
-              username: message.username,
-            },
-          }));
-          // Also store username
-          if (message.username) {
-            setUsernames((prev) => ({
-              ...prev,
-              [message.userId]: message.username,
-            }));
-          }
+      case "OPERATION_ACK": {
+        // Acks come in send order, but may overtake broadcasts of earlier versions
+        const acked = pendingOperations.current.find((pending) => !pending.ack);
+        if (acked) {
+          acked.ack = { firstVersion: message.firstVersion ?? message.version, version: message.version };
+          catchUp();
         }
         break;
+      }
+
+      case "CURSORS": {
+        // Latest cursor of every user who moved since the last server tick
+        const ownUserId = userDataRef.current?.userId;
+        const others = (message.cursors || []).filter((cursor) => cursor.userId !== ownUserId);
+        if (others.length > 0) {
+          setCursorPositions((prev) => {
+            const next = { ...prev };
+            others.forEach((cursor) => {
+              next[cursor.userId] = {
+                position: cursor.position,
+                username: cursor.username,
+              };
+            });
+            return next;
+          });
+          // Also store usernames
+          setUsernames((prev) => {
+            const next = { ...prev };
+            others.forEach((cursor) => {
+              if (cursor.username) {
+                next[cursor.userId] = cursor.username;
+              }
+            });
+            return next;
+          });
+        }
+        break;
+      }
 
       case "USER_JOINED":
         console.log("👤 User joined:", message.userId);
@@ -488,6 +523,83 @@ function App() {
     }
   };
 
+  // Advances lastVersionRef over every version received without a gap: remote operations are
+  // rebased over the pending ones and applied, acknowledged own operations leave the queue
+  const catchUp = () => {
+    for (;;) {
+      const next = lastVersionRef.current + 1;
+      const [first] = pendingOperations.current;
+      if (first?.ack && first.ack.version <= lastVersionRef.current) {
+        // Merged with an earlier operation by the server and acknowledged with it
+        pendingOperations.current.shift();
+      } else if (first?.ack && first.ack.firstVersion === next) {
+        pendingOperations.current.shift();
+        lastVersionRef.current = first.ack.version;
+      } else if (aheadOperations.current.has(next)) {
+        const operation = aheadOperations.current.get(next);
+        aheadOperations.current.delete(next);
+        applyRemoteOperation(operation);
+        lastVersionRef.current = next;
+      } else {
+        break;
+      }
+    }
+    // Anything older was already covered
+    aheadOperations.current.forEach((_, version) => {
+      if (version <= lastVersionRef.current) aheadOperations.current.delete(version);
+    });
+  };
+
+  const applyRemoteOperation = (operation) => {
+    // Sequenced before everything still pending, which was written without it
+    let pieces = [operation];
+    pendingOperations.current.forEach((pending) => {
+      [pieces, pending.operations] = transformSequences(pieces, pending.operations, true);
+    });
+
+    if (operation.applied !== false) {
+      // Save cursor position BEFORE applying operation
+      let cursor = {
+        start: textEditorRef.current?.selectionStart || 0,
+        end: textEditorRef.current?.selectionEnd || 0,
+      };
+      let content = lastContentRef.current;
+      pieces.forEach((piece) => {
+        cursor = adjustCursor(cursor, piece);
+        content = applyOperationToContent(content, piece);
+      });
+      // Store the new cursor position to be applied after render
+      pendingCursorPositionRef.current = cursor;
+      lastContentRef.current = content;
+      setDocumentContent(content);
+    } else {
+      console.log("⚠️ Operation marked as not applied, skipping");
+    }
+
+    // Add to operations list for history
+    setOperations((prev) => [...prev, operation]);
+  };
+
+  const adjustCursor = ({ start, end }, operation) => {
+    const length = operation.text?.length || 0;
+    if (operation.type === "INSERT") {
+      // If insertion happened before or at cursor, shift cursor right
+      if (operation.position <= start) {
+        return { start: start + length, end: end + length };
+      }
+    } else if (operation.type === "DELETE") {
+      const deleteEnd = operation.position + length;
+      if (deleteEnd <= start) {
+        // Deletion entirely before cursor
+        return { start: start - length, end: end - length };
+      } else if (operation.position < start) {
+        // Deletion overlaps cursor
+        return { start: operation.position, end: operation.position };
+      }
+    }
+    return { start, end };
+  };
+
   const applyOperationToContent = (content, operation) => {
     let result = content;
 
@@ -517,9 +629,9 @@ function App() {
     return result;
   };
 
-  const rebuildDocumentContent = (ops) => {
+  const rebuildDocumentContent = (ops, baseContent = "") => {
     console.log("Rebuilding document from", ops.length, "operations");
-    let content = "";
+    let content = baseContent;
     ops.forEach((op) => {
       if (op.applied !== false) {
         content = applyOperationToContent(content, op);
@@ -638,11 +750,12 @@ function App() {
       return;
     }
 
+    // Written against lastVersionRef plus the operations still pending, as the server expects
     const operation = {
       ...operationData,
       documentId: currentDocumentRef.current.id,
       userId: userDataRef.current.userId,
-      version: operations.length + 1,
+      baseVersion: lastVersionRef.current,
     };
 
     const message = {
@@ -652,6 +765,7 @@ function App() {
 
     try {
       wsRef.current.send(JSON.stringify(message));
+      pendingOperations.current.push({ operations: [operation], ack: null });
       console.log("📤 Sent operation:", operation);
     } catch (error) {
       console.error("Error sending operation:", error);
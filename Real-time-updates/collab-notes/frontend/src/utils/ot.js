@@ -153,3 +153,64 @@ const adjustPositionForConcurrent = (position, concurrentOp) => {
   }
   return position;
 };
+
+// Transforms two sequences of operations written against the same document past each other,
+// the way the server does. aFirst says whether a was sequenced first; at the same position
+// the text inserted by the one sequenced first goes first. Returns [a after b, b after a].
+export const transformSequences = (a, b, aFirst) => {
+  if (a.length === 0 || b.length === 0) return [a, b];
+  if (a.length > 1) {
+    const [headA, headB] = transformSequences(a.slice(0, 1), b, aFirst);
+    const [tailA, tailB] = transformSequences(a.slice(1), headB, aFirst);
+    return [[...headA, ...tailA], tailB];
+  }
+  if (b.length > 1) {
+    const [headA, headB] = transformSequences(a, b.slice(0, 1), aFirst);
+    const [tailA, tailB] = transformSequences(headA, b.slice(1), aFirst);
+    return [tailA, [...headB, ...tailB]];
+  }
+  return [include(a[0], b[0], !aFirst), include(b[0], a[0], aFirst)];
+};
+
+// One operation as it applies after existing: a delete may come out in two pieces (later
+// piece first) or none
+const include = (operation, existing, existingFirst) => {
+  if (operation.applied === false || existing.applied === false) return [operation];
+  const start = operation.position;
+  const text = operation.text || "";
+  const length = (existing.text || "").length;
+  const otherStart = existing.position;
+  const otherEnd = otherStart + length;
+  const piece = (position, pieceText) => ({ ...operation, position, text: pieceText });
+
+  if (operation.type === "INSERT") {
+    if (existing.type === "INSERT") {
+      if (otherStart < start || (otherStart === start && existingFirst)) {
+        return [piece(start + length, text)];
+      }
+    } else if (existing.type === "DELETE") {
+      if (otherEnd <= start) return [piece(start - length, text)];
+      if (otherStart < start) return [piece(otherStart, text)];
+    }
+    return [operation];
+  }
+
+  if (operation.type !== "DELETE") return [operation];
+  const end = start + text.length;
+  if (existing.type === "INSERT") {
+    if (otherStart <= start) return [piece(start + length, text)];
+    if (otherStart < end) {
+      const split = otherStart - start;
+      return [piece(otherStart + length, text.slice(split)), piece(start, text.slice(0, split))];
+    }
+  } else if (existing.type === "DELETE") {
+    if (otherEnd <= start) return [piece(start - length, text)];
+    if (otherStart < end) {
+      const overlapStart = Math.max(start, otherStart);
+      const overlapEnd = Math.min(end, otherEnd);
+      const remaining = text.slice(0, overlapStart - start) + text.slice(overlapEnd - start);
+      return remaining ? [piece(Math.min(start, otherStart), remaining)] : [];
+    }
+  }
+  return [operation];
+};